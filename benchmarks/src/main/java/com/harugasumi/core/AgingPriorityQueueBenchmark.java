@@ -0,0 +1,89 @@
+package com.harugasumi.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * Made by @author harugasumi-works
+ * {@link AgingPriorityQueue} に要素を入れてから空になるまで取り出す速さを測ります。
+ * <p>
+ * 要素はエンジンと同じ {@link PrioritizedTask} で、3つのレベルを順に混ぜます。
+ * {@code aging=true} では上位以外のレーンの先頭が常に期限切れになり、エージングの判定を毎回通ります。
+ * 1回の操作は {@code size} 件の投入と取り出しです。
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgingPriorityQueueBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean aging;
+
+    private PrioritizedTask[] tasks;
+    private AgingPriorityQueue<Runnable> queue;
+    private List<Runnable> drained;
+
+    @Setup
+    public void setUp() {
+        LogLevel[] levels = LogLevel.values();
+        tasks = new PrioritizedTask[size];
+        for (int i = 0; i < size; i++) {
+            tasks[i] = new PrioritizedTask(new HttpCheckTask(levels[i % levels.length], "https://example.com/" + i),
+                    _ -> { });
+        }
+        queue = new AgingPriorityQueue<>(PrioritizedTask::priorityOf, PrioritizedTask::enqueuedOf);
+        // the tasks were created before the run, so a 1ns limit ages every lane below the top one
+        queue.setAging(aging ? Duration.ofNanos(1) : Duration.ZERO, AgingPriorityQueue.DEFAULT_AGED_SHARE);
+        drained = new ArrayList<>(size);
+    }
+
+    /**
+     * ワーカーと同じく、1件ずつ {@code poll} で取り出します。
+     */
+    @Benchmark
+    public void offerThenPoll(Blackhole bh) {
+        for (PrioritizedTask task : tasks) {
+            queue.offer(task);
+        }
+        Runnable r;
+        while ((r = queue.poll()) != null) {
+            bh.consume(r);
+        }
+    }
+
+    /**
+     * スキャンのキャンセル時と同じく、{@code drainTo} でまとめて取り出します。
+     */
+    @Benchmark
+    public int offerThenDrain() {
+        for (PrioritizedTask task : tasks) {
+            queue.offer(task);
+        }
+        drained.clear();
+        return queue.drainTo(drained);
+    }
+}
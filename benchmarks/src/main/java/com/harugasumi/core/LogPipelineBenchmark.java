@@ -0,0 +1,112 @@
+package com.harugasumi.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Made by @author harugasumi-works
+ * 多数のワーカーが同時に {@link LogPipeline} へ書き込む場合のスループットを測ります。
+ * <p>
+ * 容量、配信間隔、配信先は {@link TaskWorker} と同じにしています。
+ * 配信先は直近のログを保持する処理と同じく、ロックを取って有限のバッファに追加します。
+ * 受け付けた件数と捨てた件数は、{@code accepted} と {@code dropped} として結果に出力されます。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogPipelineBenchmark {
+
+    private static final int CAPACITY = 8192;
+    private static final long INTERVAL_MS = 50;
+    private static final int HISTORY = 10_000;
+    /** この件数に1件をエラーの行にします */
+    private static final int ERROR_EVERY = 32;
+
+    private static final String INFO_LINE = "[INFO] https://example.com/path - Status: 200" + System.lineSeparator();
+    private static final String ERROR_LINE = "[ERROR] https://example.com/path - Error: timed out" + System.lineSeparator();
+
+    @Param({ "DROP_NEWEST", "SAMPLE" })
+    public LogPipeline.OverflowPolicy policy;
+
+    private LogPipeline pipeline;
+    private final ArrayDeque<String> history = new ArrayDeque<>();
+
+    /**
+     * スレッドごとの件数です。
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long accepted;
+        public long dropped;
+        int written;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            accepted = 0;
+            dropped = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        pipeline = new LogPipeline(CAPACITY, policy, INTERVAL_MS);
+        pipeline.setSink(batch -> {
+            synchronized (history) {
+                history.addAll(batch);
+                while (history.size() > HISTORY) {
+                    history.pollFirst();
+                }
+            }
+        });
+        pipeline.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    private boolean write(Counters counters) {
+        String line = ++counters.written % ERROR_EVERY == 0 ? ERROR_LINE : INFO_LINE;
+        boolean accepted = pipeline.offer(line);
+        if (accepted) {
+            counters.accepted++;
+        } else {
+            counters.dropped++;
+        }
+        return accepted;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean offerUncontended(Counters counters) {
+        return write(counters);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean offerContended(Counters counters) {
+        return write(counters);
+    }
+}
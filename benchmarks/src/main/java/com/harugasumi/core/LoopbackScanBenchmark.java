@@ -0,0 +1,109 @@
+package com.harugasumi.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.harugasumi.model.LogLevel;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Made by @author harugasumi-works
+ * ループバックのHTTPサーバーに対して、対象リストの読み込みから全件の完了までを通しで測ります。
+ * <p>
+ * サーバーはJDKの {@code com.sun.net.httpserver} で、各リクエストに {@code latencyMillis} だけ待ってから200を返します。
+ * 1回の操作は {@value #TARGETS} 件の対象を {@link TaskWorker#streamLines} で投入し、
+ * {@link TaskEngine#waitForCompletion} で全件の完了を待つまでです。ヘッドレスモードの1回のスキャンと同じ経路を通ります。
+ * 対象はすべて同じオリジンのため、HTTP/1.1では接続数が {@link ConnectionManager#DEFAULT_MAX_PER_ORIGIN} 本に制限され、
+ * 遅延を入れた場合の時間はおおよそ 対象の数 ÷ 接続数 × 遅延 になります。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackScanBenchmark {
+
+    static final int TARGETS = 500;
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final int BUFFER = 10_000;
+
+    @Param({ "PLATFORM", "VIRTUAL", "ASYNC" })
+    public ExecutionMode mode;
+
+    @Param({ "0", "20" })
+    public int latencyMillis;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private TaskEngine engine;
+    private TaskWorker worker;
+    private String targets;
+
+    @Setup
+    public void setUp() throws IOException {
+        handlers = Executors.newVirtualThreadPerTaskExecutor();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(handlers);
+        server.start();
+
+        StringBuilder sb = new StringBuilder();
+        LogLevel[] levels = LogLevel.values();
+        for (int i = 0; i < TARGETS; i++) {
+            sb.append(levels[i % levels.length]).append("=http://127.0.0.1:").append(server.getAddress().getPort())
+                    .append("/target/").append(i).append('\n');
+        }
+        targets = sb.toString();
+
+        engine = new TaskEngine(mode, MAX_IN_FLIGHT);
+        worker = new TaskWorker(engine);
+    }
+
+    @TearDown
+    public void tearDown() {
+        worker.stop();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Benchmark
+    public String scan() throws IOException {
+        try (BufferedReader source = new BufferedReader(new StringReader(targets))) {
+            worker.streamLines(source, null, BUFFER, LogLevel.INFO);
+        }
+        String result = engine.waitForCompletion(1, TimeUnit.MINUTES);
+        worker.flushLogs();
+        engine.showReport(); // resets the per-scan counters for the next operation
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.harugasumi.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.harugasumi.model.LogLevel;
+
+/**
+ * Made by @author harugasumi-works
+ * {@link TaskWorker#loadData()} でセッションファイルを読み込み、対象表（{@link TargetTable}）を作るまでの時間を測ります。
+ * <p>
+ * ファイルは試行の最初に一時ディレクトリへ作成します。JSON形式は {@link TaskWorker#registerData()} と同じく整形して書きます。
+ * URLの1割は別のURLの重複で、{@link TargetTable} による重複の除去も含めて測ります。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SessionLoadBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int entries;
+
+    @Param({ "JSON", "BINARY" })
+    public SessionFormat format;
+
+    private Path file;
+    private TaskWorker worker;
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() throws IOException {
+        LogLevel[] levels = LogLevel.values();
+        List<LinkEntries> session = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            int id = i % 10 == 9 ? i - 1 : i;
+            session.add(new LinkEntries(levels[i % levels.length].name(),
+                    "https://host" + (id % 5000) + ".example.com/path/" + id));
+        }
+        file = Files.createTempFile("sentinel-session", format == SessionFormat.BINARY ? ".bin" : ".json");
+        if (format == SessionFormat.BINARY) {
+            SessionCodec.writeBinary(session, file);
+        } else {
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), session);
+        }
+        worker = new TaskWorker(new TaskEngine());
+        worker.setSessionFormat(format);
+        // loadData() reports every load on stdout; keep that out of the benchmark output
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        worker.stop();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public TargetTable load() {
+        worker.loadData(file.toFile());
+        return worker.data;
+    }
+}
@@ -0,0 +1,97 @@
+package com.harugasumi.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * Made by @author harugasumi-works
+ * {@link TaskEngine#addTask} から結果が確定するまでの、1タスクあたりのエンジンのオーバーヘッドを実行方式ごとに測ります。
+ * <p>
+ * タスクは何もせずにすぐ成功するため、測っているのはキューへの投入、{@link TaskEngine#executeAll} による送信、
+ * ワーカーへの受け渡し、結果の集計だけです。1回の操作で {@value #TASKS} 件を投入し、すべての完了を待ちます。
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskSubmissionBenchmark {
+
+    static final int TASKS = 1000;
+    private static final int MAX_IN_FLIGHT = 64;
+
+    /**
+     * すぐに成功するタスクです。{@link ExecutionMode#ASYNC} ではワーカーを使わずに完了します。
+     */
+    private record NoopTask(LogLevel level) implements AsyncTask {
+
+        @Override
+        public Boolean call() {
+            return Boolean.TRUE;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> callAsync() {
+            return CompletableFuture.completedFuture(Boolean.TRUE);
+        }
+
+        @Override
+        public int getPriority() {
+            return level.getValue();
+        }
+
+        @Override
+        public void setLogger(java.util.function.Consumer<String> logger) {
+        }
+    }
+
+    @Param({ "PLATFORM", "VIRTUAL", "ASYNC" })
+    public ExecutionMode mode;
+
+    private TaskEngine engine;
+    private final NoopTask[] tasks = new NoopTask[TASKS];
+    @SuppressWarnings("unchecked")
+    private final CompletableFuture<Boolean>[] results = new CompletableFuture[TASKS];
+
+    @Setup
+    public void setUp() {
+        engine = new TaskEngine(mode, MAX_IN_FLIGHT);
+        LogLevel[] levels = LogLevel.values();
+        for (int i = 0; i < TASKS; i++) {
+            tasks[i] = new NoopTask(levels[i % levels.length]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TASKS)
+    public void submitAndAwait() {
+        for (int i = 0; i < TASKS; i++) {
+            results[i] = engine.addTask(tasks[i]);
+        }
+        engine.executeAll(_ -> { });
+        CompletableFuture.allOf(results).join();
+    }
+}
@@ -0,0 +1,195 @@
+package com.harugasumi.core;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、観測した応答時間とタイムアウトの発生から、同時実行数の上限と
+ * ホストごとのタイムアウトを自動で調整します。
+ * <p>
+ * <b>同時実行数</b>はAIMD（加算増加・乗算減少）で決めます。
+ * 応答時間の短期平均が長期平均の {@value #CONGESTION_RATIO} 倍以内で推移している間は、
+ * 完了1件ごとに {@code 1/limit} ずつ（おおよそ1ウィンドウで1ずつ）上限を増やします。
+ * タイムアウトが起きるか、短期平均が長期平均を大きく上回った場合（勾配が正）は、
+ * 上限を {@value #DECREASE_FACTOR} 倍に減らします。減少は1ウィンドウ（上限と同じ件数の完了）に1回までです。
+ * 接続拒否や名前解決の失敗はすぐに返るため、混雑の兆候としては扱いません（{@link TcpProbeTask} の接続タイムアウトも同じ分類です）。
+ * </p>
+ * <p>
+ * <b>タイムアウト</b>は、ホストごとに直近 {@value #HOST_SAMPLES} 件の応答時間を保持し、
+ * その90パーセンタイルの {@value #TIMEOUT_MULTIPLIER} 倍とします。サンプルが少ないホストには、
+ * 全体の直近の応答時間から求めた値を使います。タイムアウトしたリクエストは、待った時間をそのまま
+ * サンプルとして記録するため、遅い地域のホストでは次回以降のタイムアウトが自然に延びます。
+ * </p>
+ */
+public final class AdaptiveController {
+
+    /** 調整前に使うタイムアウト（従来の固定値） */
+    public static final Duration INITIAL_TIMEOUT = Duration.ofSeconds(3);
+    static final double CONGESTION_RATIO = 2.0;
+    static final double DECREASE_FACTOR = 0.8;
+    static final int HOST_SAMPLES = 16;
+    static final int TIMEOUT_MULTIPLIER = 3;
+    private static final int MIN_HOST_SAMPLES = 4;
+    private static final int GLOBAL_SAMPLES = 256;
+    private static final int MIN_GLOBAL_SAMPLES = 16;
+    /** 追跡するホスト数の上限。超えた場合は表を空にして学習し直します。 */
+    private static final int MAX_TRACKED_HOSTS = 65_536;
+    private static final double SHORT_ALPHA = 0.2;
+    private static final double LONG_ALPHA = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long minTimeoutNanos;
+    private final long maxTimeoutNanos;
+
+    // AIMD state, guarded by this
+    private double limit;
+    private double shortEwma;
+    private double longEwma;
+    private long completionsSinceDecrease;
+
+    private final ConcurrentHashMap<String, Samples> hosts = new ConcurrentHashMap<>();
+    private final Samples global = new Samples(GLOBAL_SAMPLES);
+    private volatile long globalTimeoutNanos;
+
+    /**
+     * 直近の応答時間のリングバッファです。このインスタンスのロックで保護されます。
+     */
+    private static final class Samples {
+        private final long[] ring;
+        private int count;
+        private int next;
+        private long added;
+
+        private Samples(int size) {
+            this.ring = new long[size];
+        }
+
+        /** @return これまでに追加したサンプルの総数 */
+        private synchronized long add(long nanos) {
+            ring[next] = nanos;
+            next = (next + 1) % ring.length;
+            if (count < ring.length) {
+                count++;
+            }
+            return ++added;
+        }
+
+        /** @return 指定したパーセンタイルの値。サンプルが {@code min} 件未満の場合は -1 */
+        private long percentile(double p, int min) {
+            long[] copy;
+            synchronized (this) {
+                if (count < min) {
+                    return -1;
+                }
+                copy = Arrays.copyOf(ring, count);
+            }
+            Arrays.sort(copy);
+            return copy[(int) Math.min(copy.length - 1, Math.ceil(p / 100.0 * copy.length) - 1)];
+        }
+    }
+
+    /**
+     * @param initialLimit 開始時の同時実行数の上限
+     * @param minLimit     同時実行数の下限（1以上）
+     * @param maxLimit     同時実行数の上限の最大値
+     * @param minTimeout   タイムアウトの下限
+     * @param maxTimeout   タイムアウトの上限
+     */
+    public AdaptiveController(int initialLimit, int minLimit, int maxLimit, Duration minTimeout, Duration maxTimeout) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits: min=" + minLimit + ", max=" + maxLimit);
+        }
+        if (minTimeout.compareTo(maxTimeout) > 0) {
+            throw new IllegalArgumentException("minTimeout is larger than maxTimeout");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+        this.minTimeoutNanos = minTimeout.toNanos();
+        this.maxTimeoutNanos = maxTimeout.toNanos();
+        this.globalTimeoutNanos = clampTimeout(INITIAL_TIMEOUT.toNanos());
+    }
+
+    /**
+     * @return int 現在の同時実行数の上限
+     */
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * ホストに対して次のリクエストで使うタイムアウトを返します。
+     * @param host 接続先ホスト（{@code null} 可）
+     * @return Duration タイムアウト
+     */
+    public Duration timeoutFor(String host) {
+        Samples samples = host == null ? null : hosts.get(host);
+        if (samples != null) {
+            long p90 = samples.percentile(90, MIN_HOST_SAMPLES);
+            if (p90 > 0) {
+                return Duration.ofNanos(clampTimeout(p90 * TIMEOUT_MULTIPLIER));
+            }
+        }
+        return Duration.ofNanos(globalTimeoutNanos);
+    }
+
+    /**
+     * 完了したリクエストの結果を記録し、同時実行数の上限を更新します。
+     *
+     * @param host         接続先ホスト（{@code null} 可）
+     * @param status       結果の分類
+     * @param latencyNanos リクエストの開始から完了までの時間
+     * @return int 更新後の同時実行数の上限
+     */
+    public int record(String host, StatusClass status, long latencyNanos) {
+        boolean timedOut = status == StatusClass.TIMEOUT;
+        if (status.isResponded() || timedOut) {
+            recordLatency(host, latencyNanos);
+        }
+        if (status == StatusClass.CANCELLED || (!status.isResponded() && !timedOut)) {
+            return limit(); // fast failures say nothing about congestion
+        }
+        synchronized (this) {
+            completionsSinceDecrease++;
+            if (!timedOut) {
+                shortEwma = shortEwma == 0 ? latencyNanos : shortEwma + SHORT_ALPHA * (latencyNanos - shortEwma);
+                longEwma = longEwma == 0 ? latencyNanos : longEwma + LONG_ALPHA * (latencyNanos - longEwma);
+            }
+            boolean congested = timedOut || shortEwma > CONGESTION_RATIO * longEwma;
+            if (congested) {
+                if (completionsSinceDecrease >= limit) {
+                    limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                    completionsSinceDecrease = 0;
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            return (int) limit;
+        }
+    }
+
+    private void recordLatency(String host, long latencyNanos) {
+        if (host != null) {
+            if (hosts.size() >= MAX_TRACKED_HOSTS && !hosts.containsKey(host)) {
+                hosts.clear();
+            }
+            hosts.computeIfAbsent(host, _ -> new Samples(HOST_SAMPLES)).add(latencyNanos);
+        }
+        // the global fallback only needs refreshing now and then, not on every completion
+        if (global.add(latencyNanos) % MIN_GLOBAL_SAMPLES == 0) {
+            long p99 = global.percentile(99, MIN_GLOBAL_SAMPLES);
+            if (p99 > 0) {
+                globalTimeoutNanos = clampTimeout(p99 * 2);
+            }
+        }
+    }
+
+    private long clampTimeout(long nanos) {
+        return Math.clamp(nanos, minTimeoutNanos, maxTimeoutNanos);
+    }
+}
@@ -0,0 +1,270 @@
+package com.harugasumi.core;
+
+import java.time.Duration;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、優先度順に要素を取り出し、待ち時間が長すぎる低優先度の要素を救済（エージング）する
+ * ブロッキングキューです。{@link java.util.concurrent.ThreadPoolExecutor} の作業キューとして使用できます。
+ * <p>
+ * 要素は優先度ごとのFIFOレーンに格納され、通常は最も優先度の高いレーンの先頭から取り出されます。
+ * 上位ではないレーンの先頭が {@code maxWait} 以上待っている場合、その要素は「期限切れ」となり、
+ * {@code agedShare} 回の取り出しにつき1回だけ、最も古い期限切れの要素が先に取り出されます。
+ * </p>
+ * <p>
+ * これにより、INFOが無期限に待たされることはなく、同時にCRITICALの先頭要素は
+ * 遅くとも {@code agedShare} 回目の取り出しまでにワーカーへ渡されることが保証されます。
+ * </p>
+ *
+ * @param <E> 要素の型
+ */
+final class AgingPriorityQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /** 期限切れとみなすまでの待ち時間の既定値 */
+    static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(5);
+    /** 期限切れの要素を優先する頻度の既定値（4回に1回） */
+    static final int DEFAULT_AGED_SHARE = 4;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final TreeMap<Integer, ArrayDeque<E>> lanes = new TreeMap<>(Comparator.reverseOrder());
+    private final ToIntFunction<? super E> priorityOf;
+    private final ToLongFunction<? super E> enqueuedOf;
+    private volatile long maxWaitNanos = DEFAULT_MAX_WAIT.toNanos();
+    private volatile int agedShare = DEFAULT_AGED_SHARE;
+    private int count;
+    private int takesSinceAged;
+
+    /**
+     * @param priorityOf 要素の優先度（大きいほど先に取り出される）
+     * @param enqueuedOf 要素の受付時刻（{@link System#nanoTime()}）
+     */
+    AgingPriorityQueue(ToIntFunction<? super E> priorityOf, ToLongFunction<? super E> enqueuedOf) {
+        this.priorityOf = priorityOf;
+        this.enqueuedOf = enqueuedOf;
+    }
+
+    /**
+     * エージングの設定を変更します。
+     *
+     * @param maxWait   低優先度の要素が期限切れになるまでの待ち時間。ゼロ以下でエージングを無効にします。
+     * @param agedShare 期限切れの要素を優先する頻度（{@code agedShare} 回に1回、2以上）
+     */
+    void setAging(Duration maxWait, int agedShare) {
+        if (agedShare < 2) {
+            throw new IllegalArgumentException("agedShare must be at least 2: " + agedShare);
+        }
+        this.maxWaitNanos = maxWait.toNanos();
+        this.agedShare = agedShare;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        lock.lock();
+        try {
+            lanes.computeIfAbsent(priorityOf.applyAsInt(e), _ -> new ArrayDeque<>()).addLast(e);
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) {
+        offer(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    /**
+     * 次に取り出す要素を決めてレーンから削除します。ロックを保持した状態で呼び出してください。
+     * @return E 取り出した要素、空の場合は {@code null}
+     */
+    private E dequeue() {
+        if (count == 0) {
+            return null;
+        }
+        ArrayDeque<E> top = null;
+        ArrayDeque<E> aged = null;
+        long oldest = 0;
+        boolean agedTurn = maxWaitNanos > 0 && takesSinceAged + 1 >= agedShare;
+        long now = System.nanoTime();
+        for (ArrayDeque<E> lane : lanes.values()) {
+            if (lane.isEmpty()) {
+                continue;
+            }
+            if (top == null) {
+                top = lane;
+                if (!agedTurn) {
+                    break;
+                }
+                continue;
+            }
+            long enqueued = enqueuedOf.applyAsLong(lane.peekFirst());
+            if (now - enqueued >= maxWaitNanos && (aged == null || enqueued - oldest < 0)) {
+                aged = lane;
+                oldest = enqueued;
+            }
+        }
+        E e;
+        if (aged != null) {
+            e = aged.pollFirst();
+            takesSinceAged = 0;
+        } else {
+            e = top.pollFirst();
+            takesSinceAged = Math.min(takesSinceAged + 1, agedShare);
+        }
+        count--;
+        return e;
+    }
+
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 最も優先度の高いレーンの先頭要素を返します。エージングは考慮しません。
+     */
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<E> lane : lanes.values()) {
+                if (!lane.isEmpty()) {
+                    return lane.peekFirst();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (ArrayDeque<E> lane : lanes.values()) {
+                if (lane.remove(o)) {
+                    count--;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            E e;
+            while (n < maxElements && (e = dequeue()) != null) {
+                c.add(e);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 現在の要素のスナップショットを優先度順に走査するイテレータを返します。
+     * イテレータからの削除はサポートしません。
+     */
+    @Override
+    public Iterator<E> iterator() {
+        lock.lock();
+        try {
+            List<E> snapshot = new ArrayList<>(count);
+            for (Map.Entry<Integer, ArrayDeque<E>> lane : lanes.entrySet()) {
+                snapshot.addAll(lane.getValue());
+            }
+            return java.util.Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.harugasumi.core;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Made by @author harugasumi-works
+ * このインターフェースは、スレッドをブロックせずに実行できるタスクを定義します。
+ * {@link ExecutionMode#ASYNC} のエンジンは、このインターフェースを実装したタスクを
+ * ワーカースレッドに渡さず、{@link #callAsync()} が返すFutureを直接合成します。
+ */
+public interface AsyncTask extends Task {
+      /**
+      * タスクを非同期で開始します。
+      * このメソッドはネットワークI/Oの完了を待たずにすぐに戻る必要があります。
+      * @return {@code CompletableFuture<Boolean>} タスクの実行結果（成功または失敗）
+      */
+   CompletableFuture<Boolean> callAsync();
+}
@@ -0,0 +1,190 @@
+package com.harugasumi.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、TCPの接続だけを試す軽量なプローブです。
+ * <p>
+ * 接続はノンブロッキングの {@link SocketChannel} で開始し、1つの {@link Selector} と1本のスレッドで
+ * 何千件でも同時に完了を待ちます。接続できたソケットはすぐに閉じ、データは送りません。
+ * 期限までに接続できなかった試行は {@link SocketTimeoutException} で失敗します。
+ * </p>
+ * <p>
+ * 同じアドレスへの試行は、進行中の間と、接続できた場合は開始から {@link #MEMO_NANOS} の間、結果を共有します。
+ * 1つのホストに多数のURLがある場合でも、接続を試すのは1回だけです。
+ * 失敗した結果は共有し続けないため、やり直し（{@link RetryPolicy}）では改めて接続を試します。
+ * </p>
+ */
+final class ConnectProbe {
+
+    /** 同じアドレスへの試行の結果を共有する時間 */
+    static final long MEMO_NANOS = 10_000_000_000L;
+    /** 結果を共有するアドレス数の上限。超えた場合は表を空にします。 */
+    private static final int MAX_MEMO = 65_536;
+
+    private static volatile ConnectProbe shared;
+
+    /**
+     * 1回分の接続の試行です。{@link #channel} 以外はセレクターのスレッドだけが扱います。
+     */
+    private static final class Attempt {
+        private final SocketChannel channel;
+        private final long deadline;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Attempt(SocketChannel channel, long deadline) {
+            this.channel = channel;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * 共有している試行です。
+     * @param result  接続の結果
+     * @param started 試行を開始した時刻（{@link System#nanoTime()} 基準）
+     */
+    private record Memo(CompletableFuture<Void> result, long started) {
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Attempt> registrations = new ConcurrentLinkedQueue<>();
+    /** 期限の近い順に並んだ試行。セレクターのスレッドだけが扱います。 */
+    private final PriorityQueue<Attempt> deadlines = new PriorityQueue<>(Comparator.comparingLong(a -> a.deadline));
+    private final ConcurrentHashMap<InetSocketAddress, Memo> memo = new ConcurrentHashMap<>();
+
+    private ConnectProbe() throws IOException {
+        this.selector = Selector.open();
+        Thread t = new Thread(this::loop, "sentinel-probe");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 共有のプローブを返します。最初の呼び出しでセレクターのスレッドを開始します。
+     * @return ConnectProbe 共有のインスタンス
+     */
+    static ConnectProbe shared() {
+        ConnectProbe probe = shared;
+        if (probe == null) {
+            synchronized (ConnectProbe.class) {
+                probe = shared;
+                if (probe == null) {
+                    try {
+                        probe = new ConnectProbe();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not open a selector", e);
+                    }
+                    shared = probe;
+                }
+            }
+        }
+        return probe;
+    }
+
+    /**
+     * アドレスへの接続を試します。このメソッドはブロックしません。
+     * 返されたFutureをキャンセルしても、共有している他の呼び出し元の試行は止まりません。
+     * @param address      接続先（名前解決済みであること）
+     * @param timeoutNanos 接続を待つ時間
+     * @return {@code CompletableFuture<Void>} 接続できた場合に正常に完了し、できなかった場合は例外で完了するFuture
+     */
+    CompletableFuture<Void> connect(InetSocketAddress address, long timeoutNanos) {
+        long now = System.nanoTime();
+        if (memo.size() >= MAX_MEMO && !memo.containsKey(address)) {
+            memo.clear();
+        }
+        Memo current = memo.compute(address, (_, m) -> m != null && (!m.result().isDone()
+                || (!m.result().isCompletedExceptionally() && now - m.started() <= MEMO_NANOS))
+                ? m : new Memo(start(address, now + timeoutNanos), now));
+        return current.result().copy();
+    }
+
+    private CompletableFuture<Void> start(InetSocketAddress address, long deadline) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                channel.close();
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return CompletableFuture.failedFuture(e);
+        }
+        Attempt attempt = new Attempt(channel, deadline);
+        registrations.add(attempt);
+        selector.wakeup();
+        return attempt.result;
+    }
+
+    private void loop() {
+        while (true) {
+            try {
+                for (Attempt attempt; (attempt = registrations.poll()) != null;) {
+                    try {
+                        attempt.channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                        deadlines.add(attempt);
+                    } catch (IOException e) {
+                        fail(attempt, e);
+                    }
+                }
+                Attempt next = deadlines.peek();
+                long waitMillis = next == null ? 0 : Math.max(1, (next.deadline - System.nanoTime()) / 1_000_000 + 1);
+                selector.select(waitMillis);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        attempt.channel.finishConnect();
+                        closeQuietly(attempt.channel);
+                        attempt.result.complete(null);
+                    } catch (IOException e) {
+                        fail(attempt, e);
+                    }
+                }
+                long now = System.nanoTime();
+                while ((next = deadlines.peek()) != null && (next.result.isDone() || next.deadline - now <= 0)) {
+                    deadlines.poll();
+                    if (!next.result.isDone()) {
+                        fail(next, new SocketTimeoutException("connect timed out"));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // keep the loop alive; a broken attempt is failed on its deadline
+                System.err.println("Connect probe error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void fail(Attempt attempt, IOException e) {
+        closeQuietly(attempt.channel);
+        attempt.result.completeExceptionally(e);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing useful to do for a probe socket
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.harugasumi.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、チェックに使う {@link HttpClient} と、接続先オリジン（{@code scheme://host:port}）ごとの
+ * 同時リクエスト数を管理し、接続（TCP+TLSのハンドシェイク）を使い回せるようにします。
+ * <p>
+ * 新しいオリジンへの最初のリクエストは1件だけ先に送り、その応答を待ってから残りを流します。
+ * 最初の応答で接続が確立し、サーバーがHTTP/2に対応していれば、以降のリクエストはその1本の接続に
+ * 多重化されます（最大 {@code http2Streams} 件）。HTTP/1.1の場合は、keep-aliveで再利用される接続が
+ * {@code maxPerOrigin} 本を超えないように同時リクエスト数を抑えます。
+ * どちらの場合も、同じオリジンへの1000件のチェックで、ハンドシェイクは数百回ではなく1回（HTTP/1.1でも上限の本数）で済みます。
+ * </p>
+ * <p>
+ * ハンドシェイクの回数は、応答ごとのTLSセッションのうち、まだ見ていないものを数えて求めます。
+ * そのため {@code http://} の平文の接続は数えられません。
+ * </p>
+ * <p>
+ * keep-aliveの時間はJDKの {@code jdk.httpclient.keepalive.timeout} で決まり、最初の {@code HttpClient} が作られた時点で固定されます。
+ * このクラスは、これがまだ設定されていない場合に限り、最初のインスタンスの作成時に {@code keepAlive} の値を設定します。
+ * 接続プールの大きさ（{@code jdk.httpclient.connectionPoolSize}）は設定せず、JDKの既定値（上限なし）のままです。
+ * 変更する場合は、起動時に {@code -D} で指定してください。
+ * </p>
+ */
+public final class ConnectionManager {
+
+    /** HTTP/1.1でオリジンごとに使う接続数の既定値（ブラウザと同じ6本） */
+    public static final int DEFAULT_MAX_PER_ORIGIN = 6;
+    /** HTTP/2で1本の接続に多重化するリクエスト数の既定値 */
+    public static final int DEFAULT_HTTP2_STREAMS = 100;
+    /** アイドル状態の接続を保持する既定の時間 */
+    public static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(30);
+    /** 記録しておくTLSセッションの上限。超えた場合は忘れて数え直します。 */
+    private static final int MAX_TRACKED_SESSIONS = 100_000;
+
+    private static volatile ConnectionManager defaultManager;
+
+    private final HttpClient client;
+    private final int maxPerOrigin;
+    private final int http2Streams;
+    private final ConcurrentHashMap<String, Origin> origins = new ConcurrentHashMap<>();
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder handshakes = new LongAdder();
+
+    /**
+     * オリジンごとの許可と待ち行列です。{@code users} は {@link #origins} の {@code compute} の中で、
+     * それ以外のフィールドはこのインスタンスのロックで保護されます。
+     */
+    private final class Origin {
+        private int users;
+        private int permits = 1; // only the first request goes until the connection is known
+        private boolean warmed;
+        private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+        private synchronized CompletableFuture<Void> acquire() {
+            if (permits > 0) {
+                permits--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+
+        /**
+         * 許可を返します。最初の応答の場合は、判明した接続の種類に合わせて許可を増やします。
+         */
+        private void release(HttpResponse<?> response) {
+            List<CompletableFuture<Void>> ready = new ArrayList<>();
+            synchronized (this) {
+                permits++;
+                if (!warmed) {
+                    warmed = true;
+                    boolean multiplexed = response != null && response.version() == HttpClient.Version.HTTP_2;
+                    permits += (multiplexed ? http2Streams : maxPerOrigin) - 1;
+                }
+                while (permits > 0 && !waiters.isEmpty()) {
+                    ready.add(waiters.poll());
+                    permits--;
+                }
+            }
+            for (CompletableFuture<Void> waiter : ready) {
+                if (!waiter.complete(null)) {
+                    release(null); // the waiter was cancelled: hand its permit on
+                }
+            }
+        }
+    }
+
+    /**
+     * @param preferred    優先するHTTPのバージョン（{@code HTTP_2} の場合、非対応のサーバーにはHTTP/1.1で接続します）
+     * @param maxPerOrigin HTTP/1.1でオリジンごとに使う接続数の上限（1以上）
+     * @param http2Streams HTTP/2で1本の接続に同時に流すリクエスト数の上限（1以上）
+     * @param keepAlive    アイドル状態の接続を保持する時間（最初のインスタンスでのみ有効）
+     */
+    public ConnectionManager(HttpClient.Version preferred, int maxPerOrigin, int http2Streams, Duration keepAlive) {
+        if (maxPerOrigin < 1 || http2Streams < 1) {
+            throw new IllegalArgumentException("maxPerOrigin and http2Streams must be positive");
+        }
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(Math.max(1, keepAlive.toSeconds())));
+        }
+        this.maxPerOrigin = maxPerOrigin;
+        this.http2Streams = http2Streams;
+        this.client = HttpClient.newBuilder()
+                .version(preferred)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * チェックで共通に使うインスタンスを返します。未設定の場合は既定の設定で作成します。
+     * @return ConnectionManager 共通のインスタンス
+     */
+    public static ConnectionManager getDefault() {
+        ConnectionManager manager = defaultManager;
+        if (manager == null) {
+            synchronized (ConnectionManager.class) {
+                manager = defaultManager;
+                if (manager == null) {
+                    manager = new ConnectionManager(HttpClient.Version.HTTP_2, DEFAULT_MAX_PER_ORIGIN,
+                            DEFAULT_HTTP2_STREAMS, DEFAULT_KEEP_ALIVE);
+                    defaultManager = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * チェックで共通に使うインスタンスを設定します。スキャンを始める前に呼び出してください。
+     * @param manager 共通のインスタンス
+     */
+    public static void setDefault(ConnectionManager manager) {
+        defaultManager = Objects.requireNonNull(manager, "manager");
+    }
+
+    /**
+     * @return ConnectionManager 共通のインスタンス。まだ作成されていない場合は {@code null}
+     */
+    static ConnectionManager peekDefault() {
+        return defaultManager;
+    }
+
+    /**
+     * オリジンの許可を待ってから、ボディを読まずにリクエストを送信します。
+     * 待機中に割り込まれた場合は、リクエストを送らずに {@link InterruptedException} を投げます。
+     * @param request 送信するリクエスト
+     * @return {@code HttpResponse<Void>} 応答
+     * @throws IOException          通信に失敗した場合
+     * @throws InterruptedException 割り込まれた場合
+     */
+    public HttpResponse<Void> send(HttpRequest request) throws IOException, InterruptedException {
+        String key = originOf(request.uri());
+        Origin origin = enter(key);
+        CompletableFuture<Void> permit = origin.acquire();
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            leave(key, origin, !permit.cancel(false), null);
+            throw e;
+        } catch (ExecutionException e) {
+            leave(key, origin, false, null);
+            throw new IOException(e.getCause());
+        }
+        HttpResponse<Void> response = null;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            return response;
+        } finally {
+            leave(key, origin, true, response);
+        }
+    }
+
+    /**
+     * オリジンの許可を待ってから、ボディを読まずにリクエストを非同期で送信します。このメソッドはブロックしません。
+     * 返されたFutureをキャンセルすると、許可待ちの場合は送信せず、送信済みの場合は通信を中断します。
+     * @param request 送信するリクエスト
+     * @return {@code CompletableFuture<HttpResponse<Void>>} 応答
+     */
+    public CompletableFuture<HttpResponse<Void>> sendAsync(HttpRequest request) {
+        String key = originOf(request.uri());
+        Origin origin = enter(key);
+        CompletableFuture<Void> permit = origin.acquire();
+        CompletableFuture<HttpResponse<Void>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<HttpResponse<Void>>> exchange = new AtomicReference<>();
+        permit.whenComplete((_, error) -> {
+            if (error != null) {
+                leave(key, origin, false, null);
+                result.completeExceptionally(error);
+                return;
+            }
+            if (result.isDone()) {
+                leave(key, origin, true, null);
+                return;
+            }
+            CompletableFuture<HttpResponse<Void>> sent = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+            exchange.set(sent);
+            sent.whenComplete((response, e) -> {
+                leave(key, origin, true, response);
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(response);
+                }
+            });
+        });
+        result.whenComplete((_, error) -> {
+            if (error instanceof CancellationException) {
+                permit.cancel(false);
+                CompletableFuture<HttpResponse<Void>> sent = exchange.get();
+                if (sent != null) {
+                    sent.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    private Origin enter(String key) {
+        return origins.compute(key, (_, current) -> {
+            Origin origin = current == null ? new Origin() : current;
+            origin.users++;
+            return origin;
+        });
+    }
+
+    /**
+     * リクエストの終了を記録します。使用中のリクエストがなくなったオリジンは表から外し、メモリを解放します。
+     */
+    private void leave(String key, Origin origin, boolean held, HttpResponse<?> response) {
+        if (response != null) {
+            record(response);
+        }
+        if (held) {
+            origin.release(response);
+        }
+        origins.computeIfPresent(key, (_, current) -> current == origin && --current.users == 0 ? null : current);
+    }
+
+    private void record(HttpResponse<?> response) {
+        requests.increment();
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.increment();
+        }
+        SSLSession session = response.sslSession().orElse(null);
+        if (session != null) {
+            byte[] id = session.getId();
+            String key = id == null || id.length == 0
+                    ? "@" + System.identityHashCode(session)
+                    : HexFormat.of().formatHex(id);
+            if (sessions.size() >= MAX_TRACKED_SESSIONS) {
+                sessions.clear();
+            }
+            if (sessions.add(key)) {
+                handshakes.increment();
+            }
+        }
+    }
+
+    private static String originOf(URI uri) {
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        String host = uri.getHost() == null ? String.valueOf(uri.getAuthority()) : uri.getHost().toLowerCase(Locale.ROOT);
+        int port = uri.getPort() != -1 ? uri.getPort() : scheme.equals("https") ? 443 : 80;
+        return scheme + "://" + host + ":" + port;
+    }
+
+    /**
+     * @return HttpClient 内部で使用しているクライアント
+     */
+    public HttpClient client() {
+        return client;
+    }
+
+    /**
+     * @return long 前回の {@link #resetStats()} 以降に応答を受け取ったリクエストの数
+     */
+    public long requests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return long 前回の {@link #resetStats()} 以降に新しく確立したTLSセッション（ハンドシェイク）の数
+     */
+    public long handshakes() {
+        return handshakes.sum();
+    }
+
+    /**
+     * @return long 前回の {@link #resetStats()} 以降にHTTP/2で受け取った応答の数
+     */
+    public long http2Responses() {
+        return http2Responses.sum();
+    }
+
+    /**
+     * @return String 接続の再利用状況の要約
+     */
+    public String describe() {
+        long total = requests();
+        long h2 = http2Responses();
+        return String.format("%d requests, %d TLS handshakes, HTTP/2 %d / HTTP/1.x %d",
+                total, handshakes(), h2, total - h2);
+    }
+
+    /**
+     * 統計を0に戻します。接続そのものは閉じず、既知のTLSセッションも覚えたままなので、
+     * 前回のスキャンから使い回された接続はハンドシェイクとして数えられません。
+     */
+    public void resetStats() {
+        requests.reset();
+        http2Responses.reset();
+        handshakes.reset();
+    }
+}
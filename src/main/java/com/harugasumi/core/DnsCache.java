@@ -0,0 +1,303 @@
+package com.harugasumi.core;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolver.LookupPolicy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.net.spi.InetAddressResolver.LookupPolicy.IPV4;
+import static java.net.spi.InetAddressResolver.LookupPolicy.IPV4_FIRST;
+import static java.net.spi.InetAddressResolver.LookupPolicy.IPV6;
+import static java.net.spi.InetAddressResolver.LookupPolicy.IPV6_FIRST;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、ホスト名の名前解決の結果をTTL付きで保持するキャッシュです。
+ * <p>
+ * {@link #resolveAll(Collection)} で、スキャンする前に異なるホストをまとめて並列に名前解決しておくと、
+ * チェックのタイムアウトの中で名前解決を待つことがなくなります。解決できなかったホストも
+ * 短いTTL（ネガティブキャッシュ）で記録されるため、そのホストのURLはネットワークの枠を使わずにすぐ失敗にできます。
+ * 同じホストへの問い合わせが同時に起きた場合は、最初の1回の結果を待って共有します。
+ * </p>
+ * <p>
+ * {@link DnsCacheResolverProvider} がJDKの名前解決として登録されているため、{@code HttpClient} を含む
+ * アプリ内のすべての名前解決は {@link #getDefault()} のキャッシュを経由します。
+ * ただし、JDKの {@code InetAddress} は独自のキャッシュ（{@code networkaddress.cache.ttl}）をその手前に持つため、
+ * それより短いTTLは {@code HttpClient} の名前解決には反映されません。
+ * </p>
+ * <p>
+ * 問い合わせ先（{@code upstream}）には任意の {@link InetAddressResolver} を指定できます。
+ * ローカルの代替リゾルバーを指定すれば、実際のDNSを使わずにスキャン全体を試せます。
+ * 指定しない場合はJDK標準の名前解決を使います。
+ * </p>
+ */
+public final class DnsCache {
+
+    /** 解決できたホストを保持する既定の時間（JDKの既定値と同じ） */
+    public static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+    /** 解決できなかったホストを保持する既定の時間（JDKの既定値と同じ） */
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(10);
+    /** {@link #resolveAll} で同時に問い合わせる既定の数 */
+    public static final int DEFAULT_PARALLELISM = 32;
+    /** 保持するホスト数の上限。超えた場合は表を空にして解決し直します。 */
+    private static final int MAX_ENTRIES = 1 << 20;
+    private static final LookupPolicy ANY = LookupPolicy.of(IPV4 | IPV6);
+
+    private static volatile DnsCache defaultCache;
+
+    /**
+     * 1ホスト分の結果です。
+     * @param addresses 解決したアドレス（解決できなかった場合は空）
+     * @param expiresAt 有効期限（{@link System#nanoTime()} 基準）
+     */
+    private record Entry(List<InetAddress> addresses, long expiresAt) {
+    }
+
+    private final InetAddressResolver upstream;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    /** 問い合わせ用のスレッド。名前解決はネイティブコードでブロックするため、仮想スレッドではなくプラットフォームスレッドを使います。 */
+    private final ThreadPoolExecutor lookups;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** 問い合わせ中のホスト。同じホストへの同時の問い合わせを1回にまとめます。 */
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param upstream    問い合わせ先（{@code null} の場合はJDK標準の名前解決）
+     * @param ttl         解決できたホストを保持する時間
+     * @param negativeTtl 解決できなかったホストを保持する時間
+     * @param parallelism {@link #resolveAll} で同時に問い合わせる数（1以上）
+     */
+    public DnsCache(InetAddressResolver upstream, Duration ttl, Duration negativeTtl, int parallelism) {
+        if (ttl.isNegative() || negativeTtl.isNegative() || parallelism < 1) {
+            throw new IllegalArgumentException("TTLs must not be negative and parallelism must be positive");
+        }
+        this.upstream = upstream;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.lookups = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "sentinel-dns");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.lookups.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 名前解決で共通に使うキャッシュを返します。未設定の場合は既定の設定で作成します。
+     * @return DnsCache 共通のインスタンス
+     */
+    public static DnsCache getDefault() {
+        DnsCache cache = defaultCache;
+        if (cache == null) {
+            synchronized (DnsCache.class) {
+                cache = defaultCache;
+                if (cache == null) {
+                    cache = new DnsCache(null, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_PARALLELISM);
+                    defaultCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * 名前解決で共通に使うキャッシュを設定します。スキャンを始める前に呼び出してください。
+     * @param cache 共通のインスタンス
+     */
+    public static void setDefault(DnsCache cache) {
+        defaultCache = Objects.requireNonNull(cache, "cache");
+    }
+
+    /**
+     * 異なるホストをまとめて並列に名前解決し、結果をキャッシュに格納します。
+     * 有効期限内の結果があるホストと、IPアドレスが直接書かれたホストは問い合わせません。
+     * すべての問い合わせが終わるまで呼び出し元を待たせます。
+     * @param hosts 名前解決するホスト（重複や {@code null} を含んでいても構いません）
+     * @return {@code Set<String>} 解決できなかったホスト
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public Set<String> resolveAll(Collection<String> hosts) throws InterruptedException {
+        Set<String> unresolved = new HashSet<>();
+        List<String> pending = new ArrayList<>();
+        long now = System.nanoTime();
+        for (String host : new HashSet<>(hosts)) {
+            if (host == null || isLiteral(host)) continue;
+            Entry entry = entries.get(host);
+            if (entry == null || entry.expiresAt() - now <= 0) {
+                pending.add(host);
+            } else if (entry.addresses().isEmpty()) {
+                unresolved.add(host);
+            }
+        }
+        if (pending.isEmpty()) {
+            return unresolved;
+        }
+        if (pending.size() == 1) {
+            if (resolve(pending.get(0)).addresses().isEmpty()) {
+                unresolved.add(pending.get(0));
+            }
+            return unresolved;
+        }
+        List<Future<Entry>> results = new ArrayList<>(pending.size());
+        for (String host : pending) {
+            results.add(lookups.submit(() -> resolve(host)));
+        }
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    if (results.get(i).get().addresses().isEmpty()) {
+                        unresolved.add(pending.get(i));
+                    }
+                } catch (ExecutionException e) {
+                    unresolved.add(pending.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            results.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return unresolved;
+    }
+
+    /**
+     * 有効期限内に、解決できなかったと記録されているかを返します。問い合わせは行いません。
+     * @param host ホスト名
+     * @return boolean 解決できないことが分かっている場合は {@code true}
+     */
+    public boolean isUnresolvable(String host) {
+        Entry entry = host == null ? null : entries.get(host);
+        return entry != null && entry.addresses().isEmpty() && entry.expiresAt() - System.nanoTime() > 0;
+    }
+
+    /**
+     * キャッシュを使ってホスト名を解決します。有効期限内の結果がない場合は問い合わせ先に問い合わせます。
+     * {@link DnsCacheResolverProvider} から呼び出されます。
+     * @param host     ホスト名
+     * @param policy   アドレスの種類と順序
+     * @param fallback {@code upstream} が未指定の場合に使う問い合わせ先
+     * @return {@code List<InetAddress>} 解決したアドレス
+     * @throws UnknownHostException 解決できなかった場合
+     */
+    List<InetAddress> lookup(String host, LookupPolicy policy, InetAddressResolver fallback) throws UnknownHostException {
+        Entry entry = entries.get(host);
+        if (entry == null || entry.expiresAt() - System.nanoTime() <= 0) {
+            entry = resolve(host, upstream != null ? upstream : fallback);
+        }
+        List<InetAddress> selected = select(entry.addresses(), policy);
+        if (selected.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        return selected;
+    }
+
+    private Entry resolve(String host) {
+        if (upstream != null) {
+            return resolve(host, upstream);
+        }
+        // without a stand-in, go through InetAddress so the installed provider stores the result as well
+        List<InetAddress> addresses;
+        try {
+            addresses = List.of(InetAddress.getAllByName(host));
+        } catch (UnknownHostException e) {
+            addresses = List.of();
+        }
+        return store(host, addresses);
+    }
+
+    private Entry resolve(String host, InetAddressResolver resolver) {
+        // concurrent misses for the same host wait for the query already in flight instead of asking again
+        CompletableFuture<Entry> query = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(host, query);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            Entry entry = entries.get(host);
+            if (entry == null || entry.expiresAt() - System.nanoTime() <= 0) {
+                List<InetAddress> addresses;
+                try {
+                    addresses = resolver.lookupByName(host, ANY).toList();
+                } catch (UnknownHostException | RuntimeException e) {
+                    addresses = List.of();
+                }
+                entry = store(host, addresses);
+            }
+            query.complete(entry);
+            return entry;
+        } catch (Error e) {
+            query.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(host, query);
+        }
+    }
+
+    private Entry store(String host, List<InetAddress> addresses) {
+        long ttl = addresses.isEmpty() ? negativeTtlNanos : ttlNanos;
+        Entry entry = new Entry(addresses, System.nanoTime() + ttl);
+        if (ttl > 0) {
+            if (entries.size() >= MAX_ENTRIES && !entries.containsKey(host)) {
+                entries.clear();
+            }
+            entries.put(host, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 解決したアドレスから、{@code policy} で求められた種類だけを求められた順序で返します。
+     */
+    private static List<InetAddress> select(List<InetAddress> addresses, LookupPolicy policy) {
+        int c = policy.characteristics();
+        boolean v4 = (c & IPV4) != 0;
+        boolean v6 = (c & IPV6) != 0;
+        List<InetAddress> selected = new ArrayList<>(addresses.size());
+        for (InetAddress address : addresses) {
+            boolean isV4 = address.getAddress().length == 4;
+            if (isV4 ? v4 : v6) {
+                selected.add(address);
+            }
+        }
+        if ((c & IPV4_FIRST) != 0) {
+            selected.sort(Comparator.comparingInt(a -> a.getAddress().length));
+        } else if ((c & IPV6_FIRST) != 0) {
+            selected.sort(Comparator.comparingInt(a -> -a.getAddress().length));
+        }
+        return selected;
+    }
+
+    private static boolean isLiteral(String host) {
+        return host.indexOf(':') >= 0 || host.chars().allMatch(ch -> ch == '.' || (ch >= '0' && ch <= '9'));
+    }
+
+    /**
+     * @return int 保持しているホストの数（期限切れで未削除のものを含む）
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * すべての結果を削除します。
+     */
+    public void clear() {
+        entries.clear();
+    }
+}
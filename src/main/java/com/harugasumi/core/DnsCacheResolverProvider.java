@@ -0,0 +1,46 @@
+package com.harugasumi.core;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.stream.Stream;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、JDKの名前解決を {@link DnsCache#getDefault()} 経由に置き換えるプロバイダーです。
+ * <p>
+ * {@code META-INF/services/java.net.spi.InetAddressResolverProvider} で登録されており、
+ * 最初の名前解決のときにJDKが読み込みます。逆引きはJDK標準の名前解決にそのまま任せます。
+ * </p>
+ */
+public final class DnsCacheResolverProvider extends InetAddressResolverProvider {
+
+    /**
+     * @param configuration JDK標準の名前解決などの設定
+     * @return InetAddressResolver キャッシュを経由する名前解決
+     */
+    @Override
+    public InetAddressResolver get(Configuration configuration) {
+        InetAddressResolver builtin = configuration.builtinResolver();
+        return new InetAddressResolver() {
+            @Override
+            public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy) throws UnknownHostException {
+                return DnsCache.getDefault().lookup(host, lookupPolicy, builtin).stream();
+            }
+
+            @Override
+            public String lookupByAddress(byte[] addr) throws UnknownHostException {
+                return builtin.lookupByAddress(addr);
+            }
+        };
+    }
+
+    /**
+     * @return String プロバイダーの名前
+     */
+    @Override
+    public String name() {
+        return "sentinel-dns-cache";
+    }
+}
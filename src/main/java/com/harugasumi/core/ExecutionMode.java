@@ -0,0 +1,22 @@
+package com.harugasumi.core;
+
+/**
+ * Made by @author harugasumi-works
+ * この列挙形は {@link TaskEngine} がタスクを実行する方式を定めます。
+ */
+public enum ExecutionMode {
+
+    /** 固定サイズのプラットフォームスレッドプールで実行します（従来の方式）。 */
+    PLATFORM,
+    /**
+     * タスクごとに仮想スレッドを起動して実行します。
+     * 同時に実行中のリクエスト数は {@link TaskEngine} に渡された上限値で制限されます。
+     */
+    VIRTUAL,
+    /**
+     * {@link AsyncTask} を実装したタスクを {@code HttpClient.sendAsync} で非同期に実行します。
+     * ワーカースレッドを経由しないため、少数のキャリアスレッドで数千のチェックを同時に処理できます。
+     * 未完了のリクエスト数は上限値で制限され、上限に達すると {@link TaskEngine#executeAll} が待機します。
+     */
+    ASYNC
+}
@@ -0,0 +1,168 @@
+package com.harugasumi.core;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、接続先ホストごとにタスクを振り分け、ホスト単位の同時実行数と
+ * リクエスト間隔（ポライトネス）を守りながら実行します。
+ * <p>
+ * ホストごとに独立したキュー（{@link HostLane}）を持ち、ロックもホスト単位です。
+ * 各キューは {@link AgingPriorityQueue} のため、同一ホスト内でも優先度順に実行されます。
+ * そのため、あるホストが間隔待ちや同時実行数の上限に達していても、
+ * 他のホストのタスクは止まらずに流れ続けます。
+ * 間隔待ちのホストは共有タイマーで再開されるため、待機のためにスレッドを占有しません。
+ * </p>
+ */
+class HostScheduler {
+
+    private final int maxPerHost;
+    private final long minIntervalNanos;
+    private final Supplier<AgingPriorityQueue<PrioritizedTask>> queueFactory;
+    private final Function<PrioritizedTask, CompletableFuture<Boolean>> dispatcher;
+    private final ConcurrentHashMap<String, HostLane> lanes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sentinel-host-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * ホストごとの待ち行列と実行状態です。フィールドはこのインスタンスのロックで保護されます。
+     */
+    private static final class HostLane {
+        private final AgingPriorityQueue<PrioritizedTask> waiting;
+        private int inFlight;
+        private long nextStartNanos = System.nanoTime();
+        private boolean timerArmed;
+
+        private HostLane(AgingPriorityQueue<PrioritizedTask> waiting) {
+            this.waiting = waiting;
+        }
+    }
+
+    /**
+     * @param maxPerHost  ホストごとの同時実行数の上限（1以上）
+     * @param minInterval  同一ホストへのリクエスト開始間隔の最小値
+     * @param queueFactory ホストごとの待ち行列を作成する関数
+     * @param dispatcher   実行可能になったタスクを実際に実行する関数（ブロックしてはいけません）
+     */
+    HostScheduler(int maxPerHost, Duration minInterval, Supplier<AgingPriorityQueue<PrioritizedTask>> queueFactory,
+            Function<PrioritizedTask, CompletableFuture<Boolean>> dispatcher) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("maxPerHost must be positive: " + maxPerHost);
+        }
+        this.maxPerHost = maxPerHost;
+        this.minIntervalNanos = minInterval.toNanos();
+        this.queueFactory = queueFactory;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * タスクをホストの待ち行列に追加します。このメソッドはブロックしません。
+     * ホストを持たないタスクはそのまま実行されます。
+     *
+     * @param task 実行するタスク
+     * @return {@code CompletableFuture<Boolean>} タスクの実行結果
+     */
+    CompletableFuture<Boolean> submit(PrioritizedTask task) {
+        String host = task.task().getHost();
+        if (host == null) {
+            return dispatcher.apply(task);
+        }
+        HostLane lane = lanes.computeIfAbsent(host, _ -> new HostLane(queueFactory.get()));
+        lane.waiting.add(task);
+        pump(lane);
+        return task.result();
+    }
+
+    /**
+     * ホストの上限と間隔が許す限り、待ち行列のタスクを開始します。
+     * 間隔待ちの場合は、タイマーで再度呼び出されるよう予約します。
+     *
+     * @param lane 対象ホストの待ち行列
+     */
+    private void pump(HostLane lane) {
+        while (true) {
+            PrioritizedTask next;
+            synchronized (lane) {
+                if (lane.inFlight >= maxPerHost || lane.waiting.isEmpty()) {
+                    return;
+                }
+                long now = System.nanoTime();
+                long wait = lane.nextStartNanos - now;
+                if (wait > 0) {
+                    if (!lane.timerArmed) {
+                        lane.timerArmed = true;
+                        timer.schedule(() -> {
+                            synchronized (lane) {
+                                lane.timerArmed = false;
+                            }
+                            pump(lane);
+                        }, wait, TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+                next = lane.waiting.poll();
+                if (next.result().isDone()) {
+                    // 待機中にキャンセルされたタスクは実行しない
+                    continue;
+                }
+                lane.inFlight++;
+                lane.nextStartNanos = now + minIntervalNanos;
+            }
+            start(lane, next);
+        }
+    }
+
+    /**
+     * ロックの外でタスクを実行し、完了したら次のタスクを開始します。
+     * 枠は、タスクの結果が確定するか、やり直しのために {@link PrioritizedTask#releaseHostSlot()} が呼ばれた時点で返されます。
+     *
+     * @param lane 対象ホストの待ち行列
+     * @param task 開始するタスク
+     */
+    private void start(HostLane lane, PrioritizedTask task) {
+        // the slot is held per attempt: a retry gives it back while it waits and queues up here again
+        task.holdHostSlot(() -> {
+            synchronized (lane) {
+                lane.inFlight--;
+            }
+            pump(lane);
+        });
+        try {
+            dispatcher.apply(task);
+        } catch (RuntimeException e) {
+            task.result().completeExceptionally(e);
+        }
+        task.result().whenComplete((_, _) -> task.releaseHostSlot());
+    }
+
+    /**
+     * すべてのホストの待ち行列にあるタスクをキャンセルします。実行中のタスクには影響しません。
+     */
+    void cancelWaiting() {
+        lanes.values().forEach(lane -> {
+            PrioritizedTask p;
+            while ((p = lane.waiting.poll()) != null) {
+                p.result().cancel(false);
+            }
+        });
+    }
+
+    /**
+     * タイマーを停止し、待ち行列を破棄します。
+     */
+    void shutdown() {
+        timer.shutdownNow();
+        cancelWaiting();
+        lanes.clear();
+    }
+}
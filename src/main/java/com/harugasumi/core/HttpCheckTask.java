@@ -1,48 +1,48 @@
 package com.harugasumi.core;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 
 import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
 
 
-public class HttpCheckTask implements Task{
+public class HttpCheckTask implements AsyncTask{
     private final LogLevel level;
     private final String url;
     private final Queue<String> logStorage = new ConcurrentLinkedQueue<>();
-    private Consumer<String> logger = (msg) -> this.logStorage.add(msg);
-    /**
-     * HttpClient　インスタンス
-     */
-    private static final HttpClient client = HttpClient.newBuilder()
-            .followRedirects(HttpClient.Redirect.NORMAL) 
-            .build();
+    private volatile ScanResult lastResult;
+    private volatile Consumer<String> logger = (msg) -> this.logStorage.add(msg);
+    private volatile Duration timeout = AdaptiveController.INITIAL_TIMEOUT;
+    private volatile long deadlineNanos = Long.MAX_VALUE;
 
     
     /** 
      * <p>ロガーを設定します。
      * loggerがnullの場合、例外をスローします。
      * アプリがログ出力に依存しているため、ロガーは必須です。
-     * スレッドに安全にログを記録するために、nullチェックを行います。</p>
+     * フィールドは {@code volatile} のため、ロックなしで他のスレッドから参照できます。</p>
      * @param logger ログメッセージを受け取るためのコンシューマーを設定します。
      */
     @Override
-    public synchronized void setLogger(Consumer<String> logger) {
+    public void setLogger(Consumer<String> logger) {
         this.logger = Objects.requireNonNull(logger, "Logger is required for HttpCheckTask");
     }        
 
     /** 
      * ログメッセージを記録します。
+     * ロガー（通常は {@link LogPipeline}）はスレッドセーフなため、ここではロックを取りません。
      * @param message
      */
-    private synchronized void log(String message) {
+    private void log(String message) {
         logger.accept(message);
 }
     /**
@@ -63,27 +63,11 @@ public class HttpCheckTask implements Task{
      */
     @Override
     public Boolean call() throws Exception {
+        long start = System.nanoTime();
         try {
             /**
-             * <p> このコードはJavaの{@code Builder}パターンを利用して、{@code this.url}に向けた
-             * 不変（Immutable）なHttpRequestオブジェクトを構築しています。
-             * サーバーの応答が遅い場合にアプリがフリーズしないよう
-             * 3秒のタイムアウトを設定し、サーバーからのアクセス拒否を回避するために「{@code User-Agent}」ヘッダーで
-             * 自身を「Sentinel/1.0」（ブラウザを模倣）として識別させています。最も重要な点は、通常の「GET」
-             * ではなく<b>「HEAD」</b>メソッドを指定していることです。これにより、サーバーはコンテンツの中身
-             * （ボディ）を送らずにヘッダー情報のみを返すよう指示されるため、
-             * ページ全体をダウンロードすることなくURLの生存確認（Pingのような動作）を
-             * 非常に少ない通信量（帯域幅）で行うことができます。</p>
-             */
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(this.url))
-                    .timeout(Duration.ofSeconds(3)) 
-                    .header("User-Agent", "Mozilla/5.0 (Sentinel/1.0)")
-                    .method("HEAD", HttpRequest.BodyPublishers.noBody()) 
-                    .build();
-
-            /**
-             * <p>この行は、事前に設定された {@code HttpClient} を使用してネットワークリクエストを 同期的 に実行し、
+             * <p>この行は、{@link ConnectionManager} が管理する {@code HttpClient} を使用してネットワークリクエストを 同期的 に実行し、
+             * 同じオリジンへの接続を使い回しながら
              * サーバーからの応答があるまでプログラムの実行を一時停止させます。
              * 先ほど作成した {@code request} オブジェクトを送信すると同時に、
              * {@code HttpResponse.BodyHandlers.discarding()} というボディハンドラを指定しています。
@@ -93,27 +77,180 @@ public class HttpCheckTask implements Task{
              * ステータスコード（200や404など）のようなメタデータのみが含まれ、
              * コンテンツデータは一切含まれないため、この確認処理においてメモリ効率が最大化されます。</p>
              */
-            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
-            String msg = String.format("[%d] %s", response.statusCode(), url);
-             /**
-             * @see private void log(String message)
-             * somethingsomething
-             *              
-             */
-             log(msg);
-            return true;
-           
+            HttpResponse<Void> response = ConnectionManager.getDefault().send(buildRequest());
+            return onResponse(response, start);
 
         } catch (Exception e) {
-           String errmsg = String.format("[ERROR] %s - %s%n", url, e.getMessage());
-           if (logger != null) {
+            return onError(e, start);
+        }
+    }
+
+    /**
+     * {@link #call()} と同じチェックを {@code HttpClient.sendAsync} で実行します。
+     * 呼び出し元のスレッドはネットワークI/Oを待たずにすぐに戻ります。
+     * 例外は失敗として記録されるため、返されるFutureが例外で完了することはありません。
+     * 返されたFutureをキャンセルすると、進行中のリクエストも中断されます。
+     * @return {@code CompletableFuture<Boolean>} タスクの実行結果（成功または失敗）
+     */
+    @Override
+    public CompletableFuture<Boolean> callAsync() {
+        long start = System.nanoTime();
+        HttpRequest request;
+        try {
+            request = buildRequest();
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(onError(e, start));
+        }
+        CompletableFuture<HttpResponse<Void>> exchange = ConnectionManager.getDefault().sendAsync(request);
+        CompletableFuture<Boolean> result = exchange
+                .handle((response, e) -> e == null ? onResponse(response, start) : onError(e, start));
+        // cancelling a dependent stage does not reach the exchange on its own
+        result.whenComplete((_, e) -> {
+            if (e instanceof java.util.concurrent.CancellationException) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * <p> このコードはJavaの{@code Builder}パターンを利用して、{@code this.url}に向けた
+     * 不変（Immutable）なHttpRequestオブジェクトを構築しています。
+     * サーバーの応答が遅い場合にアプリがフリーズしないよう
+     * タイムアウト（既定は3秒、{@link #setTimeout} で変更可能。スキャンの期限が近い場合はその残り時間）を設定し、サーバーからのアクセス拒否を回避するために「{@code User-Agent}」ヘッダーで
+     * 自身を「Sentinel/1.0」（ブラウザを模倣）として識別させています。最も重要な点は、通常の「GET」
+     * ではなく<b>「HEAD」</b>メソッドを指定していることです。これにより、サーバーはコンテンツの中身
+     * （ボディ）を送らずにヘッダー情報のみを返すよう指示されるため、
+     * ページ全体をダウンロードすることなくURLの生存確認（Pingのような動作）を
+     * 非常に少ない通信量（帯域幅）で行うことができます。</p>
+     * @return HttpRequest HEADリクエスト
+     */
+    private HttpRequest buildRequest() {
+        Duration effective = this.timeout;
+        long deadline = this.deadlineNanos;
+        if (deadline != Long.MAX_VALUE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining < effective.toNanos()) {
+                effective = Duration.ofNanos(Math.max(1, remaining));
+            }
+        }
+        return HttpRequest.newBuilder()
+                .uri(URI.create(this.url))
+                .timeout(effective) 
+                .header("User-Agent", "Mozilla/5.0 (Sentinel/1.0)")
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()) 
+                .build();
+    }
+
+    /**
+     * 応答のステータスコードをログに記録し、結果を {@link ScanResult} として保存します。
+     * @param response サーバーからの応答
+     * @param start    リクエストを開始した時刻（{@link System#nanoTime()}）
+     * @return Boolean 常に {@code true}
+     */
+    private Boolean onResponse(HttpResponse<Void> response, long start) {
+        long latency = System.nanoTime() - start;
+        int redirects = 0;
+        for (var previous = response.previousResponse(); previous.isPresent(); previous = previous.get().previousResponse()) {
+            redirects++;
+        }
+        lastResult = ScanResult.response(url, level, response.statusCode(), latency, redirects);
+        String msg = "[" + response.statusCode() + "] " + url;
+        log(msg);
+        return true;
+    }
+
+    /**
+     * 例外の内容をログに記録し、結果を {@link ScanResult} として保存します。
+     * @param e     発生した例外
+     * @param start リクエストを開始した時刻（{@link System#nanoTime()}）
+     * @return Boolean 常に {@code false}
+     */
+    private Boolean onError(Throwable e, long start) {
+        Throwable cause = (e instanceof java.util.concurrent.CompletionException && e.getCause() != null)
+                ? e.getCause() : e;
+        StatusClass statusClass = cause instanceof java.net.http.HttpTimeoutException
+                ? StatusClass.TIMEOUT : StatusClass.NETWORK_ERROR;
+        lastResult = ScanResult.failure(url, level, System.nanoTime() - start, statusClass, cause);
+        String errmsg = "[ERROR] " + url + " - " + cause.getMessage() + System.lineSeparator();
+        if (logger != null) {
             log(errmsg);
-           }
-           return false;
         }
+        return false;
+    }
+
+
+
+    /** 
+     * 次のリクエストのタイムアウトを設定します。
+     * @param timeout タイムアウト（正の値）
+     */
+    @Override
+    public void setTimeout(Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive: " + timeout);
+        }
+        this.timeout = timeout;
     }
 
+    /** 
+     * スキャンの期限を設定します。期限までの残り時間がタイムアウトより短い場合は、残り時間で打ち切ります。
+     * @param deadlineNanos 期限（{@link System#nanoTime()} 基準）
+     */
+    @Override
+    public void setDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
 
+    /** 
+     * 同じURLとレベル、同じタイムアウトの新しいタスクを作成します。
+     * @return HttpCheckTask 新しいタスク
+     */
+    @Override
+    public HttpCheckTask copy() {
+        HttpCheckTask copy = new HttpCheckTask(level, url);
+        copy.timeout = this.timeout;
+        copy.deadlineNanos = this.deadlineNanos;
+        return copy;
+    }
+
+    /** 
+     * URLのホスト部分を小文字で返します。
+     * URLが不正な場合は {@code null} を返し、ホスト単位の制御の対象外になります。
+     * @return String 接続先ホスト名
+     */
+    @Override
+    public String getHost() {
+        try {
+            String host = URI.create(this.url).getHost();
+            return host == null ? null : host.toLowerCase(java.util.Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** 
+     * @return LogLevel このタスクのレベル
+     */
+    @Override
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    /** 
+     * @return ScanResult 直前のチェック結果。未実行の場合は {@code null}
+     */
+    @Override
+    public ScanResult getLastResult() {
+        return lastResult;
+    }
+
+    /** 
+     * @return String チェック対象のURL
+     */
+    public String getUrl() {
+        return url;
+    }
 
     /** 
      * タスクの優先度を整数で返します。
@@ -0,0 +1,129 @@
+package com.harugasumi.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、応答時間などのナノ秒の値を対数バケットで数えるヒストグラムです（HDR Histogram 方式）。
+ * <p>
+ * 2のべき乗ごとの区間をさらに {@value #SUB_BUCKETS} 個に分割するため、
+ * 相対誤差は約3%以内に収まります。記録はバケット番号の計算とアトミックな加算だけで、
+ * オブジェクトの生成もロックも行わないため、ワーカーの処理中に直接呼び出せます。
+ * </p>
+ * <p>
+ * 値はスキャン中でもいつでも読み取れます（読み取り時点の概算値になります）。
+ * </p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** 2^63 までの値を表せるバケット数 */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 値を1件記録します。負の値はゼロとして扱います。
+     *
+     * @param nanos 記録する値（ナノ秒）
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param value 値
+     * @return int 値が入るバケットの番号
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket バケットの番号
+     * @return long バケットに入る値の上限
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * @return long 記録された件数
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return long 記録された最大値（ナノ秒）
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * 指定した百分位の値を返します。値はバケットの上限（ただし最大値以下）です。
+     *
+     * @param percentile 百分位（0〜100）
+     * @return long 百分位の値（ナノ秒）。記録がない場合は0
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * すべての記録を消去します。
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+
+    /**
+     * p50/p90/p99/max をミリ秒で1行に表します。
+     *
+     * @return String 例: {@code "p50 12.0 ms, p90 48.3 ms, p99 210.1 ms, max 980.0 ms (n=1200)"}
+     */
+    public String describe() {
+        return String.format("p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms (n=%d)",
+                percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, max() / 1e6, count());
+    }
+}
@@ -0,0 +1,187 @@
+package com.harugasumi.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、多数のワーカーから届くログメッセージを固定長のリングバッファに溜め、
+ * 一定間隔でまとめて取り出して配信するパイプラインです。
+ * <p>
+ * 書き込み側はロックを取らず、CAS で枠を確保するだけです（複数生産者・単一消費者）。
+ * 使用メモリは容量で決まり、スキャンの規模に比例して増えることはありません。
+ * バッファがあふれそうな場合の扱いは {@link OverflowPolicy} で指定します。
+ * 捨てたメッセージの数は、次の配信でまとめて1行に報告されます。
+ * </p>
+ */
+public class LogPipeline {
+
+    /**
+     * バッファがあふれそうな場合の扱いを定めます。
+     */
+    public enum OverflowPolicy {
+        /** 満杯になるまではすべて受け付け、満杯になったら新しいメッセージを捨てます。 */
+        DROP_NEWEST,
+        /**
+         * 使用率が4分の3を超えたら、エラー（{@code [ERROR]} で始まる行）以外は
+         * {@value LogPipeline#SAMPLE_RATE} 件に1件だけ受け付けます。満杯になったら捨てます。
+         */
+        SAMPLE
+    }
+
+    static final int SAMPLE_RATE = 16;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<String> buffer;
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    /** 消費者だけが更新する読み出し位置 */
+    private volatile long head;
+    private final OverflowPolicy policy;
+    private final LongAdder dropped = new LongAdder();
+    private final int maxBatch;
+    private final long intervalMillis;
+
+    private volatile Consumer<List<String>> sink = _ -> { };
+    private ScheduledExecutorService drainer;
+    private ScheduledFuture<?> schedule;
+
+    /**
+     * @param capacity       バッファの容量（2のべき乗に切り上げられます）
+     * @param policy         あふれそうな場合の扱い
+     * @param intervalMillis 配信の間隔（ミリ秒）
+     */
+    public LogPipeline(int capacity, OverflowPolicy policy, long intervalMillis) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+        this.sequence = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequence.set(i, i);
+        }
+        this.policy = policy;
+        this.maxBatch = this.capacity;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * 配信先を設定します。配信先は配信スレッドから、メッセージのリストとともに呼び出されます。
+     *
+     * @param sink 配信先
+     */
+    public void setSink(Consumer<List<String>> sink) {
+        this.sink = sink == null ? _ -> { } : sink;
+    }
+
+    /**
+     * メッセージを書き込みます。このメソッドはロックを取らず、ブロックもしません。
+     *
+     * @param message ログメッセージ
+     * @return boolean 受け付けた場合は {@code true}、捨てた場合は {@code false}
+     */
+    public boolean offer(String message) {
+        if (policy == OverflowPolicy.SAMPLE && tail.get() - head > (capacity >> 2) * 3
+                && !message.startsWith("[ERROR]")
+                && ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+            dropped.increment();
+            return false;
+        }
+        long pos;
+        int index;
+        while (true) {
+            pos = tail.get();
+            index = (int) (pos & mask);
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                dropped.increment();
+                return false;
+            }
+        }
+        buffer.lazySet(index, message);
+        sequence.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * 溜まっているメッセージを取り出して配信先へ渡します。
+     * 定期配信と {@link #flush()} の両方から呼ばれるため、消費者側だけで排他します。
+     */
+    private synchronized void drain() {
+        List<String> batch = new ArrayList<>();
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            batch.add("[LOG] " + lost + " messages dropped (log buffer full)");
+        }
+        long pos = head;
+        while (batch.size() < maxBatch) {
+            int index = (int) (pos & mask);
+            if (sequence.get(index) != pos + 1) {
+                break;
+            }
+            batch.add(buffer.get(index));
+            buffer.lazySet(index, null);
+            sequence.lazySet(index, pos + capacity);
+            pos++;
+        }
+        head = pos;
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+        }
+    }
+
+    /**
+     * 定期配信を開始します。すでに開始している場合は何もしません。
+     */
+    public synchronized void start() {
+        if (schedule != null) {
+            return;
+        }
+        drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-log-drainer");
+            t.setDaemon(true);
+            return t;
+        });
+        schedule = drainer.scheduleAtFixedRate(this::drain, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 溜まっているメッセージをすべて、呼び出し元のスレッドで配信します。
+     */
+    public void flush() {
+        long target = tail.get();
+        while (head - target < 0) {
+            drain();
+        }
+        if (dropped.sum() > 0) {
+            drain();
+        }
+    }
+
+    /**
+     * 定期配信を停止し、残りのメッセージを配信します。
+     */
+    public synchronized void stop() {
+        if (schedule != null) {
+            schedule.cancel(false);
+            drainer.shutdown();
+            schedule = null;
+            drainer = null;
+        }
+        flush();
+    }
+}
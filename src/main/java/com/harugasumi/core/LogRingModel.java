@@ -0,0 +1,107 @@
+package com.harugasumi.core;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、Live Terminal に表示するログ行を固定長のリングに保持する {@code ListModel} です。
+ * <p>
+ * {@link #append(String)} はイベントを発行せずに行を追加するだけで、
+ * 画面への反映は {@link #publishChanges()} でまとめて行います。
+ * UI側のタイマーから一定のフレームレートで {@link #publishChanges()} を呼び出すことで、
+ * 受信したメッセージの数に関係なく、再描画の回数が一定に保たれます。
+ * 容量を超えた古い行は破棄されるため、メモリも一定です。
+ * </p>
+ * <p>
+ * すべてのメソッドはイベントディスパッチスレッドから呼び出してください。
+ * </p>
+ */
+class LogRingModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] ring;
+    private int start;
+    private int size;
+    private int publishedSize;
+    private boolean dirty;
+
+    /**
+     * @param capacity 保持する最大行数
+     */
+    LogRingModel(int capacity) {
+        this.ring = new String[capacity];
+    }
+
+    /**
+     * メッセージを追加します。改行を含む場合は行ごとに分けて追加します。
+     * @param message 追加するメッセージ
+     */
+    void append(String message) {
+        int from = 0;
+        int nl;
+        while ((nl = message.indexOf('\n', from)) >= 0) {
+            appendLine(message.substring(from, nl > from && message.charAt(nl - 1) == '\r' ? nl - 1 : nl));
+            from = nl + 1;
+        }
+        if (from < message.length()) {
+            appendLine(message.substring(from));
+        }
+    }
+
+    private void appendLine(String line) {
+        if (size < ring.length) {
+            ring[(start + size) % ring.length] = line;
+            size++;
+        } else {
+            ring[start] = line;
+            start = (start + 1) % ring.length;
+        }
+        dirty = true;
+    }
+
+    /**
+     * 前回の反映以降に追加された行を画面に反映します。
+     * @return boolean 変更があった場合は {@code true}
+     */
+    boolean publishChanges() {
+        if (!dirty) {
+            return false;
+        }
+        dirty = false;
+        if (size > publishedSize) {
+            fireIntervalAdded(this, publishedSize, size - 1);
+        }
+        publishedSize = size;
+        fireContentsChanged(this, 0, size - 1);
+        return true;
+    }
+
+    /**
+     * すべての行を削除します。
+     */
+    void clear() {
+        int old = publishedSize;
+        java.util.Arrays.fill(ring, null);
+        start = 0;
+        size = 0;
+        publishedSize = 0;
+        dirty = false;
+        if (old > 0) {
+            fireIntervalRemoved(this, 0, old - 1);
+        }
+    }
+
+    /**
+     * 画面に反映済みの行数を返します。未反映の行は {@link #publishChanges()} まで見えません。
+     */
+    @Override
+    public int getSize() {
+        return publishedSize;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return index < size ? ring[(start + index) % ring.length] : "";
+    }
+}
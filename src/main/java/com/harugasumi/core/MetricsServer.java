@@ -0,0 +1,153 @@
+package com.harugasumi.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、エンジンの状態をPrometheusのテキスト形式で公開する、組み込みのHTTPエンドポイントです。
+ * <p>
+ * JDKの {@code com.sun.net.httpserver} を使い、{@value #PATH} へのGETに次の値を返します。
+ * </p>
+ * <ul>
+ * <li>{@code sentinel_queue_depth} 送信前のタスク（{@code queue="staged"}）と、送信済みで実行を待っているタスク（{@code queue="waiting"}）の数</li>
+ * <li>{@code sentinel_in_flight} 実行中のチェックの数</li>
+ * <li>{@code sentinel_checks_completed_total} レベルと結果の分類ごとの完了件数</li>
+ * <li>{@code sentinel_timeouts_total} レベルごとのタイムアウトの件数</li>
+ * <li>{@code sentinel_pool_busy}、{@code sentinel_pool_limit}、{@code sentinel_pool_utilization} 同時実行数の枠の使用状況</li>
+ * </ul>
+ * <p>
+ * 値はすべて取得のときにエンジンから読み取ります。チェックの完了時にエンジンが行うのは
+ * 配列の要素を1つ増やすことだけで（{@link TaskEngine#getCompletedTotal}）、オブジェクトの生成もロックもありません。
+ * 件数は {@link TaskEngine#showReport()} でリセットされないため、Prometheusの {@code rate()} をそのまま使えます。
+ * 1秒あたりの完了件数は {@code rate(sentinel_checks_completed_total[1m])} で求めてください。
+ * このクラスは取得のたびの状態を持たないため、複数のPrometheusから取得されても値は変わりません。
+ * </p>
+ */
+public final class MetricsServer implements Closeable {
+
+    /** メトリクスを返すパス */
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final TaskEngine engine;
+    private final HttpServer server;
+
+    /**
+     * エンドポイントを開始します。
+     * @param engine  公開するエンジン
+     * @param address 待ち受けるアドレスとポート（ポートが0の場合は空いているポート）
+     * @throws IOException ポートを開けなかった場合
+     */
+    public MetricsServer(TaskEngine engine, InetSocketAddress address) throws IOException {
+        this.engine = engine;
+        this.server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        // one daemon thread is plenty for a scraper, and it must not keep the JVM alive
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-metrics");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+    }
+
+    /**
+     * @return int 待ち受けているポート
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * 現在の値をPrometheusのテキスト形式で返します。
+     * @return String メトリクス
+     */
+    String scrape() {
+        StringBuilder sb = new StringBuilder(2048);
+        long running = engine.getRunning();
+
+        header(sb, "sentinel_queue_depth", "gauge", "Tasks not yet running.");
+        sample(sb, "sentinel_queue_depth{queue=\"staged\"}", engine.getQueued());
+        sample(sb, "sentinel_queue_depth{queue=\"waiting\"}", Math.max(0, engine.getOutstanding() - running));
+
+        header(sb, "sentinel_in_flight", "gauge", "Checks currently running.");
+        sample(sb, "sentinel_in_flight", running);
+
+        header(sb, "sentinel_checks_completed_total", "counter", "Completed checks by level and result class.");
+        for (LogLevel level : LogLevel.values()) {
+            for (StatusClass status : StatusClass.values()) {
+                sample(sb, "sentinel_checks_completed_total{level=\"" + level + "\",class=\"" + status + "\"}",
+                        engine.getCompletedTotal(level, status));
+            }
+        }
+
+        header(sb, "sentinel_timeouts_total", "counter", "Checks that timed out.");
+        for (LogLevel level : LogLevel.values()) {
+            sample(sb, "sentinel_timeouts_total{level=\"" + level + "\"}",
+                    engine.getCompletedTotal(level, StatusClass.TIMEOUT));
+        }
+
+        int busy = engine.getBusySlots();
+        int limit = engine.getConcurrencyLimit();
+        header(sb, "sentinel_pool_busy", "gauge", "Concurrency slots in use.");
+        sample(sb, "sentinel_pool_busy", busy);
+        header(sb, "sentinel_pool_limit", "gauge", "Current concurrency limit.");
+        sample(sb, "sentinel_pool_limit", limit);
+        header(sb, "sentinel_pool_utilization", "gauge", "Share of the concurrency limit in use (0 to 1).");
+        sample(sb, "sentinel_pool_utilization", limit == 0 ? 0 : (double) busy / limit);
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String series, long value) {
+        sb.append(series).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String series, double value) {
+        sb.append(series).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+
+    /**
+     * エンドポイントを停止します。
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,320 @@
+package com.harugasumi.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、登録された対象をレベルごとの間隔で繰り返しチェックするための、
+ * ハッシュ化タイミングホイールによるスケジューラーです。
+ * <p>
+ * ホイールは一定間隔（tick）ごとに1スロットずつ進み、そのスロットに入っている対象だけを処理します。
+ * スロット数は最長の間隔（ジッター込み）を1周で表せる大きさにするため、
+ * 通常は各スロットに期限が来た対象しか入っておらず、1tickあたりの処理量は登録数に比例しません。
+ * 対象は双方向リストでスロットにつながれており、登録と解除はどちらも定数時間です。
+ * </p>
+ * <p>
+ * 毎回の間隔には ±{@code jitter} の揺らぎを加え、登録直後の初回チェックも間隔内に一様に分散させます。
+ * これにより、同時に登録した大量の対象が同じ瞬間にチェックされること（thundering herd）を避けます。
+ * 前回のチェックがまだ終わっていない対象は、その回を飛ばして次の期限に回します。
+ * </p>
+ */
+final class MonitorScheduler {
+
+    /** 既定のtickの長さ */
+    static final Duration DEFAULT_TICK = Duration.ofMillis(100);
+    /** 既定のジッター（間隔に対する割合） */
+    static final double DEFAULT_JITTER = 0.1;
+    private static final int MAX_WHEEL_SIZE = 1 << 20;
+
+    /**
+     * 監視対象。スロット内の位置（{@code prev}/{@code next}）と期限は {@link #lock} で保護されます。
+     */
+    private static final class Target {
+        private final String url;
+        private volatile LogLevel level;
+        private long deadlineTick;
+        private Target prev;
+        private Target next;
+        private boolean linked;
+        private volatile boolean inFlight;
+
+        private Target(String url, LogLevel level) {
+            this.url = url;
+            this.level = level;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Target[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final double jitter;
+    private final EnumMap<LogLevel, Long> intervalTicks = new EnumMap<>(LogLevel.class);
+    private final Map<String, Target> targets = new HashMap<>();
+    private final BiFunction<LogLevel, String, CompletableFuture<Boolean>> launcher;
+    private final Runnable flush;
+    /** 処理済みのtick数。{@link #lock} で保護されます。 */
+    private long currentTick;
+    private volatile Thread ticker;
+
+    /**
+     * @param intervals レベルごとのチェック間隔（すべてのレベルを含むこと）
+     * @param tick      ホイールが1スロット進む間隔
+     * @param jitter    間隔に加える揺らぎの割合（0以上1未満）
+     * @param launcher  期限が来た対象のチェックを登録する関数（レベルとURLを受け取る）
+     * @param flush     1tick分の登録が終わった後に呼ばれる処理（登録したチェックの実行開始）
+     */
+    MonitorScheduler(Map<LogLevel, Duration> intervals, Duration tick, double jitter,
+            BiFunction<LogLevel, String, CompletableFuture<Boolean>> launcher, Runnable flush) {
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("jitter must be in [0, 1): " + jitter);
+        }
+        this.tickNanos = tick.toNanos();
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tick must be positive: " + tick);
+        }
+        long longest = 1;
+        for (LogLevel level : LogLevel.values()) {
+            Duration interval = intervals.get(level);
+            if (interval == null || interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("interval for " + level + " must be positive: " + interval);
+            }
+            long ticks = Math.max(1, interval.toNanos() / tickNanos);
+            intervalTicks.put(level, ticks);
+            longest = Math.max(longest, ticks + (long) Math.ceil(ticks * jitter) + 1);
+        }
+        // one revolution covers the longest delay, so a slot only ever holds targets that are due
+        int size = Integer.highestOneBit((int) Math.min(MAX_WHEEL_SIZE, longest));
+        if (size < longest && size < MAX_WHEEL_SIZE) {
+            size <<= 1;
+        }
+        this.wheel = new Target[size];
+        this.mask = size - 1;
+        this.jitter = jitter;
+        this.launcher = launcher;
+        this.flush = flush;
+    }
+
+    /**
+     * 対象を登録します。すでに登録されている場合はレベルだけを更新し、次回の期限は変えません。
+     * 初回のチェックは、レベルの間隔内のランダムな時点に予約されます。
+     *
+     * @param level 対象のレベル
+     * @param url   チェックするURL
+     * @return boolean 新しく登録した場合は {@code true}
+     */
+    boolean add(LogLevel level, String url) {
+        lock.lock();
+        try {
+            Target existing = targets.get(url);
+            if (existing != null) {
+                existing.level = level;
+                return false;
+            }
+            Target target = new Target(url, level);
+            targets.put(url, target);
+            long interval = intervalTicks.get(level);
+            link(target, 1 + ThreadLocalRandom.current().nextLong(interval));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 対象の登録を解除します。実行中のチェックはそのまま完了します。
+     *
+     * @param url 解除するURL
+     * @return boolean 登録されていた場合は {@code true}
+     */
+    boolean remove(String url) {
+        lock.lock();
+        try {
+            Target target = targets.remove(url);
+            if (target == null) {
+                return false;
+            }
+            unlink(target);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return int 登録されている対象の数
+     */
+    int size() {
+        lock.lock();
+        try {
+            return targets.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return int ホイールのスロット数
+     */
+    int wheelSize() {
+        return wheel.length;
+    }
+
+    /**
+     * ホイールを1tick進め、期限が来た対象のチェックを登録します。
+     * tickのスレッドを使わずに進める場合に使い、{@link #start()} と同時には使いません。
+     */
+    void tick() {
+        List<Target> due = new ArrayList<>();
+        advance(due);
+        if (!due.isEmpty()) {
+            launch(due);
+        }
+    }
+
+    /**
+     * tickを進めるデーモンスレッドを開始します。すでに開始している場合は何もしません。
+     */
+    synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        Thread t = new Thread(this::runTicks, "sentinel-monitor");
+        t.setDaemon(true);
+        ticker = t;
+        t.start();
+    }
+
+    /**
+     * tickを止めます。止めている間はホイールも進まず、登録された対象はそのまま残ります。
+     * 同じインスタンスで再度 {@link #start()} すると、止めたtickから再開します。
+     * なお {@link TaskEngine#stopMonitoring()} はこのインスタンスを破棄するため、
+     * エンジン経由で監視を再開した場合（{@link TaskEngine#startMonitoring}）は、対象のない新しいインスタンスから始まります。
+     */
+    synchronized void stop() {
+        Thread t = ticker;
+        ticker = null;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    private void runTicks() {
+        Thread self = Thread.currentThread();
+        long origin = System.nanoTime();
+        long processed = 0;
+        List<Target> due = new ArrayList<>();
+        while (ticker == self) {
+            long elapsed = (System.nanoTime() - origin) / tickNanos;
+            // catch up on ticks missed while the previous batch was being submitted
+            while (processed < elapsed) {
+                advance(due);
+                processed++;
+            }
+            if (!due.isEmpty()) {
+                launch(due);
+                due.clear();
+            }
+            long sleep = origin + (processed + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+        }
+    }
+
+    /**
+     * ホイールを1tick進め、期限が来た対象を {@code due} に集めて次の期限に予約し直します。
+     */
+    private void advance(List<Target> due) {
+        lock.lock();
+        try {
+            long tick = ++currentTick;
+            int slot = (int) (tick & mask);
+            Target node = wheel[slot];
+            wheel[slot] = null;
+            while (node != null) {
+                Target next = node.next;
+                node.prev = null;
+                node.next = null;
+                node.linked = false;
+                if (node.deadlineTick > tick) {
+                    // only happens when an interval is longer than one revolution
+                    link(node, node.deadlineTick - tick);
+                } else {
+                    due.add(node);
+                    link(node, nextDelay(intervalTicks.get(node.level)));
+                }
+                node = next;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void launch(List<Target> due) {
+        boolean launched = false;
+        for (Target target : due) {
+            if (target.inFlight) {
+                continue; // previous check still running: skip this round
+            }
+            target.inFlight = true;
+            launcher.apply(target.level, target.url).whenComplete((_, _) -> target.inFlight = false);
+            launched = true;
+        }
+        if (launched) {
+            flush.run();
+        }
+    }
+
+    private long nextDelay(long interval) {
+        if (jitter == 0) {
+            return interval;
+        }
+        long spread = (long) (interval * jitter);
+        long offset = spread == 0 ? 0 : ThreadLocalRandom.current().nextLong(-spread, spread + 1);
+        return Math.max(1, interval + offset);
+    }
+
+    /** {@link #lock} を保持した状態で呼び出します。 */
+    private void link(Target target, long delayTicks) {
+        target.deadlineTick = currentTick + delayTicks;
+        int slot = (int) (target.deadlineTick & mask);
+        Target head = wheel[slot];
+        target.next = head;
+        if (head != null) {
+            head.prev = target;
+        }
+        wheel[slot] = target;
+        target.linked = true;
+    }
+
+    /** {@link #lock} を保持した状態で呼び出します。 */
+    private void unlink(Target target) {
+        if (!target.linked) {
+            return;
+        }
+        if (target.prev != null) {
+            target.prev.next = target.next;
+        } else {
+            wheel[(int) (target.deadlineTick & mask)] = target.next;
+        }
+        if (target.next != null) {
+            target.next.prev = target.prev;
+        }
+        target.prev = null;
+        target.next = null;
+        target.linked = false;
+    }
+}
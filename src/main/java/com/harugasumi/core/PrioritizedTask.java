@@ -0,0 +1,278 @@
+package com.harugasumi.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、{@link TaskEngine#addTask} で受け付けたタスクを、
+ * 優先度・受付時刻・結果のFutureと一緒に保持します。
+ * <p>
+ * 同じインスタンスがステージング用のキュー、ホスト単位の待ち行列、スレッドプールのキューを
+ * 順に移動するため、ワーカーが取り出す瞬間まで優先度と待ち時間が失われません。
+ * </p>
+ * <p>
+ * 結果のFutureがキャンセルされると、実行中のワーカースレッドへの割り込みと、
+ * 進行中の非同期リクエストのキャンセルが行われます。{@code HttpClient} はどちらの場合も
+ * 通信を中断するため、キャンセルしたタスクのスレッドとソケットはすぐに解放されます。
+ * </p>
+ * <p>
+ * やり直し（{@link RetryPolicy}）の間も同じインスタンスが使われ、結果のFutureは最後の試行で完了します。
+ * ヘッジの試行は、元のタスク（{@link #primary()}）を指す別のインスタンスとして実行されます。
+ * </p>
+ */
+final class PrioritizedTask implements Runnable {
+
+    private final Task task;
+    private final int priority;
+    private final long enqueuedNanos;
+    private final Consumer<PrioritizedTask> runner;
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    private volatile long startedNanos;
+    /** 同期実行中のワーカースレッド。このインスタンスのロックで保護されます。 */
+    private Thread worker;
+    /** 進行中の非同期リクエスト。このインスタンスのロックで保護されます。 */
+    private Future<?> exchange;
+    /** ヘッジの試行の場合は元のタスク、それ以外は {@code null} */
+    private final PrioritizedTask primary;
+    /** 終わっていない試行（元の試行・やり直し・ヘッジ）の数 */
+    private final AtomicInteger pendingAttempts = new AtomicInteger();
+    /** これまでのやり直しの回数 */
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicBoolean hedged = new AtomicBoolean();
+    /** 結果を確定させた試行のタスク。このインスタンスのロックで保護されます。 */
+    private Task winner;
+    /** 試行が使っているホスト単位の枠を返す処理。{@link HostScheduler} が試行の開始時に設定します。 */
+    private final AtomicReference<Runnable> hostSlot = new AtomicReference<>();
+
+    /**
+     * @param task   実行するタスク
+     * @param runner ワーカーがこのタスクを取り出したときに呼び出される処理
+     */
+    PrioritizedTask(Task task, Consumer<PrioritizedTask> runner) {
+        this(task, runner, null);
+    }
+
+    /**
+     * @param task    実行するタスク
+     * @param runner  ワーカーがこのタスクを取り出したときに呼び出される処理
+     * @param primary ヘッジの試行の場合は元のタスク、それ以外は {@code null}
+     */
+    PrioritizedTask(Task task, Consumer<PrioritizedTask> runner, PrioritizedTask primary) {
+        this.primary = primary;
+        this.task = task;
+        this.priority = task.getPriority();
+        this.enqueuedNanos = System.nanoTime();
+        this.runner = runner;
+        result.whenComplete((_, error) -> {
+            if (error instanceof CancellationException) {
+                abort();
+            }
+        });
+    }
+
+    /**
+     * 結果が確定していない場合のみ、タスクを実行します。
+     * 待機中にキャンセルされたタスクは実行されません。
+     */
+    @Override
+    public void run() {
+        if (!result.isDone()) {
+            runner.accept(this);
+        }
+    }
+
+    Task task() {
+        return task;
+    }
+
+    int priority() {
+        return priority;
+    }
+
+    long enqueuedNanos() {
+        return enqueuedNanos;
+    }
+
+    CompletableFuture<Boolean> result() {
+        return result;
+    }
+
+    /**
+     * @return PrioritizedTask ヘッジの試行の場合は元のタスク、それ以外は {@code null}
+     */
+    PrioritizedTask primary() {
+        return primary;
+    }
+
+    /**
+     * 試行が使うホスト単位の枠を返す処理を設定します。
+     * @param release 枠を返す処理（{@link #releaseHostSlot()} で1回だけ実行されます）
+     */
+    void holdHostSlot(Runnable release) {
+        hostSlot.set(release);
+    }
+
+    /**
+     * 現在の試行が使っているホスト単位の枠を返します。枠を持っていない場合は何もしません。
+     * やり直しを待つ間に、同じホストの他のタスクが枠を使えるようにするためです。
+     */
+    void releaseHostSlot() {
+        Runnable release = hostSlot.getAndSet(null);
+        if (release != null) {
+            release.run();
+        }
+    }
+
+    /**
+     * 試行を1つ始めたことを記録します。
+     */
+    void beginAttempt() {
+        pendingAttempts.incrementAndGet();
+    }
+
+    /**
+     * 試行を1つ終えたことを記録します。
+     * @return int まだ終わっていない試行の数
+     */
+    int endAttempt() {
+        return pendingAttempts.decrementAndGet();
+    }
+
+    /**
+     * @return int やり直しを1回追加した後の、やり直しの回数
+     */
+    int nextRetry() {
+        return retries.incrementAndGet();
+    }
+
+    /**
+     * @return boolean 初めて呼び出された場合は {@code true}（ヘッジは1つのタスクに1回まで）
+     */
+    boolean markHedged() {
+        return hedged.compareAndSet(false, true);
+    }
+
+    /**
+     * 試行の結果で、このタスクの結果を確定させます。
+     * @param attempt 結果を出した試行のタスク
+     * @param value   結果
+     * @return boolean 確定させた場合は {@code true}。すでに結果が確定していた場合は {@code false}
+     */
+    boolean complete(Task attempt, Boolean value) {
+        synchronized (this) {
+            if (result.isDone()) {
+                return false;
+            }
+            winner = attempt;
+        }
+        return result.complete(value);
+    }
+
+    /**
+     * @return Task 結果を確定させた試行のタスク。ヘッジが勝った場合はそのタスク、それ以外は {@link #task()}
+     */
+    synchronized Task resultTask() {
+        return winner != null ? winner : task;
+    }
+
+    /**
+     * 進行中の試行を中断します。ヘッジが先に応答した場合に、元の試行を止めるために使います。
+     */
+    void abortAttempt() {
+        abort();
+    }
+
+    /**
+     * 実行を開始した時刻を記録します。
+     * @return long キューでの待ち時間（ナノ秒）
+     */
+    long markStarted() {
+        long now = System.nanoTime();
+        startedNanos = now;
+        return now - enqueuedNanos;
+    }
+
+    /**
+     * @return long 実行を開始した時刻（{@link System#nanoTime()}）。未開始の場合は0
+     */
+    long startedNanos() {
+        return startedNanos;
+    }
+
+    /**
+     * 同期実行を始めるワーカースレッドを登録します。
+     * @param thread 実行するスレッド
+     * @return boolean すでに結果が確定している（キャンセル済みの）場合は {@code false}
+     */
+    synchronized boolean attach(Thread thread) {
+        if (result.isDone()) {
+            return false;
+        }
+        worker = thread;
+        return true;
+    }
+
+    /**
+     * ワーカースレッドの登録を解除します。これ以降のキャンセルでは、そのスレッドに割り込みません。
+     */
+    synchronized void detach() {
+        worker = null;
+    }
+
+    /**
+     * 進行中の非同期リクエストを登録します。すでにキャンセルされていた場合は、直ちにキャンセルします。
+     * @param future 非同期リクエストのFuture
+     */
+    void attachExchange(Future<?> future) {
+        synchronized (this) {
+            if (!result.isCancelled()) {
+                exchange = future;
+                return;
+            }
+        }
+        future.cancel(true);
+    }
+
+    /**
+     * 実行中の処理を中断します。
+     */
+    private void abort() {
+        Thread thread;
+        Future<?> pending;
+        synchronized (this) {
+            thread = worker;
+            pending = exchange;
+            if (thread != null) {
+                // interrupt while still attached, so a thread that moved on is never hit
+                thread.interrupt();
+            }
+        }
+        if (pending != null) {
+            pending.cancel(true);
+        }
+    }
+
+    /**
+     * キューの要素から優先度を取り出します。{@code PrioritizedTask} 以外の要素は最低優先度として扱います。
+     * @param element キューの要素
+     * @return int 優先度
+     */
+    static int priorityOf(Object element) {
+        return element instanceof PrioritizedTask p ? p.priority : Integer.MIN_VALUE;
+    }
+
+    /**
+     * キューの要素から受付時刻を取り出します。{@code PrioritizedTask} 以外の要素はエージングの対象外です。
+     * @param element キューの要素
+     * @return long 受付時刻（{@link System#nanoTime()}）
+     */
+    static long enqueuedOf(Object element) {
+        return element instanceof PrioritizedTask p ? p.enqueuedNanos : Long.MAX_VALUE;
+    }
+}
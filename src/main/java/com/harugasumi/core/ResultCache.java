@@ -0,0 +1,302 @@
+package com.harugasumi.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、最近チェックしたURLの結果を一定時間（TTL）保持し、同じURLの再チェックを省くためのキャッシュです。
+ * <p>
+ * キーは {@link #normalize(String)} で正規化したURLです。TTLはレベルごとに設定でき、
+ * 既定ではCRITICALが1分、WARNINGが5分、INFOが15分です。
+ * キャッシュするのは応答があった結果だけで、タイムアウトや接続エラーのような一時的な失敗は毎回チェックし直します。
+ * </p>
+ * <p>
+ * 容量を超えた場合は、最も長く使われていないエントリ（LRU）を追い出し候補にします。
+ * ただし、一度しか出てこないURLの大量スキャンで、よく使うエントリが押し出されないように、
+ * TinyLFUと同じ考え方で、新しいURLの出現頻度が候補より低い場合は新しいURLの方を格納しません。
+ * 出現頻度は4ビット相当のカウンターを持つCount-Min Sketchで概算し、一定回数ごとに半減させて古い頻度を忘れます。
+ * </p>
+ * <p>
+ * {@link #save(Path)} と {@link #load(Path)} で、有効期限内のエントリをJSONファイルに保存・復元できます。
+ * 有効期限は実時刻で記録されるため、アプリを再起動しても正しく失効します。
+ * </p>
+ */
+public final class ResultCache {
+
+    private static final int MAX_FREQUENCY = 15;
+
+    private final int capacity;
+    private final EnumMap<LogLevel, Long> ttlMillis = new EnumMap<>(LogLevel.class);
+    /** アクセス順に並んだエントリ。このインスタンスのロックで保護されます。 */
+    private final LinkedHashMap<String, Entry> entries;
+    private final FrequencySketch sketch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * キャッシュの1件分です。
+     * @param result    チェック結果
+     * @param expiresAt 有効期限（エポックミリ秒）
+     */
+    private record Entry(ScanResult result, long expiresAt) {
+    }
+
+    /**
+     * 保存ファイルの1件分です。
+     */
+    private record Persisted(String url, String level, int statusCode, long latencyNanos, String statusClass,
+            int redirectCount, long expiresAt) {
+    }
+
+    /**
+     * @param capacity 保持する最大件数（1以上）
+     * @param ttls     レベルごとのTTL（すべてのレベルを含むこと）
+     */
+    public ResultCache(int capacity, Map<LogLevel, Duration> ttls) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        for (LogLevel level : LogLevel.values()) {
+            Duration ttl = ttls.get(level);
+            if (ttl == null || ttl.isNegative()) {
+                throw new IllegalArgumentException("TTL for " + level + " is missing or negative: " + ttl);
+            }
+            ttlMillis.put(level, ttl.toMillis());
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(Math.min(capacity, 1 << 16), 0.75f, true);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * レベルごとの既定のTTLを返します。CRITICALは1分、WARNINGは5分、INFOは15分です。
+     * @return {@code Map<LogLevel, Duration>} 変更可能なコピー
+     */
+    public static Map<LogLevel, Duration> defaultTtls() {
+        Map<LogLevel, Duration> ttls = new EnumMap<>(LogLevel.class);
+        ttls.put(LogLevel.CRITICAL, Duration.ofMinutes(1));
+        ttls.put(LogLevel.WARNING, Duration.ofMinutes(5));
+        ttls.put(LogLevel.INFO, Duration.ofMinutes(15));
+        return ttls;
+    }
+
+    /**
+     * URLを比較用に正規化します。規則は {@link TargetTable#normalize(String)} と同じです。
+     * @param url 正規化するURL
+     * @return String 正規化したURL
+     */
+    public static String normalize(String url) {
+        return TargetTable.normalize(url);
+    }
+
+    /**
+     * 有効期限内の結果を返します。
+     * @param url チェックするURL（正規化前で構いません）
+     * @return ScanResult キャッシュされた結果。ない場合や期限切れの場合は {@code null}
+     */
+    public ScanResult get(String url) {
+        String key = normalize(url);
+        long now = System.currentTimeMillis();
+        ScanResult found = null;
+        synchronized (this) {
+            sketch.increment(key);
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() > now) {
+                    found = entry.result();
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+        (found != null ? hits : misses).increment();
+        return found;
+    }
+
+    /**
+     * チェック結果を格納します。応答がなかった結果や、TTLが0のレベルの結果は格納しません。
+     * {@link TaskEngine#addResultListener} にそのまま渡せます。
+     * @param result チェック結果
+     */
+    public void put(ScanResult result) {
+        if (result == null || result.url() == null || !result.statusClass().isResponded()) {
+            return;
+        }
+        long ttl = ttlMillis.get(result.level());
+        if (ttl == 0) {
+            return;
+        }
+        insert(normalize(result.url()), new Entry(result, System.currentTimeMillis() + ttl));
+    }
+
+    private synchronized void insert(String key, Entry entry) {
+        Entry existing = entries.get(key);
+        if (existing != null && existing.result() == entry.result()) {
+            return; // a hit being reported back: keep the original expiry
+        }
+        if (existing != null || entries.size() < capacity) {
+            entries.put(key, entry);
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<String, Entry> victim = eldest.next();
+        // expired entries always make room; otherwise the newcomer has to be the more frequent one
+        if (victim.getValue().expiresAt() > System.currentTimeMillis()
+                && sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+            return;
+        }
+        eldest.remove();
+        entries.put(key, entry);
+    }
+
+    /**
+     * @return int 格納されている件数（期限切れで未削除のものを含む）
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * すべてのエントリを削除します。ヒット数などの統計は残ります。
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return long {@link #get} でキャッシュが使われた回数
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return long {@link #get} でキャッシュが使えなかった回数
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * 有効期限内のエントリをJSONファイルに保存します。書き込みは一時ファイル経由で行い、途中で失敗しても元のファイルは壊れません。
+     * @param file 保存先
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void save(Path file) throws IOException {
+        List<Persisted> snapshot = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.expiresAt() <= now) continue;
+                ScanResult r = entry.result();
+                snapshot.add(new Persisted(e.getKey(), r.level().name(), r.statusCode(), r.latencyNanos(),
+                        r.statusClass().name(), r.redirectCount(), entry.expiresAt()));
+            }
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            new ObjectMapper().writeValue(tmp.toFile(), snapshot);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * {@link #save} で保存したファイルを読み込み、有効期限内のエントリを格納します。
+     * ファイルがない場合は何もしません。
+     * @param file 読み込むファイル
+     * @return int 格納した件数
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public int load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        List<Persisted> saved = new ObjectMapper().readValue(file.toFile(), new TypeReference<List<Persisted>>() {
+        });
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        for (Persisted p : saved) {
+            if (p.expiresAt() <= now) continue;
+            ScanResult result = new ScanResult(p.url(), LogLevel.valueOf(p.level()), p.statusCode(), p.latencyNanos(),
+                    StatusClass.valueOf(p.statusClass()), null, p.redirectCount());
+            insert(p.url(), new Entry(result, p.expiresAt()));
+            loaded++;
+        }
+        return loaded;
+    }
+
+    /**
+     * 出現頻度を概算するCount-Min Sketchです。呼び出し元のロックで保護されます。
+     * 記録回数が容量の10倍に達するたびに、すべてのカウンターを半分にします。
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private final byte[] counters;
+        private final int mask;
+        private final int resetAt;
+        private int additions;
+
+        private FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(64, Math.min(capacity, 1 << 24)) - 1) << 1;
+            this.counters = new byte[width * DEPTH];
+            this.mask = width - 1;
+            this.resetAt = (int) Math.min(Integer.MAX_VALUE, 10L * capacity);
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * (0x9E3779B9 + 2 * row) + row;
+            h ^= h >>> 16;
+            return row * (mask + 1) + (h & mask);
+        }
+
+        private int frequency(String key) {
+            int hash = key.hashCode();
+            int min = MAX_FREQUENCY;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[index(hash, row)]);
+            }
+            return min;
+        }
+
+        private void increment(String key) {
+            int hash = key.hashCode();
+            int min = frequency(key);
+            if (min < MAX_FREQUENCY) {
+                // conservative update: only the counters at the minimum grow
+                for (int row = 0; row < DEPTH; row++) {
+                    int i = index(hash, row);
+                    if (counters[i] == min) {
+                        counters[i]++;
+                    }
+                }
+            }
+            if (++additions >= resetAt) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+    }
+}
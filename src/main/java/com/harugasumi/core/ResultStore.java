@@ -0,0 +1,361 @@
+package com.harugasumi.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+import com.harugasumi.model.UrlTable;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、{@link ScanResult} を列ごとのプリミティブ配列に格納する結果ストアです。
+ * <p>
+ * 1件ごとにオブジェクトや文字列を保持しないため、100万件の結果でも
+ * ボックス化された値を大量に作らずに並べ替えや絞り込みができます。
+ * 行にはURLの代わりに {@link ScanResult#urlId()}（{@link UrlTable} のID）だけが記録され、
+ * エラーのクラス名も重複なしの表に一度だけ格納されて、行には番号だけが記録されます。
+ * </p>
+ * <p>
+ * 行の番号は追加された順に0から振られます。問い合わせの結果は行番号の {@code int[]} で返されます。
+ * 追加は複数のスレッドから同時に行えます。
+ * </p>
+ */
+public class ResultStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final LogLevel[] LEVELS = LogLevel.values();
+    private static final StatusClass[] CLASSES = StatusClass.values();
+    /** 区別して保持するエラーのクラス名の数。これを超えた種類は {@link #OTHER_ERROR} にまとめます。 */
+    static final int MAX_ERROR_CLASSES = Byte.MAX_VALUE;
+    /** 表に入りきらなかったエラーの番号。どの登録済みのクラス名の番号とも重なりません。 */
+    private static final int OTHER_ERROR = MAX_ERROR_CLASSES;
+    /** {@link #OTHER_ERROR} の行が {@link #errorClass(int)} で返す名前 */
+    public static final String OTHER_ERROR_CLASS = "(other)";
+
+    private int size;
+    private int[] urlIds = new int[INITIAL_CAPACITY];
+    private byte[] levels = new byte[INITIAL_CAPACITY];
+    private short[] statusCodes = new short[INITIAL_CAPACITY];
+    private long[] latencies = new long[INITIAL_CAPACITY];
+    private byte[] statusClasses = new byte[INITIAL_CAPACITY];
+    private byte[] errorIds = new byte[INITIAL_CAPACITY];
+    private byte[] redirects = new byte[INITIAL_CAPACITY];
+
+    private final Map<String, Integer> errorIndex = new HashMap<>();
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * 結果を1件追加します。
+     *
+     * @param result 追加する結果
+     * @return int 追加した行の番号
+     */
+    public synchronized int add(ScanResult result) {
+        if (size == urlIds.length) {
+            grow();
+        }
+        int row = size++;
+        urlIds[row] = result.urlId();
+        levels[row] = (byte) result.level().ordinal();
+        statusCodes[row] = (short) result.statusCode();
+        latencies[row] = result.latencyNanos();
+        statusClasses[row] = (byte) result.statusClass().ordinal();
+        errorIds[row] = (byte) (result.errorClass() == null ? -1 : errorId(result.errorClass()));
+        redirects[row] = (byte) Math.min(result.redirectCount(), Byte.MAX_VALUE);
+        return row;
+    }
+
+    private int errorId(String errorClass) {
+        Integer id = errorIndex.get(errorClass);
+        if (id == null) {
+            if (errors.size() >= MAX_ERROR_CLASSES) {
+                // too many kinds: lump the rest together under an id no real entry uses
+                return OTHER_ERROR;
+            }
+            id = errors.size();
+            errors.add(errorClass);
+            errorIndex.put(errorClass, id);
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = urlIds.length * 2;
+        urlIds = Arrays.copyOf(urlIds, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        statusCodes = Arrays.copyOf(statusCodes, capacity);
+        latencies = Arrays.copyOf(latencies, capacity);
+        statusClasses = Arrays.copyOf(statusClasses, capacity);
+        errorIds = Arrays.copyOf(errorIds, capacity);
+        redirects = Arrays.copyOf(redirects, capacity);
+    }
+
+    /**
+     * @return int 格納されている結果の件数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * すべての結果を削除します。エラーのクラス名の表も空になります。
+     */
+    public synchronized void clear() {
+        size = 0;
+        errorIndex.clear();
+        errors.clear();
+    }
+
+    public synchronized int urlId(int row) {
+        return urlIds[row];
+    }
+
+    public synchronized String url(int row) {
+        return UrlTable.url(urlIds[row]);
+    }
+
+    public synchronized LogLevel level(int row) {
+        return LEVELS[levels[row]];
+    }
+
+    public synchronized int statusCode(int row) {
+        return statusCodes[row];
+    }
+
+    public synchronized long latencyNanos(int row) {
+        return latencies[row];
+    }
+
+    public synchronized StatusClass statusClass(int row) {
+        return CLASSES[statusClasses[row]];
+    }
+
+    public synchronized String errorClass(int row) {
+        int id = errorIds[row];
+        if (id < 0) {
+            return null;
+        }
+        return id == OTHER_ERROR ? OTHER_ERROR_CLASS : errors.get(id);
+    }
+
+    public synchronized int redirectCount(int row) {
+        return redirects[row];
+    }
+
+    /**
+     * 1行分の結果をオブジェクトとして取り出します。表示用など、少数の行に対してのみ使用してください。
+     *
+     * @param row 行の番号
+     * @return ScanResult その行の結果
+     */
+    public synchronized ScanResult get(int row) {
+        return new ScanResult(urlIds[row], level(row), statusCode(row), latencyNanos(row),
+                statusClass(row), errorClass(row), redirectCount(row));
+    }
+
+    /**
+     * レベルと分類で絞り込みます。
+     *
+     * @param level  レベル。{@code null} の場合は絞り込まない
+     * @param status 分類。{@code null} の場合は絞り込まない
+     * @return int[] 条件に合う行の番号（追加順）
+     */
+    public synchronized int[] rows(LogLevel level, StatusClass status) {
+        int wantLevel = level == null ? -1 : level.ordinal();
+        int wantStatus = status == null ? -1 : status.ordinal();
+        return filter(row -> (wantLevel < 0 || levels[row] == wantLevel)
+                && (wantStatus < 0 || statusClasses[row] == wantStatus));
+    }
+
+    /**
+     * 任意の条件で絞り込みます。条件は行の番号を受け取ります。
+     *
+     * @param predicate 行を残す場合に {@code true} を返す条件
+     * @return int[] 条件に合う行の番号（追加順）
+     */
+    public synchronized int[] filter(IntPredicate predicate) {
+        int[] out = new int[size];
+        int n = 0;
+        for (int row = 0; row < size; row++) {
+            if (predicate.test(row)) {
+                out[n++] = row;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return int[] すべての行の番号（追加順）
+     */
+    public synchronized int[] allRows() {
+        int[] out = new int[size];
+        Arrays.setAll(out, i -> i);
+        return out;
+    }
+
+    /**
+     * 行の番号を応答時間の長い順に並べ替えます。
+     *
+     * @param rows 並べ替える行の番号（その場で並べ替えられます）
+     * @return int[] {@code rows} 自身
+     */
+    public synchronized int[] sortByLatencyDescending(int[] rows) {
+        long[] column = latencies;
+        sortRows(rows, (a, b) -> Long.compare(column[b], column[a]));
+        return rows;
+    }
+
+    /**
+     * 応答時間の長い順に上位 {@code k} 件の行の番号を返します。
+     * すべての行を並べ替えずに、{@code k} 件の最小ヒープで1回走査するだけです（O(n log k)、追加の配列は {@code k} 件分）。
+     * 応答時間が同じ場合は、先に追加された行を先にします。
+     *
+     * @param k 取り出す件数
+     * @return int[] 応答時間の長い順の行の番号（最大 {@code k} 件）
+     */
+    public synchronized int[] slowest(int k) {
+        int n = Math.min(k, size);
+        if (n <= 0) {
+            return new int[0];
+        }
+        long[] column = latencies;
+        // min-heap on (latency, -row): the root is the row that drops out first
+        int[] heap = new int[n];
+        for (int row = 0; row < n; row++) {
+            heap[row] = row;
+            siftUp(heap, row, column);
+        }
+        for (int row = n; row < size; row++) {
+            if (ranksBelow(column, heap[0], row)) {
+                heap[0] = row;
+                siftDown(heap, 0, n, column);
+            }
+        }
+        int[] out = new int[n];
+        for (int count = n; count > 0; count--) {
+            out[count - 1] = heap[0];
+            heap[0] = heap[count - 1];
+            siftDown(heap, 0, count - 1, column);
+        }
+        return out;
+    }
+
+    /**
+     * @return boolean 行 {@code a} が行 {@code b} より速い（同じ場合は後に追加された）なら {@code true}
+     */
+    private static boolean ranksBelow(long[] latency, int a, int b) {
+        return latency[a] < latency[b] || (latency[a] == latency[b] && a > b);
+    }
+
+    private static void siftUp(int[] heap, int i, long[] latency) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!ranksBelow(latency, heap[i], heap[parent])) {
+                return;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int i, int n, long[] latency) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                return;
+            }
+            if (child + 1 < n && ranksBelow(latency, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!ranksBelow(latency, heap[child], heap[i])) {
+                return;
+            }
+            swap(heap, i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * 行の番号をステータスコードの順に並べ替えます。
+     *
+     * @param rows 並べ替える行の番号（その場で並べ替えられます）
+     * @return int[] {@code rows} 自身
+     */
+    public synchronized int[] sortByStatusCode(int[] rows) {
+        short[] column = statusCodes;
+        sortRows(rows, (a, b) -> Integer.compare(column[a], column[b]));
+        return rows;
+    }
+
+    /**
+     * 行の番号をレベルの高い順に並べ替えます。
+     *
+     * @param rows 並べ替える行の番号（その場で並べ替えられます）
+     * @return int[] {@code rows} 自身
+     */
+    public synchronized int[] sortByLevelDescending(int[] rows) {
+        byte[] column = levels;
+        sortRows(rows, (a, b) -> Integer.compare(column[b], column[a]));
+        return rows;
+    }
+
+    /**
+     * ボックス化せずに {@code int[]} を比較関数で並べ替えます（クイックソート＋挿入ソート）。
+     *
+     * @param rows 並べ替える配列
+     * @param cmp  2つの行の番号を比較する関数
+     */
+    static void sortRows(int[] rows, IntBinaryOperator cmp) {
+        quickSort(rows, 0, rows.length - 1, cmp);
+    }
+
+    private static void quickSort(int[] a, int lo, int hi, IntBinaryOperator cmp) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            // median of three
+            if (cmp.applyAsInt(a[mid], a[lo]) < 0) swap(a, mid, lo);
+            if (cmp.applyAsInt(a[hi], a[lo]) < 0) swap(a, hi, lo);
+            if (cmp.applyAsInt(a[hi], a[mid]) < 0) swap(a, hi, mid);
+            int pivot = a[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (cmp.applyAsInt(a[i], pivot) < 0) i++;
+                while (cmp.applyAsInt(a[j], pivot) > 0) j--;
+                if (i <= j) {
+                    swap(a, i++, j--);
+                }
+            }
+            // recurse into the smaller half to bound stack depth
+            if (j - lo < hi - i) {
+                quickSort(a, lo, j, cmp);
+                lo = i;
+            } else {
+                quickSort(a, i, hi, cmp);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int v = a[i];
+            int j = i - 1;
+            while (j >= lo && cmp.applyAsInt(a[j], v) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
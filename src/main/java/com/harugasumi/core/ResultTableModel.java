@@ -0,0 +1,61 @@
+package com.harugasumi.core;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、{@link ResultStore} の行を {@code JTable} に表示するためのモデルです。
+ * <p>
+ * 表示する行は行番号の配列（ビュー）だけで保持し、セルの値は描画時にストアの列から直接読み取ります。
+ * {@code JTable} は画面に見えている行しか問い合わせないため、100万件でも文字列の生成は表示分だけです。
+ * </p>
+ */
+class ResultTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = { "Level", "Status", "Latency (ms)", "Redirects", "Error", "URL" };
+
+    private final transient ResultStore store;
+    private int[] view = new int[0];
+
+    ResultTableModel(ResultStore store) {
+        this.store = store;
+    }
+
+    /**
+     * 表示する行を入れ替えます。イベントディスパッチスレッドから呼び出してください。
+     * @param rows 表示する行の番号（表示順）
+     */
+    void setView(int[] rows) {
+        this.view = rows;
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        return view.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int row = view[rowIndex];
+        return switch (columnIndex) {
+            case 0 -> store.level(row);
+            case 1 -> store.statusCode(row) < 0 ? store.statusClass(row).getLabel() : String.valueOf(store.statusCode(row));
+            case 2 -> String.valueOf(store.latencyNanos(row) / 1_000_000);
+            case 3 -> String.valueOf(store.redirectCount(row));
+            case 4 -> store.errorClass(row);
+            default -> store.url(row);
+        };
+    }
+}
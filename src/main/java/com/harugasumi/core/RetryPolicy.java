@@ -0,0 +1,101 @@
+package com.harugasumi.core;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、一時的な失敗をやり直す回数と間隔を定めます。
+ * <p>
+ * やり直すのは、タイムアウトと接続エラーのようにサーバーから応答がなかった結果だけです。
+ * 名前解決の失敗や、ステータスコードが返ってきた結果（5xxを含む）はやり直しません。
+ * 間隔は {@code baseDelay} から1回ごとに2倍になり（最大 {@code maxDelay}）、
+ * 多数の対象が同じ瞬間にやり直さないように、その後半の範囲でランダムに揺らします。
+ * </p>
+ */
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    /**
+     * @param maxAttempts 最初の1回を含む試行回数の上限（1以上。1の場合はやり直しません）
+     * @param baseDelay   1回目のやり直しまでの間隔の目安
+     * @param maxDelay    やり直しまでの間隔の上限
+     */
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        if (baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0) {
+            throw new IllegalArgumentException("Invalid delays: base=" + baseDelay + ", max=" + maxDelay);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    /**
+     * 既定の設定を返します。最大3回、間隔は200ミリ秒から始まり最大2秒です。
+     * @return RetryPolicy 既定の設定
+     */
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(3, Duration.ofMillis(200), Duration.ofSeconds(2));
+    }
+
+    /**
+     * @return int 最初の1回を含む試行回数の上限
+     */
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return Duration 1回目のやり直しまでの間隔の目安
+     */
+    public Duration baseDelay() {
+        return Duration.ofNanos(baseDelayNanos);
+    }
+
+    /**
+     * @return Duration やり直しまでの間隔の上限
+     */
+    public Duration maxDelay() {
+        return Duration.ofNanos(maxDelayNanos);
+    }
+
+    /**
+     * 結果が一時的な失敗で、やり直す価値があるかを返します。
+     * @param result 直前の試行の結果
+     * @return boolean やり直す場合は {@code true}
+     */
+    public boolean isRetryable(ScanResult result) {
+        if (result == null) {
+            return false;
+        }
+        StatusClass status = result.statusClass();
+        if (status == StatusClass.TIMEOUT) {
+            return true;
+        }
+        return status == StatusClass.NETWORK_ERROR && !"UnknownHostException".equals(result.errorClass());
+    }
+
+    /**
+     * やり直しまでの間隔を返します。
+     * @param retry 何回目のやり直しか（1から）
+     * @return long 間隔（ナノ秒）
+     */
+    public long backoffNanos(int retry) {
+        int shift = Math.max(0, retry - 1);
+        // a shift that would carry into the sign bit can wrap to a small positive value, so cap it before shifting
+        long ceiling = baseDelayNanos > 0 && shift >= Long.numberOfLeadingZeros(baseDelayNanos) - 1
+                ? maxDelayNanos
+                : Math.min(maxDelayNanos, baseDelayNanos << shift);
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+}
@@ -0,0 +1,126 @@
+package com.harugasumi.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、チェック結果を {@link LogLevel} と {@link StatusClass} ごとに数えます。
+ * <p>
+ * 各セルは {@link LongAdder} のため、多数のワーカーが同時に記録しても競合しにくく、
+ * 使用メモリはチェック対象の数に関係なく一定です。
+ * 値はスキャン中でもいつでも読み取れます（読み取り時点の概算値になります）。
+ * </p>
+ */
+public class ScanStats {
+
+    private static final LogLevel[] LEVELS = LogLevel.values();
+    private static final StatusClass[] CLASSES = StatusClass.values();
+
+    private final LongAdder[][] counts = new LongAdder[LEVELS.length][CLASSES.length];
+
+    public ScanStats() {
+        for (LongAdder[] row : counts) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * チェック結果を1件記録します。
+     *
+     * @param level  タスクのレベル
+     * @param status 結果の分類
+     */
+    public void record(LogLevel level, StatusClass status) {
+        counts[level.ordinal()][status.ordinal()].increment();
+    }
+
+    /**
+     * @param level  タスクのレベル
+     * @param status 結果の分類
+     * @return long 該当する件数
+     */
+    public long count(LogLevel level, StatusClass status) {
+        return counts[level.ordinal()][status.ordinal()].sum();
+    }
+
+    /**
+     * @param level タスクのレベル
+     * @return long そのレベルの完了件数
+     */
+    public long count(LogLevel level) {
+        long sum = 0;
+        for (LongAdder cell : counts[level.ordinal()]) {
+            sum += cell.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * @param status 結果の分類
+     * @return long その分類の件数（全レベルの合計）
+     */
+    public long count(StatusClass status) {
+        long sum = 0;
+        for (LongAdder[] row : counts) {
+            sum += row[status.ordinal()].sum();
+        }
+        return sum;
+    }
+
+    /**
+     * @return long 完了件数の合計
+     */
+    public long total() {
+        long sum = 0;
+        for (LogLevel level : LEVELS) {
+            sum += count(level);
+        }
+        return sum;
+    }
+
+    /**
+     * @return long サーバーから応答があった件数（従来の「Online」）
+     */
+    public long online() {
+        long sum = 0;
+        for (StatusClass status : CLASSES) {
+            if (status.isResponded()) {
+                sum += count(status);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * すべてのカウンターをゼロに戻します。
+     */
+    public void reset() {
+        for (LongAdder[] row : counts) {
+            for (LongAdder cell : row) {
+                cell.reset();
+            }
+        }
+    }
+
+    /**
+     * レベルごとの内訳を1行で表します。
+     *
+     * @param level タスクのレベル
+     * @return String 例: {@code "CRITICAL: 12 (2xx 10, 3xx 1, 4xx 0, 5xx 0, timeout 1, error 0, cancelled 0)"}
+     */
+    public String describe(LogLevel level) {
+        StringBuilder sb = new StringBuilder().append(level).append(": ").append(count(level)).append(" (");
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(CLASSES[i].getLabel()).append(' ').append(count(level, CLASSES[i]));
+        }
+        return sb.append(')').toString();
+    }
+}
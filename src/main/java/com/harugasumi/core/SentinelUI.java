@@ -1,6 +1,7 @@
 package com.harugasumi.core;
 
 import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
@@ -9,20 +10,31 @@ import java.util.List;
 public class SentinelUI extends JFrame {
 
     private static final long serialVersionUID = 1L;
+    private static final int STREAM_BUFFER = 10_000;
+    private static final int TERMINAL_LINES = 5_000;
+    private static final int TERMINAL_FPS = 30;
+    private static final int CACHE_CAPACITY = 100_000;
 
     // Backend Components
     private TaskEngine engine;
     private TaskWorker worker;
+    private MetricsServer metrics; // null unless -Dsentinel.metricsPort is set
     private List<String> stagedLines; // We store the list here instead of a text area
+    private TargetTable stagedTable; // dedup index: table id == position in stagedLines/listModel
 
     // UI Components
     private JComboBox<LogLevel> levelSelector;
     private JTextField urlInput;
     private DefaultListModel<String> listModel; // The visible list on screen
-    private JTextArea logArea;
+    private LogRingModel logModel; // fixed-size ring, repainted by a timer
+    private JList<String> logList;
+    private Timer logRefresh;
     private JTabbedPane tabbedPane;
     private JButton startButton;
     private JProgressBar progressBar;
+    private ResultTableModel resultModel;
+    private JComboBox<Object> resultFilter;
+    private JComboBox<String> resultSort;
 
     public SentinelUI() {
         // 1. Setup Main Window (SINGLE WINDOW, NO MORE POP-UPS)
@@ -32,8 +44,82 @@ public class SentinelUI extends JFrame {
         
         // Initialize Data
         this.stagedLines = new ArrayList<>();
-        this.engine = new TaskEngine();
+        this.stagedTable = new TargetTable();
+        // -Dsentinel.mode=VIRTUAL (または ASYNC) -Dsentinel.maxInFlight=5000 で実行方式を切り替え可能
+        this.engine = new TaskEngine(
+                ExecutionMode.valueOf(System.getProperty("sentinel.mode", "PLATFORM").toUpperCase()),
+                Integer.getInteger("sentinel.maxInFlight", 10));
+        // -Dsentinel.perHost=2 -Dsentinel.hostIntervalMs=250 で同一ホストへの流量を制限
+        Integer perHost = Integer.getInteger("sentinel.perHost");
+        if (perHost != null) {
+            this.engine.setHostPoliteness(perHost,
+                    java.time.Duration.ofMillis(Long.getLong("sentinel.hostIntervalMs", 0L)));
+        }
+        // -Dsentinel.adaptiveMax=500 で同時実行数（最大500）とホストごとのタイムアウトを自動調整
+        Integer adaptiveMax = Integer.getInteger("sentinel.adaptiveMax");
+        if (adaptiveMax != null) {
+            this.engine.setAdaptive(new AdaptiveController(Integer.getInteger("sentinel.maxInFlight", 10), 1,
+                    adaptiveMax, java.time.Duration.ofMillis(500), java.time.Duration.ofSeconds(30)));
+        }
+        // -Dsentinel.http=HTTP_1_1 -Dsentinel.connectionsPerHost=6 で接続の使い回し方を変更
+        ConnectionManager.setDefault(new ConnectionManager(
+                java.net.http.HttpClient.Version.valueOf(System.getProperty("sentinel.http", "HTTP_2").toUpperCase()),
+                Integer.getInteger("sentinel.connectionsPerHost", ConnectionManager.DEFAULT_MAX_PER_ORIGIN),
+                ConnectionManager.DEFAULT_HTTP2_STREAMS, ConnectionManager.DEFAULT_KEEP_ALIVE));
+        // -Dsentinel.retries=2 でタイムアウトや接続エラーをやり直し、-Dsentinel.hedge=true で遅いチェックにヘッジを送る
+        int retries = Integer.getInteger("sentinel.retries", 0);
+        if (retries > 0) {
+            RetryPolicy defaults = RetryPolicy.defaults();
+            this.engine.setRetryPolicy(new RetryPolicy(retries + 1, defaults.baseDelay(), defaults.maxDelay()));
+        }
+        this.engine.setHedging(Boolean.getBoolean("sentinel.hedge"));
+        this.engine.setResultStore(new ResultStore());
         this.worker = new TaskWorker(engine);
+        // -Dsentinel.tiered=true でTCPの接続を確かめてからHEADを送る
+        this.worker.setTieredProbe(Boolean.getBoolean("sentinel.tiered"));
+        // 同じURLを続けてスキャンした場合は、TTL内の結果を再利用する
+        // -Dsentinel.cacheFile=cache.json でキャッシュを次回の起動に引き継ぐ
+        ResultCache cache = new ResultCache(CACHE_CAPACITY, ResultCache.defaultTtls());
+        String cacheFile = System.getProperty("sentinel.cacheFile");
+        if (cacheFile != null) {
+            try {
+                cache.load(java.nio.file.Path.of(cacheFile));
+            } catch (java.io.IOException e) {
+                System.err.println("Could not load cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+        this.worker.setResultCache(cache);
+        // -Dsentinel.stateFile=state.ndjson でURLごとの最後の状態を記録し、スコアボードに前回からの変化を表示する
+        String stateFile = System.getProperty("sentinel.stateFile");
+        if (stateFile != null) {
+            try {
+                this.engine.setStateLog(StateLog.open(java.nio.file.Path.of(stateFile)));
+            } catch (java.io.IOException e) {
+                System.err.println("Could not open state log " + stateFile + ": " + e.getMessage());
+            }
+        }
+        // -Dsentinel.metricsPort=9400 で http://127.0.0.1:9400/metrics にエンジンの状態を公開する（ウィンドウを閉じるまで）
+        Integer metricsPort = Integer.getInteger("sentinel.metricsPort");
+        if (metricsPort != null) {
+            try {
+                this.metrics = new MetricsServer(this.engine,
+                        new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), metricsPort));
+            } catch (java.io.IOException e) {
+                System.err.println("Could not serve metrics on port " + metricsPort + ": " + e.getMessage());
+            }
+        }
+        // listeners run before EXIT_ON_CLOSE exits, so the port is released on the way out
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                if (metrics != null) {
+                    metrics.close();
+                }
+            }
+        });
+        // -Dsentinel.session=BINARY で session.bin（バイナリ形式）に保存
+        this.worker.setSessionFormat(
+                SessionFormat.valueOf(System.getProperty("sentinel.session", "JSON").toUpperCase()));
 
         // 2. Create the Tabs
         tabbedPane = new JTabbedPane();
@@ -46,6 +132,10 @@ public class SentinelUI extends JFrame {
         JPanel monitorPanel = createMonitorPanel();
         tabbedPane.addTab("2. Live Terminal", monitorPanel);
 
+        // --- TAB 3: THE RESULTS (sortable, filterable) ---
+        JPanel resultPanel = createResultPanel();
+        tabbedPane.addTab("3. Results", resultPanel);
+
         add(tabbedPane);
     }
 
@@ -70,15 +160,21 @@ public class SentinelUI extends JFrame {
         JButton addButton = new JButton("Add Entry");
         addButton.addActionListener(_ -> addEntry());
 
+        // "Import" Button (bulk load of LEVEL=URL or plain URL lines)
+        JButton importButton = new JButton("Import List...");
+        importButton.addActionListener(_ -> importEntries());
+
         formPanel.add(new JLabel("Priority:"));
         formPanel.add(levelSelector);
         formPanel.add(prefixLabel); 
         formPanel.add(urlInput);
         formPanel.add(addButton);
+        formPanel.add(importButton);
 
         // Center: The Visual List
         listModel = new DefaultListModel<>();
         JList<String> displayList = new JList<>(listModel);
+        displayList.setPrototypeCellValue("[CRITICAL] https://www.example.com/some/long/path"); // fixed row height, no per-row measuring
         JScrollPane listScroll = new JScrollPane(displayList);
         listScroll.setBorder(BorderFactory.createTitledBorder("Queue"));
 
@@ -97,43 +193,165 @@ public class SentinelUI extends JFrame {
     private JPanel createMonitorPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         
-        logArea = new JTextArea();
-        logArea.setEditable(false);
-        logArea.setBackground(Color.BLACK);
-        logArea.setForeground(Color.PINK); // Kept your PINK color
-        logArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        // Only the visible rows are painted; the model keeps the last TERMINAL_LINES lines
+        logModel = new LogRingModel(TERMINAL_LINES);
+        logList = new JList<>(logModel);
+        logList.setBackground(Color.BLACK);
+        logList.setForeground(Color.PINK); // Kept your PINK color
+        logList.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        logList.setPrototypeCellValue("[200] https://www.example.com/some/long/path/to/check");
+
+        // Repaint at a capped frame rate no matter how many messages arrive
+        logRefresh = new Timer(1000 / TERMINAL_FPS, _ -> {
+            if (logModel.publishChanges()) {
+                logList.ensureIndexIsVisible(logModel.getSize() - 1);
+            }
+        });
+        logRefresh.start();
         
         progressBar = new JProgressBar();
         progressBar.setStringPainted(true);
 
-        panel.add(new JScrollPane(logArea), BorderLayout.CENTER);
+        panel.add(new JScrollPane(logList), BorderLayout.CENTER);
         panel.add(progressBar, BorderLayout.SOUTH);
         return panel;
     }
 
+    private JPanel createResultPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        resultFilter = new JComboBox<>();
+        resultFilter.addItem("All");
+        for (LogLevel level : LogLevel.values()) {
+            resultFilter.addItem(level);
+        }
+        for (StatusClass status : StatusClass.values()) {
+            resultFilter.addItem(status);
+        }
+        resultSort = new JComboBox<>(new String[] { "Slowest first", "Status code", "Priority" });
+        resultFilter.addActionListener(_ -> refreshResults());
+        resultSort.addActionListener(_ -> refreshResults());
+        controls.add(new JLabel("Show:"));
+        controls.add(resultFilter);
+        controls.add(new JLabel("Sort:"));
+        controls.add(resultSort);
+
+        resultModel = new ResultTableModel(engine.getResultStore());
+        JTable table = new JTable(resultModel);
+        table.setAutoCreateRowSorter(false);
+
+        panel.add(controls, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+        return panel;
+    }
+
     // --- LOGIC METHODS ---
 
+    // Rebuild the result view from the column store (row ids only, no per-row objects)
+    private void refreshResults() {
+        ResultStore store = engine.getResultStore();
+        Object filter = resultFilter.getSelectedItem();
+        int[] rows;
+        if (filter instanceof LogLevel level) {
+            rows = store.rows(level, null);
+        } else if (filter instanceof StatusClass status) {
+            rows = store.rows(null, status);
+        } else {
+            rows = store.allRows();
+        }
+        switch (resultSort.getSelectedIndex()) {
+            case 1 -> store.sortByStatusCode(rows);
+            case 2 -> store.sortByLevelDescending(rows);
+            default -> store.sortByLatencyDescending(rows);
+        }
+        resultModel.setView(rows);
+    }
+
     // 1. Handle the "Add Entry" Logic
     private void addEntry() {
         String rawUrl = urlInput.getText().trim();
         if (rawUrl.isEmpty()) return;
 
-        // Auto-fix URL
-        String fullUrl = rawUrl.startsWith("http") ? rawUrl : "https://" + rawUrl;
-        
         LogLevel selectedLevel = (LogLevel) levelSelector.getSelectedItem();
 
-        // Save to backend list (LEVEL=URL)
-        stagedLines.add(selectedLevel + "=" + fullUrl);
-
-        // Show on screen
-        listModel.addElement("[" + selectedLevel + "] " + fullUrl);
+        // Auto-fix URL, skip it if an equivalent one is already queued
+        stage(selectedLevel, rawUrl, null);
 
         // Reset Box
         urlInput.setText("");
         urlInput.requestFocus();
     }
 
+    // 1b. Bulk import: parse the file off the EDT, then add everything with one list event
+    private void importEntries() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.io.File file = chooser.getSelectedFile();
+        LogLevel defaultLevel = (LogLevel) levelSelector.getSelectedItem();
+
+        SwingWorker<TargetTable, Void> loader = new SwingWorker<>() {
+            @Override
+            protected TargetTable doInBackground() throws Exception {
+                // same line format as the headless and streaming readers: LEVEL=URL, or a plain URL at the selected level
+                try (java.io.BufferedReader in = java.nio.file.Files.newBufferedReader(file.toPath())) {
+                    return worker.collectLines(in, defaultLevel);
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    TargetTable imported = get();
+                    List<String> display = new ArrayList<>(imported.size());
+                    imported.forEach((level, url) -> stage(level, url, display));
+                    listModel.addAll(display); // single intervalAdded event
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(SentinelUI.this, "Import failed: " + ex.getMessage());
+                }
+            }
+        };
+        loader.execute();
+    }
+
+    private void saveCache() {
+        String cacheFile = System.getProperty("sentinel.cacheFile");
+        if (cacheFile == null) return;
+        try {
+            worker.getResultCache().save(java.nio.file.Path.of(cacheFile));
+        } catch (java.io.IOException e) {
+            System.err.println("Could not save cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * URLを正規化して待ち行列に加えます。同じURLがすでにある場合は、レベルが上がるときだけその行を更新します。
+     * @param pending 画面への追加をまとめる場合の表示行のリスト（{@code null} の場合はすぐに追加）
+     */
+    private void stage(LogLevel level, String url, List<String> pending) {
+        TargetTable.Added entry = stagedTable.add(level, url);
+        if (!entry.changed()) return;
+
+        int id = entry.id();
+        String line = stagedTable.level(id) + "=" + stagedTable.url(id);
+        String display = "[" + stagedTable.level(id) + "] " + stagedTable.url(id);
+        if (entry.upgraded()) {
+            stagedLines.set(id, line);
+            if (id < listModel.size()) {
+                listModel.set(id, display);
+            } else {
+                pending.set(id - listModel.size(), display); // still waiting in this batch
+            }
+            return;
+        }
+        stagedLines.add(line);
+        if (pending != null) {
+            pending.add(display);
+        } else {
+            listModel.addElement(display);
+        }
+    }
+
     // 2. YOUR LOGIC (The SwingWorker)
     private void runScanSequence() {
         if (stagedLines.isEmpty()) {
@@ -144,6 +362,10 @@ public class SentinelUI extends JFrame {
         // UI Prep
         startButton.setEnabled(false);
         tabbedPane.setSelectedIndex(1); // Auto-switch to terminal
+        logModel.clear();
+        // drop the old rows from the table before the store forgets them, both on the EDT
+        resultModel.setView(new int[0]);
+        engine.getResultStore().clear();
         
         // Inject the list we built
         worker.setRawLines(stagedLines);
@@ -156,14 +378,15 @@ public class SentinelUI extends JFrame {
 
                 // 1. Data Cycle
                 worker.registerData();
-                worker.loadData();
-                worker.generateTasks();
 
                 // 2. Execution (Using your lambda logic)
-                worker.runTasks(msg -> publish(msg));
+                // the session file is streamed straight into the engine, so checks start while it is still being read
+                worker.streamTasks(worker.getSessionFile(), msg -> publish(msg), STREAM_BUFFER);
 
                 // 3. Wait
                 String result = engine.waitForCompletion(10, java.util.concurrent.TimeUnit.SECONDS);
+                worker.flushLogs();
+                saveCache();
                 
                 // 4. Report
                 publish(worker.showReport());
@@ -173,20 +396,21 @@ public class SentinelUI extends JFrame {
 
             @Override
             protected void process(List<String> chunks) {
+                // No repaint here: the refresh timer publishes the new lines at TERMINAL_FPS
                 for (String msg : chunks) {
-                    logArea.append(msg + "\n");
+                    logModel.append(msg);
                 }
-                logArea.setCaretPosition(logArea.getDocument().getLength());
             }
 
             @Override
             protected void done() {
                 try {
-                    logArea.append("\n=== SCAN FINISHED ===\n");
-                    logArea.append(get() + "\n");
+                    logModel.append("\n=== SCAN FINISHED ===");
+                    logModel.append(get());
                 } catch (Exception ex) {
-                    logArea.append("Error: " + ex.getMessage());
+                    logModel.append("Error: " + ex.getMessage());
                 } finally {
+                    refreshResults();
                     startButton.setEnabled(true);
                     progressBar.setIndeterminate(false);
                 }
@@ -0,0 +1,255 @@
+package com.harugasumi.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、セッションファイルのコンパクトなバイナリ形式の読み書きを行います。
+ * <p>
+ * 形式は次の通りです（数値はビッグエンディアン、{@code varint} は7ビットずつの可変長整数）。
+ * </p>
+ * <pre>
+ * int    MAGIC ("WDIS")
+ * byte   VERSION
+ * byte   レベル表の件数、続いて各レベル文字列（varint 長さ + UTF-8）
+ * varint URL表の件数、続いて各URL文字列（varint 長さ + UTF-8）、重複なし
+ * varint エントリ数、続いて各エントリ（byte レベル番号 + varint (URL番号 + 1)）
+ * </pre>
+ * <p>
+ * レベル番号 {@value #NULL_LEVEL} とURL番号 0 は {@code null} を表します。
+ * レベル文字列は書かれた通りに保存されるため、JSON形式との相互変換で情報は失われません。
+ * 読み込みはファイル全体をヒープの {@link ByteBuffer} へ1回で読み込んで行います。
+ * メモリマップはチャネルを閉じても解除されず、Windowsでは読み込んだ直後に同じファイルを書き直せなくなるため使いません。
+ * </p>
+ */
+public final class SessionCodec {
+
+    private static final int MAGIC = 0x57444953;
+    private static final byte VERSION = 1;
+    private static final int NULL_LEVEL = 0xFF;
+
+    private SessionCodec() {
+    }
+
+    /**
+     * エントリをバイナリ形式で書き込みます。同じURLは1度だけURL表に格納されます。
+     *
+     * @param entries 書き込むエントリ
+     * @param file    出力先
+     * @throws IOException 書き込みに失敗した場合、またはレベルの種類が多すぎる場合
+     */
+    public static void writeBinary(List<LinkEntries> entries, Path file) throws IOException {
+        List<String> levels = new ArrayList<>();
+        Map<String, Integer> levelIds = new HashMap<>();
+        List<String> urls = new ArrayList<>();
+        Map<String, Integer> urlIds = new HashMap<>();
+        int[] levelRefs = new int[entries.size()];
+        int[] urlRefs = new int[entries.size()];
+
+        for (int i = 0; i < entries.size(); i++) {
+            LinkEntries entry = entries.get(i);
+            String level = entry.getLevel();
+            if (level == null) {
+                levelRefs[i] = NULL_LEVEL;
+            } else {
+                levelRefs[i] = levelIds.computeIfAbsent(level, l -> {
+                    levels.add(l);
+                    return levels.size() - 1;
+                });
+                if (levelRefs[i] >= NULL_LEVEL) {
+                    throw new IOException("Too many distinct levels for the binary session format");
+                }
+            }
+            String url = entry.getURL();
+            urlRefs[i] = url == null ? 0 : urlIds.computeIfAbsent(url, u -> {
+                urls.add(u);
+                return urls.size() - 1;
+            }) + 1;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(levels.size());
+            for (String level : levels) {
+                writeString(out, level);
+            }
+            writeVarint(out, urls.size());
+            for (String url : urls) {
+                writeString(out, url);
+            }
+            writeVarint(out, entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                out.writeByte(levelRefs[i]);
+                writeVarint(out, urlRefs[i]);
+            }
+        }
+    }
+
+    /**
+     * バイナリ形式のファイルを読み込み、すべてのエントリを返します。
+     *
+     * @param file 入力元
+     * @return {@code List<LinkEntries>} 書き込まれた順序のエントリ
+     * @throws IOException 読み込みに失敗した場合、または形式が不正な場合
+     */
+    public static List<LinkEntries> readBinary(Path file) throws IOException {
+        List<LinkEntries> entries = new ArrayList<>();
+        forEachBinary(file, (level, url) -> entries.add(new LinkEntries(level, url)));
+        return entries;
+    }
+
+    /**
+     * バイナリ形式のファイルを読み込み、エントリを1件ずつコールバックへ渡します。
+     * エントリのリストを作らないため、使用メモリはファイルの大きさとURL表の分だけです。
+     * ファイルは戻る前に閉じられ、呼び出し後すぐに同じファイルを書き直せます。
+     *
+     * @param file     入力元
+     * @param consumer レベル文字列とURLを受け取るコールバック
+     * @throws IOException 読み込みに失敗した場合、または形式が不正な場合
+     */
+    public static void forEachBinary(Path file, BiConsumer<String, String> consumer) throws IOException {
+        ByteBuffer buf = readFully(file);
+        try {
+            if (buf.getInt() != MAGIC || buf.get() != VERSION) {
+                throw new IOException(file + " is not a binary session file");
+            }
+            String[] levels = new String[buf.get() & 0xFF];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = readString(buf);
+            }
+            String[] urls = new String[checkedLength(buf, readVarint(buf))];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = readString(buf);
+            }
+            int count = readVarint(buf);
+            for (int i = 0; i < count; i++) {
+                int levelRef = buf.get() & 0xFF;
+                int urlRef = readVarint(buf);
+                consumer.accept(levelRef == NULL_LEVEL ? null : levels[levelRef],
+                        urlRef == 0 ? null : urls[urlRef - 1]);
+            }
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException(file + " is truncated or corrupt", e);
+        }
+    }
+
+    /**
+     * ファイル全体をヒープのバッファへ読み込みます。
+     * @return ByteBuffer 読み込んだ内容（位置は先頭）
+     */
+    private static ByteBuffer readFully(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large for a session file: " + size + " bytes");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                // keep reading until the buffer is full or the file ends early
+            }
+            return buf.flip();
+        }
+    }
+
+    /**
+     * JSON形式のセッションファイルをバイナリ形式に変換します。
+     *
+     * @param json   入力元（{@link LinkEntries} の配列）
+     * @param binary 出力先
+     * @throws IOException 読み書きに失敗した場合
+     */
+    public static void jsonToBinary(Path json, Path binary) throws IOException {
+        List<LinkEntries> entries = new ObjectMapper().readValue(json.toFile(),
+                new TypeReference<List<LinkEntries>>() {
+                });
+        writeBinary(entries, binary);
+    }
+
+    /**
+     * バイナリ形式のセッションファイルを整形済みJSON形式に変換します。
+     *
+     * @param binary 入力元
+     * @param json   出力先
+     * @throws IOException 読み書きに失敗した場合
+     */
+    public static void binaryToJson(Path binary, Path json) throws IOException {
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(json.toFile(), readBinary(binary));
+    }
+
+    /**
+     * ファイルの先頭がバイナリ形式のマジックナンバーかどうかを調べます。
+     *
+     * @param file 調べるファイル
+     * @return boolean バイナリ形式の場合は {@code true}
+     */
+    public static boolean isBinary(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            return channel.read(head) == 4 && head.flip().getInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[checkedLength(buf, readVarint(buf))];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 読み込んだ長さや件数が、残りのバイト数に収まるかを確かめます。
+     * 壊れたファイルで巨大な配列や負の長さの配列を確保しないためです。
+     */
+    private static int checkedLength(ByteBuffer buf, int length) {
+        if (length < 0 || length > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+}
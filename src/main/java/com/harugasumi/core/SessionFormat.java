@@ -0,0 +1,29 @@
+package com.harugasumi.core;
+
+/**
+ * Made by @author harugasumi-works
+ * この列挙形はセッションファイルの保存形式を定めます。
+ */
+public enum SessionFormat {
+
+    /** 人が読める整形済みJSON（従来の形式） */
+    JSON("session.json"),
+    /** {@link SessionCodec} によるコンパクトなバイナリ形式 */
+    BINARY("session.bin");
+
+    /**
+     * 既定のファイル名
+     */
+    private final String fileName;
+
+    private SessionFormat(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return String この形式の既定のファイル名
+     */
+    public String getFileName() {
+        return fileName;
+    }
+}
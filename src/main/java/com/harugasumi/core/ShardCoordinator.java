@@ -0,0 +1,411 @@
+package com.harugasumi.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、対象を複数のワーカープロセスに分けてチェックさせ、結果を1つのエンジンにまとめるコーディネーターです。
+ * <p>
+ * ワーカーは {@code --headless --worker=HOST:PORT} で起動したプロセスで、このコーディネーターのポートに接続してきます。
+ * 対象はホスト名のコンシステントハッシュで割り当てるため、同じホストのURLは必ず同じワーカーに送られ、
+ * ワーカーごとのホスト単位の流量制御（{@link TaskEngine#setHostPoliteness}）がそのまま効きます。
+ * </p>
+ * <p>
+ * プロトコルは行単位のテキストです。コーディネーターからワーカーへは対象リストと同じ {@code LEVEL=URL} の行を送り、
+ * すべての結果がそろったら送信側を閉じます（ワーカーにとっての入力の終わり）。
+ * ワーカーからは、ヘッドレスモードの標準出力と同じ1行1件のJSONで結果が返ります。
+ * 受け取った結果は {@link TaskEngine#recordRemote} でエンジンに記録されるため、スコアボードやリスナーは1台で実行した場合と同じです。
+ * </p>
+ * <p>
+ * すべての結果がそろう前にワーカーとの接続が切れた場合、そのワーカーをハッシュリングから外し、
+ * まだ結果のない対象だけを、リング上で次に当たるワーカーに割り当て直します。他のワーカーの割り当ては変わりません。
+ * </p>
+ */
+public final class ShardCoordinator implements Closeable {
+
+    /** 1つのワーカーがハッシュリング上に持つ点の数 */
+    private static final int VIRTUAL_NODES = 128;
+    /** 結果を受け取った対象の {@link #owner} */
+    private static final int DONE = -1;
+    /** 送信キューの終わりの印 */
+    private static final int END = -1;
+    /** 送信側を閉じた後、ワーカーが終了するまで待つ時間 */
+    private static final long GRACE_MILLIS = 10_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * 1つのワーカーとの接続です。
+     */
+    private final class Link {
+        private final int index;
+        private final Socket socket;
+        /** 送る対象のID。送信スレッドだけが取り出します。 */
+        private final LinkedBlockingQueue<Integer> outbox = new LinkedBlockingQueue<>();
+        /** 接続が切れていない間は {@code true}。コーディネーターのロックで保護されます。 */
+        private boolean alive = true;
+        private Thread sender;
+        private Thread receiver;
+
+        private Link(int index, Socket socket) {
+            this.index = index;
+            this.socket = socket;
+        }
+
+        private void start() {
+            sender = Thread.ofPlatform().daemon().name("shard-send-" + index).start(() -> send(this));
+            receiver = Thread.ofPlatform().daemon().name("shard-receive-" + index).start(() -> receive(this));
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + " (" + socket.getRemoteSocketAddress() + ")";
+        }
+    }
+
+    private final TaskEngine engine;
+    private final ServerSocket server;
+    /** 接続したワーカー。このインスタンスのロックで保護されます。 */
+    private final List<Link> links = new ArrayList<>();
+    /** ハッシュ値からワーカーへのリング。このインスタンスのロックで保護されます。 */
+    private final TreeMap<Long, Link> ring = new TreeMap<>();
+
+    // the fields below are guarded by this instance's lock
+    private TargetTable targets;
+    /** 対象IDごとの担当ワーカーの番号。結果を受け取った対象は {@link #DONE} */
+    private int[] owner;
+    /** まだ記録し終わっていない対象の数 */
+    private int remaining;
+    private boolean finishing;
+    private int lost;
+    private long reassigned;
+
+    /**
+     * 指定したアドレスとポートで、ワーカーからの接続を待ち受けます。
+     * @param engine  結果を記録するエンジン
+     * @param address 待ち受けるアドレス（{@code null} の場合はループバック）
+     * @param port    待ち受けるポート（0の場合は空いているポート）
+     * @throws IOException ポートを開けなかった場合
+     */
+    public ShardCoordinator(TaskEngine engine, InetAddress address, int port) throws IOException {
+        this.engine = engine;
+        this.server = new ServerSocket(port, 50, address != null ? address : InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * @return int 待ち受けているポート
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * 指定した数のワーカーが接続するまで待ちます。
+     * @param count   待つワーカーの数
+     * @param timeout 待つ時間
+     * @throws SocketTimeoutException 時間内にそろわなかった場合
+     * @throws IOException            接続の受け付けに失敗した場合
+     */
+    public void awaitWorkers(int count, Duration timeout) throws IOException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (connected() < count) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                throw new SocketTimeoutException("Only " + connected() + " of " + count + " workers connected");
+            }
+            server.setSoTimeout((int) Math.min(Integer.MAX_VALUE, left));
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            socket.setTcpNoDelay(true);
+            Link link;
+            synchronized (this) {
+                link = new Link(links.size(), socket);
+                links.add(link);
+            }
+            System.err.println("Worker " + link + " connected.");
+        }
+    }
+
+    private synchronized int connected() {
+        return links.size();
+    }
+
+    /**
+     * 対象をワーカーに割り当てて送り、すべての結果を受け取るまで待ちます。
+     * <p>
+     * 時間内に結果がそろわなかった対象と、すべてのワーカーとの接続が切れたために結果を受け取れなかった対象は、
+     * キャンセルされた結果としてエンジンに記録されます。
+     * </p>
+     * @param table   チェックする対象（この呼び出しの間は変更しないこと）
+     * @param timeout 待つ時間
+     * @return boolean すべての対象の結果を受け取った場合は {@code true}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public boolean run(TargetTable table, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<ScanResult> abandoned = new ArrayList<>();
+        synchronized (this) {
+            if (links.isEmpty()) {
+                throw new IllegalStateException("No workers connected");
+            }
+            this.targets = table;
+            this.owner = new int[table.size()];
+            this.remaining = table.size();
+            for (Link link : links) {
+                join(link);
+            }
+            for (int id = 0; id < table.size(); id++) {
+                Link link = locate(table.url(id));
+                owner[id] = link.index;
+                link.outbox.add(id);
+            }
+            links.forEach(Link::start);
+            try {
+                while (remaining > 0 && !ring.isEmpty()) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                }
+            } finally {
+                finishing = true;
+                for (int id = 0; id < owner.length; id++) {
+                    if (owner[id] != DONE) {
+                        owner[id] = DONE;
+                        abandoned.add(ScanResult.failure(table.url(id), table.level(id), 0, StatusClass.CANCELLED,
+                                new SocketTimeoutException("no result from the workers")));
+                    }
+                }
+            }
+        }
+        abandoned.forEach(engine::recordRemote);
+        for (Link link : links) {
+            link.outbox.add(END);
+        }
+        for (Link link : links) {
+            // let the workers finish their own reports before the sockets are closed
+            link.receiver.join(GRACE_MILLIS);
+        }
+        return abandoned.isEmpty();
+    }
+
+    /**
+     * @return String ワーカーの数と、接続が切れて割り当て直した対象の数
+     */
+    public synchronized String describe() {
+        return "Workers: " + links.size() + " (lost " + lost + ", reassigned " + reassigned + " targets)";
+    }
+
+    /**
+     * 待ち受けを終了し、すべてのワーカーとの接続を閉じます。
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        List<Link> all;
+        synchronized (this) {
+            all = new ArrayList<>(links);
+        }
+        for (Link link : all) {
+            closeQuietly(link.socket);
+            if (link.sender != null) {
+                link.sender.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 送信キューの対象を {@code LEVEL=URL} の行にしてワーカーに送ります。
+     * キューが空になるたびにまとめて書き出し、終わりの印を受け取ったら送信側を閉じます。
+     */
+    private void send(Link link) {
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(link.socket.getOutputStream(), StandardCharsets.UTF_8));
+            while (true) {
+                Integer id = link.outbox.poll();
+                if (id == null) {
+                    out.flush();
+                    id = link.outbox.take();
+                }
+                if (id == END) {
+                    out.flush();
+                    link.socket.shutdownOutput();
+                    return;
+                }
+                // the table is not modified while run() is in progress
+                out.write(targets.level(id).name());
+                out.write('=');
+                out.write(targets.url(id));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            lose(link, e.getMessage());
+        } catch (InterruptedException e) {
+            // closed by the coordinator
+        }
+    }
+
+    /**
+     * ワーカーから結果の行を受け取り、エンジンに記録します。
+     */
+    private void receive(Link link) {
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(link.socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                ScanResult result = parse(line);
+                if (result != null) {
+                    accept(result);
+                }
+            }
+            lose(link, "connection closed");
+        } catch (IOException e) {
+            lose(link, e.getMessage());
+        }
+    }
+
+    private static ScanResult parse(String line) {
+        try {
+            JsonNode node = MAPPER.readTree(line);
+            JsonNode error = node.get("error");
+            return new ScanResult(node.get("url").asText(), LogLevel.valueOf(node.get("level").asText()),
+                    node.get("status").asInt(), (long) (node.get("latencyMs").asDouble() * 1_000_000),
+                    StatusClass.valueOf(node.get("class").asText()), error == null ? null : error.asText(),
+                    node.get("redirects").asInt());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring malformed result from a worker: " + line);
+            return null;
+        }
+    }
+
+    /**
+     * 結果を記録します。同じ対象の2回目以降の結果と、知らない対象の結果は無視します。
+     */
+    private void accept(ScanResult result) {
+        synchronized (this) {
+            int id = targets.find(result.url());
+            if (id < 0 || owner[id] == DONE) {
+                return;
+            }
+            owner[id] = DONE;
+        }
+        engine.recordRemote(result);
+        // counted down only after recording, so run() never returns ahead of the scoreboard
+        synchronized (this) {
+            if (--remaining == 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 接続が切れたワーカーをリングから外し、結果のない対象を残りのワーカーに割り当て直します。
+     */
+    private void lose(Link link, String reason) {
+        synchronized (this) {
+            if (!link.alive) {
+                return;
+            }
+            link.alive = false;
+            if (finishing) {
+                return; // a normal shutdown after all results are in
+            }
+            lost++;
+            leave(link);
+            System.err.println("Worker " + link + " disconnected: " + reason);
+            if (ring.isEmpty()) {
+                notifyAll();
+            } else {
+                int moved = 0;
+                for (int id = 0; id < owner.length; id++) {
+                    if (owner[id] == link.index) {
+                        Link next = locate(targets.url(id));
+                        owner[id] = next.index;
+                        next.outbox.add(id);
+                        moved++;
+                    }
+                }
+                reassigned += moved;
+                System.err.println("Reassigned " + moved + " targets to the remaining workers.");
+            }
+        }
+        closeQuietly(link.socket);
+        link.sender.interrupt();
+    }
+
+    private void join(Link link) {
+        for (int v = 0; v < VIRTUAL_NODES; v++) {
+            ring.put(hash("worker-" + link.index + "#" + v), link);
+        }
+    }
+
+    private void leave(Link link) {
+        ring.values().removeIf(l -> l == link);
+    }
+
+    /**
+     * URLのホスト名から、担当するワーカーを返します。
+     */
+    private Link locate(String url) {
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            host = null;
+        }
+        Map.Entry<Long, Link> e = ring.ceilingEntry(hash(host != null ? host : url));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * 64ビットのFNV-1aに、上位ビットを混ぜる仕上げを加えたハッシュです。
+     * {@link String#hashCode()} より偏りが少なく、似た名前の仮想ノードもリング上に散らばります。
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.harugasumi.core;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、URLごとの最後の状態を追記専用のファイルに記録し、前回からの変化だけを取り出します。
+ * <p>
+ * ファイルは1行に1件のJSONで、状態が変わったとき（初めてのURLを含む）にだけ末尾へ追記します。
+ * 状態は、応答があったかどうかと、応答があった場合のステータスコードで比べます。
+ * タイムアウトから接続エラーに変わったような、応答がないままの変化は記録しません。
+ * キャンセルされた結果は対象の状態を表さないため無視します。
+ * </p>
+ * <p>
+ * 行数が対象の数の {@value #COMPACT_RATIO} 倍を超えると、各URLの最後の状態だけを書いたファイルに置き換えます（コンパクション）。
+ * そのため、起動時の読み込み（{@link #open(Path)}）にかかる時間は、これまでの履歴の長さではなく対象の数に比例します。
+ * 置き換えは一時ファイル経由で行うため、途中で失敗しても元のファイルは壊れません。
+ * 書き込み中に強制終了して最後の行が途中で切れていた場合、その行は読み飛ばし、開いたときにコンパクションします。
+ * </p>
+ * <p>
+ * 追記はバッファリングされます。{@link #flush()} または {@link #close()} を呼ぶまで、ファイルに届かないことがあります。
+ * 書き込みに失敗した後も状態の比較は続けますが、ファイルには書きません。失敗は次の {@link #flush()} で通知します。
+ * </p>
+ */
+public final class StateLog implements Closeable {
+
+    /** コンパクションする行数の、対象の数に対する比率 */
+    public static final int COMPACT_RATIO = 2;
+    /** 対象が少ない場合に、コンパクションせずに追記できる行数 */
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ObjectReader LINE_READER = new ObjectMapper().readerFor(Line.class);
+
+    /**
+     * 前回から状態が変わったURLです。
+     * @param url            正規化したURL
+     * @param level          URLの優先度
+     * @param previousClass  前回の結果の分類。初めてのURLの場合は {@code null}
+     * @param previousStatus 前回のステータスコード。応答がなかった場合や初めてのURLの場合は {@code -1}
+     * @param previousSince  前回の状態になった時刻（エポックミリ秒）。初めてのURLの場合は {@code 0}
+     * @param currentClass   今回の結果の分類
+     * @param currentStatus  今回のステータスコード。応答がなかった場合は {@code -1}
+     */
+    public record Transition(String url, LogLevel level, StatusClass previousClass, int previousStatus,
+            long previousSince, StatusClass currentClass, int currentStatus) {
+
+        /**
+         * @return boolean 初めて記録したURLの場合は {@code true}
+         */
+        public boolean isNew() {
+            return previousClass == null;
+        }
+
+        /**
+         * @return boolean 前回は応答があり、今回は応答がなかった場合は {@code true}
+         */
+        public boolean wentDown() {
+            return !isNew() && previousClass.isResponded() && !currentClass.isResponded();
+        }
+
+        /**
+         * @return boolean 前回は応答がなく、今回は応答があった場合は {@code true}
+         */
+        public boolean cameUp() {
+            return !isNew() && !previousClass.isResponded() && currentClass.isResponded();
+        }
+    }
+
+    /**
+     * 1つのURLの最後の状態です。
+     * @param since この状態になった時刻（エポックミリ秒）
+     */
+    private record State(LogLevel level, StatusClass statusClass, int status, long since) {
+    }
+
+    /**
+     * ファイルの1行分です。
+     */
+    private record Line(String url, String level, String statusClass, int status, long since) {
+    }
+
+    private final Path file;
+    /** URLごとの最後の状態。このインスタンスのロックで保護されます。 */
+    private final Map<String, State> states = new HashMap<>();
+    private JsonGenerator out;
+    /** ファイルの行数 */
+    private long records;
+    private IOException failure;
+
+    private StateLog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * ファイルを読み込んで最後の状態を復元し、追記できるように開きます。ファイルがない場合は作成します。
+     * @param file 記録するファイル
+     * @return StateLog 開いたログ
+     * @throws IOException 読み込みまたは書き込みの準備に失敗した場合
+     */
+    public static StateLog open(Path file) throws IOException {
+        StateLog log = new StateLog(file);
+        boolean damaged = log.replay();
+        if (damaged || log.records > log.compactThreshold()) {
+            log.compact();
+        } else {
+            log.out = append(file);
+        }
+        return log;
+    }
+
+    /**
+     * @return boolean 読めない行があった場合は {@code true}
+     */
+    private boolean replay() throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        boolean damaged = false;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = in.readLine()) != null) {
+                if (text.isBlank()) continue;
+                records++;
+                try {
+                    Line line = LINE_READER.readValue(text);
+                    states.put(line.url(), new State(LogLevel.valueOf(line.level()),
+                            StatusClass.valueOf(line.statusClass()), line.status(), line.since()));
+                } catch (JsonProcessingException | IllegalArgumentException | NullPointerException e) {
+                    damaged = true; // a torn last line from a crash, or a hand-edited file
+                }
+            }
+        }
+        return damaged;
+    }
+
+    private static JsonGenerator append(Path file) throws IOException {
+        JsonGenerator generator = JSON.createGenerator(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)), JsonEncoding.UTF8);
+        generator.setRootValueSeparator(null); // lines are separated explicitly in write()
+        return generator;
+    }
+
+    /**
+     * チェックの結果を記録し、前回から状態が変わっていればその変化を返します。
+     * {@link TaskEngine#setStateLog} を設定すると、完了したすべての結果がここに渡されます。
+     * @param result チェックの結果
+     * @return Transition 状態の変化。変わっていない場合や、キャンセルされた結果の場合は {@code null}
+     */
+    public synchronized Transition record(ScanResult result) {
+        if (result == null || result.url() == null || result.statusClass() == StatusClass.CANCELLED) {
+            return null;
+        }
+        String url = TargetTable.normalize(result.url());
+        StatusClass statusClass = result.statusClass();
+        int status = statusClass.isResponded() ? result.statusCode() : -1;
+        State previous = states.get(url);
+        if (previous != null && sameState(previous, statusClass, status)) {
+            return null;
+        }
+        State current = new State(result.level(), statusClass, status, System.currentTimeMillis());
+        states.put(url, current);
+        write(url, current);
+        if (records > compactThreshold()) {
+            tryCompact();
+        }
+        return previous == null
+                ? new Transition(url, result.level(), null, -1, 0, statusClass, status)
+                : new Transition(url, result.level(), previous.statusClass(), previous.status(), previous.since(),
+                        statusClass, status);
+    }
+
+    private static boolean sameState(State previous, StatusClass statusClass, int status) {
+        boolean wasUp = previous.statusClass().isResponded();
+        if (wasUp != statusClass.isResponded()) {
+            return false;
+        }
+        return !wasUp || previous.status() == status;
+    }
+
+    private void write(String url, State state) {
+        if (failure != null || out == null) {
+            return;
+        }
+        try {
+            writeLine(out, url, state);
+            records++;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private static void writeLine(JsonGenerator generator, String url, State state) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("url", url);
+        generator.writeStringField("level", state.level().name());
+        generator.writeStringField("statusClass", state.statusClass().name());
+        generator.writeNumberField("status", state.status());
+        generator.writeNumberField("since", state.since());
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    private long compactThreshold() {
+        return Math.max(MIN_COMPACT_RECORDS, (long) COMPACT_RATIO * states.size());
+    }
+
+    private void tryCompact() {
+        if (failure != null || out == null) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * 各URLの最後の状態だけを一時ファイルに書き、元のファイルと置き換えます。
+     */
+    private void compact() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (JsonGenerator generator = JSON.createGenerator(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)), JsonEncoding.UTF8)) {
+                generator.setRootValueSeparator(null);
+                for (Map.Entry<String, State> e : states.entrySet()) {
+                    writeLine(generator, e.getKey(), e.getValue());
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        records = states.size();
+        out = append(file);
+    }
+
+    /**
+     * バッファの内容をファイルに書き出します。
+     * @throws IOException これまでの書き込みのどこかで失敗していた場合
+     */
+    public synchronized void flush() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    /**
+     * バッファの内容を書き出してファイルを閉じます。
+     * @throws IOException これまでの書き込みのどこかで失敗していた場合
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } finally {
+            out = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return int 状態を記録しているURLの数
+     */
+    public synchronized int size() {
+        return states.size();
+    }
+
+    /**
+     * @return long ファイルの行数（バッファ中のものを含む）
+     */
+    public synchronized long records() {
+        return records;
+    }
+}
@@ -0,0 +1,280 @@
+package com.harugasumi.core;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、取り込んだURLを正規化して重複を取り除き、整数IDで管理する対象表です。
+ * <p>
+ * URLは {@link #normalize(String)} で正規化してから登録するため、大文字・小文字の違い、
+ * 既定のポート番号、末尾のスラッシュ、フラグメントだけが異なるURLは同じ対象になります。
+ * 同じ対象が異なるレベルで登録された場合は、最も高いレベルが残ります。
+ * </p>
+ * <p>
+ * スキーム・ホスト・ポートの組（オリジン）は一度だけ保持され、各対象はオリジンのIDとパス部分だけを持ちます。
+ * ドメイン一覧のようにパスが {@code /} だけの対象は、パスの文字列も共有されます。
+ * 検索用のハッシュ表はIDだけを格納するオープンアドレス法の {@code int[]} で、URLごとのキー文字列やノードを作りません。
+ * </p>
+ * <p>
+ * このクラスはスレッドセーフではありません。取り込みを行う1つのスレッドから使用してください。
+ * </p>
+ */
+public final class TargetTable {
+
+    private static final String ROOT = "/";
+    private static final int EMPTY = -1;
+
+    /**
+     * {@link #add} の結果です。
+     * @param id       対象のID（0から始まる連番）
+     * @param added    新しい対象として登録された場合は {@code true}
+     * @param upgraded 登録済みの対象のレベルが引き上げられた場合は {@code true}
+     */
+    public record Added(int id, boolean added, boolean upgraded) {
+        /**
+         * @return boolean 新規登録またはレベルの引き上げで、チェックが必要になった場合は {@code true}
+         */
+        public boolean changed() {
+            return added || upgraded;
+        }
+    }
+
+    private final Map<String, Integer> originIds = new HashMap<>();
+    private final List<String> origins = new ArrayList<>();
+
+    private int[] originOf = new int[16];
+    private String[] pathOf = new String[16];
+    private byte[] levelOf = new byte[16];
+    private int size;
+    private int duplicates;
+    /** IDを格納するハッシュ表。空きは {@link #EMPTY}。 */
+    private int[] slots = newSlots(32);
+
+    /**
+     * URLを比較用に正規化します。
+     * <ul>
+     * <li>スキームのないURLには {@code https://} を補う</li>
+     * <li>スキームとホストを小文字にし、ホスト末尾のドットを除く</li>
+     * <li>既定のポート番号（httpの80、httpsの443）を除く</li>
+     * <li>{@code .} や {@code ..} のパス要素を解決し、空のパスを {@code /} に、末尾のスラッシュを除く</li>
+     * <li>フラグメントと空のクエリを除く</li>
+     * </ul>
+     * 解析できないURLは前後の空白を除いただけで返します。
+     * @param url 正規化するURL
+     * @return String 正規化したURL
+     */
+    public static String normalize(String url) {
+        String trimmed = url.trim();
+        String withScheme = trimmed.contains("://") ? trimmed : "https://" + trimmed;
+        String[] parts = split(withScheme);
+        return parts == null ? trimmed : parts[0] + parts[1];
+    }
+
+    /**
+     * URLを正規化し、オリジン（{@code scheme://host[:port]}）とそれ以降に分けます。
+     * @return {@code String[]} {オリジン, パスとクエリ}。解析できない場合は {@code null}
+     */
+    private static String[] split(String url) {
+        URI uri;
+        try {
+            uri = new URI(url).normalize();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (scheme == null || host == null) {
+            return null;
+        }
+        scheme = scheme.toLowerCase(Locale.ROOT);
+        host = host.toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        int port = uri.getPort();
+        if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+            port = -1;
+        }
+        StringBuilder origin = new StringBuilder(scheme.length() + host.length() + 9);
+        origin.append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            origin.append(uri.getRawUserInfo()).append('@');
+        }
+        origin.append(host);
+        if (port != -1) {
+            origin.append(':').append(port);
+        }
+
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            path = ROOT;
+        } else if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String query = uri.getRawQuery();
+        String rest = query == null || query.isEmpty() ? path : path + "?" + query;
+        return new String[] { origin.toString(), rest.equals(ROOT) ? ROOT : rest };
+    }
+
+    /**
+     * 対象を登録します。
+     * 同じ対象が登録済みの場合は、{@code level} の方が高いときだけレベルを引き上げます。
+     * @param level 対象のレベル
+     * @param url   対象のURL（正規化前で構いません）
+     * @return Added 登録の結果
+     */
+    public Added add(LogLevel level, String url) {
+        String[] key = key(url);
+        String origin = key[0];
+        String rest = key[1];
+        int originId = originIds.computeIfAbsent(origin, o -> {
+            origins.add(o);
+            return origins.size() - 1;
+        });
+
+        int hash = hash(originId, rest);
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (id == EMPTY) {
+                id = append(originId, rest, level);
+                slots[i] = id;
+                if (size * 2 > slots.length) {
+                    rehash();
+                }
+                return new Added(id, true, false);
+            }
+            if (originOf[id] == originId && pathOf[id].equals(rest)) {
+                duplicates++;
+                if (level.getValue() > levelOf[id]) {
+                    levelOf[id] = (byte) level.getValue();
+                    return new Added(id, false, true);
+                }
+                return new Added(id, false, false);
+            }
+        }
+    }
+
+    /**
+     * 登録済みの対象を探します。
+     * @param url 対象のURL（正規化前で構いません）
+     * @return int 対象のID。登録されていない場合は {@code -1}
+     */
+    public int find(String url) {
+        String[] key = key(url);
+        Integer originId = originIds.get(key[0]);
+        if (originId == null) {
+            return EMPTY;
+        }
+        int mask = slots.length - 1;
+        for (int i = hash(originId, key[1]) & mask; ; i = (i + 1) & mask) {
+            int id = slots[i];
+            if (id == EMPTY || (originOf[id] == originId && pathOf[id].equals(key[1]))) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @return {@code String[]} {オリジン, パスとクエリ}
+     */
+    private static String[] key(String url) {
+        String trimmed = url.trim();
+        String[] parts = split(trimmed.contains("://") ? trimmed : "https://" + trimmed);
+        // unparsable input is kept verbatim as its own origin so it still reaches the checker
+        return parts == null ? new String[] { trimmed, "" } : parts;
+    }
+
+    private int append(int originId, String rest, LogLevel level) {
+        if (size == originOf.length) {
+            int capacity = size * 2;
+            originOf = Arrays.copyOf(originOf, capacity);
+            pathOf = Arrays.copyOf(pathOf, capacity);
+            levelOf = Arrays.copyOf(levelOf, capacity);
+        }
+        originOf[size] = originId;
+        pathOf[size] = rest;
+        levelOf[size] = (byte) level.getValue();
+        return size++;
+    }
+
+    private void rehash() {
+        slots = newSlots(slots.length * 2);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hash(originOf[id], pathOf[id]) & mask;
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+    }
+
+    private static int[] newSlots(int length) {
+        int[] s = new int[length];
+        Arrays.fill(s, EMPTY);
+        return s;
+    }
+
+    private static int hash(int originId, String rest) {
+        int h = originId * 0x9E3779B9 + rest.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return int 登録されている対象の数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return int これまでに取り除いた重複の数
+     */
+    public int duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return int 異なるオリジン（{@code scheme://host[:port]}）の数
+     */
+    public int origins() {
+        return origins.size();
+    }
+
+    /**
+     * @param id 対象のID
+     * @return String 正規化したURL
+     */
+    public String url(int id) {
+        return origins.get(originOf[id]) + pathOf[id];
+    }
+
+    /**
+     * @param id 対象のID
+     * @return LogLevel 対象のレベル（重複の中で最も高いもの）
+     */
+    public LogLevel level(int id) {
+        return LogLevel.fromValue(levelOf[id]);
+    }
+
+    /**
+     * 登録順にすべての対象を渡します。
+     * @param action レベルと正規化したURLを受け取る処理
+     */
+    public void forEach(BiConsumer<LogLevel, String> action) {
+        for (int id = 0; id < size; id++) {
+            action.accept(level(id), url(id));
+        }
+    }
+}
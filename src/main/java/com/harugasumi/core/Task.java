@@ -1,6 +1,10 @@
 package com.harugasumi.core;
 import java.util.concurrent.Callable;
 
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
 /**
  * Made by @author harugasumi-works
  * このインターフェースは、タスクの基本的な構造を定義します。
@@ -19,4 +23,61 @@ public interface Task extends Callable<Boolean> {
       * @param logger ログメッセージを受け取るためのコンシューマーを設定します。
       */
    void setLogger(java.util.function.Consumer<String> logger);
+      /** 
+      * タスクの接続先ホスト名を取得します。
+      * ホスト単位の流量制御に使用されます。ホストを持たないタスクは {@code null} を返します。
+      * @return String 接続先ホスト名、または {@code null}
+      */
+   default String getHost() {
+      return null;
+   }
+      /** 
+      * タスクのレベルを取得します。集計に使用されます。
+      * 既定では {@link #getPriority()} から {@link LogLevel#fromValue(int)} で求めます。
+      * @return LogLevel タスクのレベル
+      */
+   default LogLevel getLevel() {
+      return LogLevel.fromValue(getPriority());
+   }
+      /** 
+      * 次の実行で使うタイムアウトを設定します。
+      * {@link AdaptiveController} による調整が有効な場合、エンジンが実行の直前に呼び出します。
+      * タイムアウトを持たないタスクは既定の実装（何もしない）のままで構いません。
+      * @param timeout タイムアウト
+      */
+   default void setTimeout(java.time.Duration timeout) {
+   }
+      /** 
+      * スキャンの期限を設定します。タスクは期限を過ぎて実行を続けないようにしてください。
+      * エンジンは実行の直前に呼び出します。期限を扱えないタスクは既定の実装（何もしない）のままで構いません。
+      * @param deadlineNanos 期限（{@link System#nanoTime()} 基準）。期限がない場合は {@link Long#MAX_VALUE}
+      */
+   default void setDeadline(long deadlineNanos) {
+   }
+      /** 
+      * 同じ対象をもう一度チェックする、新しいタスクを作成します。
+      * ヘッジ（遅い試行と並行して送る重複リクエスト）に使われ、元のタスクと同時に実行されます。
+      * 複製できないタスクは既定の実装のまま {@code null} を返し、ヘッジの対象外になります。
+      * @return Task 新しいタスク、または {@code null}
+      */
+   default Task copy() {
+      return null;
+   }
+      /** 
+      * 直前の実行結果を構造化された形で取得します。
+      * 結果を構造化できないタスクは {@code null} を返します。
+      * @return ScanResult 直前の実行結果、または {@code null}
+      */
+   default ScanResult getLastResult() {
+      return null;
+   }
+      /** 
+      * 直前の実行結果の分類を取得します。集計に使用されます。
+      * 分類できないタスクは {@code null} を返し、エンジンは戻り値から成功・失敗だけを判断します。
+      * @return StatusClass 直前の実行結果の分類、または {@code null}
+      */
+   default StatusClass getStatusClass() {
+      ScanResult result = getLastResult();
+      return result == null ? null : result.statusClass();
+   }
 }
\ No newline at end of file
@@ -1,12 +1,23 @@
 package com.harugasumi.core;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
 
 /**
  * Made by @author harugasumi-works
@@ -18,88 +29,994 @@ import java.util.concurrent.*;
  */
 public class TaskEngine {
 
-    private static final int QUEUE_DEFAULT_CAPACITY = 11;
-    private static final Comparator<Task> HIGHEST_PRIORITY_FIRST = Comparator.comparingInt(Task::getPriority)
-            .reversed();
+    private static final int DEFAULT_POOL_SIZE = 10;
+    private static final int SLOWEST_IN_REPORT = 5;
+    /** 結果の分類の数（{@code values()} は呼ぶたびに配列を複製するため、定数にしておく） */
+    private static final int STATUS_CLASSES = StatusClass.values().length;
+    /** ヘッジを送るまでの待ち時間に使う、実行時間の百分位 */
+    private static final double HEDGE_PERCENTILE = 95;
+    /** ヘッジの待ち時間を決めるのに必要な、実行時間の記録数 */
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    /** 許可を待っている {@link #executeAll} が {@link #stop()} を確認する間隔（ミリ秒） */
+    private static final long PERMIT_POLL_MILLIS = 50;
 
     /**
      * 優先順位に基づいてタスクを処理するブロッキングキュー。
      * <p>
-     * {@link #HIGHEST_PRIORITY_FIRST} により、優先度が高い（数値が大きい）タスクが
-     * 常にキューの先頭に来るように順序付けられます。
+     * 優先度が高い（数値が大きい）タスクが常にキューの先頭に来るように順序付けられます。
+     * 長く待っている低優先度のタスクは {@link AgingPriorityQueue} のエージングにより救済されます。
      * </p>
      * <p>
-     * 初期容量は {@value #DEFAULT_CAPACITY} ですが、要素数に応じて自動的に拡張されます。
      * スレッドセーフであるため、複数の生産者・消費者スレッドから同時にアクセス可能です。
      * </p>
      */
-    private PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>(QUEUE_DEFAULT_CAPACITY,
-            HIGHEST_PRIORITY_FIRST);
-    private final ExecutorService pool = Executors.newFixedThreadPool(10);
-    private final List<CompletableFuture<Boolean>> futures = Collections.synchronizedList(new ArrayList<>());
+    private final AgingPriorityQueue<PrioritizedTask> queue =
+            newTaskQueue(AgingPriorityQueue.DEFAULT_MAX_WAIT, AgingPriorityQueue.DEFAULT_AGED_SHARE);
+    /**
+     * スレッドプールの作業キュー。ステージング用の {@link #queue} と同じ順序付けを行うため、
+     * 後から追加されたCRITICALのタスクも、待機中のINFOより先にワーカーへ渡されます。
+     */
+    private volatile AgingPriorityQueue<Runnable> workQueue;
+    private final ExecutionMode mode;
+    private final ThreadFactory threadFactory;
+    /**
+     * ワーカーのスレッドプール。{@link #stop()} のたびに作り直されるため、停止後もエンジンを再利用できます。
+     */
+    private volatile ThreadPoolExecutor pool;
+    /**
+     * 未完了の非同期リクエスト数を制限するセマフォ。
+     * {@link ExecutionMode#ASYNC} の場合のみ使用し、それ以外では {@code null} です。
+     */
+    private final LimitSemaphore inFlight;
+    /**
+     * 同時実行数とタイムアウトの自動調整。{@link #setAdaptive} で有効にするまでは {@code null} です。
+     */
+    private volatile AdaptiveController adaptive;
+    /**
+     * 現在適用している同時実行数の上限。{@link #limitLock} で保護されます。
+     */
+    private int currentLimit;
+    private final Object limitLock = new Object();
+    /**
+     * 完了したタスクの集計。タスクごとのFutureを保持しないため、使用メモリは対象数に比例しません。
+     */
+    private final ScanStats stats = new ScanStats();
+    /**
+     * 起動してからの完了件数（レベル×結果の分類）。{@link #stats} と違い {@link #showReport()} でリセットしません。
+     * 完了のたびに要素を1つ増やすだけで、オブジェクトの生成もロックもありません。
+     */
+    private final AtomicLongArray completed = new AtomicLongArray(LogLevel.values().length * STATUS_CLASSES);
+    /**
+     * チェックせずにキャッシュから返した結果の数。{@link #stats} とは別に数えます。
+     */
+    private final LongAdder cacheHits = new LongAdder();
+    /**
+     * 名前解決に失敗したため、送信せずに失敗とした対象の数。
+     */
+    private final LongAdder unresolved = new LongAdder();
+    /**
+     * やり直しの方針。{@link #setRetryPolicy} で設定するまでは {@code null}（やり直さない）です。
+     */
+    private volatile RetryPolicy retryPolicy;
+    private volatile boolean hedging;
+    /**
+     * やり直し・ヘッジの試行の数と、ヘッジが先に応答した数。{@link #stats} とは別に数えます。
+     */
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    /**
+     * やり直しとヘッジの開始を遅らせるタイマー。スレッドは最初の予約で作られ、予約がなくなってしばらくすると終了します。
+     * {@link #stop()} で新しいものに置き換えます。
+     */
+    private volatile ScheduledThreadPoolExecutor timer = newTimer();
+    /**
+     * 直近の {@link #executeAll} で渡されたロガー。ヘッジのタスクに設定します。
+     */
+    private volatile Consumer<String> logBridge;
+    /**
+     * {@link #stop()} が呼ばれた回数。許可を待っている {@link #executeAll} は、この値が変わると送信をやめます。
+     * 書き込みはエンジンのロックを取って行います。
+     */
+    private volatile int stopCount;
+    /**
+     * {@link #executeAll} で送信され、まだ完了していないタスクの数。
+     */
+    private final AtomicLong outstanding = new AtomicLong();
+    /**
+     * 実行中のタスク。タイムアウト時のキャンセルに使用し、大きさは同時実行数で抑えられます。
+     */
+    private final Set<PrioritizedTask> running = ConcurrentHashMap.newKeySet();
+    /**
+     * {@link #outstanding} がゼロになったことを {@link #waitForCompletion} に知らせるためのモニター。
+     */
+    private final Object idle = new Object();
+    /**
+     * 構造化された結果の格納先。{@link #setResultStore} で設定するまでは {@code null} です。
+     */
+    private volatile ResultStore resultStore;
+    /**
+     * タスクが1件完了するたびに結果を受け取るリスナー。
+     */
+    private final List<Consumer<ScanResult>> resultListeners = new CopyOnWriteArrayList<>();
+    /**
+     * URLごとの最後の状態の記録先。{@link #setStateLog} で設定するまでは {@code null} です。
+     */
+    private volatile StateLog stateLog;
+    /**
+     * 状態が変わったURLを受け取るリスナー。
+     */
+    private final List<Consumer<StateLog.Transition>> transitionListeners = new CopyOnWriteArrayList<>();
+    /**
+     * 前回から状態が変わったURLの数（初めてのURL、応答がなくなったURL、応答が戻ったURLの内訳付き）。
+     */
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder changedNew = new LongAdder();
+    private final LongAdder wentDown = new LongAdder();
+    private final LongAdder cameUp = new LongAdder();
+    /**
+     * レベルごとの実行時間（開始から完了まで）のヒストグラム。
+     */
+    private final Map<LogLevel, LatencyHistogram> serviceTime = newHistograms();
+    /**
+     * レベルごとのキュー待ち時間（{@link #addTask} から実行開始まで）のヒストグラム。
+     */
+    private final Map<LogLevel, LatencyHistogram> queueWait = newHistograms();
+    /**
+     * ホスト単位の流量制御。{@link #setHostPoliteness} で有効にするまでは {@code null} です。
+     */
+    private volatile HostScheduler hostScheduler;
+    private int hostMaxPerHost;
+    private Duration hostMinInterval;
+    /**
+     * スキャンの期限（{@link System#nanoTime()} 基準）。期限がない場合は {@link Long#MAX_VALUE} です。
+     */
+    private volatile long deadlineNanos = Long.MAX_VALUE;
+    /**
+     * 継続監視のスケジューラー。{@link #startMonitoring} で開始するまでは {@code null} です。
+     */
+    private volatile MonitorScheduler monitor;
+    private volatile Duration agingMaxWait = AgingPriorityQueue.DEFAULT_MAX_WAIT;
+    private volatile int agedShare = AgingPriorityQueue.DEFAULT_AGED_SHARE;
+
+    /**
+     * 従来通り、10スレッドの固定スレッドプールで実行するエンジンを作成します。
+     */
+    public TaskEngine() {
+        this(ExecutionMode.PLATFORM, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * 実行方式を指定してエンジンを作成します。
+     * <p>
+     * {@link ExecutionMode#PLATFORM} の場合、{@code maxInFlight} はスレッドプールのサイズになります。
+     * {@link ExecutionMode#VIRTUAL} の場合、ワーカーは仮想スレッドになり、
+     * {@code maxInFlight} は同時に実行中のHTTPチェック数の上限になります。
+     * 仮想スレッドはI/O待ちの間OSスレッドを占有しないため、数万の同時チェックでもOSスレッドは増えません。
+     * {@link ExecutionMode#ASYNC} の場合、{@code maxInFlight} は未完了の非同期リクエスト数の上限になります。
+     * </p>
+     * <p>
+     * どの方式でも、ワーカーはタスクを {@link AgingPriorityQueue} から取り出すため、
+     * 優先度はワーカーが実行を開始する瞬間まで保たれます。
+     * </p>
+     *
+     * @param mode        実行方式
+     * @param maxInFlight 同時実行数の上限（1以上）
+     */
+    public TaskEngine(ExecutionMode mode, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.mode = Objects.requireNonNull(mode, "ExecutionMode is required for TaskEngine");
+        this.threadFactory = mode == ExecutionMode.PLATFORM
+                ? Executors.defaultThreadFactory()
+                // ASYNCモードでも AsyncTask を実装していないタスクは仮想スレッドで実行する
+                : Thread.ofVirtual().name("sentinel-worker-", 0).factory();
+        this.pool = newPool(maxInFlight);
+        this.inFlight = mode == ExecutionMode.ASYNC ? new LimitSemaphore(maxInFlight) : null;
+        this.currentLimit = maxInFlight;
+    }
+
+    /**
+     * 新しい作業キューを持つスレッドプールを作成します。スレッドはタスクが来るまで作られません。
+     */
+    private ThreadPoolExecutor newPool(int size) {
+        AgingPriorityQueue<Runnable> q = new AgingPriorityQueue<>(
+                PrioritizedTask::priorityOf, PrioritizedTask::enqueuedOf);
+        q.setAging(agingMaxWait, agedShare);
+        this.workQueue = q;
+        return new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, q, threadFactory);
+    }
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sentinel-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        t.setRemoveOnCancelPolicy(true);
+        t.setKeepAliveTime(30, TimeUnit.SECONDS);
+        t.allowCoreThreadTimeOut(true);
+        return t;
+    }
+
+    /**
+     * @return ExecutionMode このエンジンの実行方式
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * 低優先度タスクのエージングを設定します。
+     * <p>
+     * 最上位ではない優先度のタスクが {@code maxWait} 以上待つと期限切れになり、
+     * ワーカーによる取り出し {@code agedShare} 回につき1回、期限切れのタスクが先に実行されます。
+     * 残りの取り出しは常に優先度順のため、CRITICALの待ち時間の上限も保たれます。
+     * </p>
+     *
+     * @param maxWait   期限切れになるまでの待ち時間。ゼロ以下でエージングを無効にします。
+     * @param agedShare 期限切れのタスクを優先する頻度（2以上）
+     */
+    public synchronized void setAging(Duration maxWait, int agedShare) {
+        queue.setAging(maxWait, agedShare);
+        workQueue.setAging(maxWait, agedShare);
+        this.agingMaxWait = maxWait;
+        this.agedShare = agedShare;
+    }
+
+    /**
+     * 現在のエージング設定でタスク用のキューを作成します。
+     * @return {@code AgingPriorityQueue<PrioritizedTask>} 空のキュー
+     */
+    AgingPriorityQueue<PrioritizedTask> newTaskQueue() {
+        return newTaskQueue(agingMaxWait, agedShare);
+    }
+
+    private static AgingPriorityQueue<PrioritizedTask> newTaskQueue(Duration maxWait, int agedShare) {
+        AgingPriorityQueue<PrioritizedTask> q = new AgingPriorityQueue<>(
+                PrioritizedTask::priority, PrioritizedTask::enqueuedNanos);
+        q.setAging(maxWait, agedShare);
+        return q;
+    }
+
+    /**
+     * ホスト単位の流量制御（ポライトネス）を有効にします。
+     * <p>
+     * 有効にすると、{@link #executeAll} で取り出したタスクは接続先ホストごとの待ち行列に入り、
+     * 同一ホストへの同時実行数が {@code maxPerHost} 以下、リクエストの開始間隔が
+     * {@code minInterval} 以上になるように実行されます。
+     * 待機中のホストがあっても、他のホストのタスクは並行して実行されます。
+     * </p>
+     *
+     * @param maxPerHost  ホストごとの同時実行数の上限（1以上）
+     * @param minInterval 同一ホストへのリクエスト開始間隔の最小値
+     */
+    public synchronized void setHostPoliteness(int maxPerHost, Duration minInterval) {
+        this.hostMaxPerHost = maxPerHost;
+        this.hostMinInterval = minInterval;
+        HostScheduler previous = this.hostScheduler;
+        this.hostScheduler = new HostScheduler(maxPerHost, minInterval, this::newTaskQueue, this::dispatch);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * 継続監視で使う、レベルごとの既定のチェック間隔を返します。
+     * CRITICALは30秒、WARNINGは5分、INFOは30分です。
+     * @return {@code Map<LogLevel, Duration>} 変更可能なコピー
+     */
+    public static Map<LogLevel, Duration> defaultMonitorIntervals() {
+        Map<LogLevel, Duration> intervals = new EnumMap<>(LogLevel.class);
+        intervals.put(LogLevel.CRITICAL, Duration.ofSeconds(30));
+        intervals.put(LogLevel.WARNING, Duration.ofMinutes(5));
+        intervals.put(LogLevel.INFO, Duration.ofMinutes(30));
+        return intervals;
+    }
+
+    /**
+     * 既定の間隔（{@link #defaultMonitorIntervals()}）で継続監視を開始します。
+     * @param logBridge 監視中のチェックのログ出力先（{@code null} の場合は出力しません）
+     */
+    public void startMonitoring(Consumer<String> logBridge) {
+        startMonitoring(defaultMonitorIntervals(), logBridge);
+    }
+
+    /**
+     * 継続監視を開始します。
+     * <p>
+     * {@link #monitor} で登録した対象は、レベルごとの間隔（±10%のジッター付き）で
+     * {@link HttpCheckTask} として繰り返しキューに追加され、通常のタスクと同じく優先度順に実行されます。
+     * 結果は {@link #getStats()} や {@link #addResultListener} で受け取れます。
+     * 予約は {@link MonitorScheduler} のタイミングホイールで管理されるため、
+     * 10万件以上の対象を登録しても、1tickあたりの処理量は期限が来た対象の数だけです。
+     * </p>
+     * <p>
+     * すでに監視中の場合や、{@link #stopMonitoring()} の後に呼んだ場合も、登録済みの対象は引き継がれず、
+     * 新しい間隔で空の状態から始まります。対象は {@link #monitor} で登録し直してください。
+     * {@link ExecutionMode#ASYNC} で同時実行数が上限に達している間は、次の予約の投入も待たされます。
+     * </p>
+     * @param intervals レベルごとのチェック間隔（すべてのレベルを含むこと）
+     * @param logBridge 監視中のチェックのログ出力先（{@code null} の場合は出力しません）
+     */
+    public synchronized void startMonitoring(Map<LogLevel, Duration> intervals, Consumer<String> logBridge) {
+        Consumer<String> logger = logBridge != null ? logBridge : _ -> { };
+        MonitorScheduler scheduler = new MonitorScheduler(intervals, MonitorScheduler.DEFAULT_TICK,
+                MonitorScheduler.DEFAULT_JITTER,
+                (level, url) -> addTask(new HttpCheckTask(level, url)),
+                () -> executeAll(logger));
+        stopMonitoring();
+        this.monitor = scheduler;
+        scheduler.start();
+    }
+
+    /**
+     * 継続監視の対象を登録します。すでに登録されている場合はレベルだけを更新します。
+     * @param level 対象のレベル（チェック間隔と優先度を決めます）
+     * @param url   チェックするURL
+     * @return boolean 新しく登録した場合は {@code true}
+     * @throws IllegalStateException {@link #startMonitoring} が呼ばれていない場合
+     */
+    public boolean monitor(LogLevel level, String url) {
+        return requireMonitor().add(Objects.requireNonNull(level, "level"), Objects.requireNonNull(url, "url"));
+    }
+
+    /**
+     * 継続監視の対象から外します。実行中のチェックはそのまま完了します。
+     * @param url 外すURL
+     * @return boolean 登録されていた場合は {@code true}
+     */
+    public boolean unmonitor(String url) {
+        MonitorScheduler scheduler = this.monitor;
+        return scheduler != null && scheduler.remove(url);
+    }
+
+    /**
+     * @return int 継続監視に登録されている対象の数
+     */
+    public int getMonitoredCount() {
+        MonitorScheduler scheduler = this.monitor;
+        return scheduler == null ? 0 : scheduler.size();
+    }
+
+    /**
+     * 継続監視を止め、登録された対象をすべて破棄します。実行中のチェックはそのまま完了します。
+     * 後で {@link #startMonitoring} を呼んでも、破棄した対象は戻りません。
+     */
+    public synchronized void stopMonitoring() {
+        MonitorScheduler scheduler = this.monitor;
+        this.monitor = null;
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    private MonitorScheduler requireMonitor() {
+        MonitorScheduler scheduler = this.monitor;
+        if (scheduler == null) {
+            throw new IllegalStateException("Monitoring has not been started");
+        }
+        return scheduler;
+    }
+
+    /**
+     * 同時実行数の上限とタイムアウトの自動調整を有効にします。
+     * <p>
+     * 完了したチェックの応答時間とタイムアウトを {@link AdaptiveController} に渡し、
+     * 返された上限をスレッドプールのサイズ（{@link ExecutionMode#ASYNC} の場合は未完了リクエストの許可数）に反映します。
+     * 上限を下げた場合、実行中のタスクはそのまま完了し、新しい上限を超える分は開始されなくなります。
+     * 各タスクの開始時には、接続先ホストの直近の応答時間から求めたタイムアウトが {@link Task#setTimeout} で設定されます。
+     * </p>
+     * @param controller 使用するコントローラー。{@code null} の場合は調整を止め、その時点の上限のまま固定します。
+     */
+    public void setAdaptive(AdaptiveController controller) {
+        this.adaptive = controller;
+        if (controller != null) {
+            applyLimit(controller.limit());
+        }
+    }
+
+    /**
+     * @return int 現在の同時実行数の上限
+     */
+    public int getConcurrencyLimit() {
+        synchronized (limitLock) {
+            return currentLimit;
+        }
+    }
+
+    /**
+     * 同時実行数の上限を変更します。値が変わらない場合は何もしません。
+     * エンジンのロックは取らないため、{@link #executeAll} が許可を待っている間も呼び出せます。
+     */
+    private void applyLimit(int limit) {
+        synchronized (limitLock) {
+            int delta = limit - currentLimit;
+            if (delta == 0) {
+                return;
+            }
+            if (inFlight != null) {
+                if (delta > 0) {
+                    inFlight.release(delta);
+                } else {
+                    inFlight.shrink(-delta);
+                }
+            } else if (delta > 0) {
+                // maximum first: the core size may never exceed it
+                pool.setMaximumPoolSize(limit);
+                pool.setCorePoolSize(limit);
+            } else {
+                pool.setCorePoolSize(limit);
+                pool.setMaximumPoolSize(limit);
+            }
+            currentLimit = limit;
+        }
+    }
+
+    /**
+     * 実行の直前に、タイムアウトとスキャンの期限をタスクに設定します。
+     * 期限をすでに過ぎている場合はタスクをキャンセルし、実行させません。
+     *
+     * @param task 実行するタスク
+     * @return boolean 実行してよい場合は {@code true}
+     */
+    private boolean prepare(PrioritizedTask task) {
+        long deadline = this.deadlineNanos;
+        if (deadline != Long.MAX_VALUE && deadline - System.nanoTime() <= 0) {
+            task.result().cancel(true);
+            return false;
+        }
+        AdaptiveController controller = this.adaptive;
+        if (controller != null) {
+            task.task().setTimeout(controller.timeoutFor(task.task().getHost()));
+        }
+        task.task().setDeadline(deadline);
+        return true;
+    }
+
+    /**
+     * 許可数を減らせるセマフォ。減らした分は、実行中のリクエストが許可を返したときに回収されます。
+     */
+    private static final class LimitSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private LimitSemaphore(int permits) {
+            super(permits);
+        }
+
+        private void shrink(int permits) {
+            reducePermits(permits);
+        }
+    }
 
     /**
      * タスクをキューに追加します。
+     * 受付時刻はこの時点で記録され、エージングの基準になります。
      * 
      * @param task
+     * @return {@code CompletableFuture<Boolean>} タスクの実行結果。{@link #executeAll} で実行されるまで完了しません。
      */
-    public void addTask(Task task) {
-        queue.add(task);
+    public CompletableFuture<Boolean> addTask(Task task) {
+        PrioritizedTask prioritized = new PrioritizedTask(task, this::runTask);
+        queue.add(prioritized);
+        return prioritized.result();
     }
 
 /**
  * 現在キューに滞留しているすべてのタスクを取り出し、スレッドプールへ送信して実行します。
  * <p>
- * このメソッドはノンブロッキングです。実行前に、完了済みのタスク（Future）は
- * 内部リストから削除され、メモリリークを防止します。
+ * このメソッドはノンブロッキングです。繰り返し呼び出した場合も、すべてのタスクの結果は
+ * {@link #showReport()} で集計され、その時点で内部リストから削除されます。
+ * </p>
+ * <p>
+ * ただし {@link ExecutionMode#ASYNC} の場合は、未完了のリクエスト数が上限に達すると
+ * 空きができるまで待機します（バックプレッシャー）。待機中はエンジンのロックを持たないため、
+ * {@link #stop()} や設定の変更は待たされません。待機中に {@link #stop()} が呼ばれた場合、
+ * 待っていたタスクはキャンセルされて戻ります。割り込まれた場合は、残りのタスクをキューに残したまま戻ります。
  * </p>
  * * @param logBridge タスク実行時のログ出力を処理するための {@link Consumer}
  */
-public synchronized void executeAll(Consumer<String> logBridge) {
-    this.futures.removeIf(Future::isDone);
+public void executeAll(Consumer<String> logBridge) {
+    int generation;
+    synchronized (this) {
+        this.logBridge = logBridge;
+        generation = stopCount;
+    }
+    PrioritizedTask waiting;
+    while ((waiting = submitReady(logBridge, generation)) != null) {
+        boolean acquired = false;
+        try {
+            while (stopCount == generation
+                    && !(acquired = inFlight.tryAcquire(PERMIT_POLL_MILLIS, TimeUnit.MILLISECONDS))) {
+                // keep waiting; the timeout only lets a stop() through
+            }
+        } catch (InterruptedException e) {
+            queue.add(waiting);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (this) {
+            if (stopCount != generation) {
+                if (acquired) {
+                    inFlight.release();
+                }
+                waiting.result().cancel(false);
+                return;
+            }
+            track(waiting);
+            if (hostScheduler != null) {
+                // politeness was turned on while this task waited for its permit
+                inFlight.release();
+                hostScheduler.submit(waiting);
+            } else {
+                startAsync(waiting, (AsyncTask) waiting.task());
+            }
+        }
+    }
+}
+
+    /**
+     * キューからタスクを取り出し、すぐに送信できるものを送信します。
+     * {@link ExecutionMode#ASYNC} で許可の空きを待つ必要があるタスクに出会うと、そのタスクを取り出したまま返します。
+     *
+     * @param logBridge  タスクに設定するロガー
+     * @param generation 呼び出し元が開始した時点の {@link #stopCount}
+     * @return PrioritizedTask 許可を待つ必要があるタスク。キューが空になったか、停止された場合は {@code null}
+     */
+    private synchronized PrioritizedTask submitReady(Consumer<String> logBridge, int generation) {
+        PrioritizedTask current;
+        while (stopCount == generation && (current = queue.poll()) != null) {
+            current.task().setLogger(logBridge);
 
-    Task currentTask;
-    while ((currentTask = queue.poll()) != null) {
-        Task finalCurrentTask = currentTask;
-        finalCurrentTask.setLogger(logBridge);
+            if (mode == ExecutionMode.ASYNC && hostScheduler == null && current.task() instanceof AsyncTask asyncTask) {
+                if (!inFlight.tryAcquire()) {
+                    return current;
+                }
+                track(current);
+                startAsync(current, asyncTask);
+                continue;
+            }
 
-        CompletableFuture<Boolean> cf = CompletableFuture.supplyAsync(() -> {
+            track(current);
+            if (hostScheduler != null) {
+                hostScheduler.submit(current);
+            } else {
+                dispatch(current);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 送信したタスクを未完了として数え、完了時に集計されるようにします。
+     *
+     * @param task 送信するタスク
+     */
+    private void track(PrioritizedTask task) {
+        outstanding.incrementAndGet();
+        task.beginAttempt();
+        task.result().whenComplete((result, error) -> onComplete(task, result, error));
+    }
+
+    /**
+     * タスクの完了（成功・失敗・キャンセル）を集計します。
+     * 未完了のタスクがなくなった場合のみ、待機中のスレッドに通知します。
+     *
+     * @param task   完了したタスク
+     * @param result タスクの戻り値（例外で完了した場合は {@code null}）
+     * @param error  発生した例外（正常に完了した場合は {@code null}）
+     */
+    private void onComplete(PrioritizedTask task, Boolean result, Throwable error) {
+        running.remove(task);
+        StatusClass status;
+        if (error instanceof CancellationException) {
+            status = StatusClass.CANCELLED;
+        } else if (error != null) {
+            status = StatusClass.NETWORK_ERROR;
+        } else {
+            StatusClass reported = task.resultTask().getStatusClass();
+            status = reported != null ? reported
+                    : Boolean.TRUE.equals(result) ? StatusClass.SUCCESS : StatusClass.NETWORK_ERROR;
+        }
+        LogLevel level = task.task().getLevel();
+        count(level, status);
+        long started = task.startedNanos();
+        if (started != 0 && error == null) {
+            serviceTime.get(level).record(System.nanoTime() - started);
+        }
+        ResultStore store = this.resultStore;
+        ScanResult scanResult = task.resultTask().getLastResult();
+        if (store != null && scanResult != null && error == null) {
+            store.add(scanResult);
+        }
+        AdaptiveController controller = this.adaptive;
+        if (controller != null && scanResult != null && error == null) {
+            applyLimit(controller.record(task.task().getHost(), status, scanResult.latencyNanos()));
+        }
+        if (!resultListeners.isEmpty() || stateLog != null) {
+            notifyListeners(task, level, status, scanResult, error);
+        }
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 完了したタスクの結果をリスナーへ渡します。
+     * キャンセルや例外でタスクが結果を残さなかった場合は、失敗の結果を作成して渡します。
+     */
+    private void notifyListeners(PrioritizedTask task, LogLevel level, StatusClass status,
+            ScanResult scanResult, Throwable error) {
+        if (scanResult == null || error != null) {
+            long started = task.startedNanos();
+            long elapsed = started == 0 ? 0 : System.nanoTime() - started;
+            Throwable cause = error != null ? error : new IllegalStateException("no result");
+            String target = switch (task.task()) {
+                case HttpCheckTask http -> http.getUrl();
+                case TcpProbeTask probe -> probe.getUrl();
+                default -> task.task().getHost();
+            };
+            scanResult = ScanResult.failure(target, level, elapsed, status, cause);
+        }
+        recordState(scanResult);
+        for (Consumer<ScanResult> listener : resultListeners) {
             try {
-                return finalCurrentTask.call();
+                listener.accept(scanResult);
+            } catch (RuntimeException e) {
+                // a broken listener must not stop the completion bookkeeping
+                System.err.println("Result listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * タスクを実行方式に従って開始します。このメソッドは呼び出し元をブロックしません。
+     * <p>
+     * {@link ExecutionMode#ASYNC} で許可がすぐに得られない場合や、通常のタスクの場合は、
+     * スレッドプールの作業キューに優先度順で並べられ、ワーカーが取り出した時点で実行されます。
+     * </p>
+     *
+     * @param task 実行するタスク
+     * @return {@code CompletableFuture<Boolean>} タスクの実行結果
+     */
+    private CompletableFuture<Boolean> dispatch(PrioritizedTask task) {
+        if (mode == ExecutionMode.ASYNC && task.task() instanceof AsyncTask asyncTask && inFlight.tryAcquire()) {
+            return startAsync(task, asyncTask);
+        }
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.result().completeExceptionally(e);
+        }
+        return task.result();
+    }
+
+    /**
+     * ワーカーがタスクを取り出したときに呼び出され、タスクを実行して結果を確定します。
+     * <p>
+     * {@link ExecutionMode#ASYNC} の非同期タスクの場合、ワーカーは許可を待ってから
+     * リクエストを開始するだけで、応答は待ちません。
+     * </p>
+     *
+     * @param task 実行するタスク
+     */
+    private void runTask(PrioritizedTask task) {
+        running.add(task);
+        if (task.startedNanos() == 0) {
+            long waited = task.markStarted();
+            if (task.primary() == null) {
+                queueWait.get(task.task().getLevel()).record(waited);
+            }
+        }
+        // registered so that cancelling the task interrupts this thread (and with it HttpClient.send)
+        if (!task.attach(Thread.currentThread())) {
+            return;
+        }
+        try {
+            if (mode == ExecutionMode.ASYNC && task.task() instanceof AsyncTask asyncTask) {
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    settle(task, null, e);
+                    return;
+                }
+                task.detach();
+                startAsync(task, asyncTask);
+                return;
+            }
+            if (!prepare(task)) {
+                return;
+            }
+            armHedge(task);
+            try {
+                settle(task, task.task().call(), null);
             } catch (Exception e) {
-                throw new CompletionException(e);
+                settle(task, null, e);
             }
-        }, pool);
-        this.futures.add(cf);
+        } finally {
+            task.detach();
+            // an interrupt meant for this task must not leak into the next one
+            Thread.interrupted();
+        }
     }
-}
 
     /**
+     * 許可を取得済みの非同期タスクを開始し、完了時に許可を返却します。
+     * タスクの開始自体が失敗した場合も、許可は必ず返却されます。
+     *
+     * @param task      結果を受け取るタスク
+     * @param asyncTask 開始する非同期タスク
+     * @return {@code CompletableFuture<Boolean>} タスクの実行結果
+     */
+    private CompletableFuture<Boolean> startAsync(PrioritizedTask task, AsyncTask asyncTask) {
+        running.add(task);
+        if (task.startedNanos() == 0) {
+            long waited = task.markStarted();
+            if (task.primary() == null) {
+                queueWait.get(task.task().getLevel()).record(waited);
+            }
+        }
+        if (!prepare(task)) {
+            inFlight.release();
+            return task.result();
+        }
+        armHedge(task);
+        CompletableFuture<Boolean> started;
+        try {
+            started = asyncTask.callAsync();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            settle(task, null, e);
+            return task.result();
+        }
+        task.attachExchange(started);
+        started.whenComplete((result, error) -> {
+            inFlight.release();
+            settle(task, result, error);
+        });
+        return task.result();
+    }
+
+    /**
+     * 1回の試行の結果を反映します。
+     * ヘッジの試行の場合は、その試行自身の結果だけを確定させます。
+     * 元のタスクへの反映は、{@link #launchHedge} で登録した処理が行います。
+     *
+     * @param task  試行したタスク
+     * @param value 試行の戻り値（例外で終わった場合は {@code null}）
+     * @param error 発生した例外（正常に終わった場合は {@code null}）
+     */
+    private void settle(PrioritizedTask task, Boolean value, Throwable error) {
+        if (task.primary() != null) {
+            if (error != null) {
+                task.result().completeExceptionally(error);
+            } else {
+                task.result().complete(value);
+            }
+            return;
+        }
+        finish(task, task.task(), value, error);
+    }
+
+    /**
+     * 試行の結果から、タスクの結果を確定させるか、やり直すかを決めます。
+     * <p>
+     * 応答があった試行は、元の試行かヘッジかに関係なく、最初のものが結果になります。
+     * 応答がなかった試行は、他の試行がまだ進行中であればその結果を待ち、
+     * すべて終わっていれば {@link RetryPolicy} に従ってやり直すか、失敗として確定させます。
+     * </p>
+     *
+     * @param task    元のタスク
+     * @param attempt 結果を出した試行のタスク
+     * @param value   試行の戻り値
+     * @param error   発生した例外
+     */
+    private void finish(PrioritizedTask task, Task attempt, Boolean value, Throwable error) {
+        if (task.result().isDone()) {
+            return;
+        }
+        int pending = task.endAttempt();
+        ScanResult last = error == null ? attempt.getLastResult() : null;
+        boolean answered = error == null && (last == null || last.statusClass().isResponded());
+        if (answered) {
+            win(task, attempt, value);
+            return;
+        }
+        if (pending > 0) {
+            return; // the original or a hedge is still running and may yet answer
+        }
+        if (error == null && scheduleRetry(task, last)) {
+            return;
+        }
+        if (error != null) {
+            task.result().completeExceptionally(error);
+        } else {
+            win(task, attempt, value);
+        }
+    }
+
+    private void win(PrioritizedTask task, Task attempt, Boolean value) {
+        if (task.complete(attempt, value) && attempt != task.task()) {
+            hedgeWins.increment();
+            task.abortAttempt(); // the hedge answered first: stop the original request
+        }
+    }
+
+    /**
+     * 一時的な失敗であれば、間隔を空けてタスクをもう一度実行するよう予約します。
+     * やり直しは通常のタスクと同じくスレッドプールや許可を通って実行されるため、同時実行数の上限に数えられます。
+     * ホスト単位の制限（{@link #setHostPoliteness}）がある場合は、待つ間はホストの枠を返し、
+     * やり直すときにホストの待ち行列へ並び直すため、ホストごとの上限と間隔も守られます。
+     *
+     * @return boolean 予約した場合は {@code true}
+     */
+    private boolean scheduleRetry(PrioritizedTask task, ScanResult last) {
+        RetryPolicy policy = this.retryPolicy;
+        if (policy == null || !policy.isRetryable(last)) {
+            return false;
+        }
+        int retry = task.nextRetry();
+        if (retry >= policy.maxAttempts()) {
+            return false;
+        }
+        long delay = policy.backoffNanos(retry);
+        long deadline = this.deadlineNanos;
+        if (deadline != Long.MAX_VALUE && deadline - System.nanoTime() <= delay) {
+            return false; // no time left for another attempt
+        }
+        retries.increment();
+        task.beginAttempt();
+        task.releaseHostSlot();
+        try {
+            timer.schedule(() -> {
+                if (task.result().isDone()) {
+                    return;
+                }
+                HostScheduler scheduler = this.hostScheduler;
+                if (scheduler != null) {
+                    scheduler.submit(task);
+                } else {
+                    dispatch(task);
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * ヘッジが有効な場合、同じレベルの実行時間の {@value #HEDGE_PERCENTILE} パーセンタイルが過ぎても
+     * 応答がなければ、重複のリクエストを送るよう予約します。ヘッジは1つのタスクに1回までです。
+     */
+    private void armHedge(PrioritizedTask task) {
+        if (!hedging || task.primary() != null) {
+            return;
+        }
+        LatencyHistogram latency = serviceTime.get(task.task().getLevel());
+        if (latency.count() < HEDGE_MIN_SAMPLES || !task.markHedged()) {
+            return;
+        }
+        long delay = Math.max(1, latency.percentile(HEDGE_PERCENTILE));
+        try {
+            ScheduledFuture<?> pending = timer.schedule(() -> launchHedge(task), delay, TimeUnit.NANOSECONDS);
+            task.result().whenComplete((_, _) -> pending.cancel(false));
+        } catch (RejectedExecutionException e) {
+            // no hedge; the original attempt carries on
+        }
+    }
+
+    /**
+     * 重複のリクエストを通常のタスクと同じ経路で実行します。
+     * どちらかが応答した時点で、もう一方はキャンセルされます。
+     */
+    private void launchHedge(PrioritizedTask primary) {
+        if (primary.result().isDone()) {
+            return;
+        }
+        Task copy = primary.task().copy();
+        if (copy == null) {
+            return;
+        }
+        Consumer<String> logger = this.logBridge;
+        if (logger != null) {
+            copy.setLogger(logger);
+        }
+        PrioritizedTask hedge = new PrioritizedTask(copy, this::runTask, primary);
+        primary.beginAttempt();
+        hedges.increment();
+        hedge.result().whenComplete((value, error) -> {
+            running.remove(hedge);
+            finish(primary, copy, value, error);
+        });
+        primary.result().whenComplete((_, _) -> hedge.result().cancel(true));
+        dispatch(hedge);
+    }
+
+    /**
+     * 最終スコアボードを作成し、集計をリセットします。
+     * スキャン中の途中経過は {@link #getStats()} から読み取れます。
+     * 
      * @return String
      */
     public String showReport() {
-        int success = 0;
-        int fail = 0;
         List<String> report = new ArrayList<>();
-        for (Future<Boolean> result : futures) {
+        long total = stats.total();
+        long success = stats.online();
+
+        report.add("\n=== FINAL SCOREBOARD ===");
+        report.add("Total Targets: " + total);
+        report.add("✅ Online: " + success);
+        report.add("❌ Offline/Blocked: " + (total - success));
+        long cached = cacheHits.sum();
+        if (cached > 0) {
+            report.add("♻ Served from cache (not re-checked): " + cached);
+        }
+        long skipped = unresolved.sum();
+        if (skipped > 0) {
+            report.add("🚫 Unresolvable host (not sent): " + skipped);
+        }
+        long retried = retries.sum();
+        if (retried > 0) {
+            report.add("🔁 Retries: " + retried);
+        }
+        long hedged = hedges.sum();
+        if (hedged > 0) {
+            report.add("⏩ Hedged requests: " + hedged + " (answered first: " + hedgeWins.sum() + ")");
+        }
+        StateLog log = this.stateLog;
+        if (log != null) {
+            report.add("🔀 Changed since last scan: " + changed.sum() + " (went down " + wentDown.sum()
+                    + ", came up " + cameUp.sum() + ", new " + changedNew.sum() + ")");
             try {
-                if (result.get()) {
-                    success++;
-                } else {
-                    fail++;
+                log.flush();
+            } catch (IOException e) {
+                report.add("⚠️ Could not write state log: " + e.getMessage());
+            }
+        }
+        for (LogLevel level : LogLevel.values()) {
+            report.add(stats.describe(level));
+        }
+        report.add("--- Latency ---");
+        for (LogLevel level : LogLevel.values()) {
+            if (serviceTime.get(level).count() > 0) {
+                report.add(level + " check: " + serviceTime.get(level).describe());
+                if (queueWait.get(level).count() > 0) {
+                    report.add(level + " queue: " + queueWait.get(level).describe());
                 }
-            } catch (Exception e) {
-                fail++;
             }
         }
-
-        report.add("\n=== FINAL SCOREBOARD ===");
-        report.add("Total Targets: " + (success + fail));
-        report.add("✅ Online: " + success);
-        report.add("❌ Offline/Blocked: " + fail);
+        ConnectionManager connections = ConnectionManager.peekDefault();
+        if (connections != null && connections.requests() > 0) {
+            report.add("--- Connections ---");
+            report.add(connections.describe());
+            connections.resetStats();
+        }
+        ResultStore store = this.resultStore;
+        if (store != null && store.size() > 0) {
+            report.add("--- Slowest ---");
+            for (int row : store.slowest(SLOWEST_IN_REPORT)) {
+                report.add(String.format("%6d ms [%d] %s", store.latencyNanos(row) / 1_000_000,
+                        store.statusCode(row), store.url(row)));
+            }
+        }
         report.add("========================");
 
-        futures.clear();
+        stats.reset();
+        cacheHits.reset();
+        unresolved.reset();
+        retries.reset();
+        hedges.reset();
+        hedgeWins.reset();
+        changed.reset();
+        changedNew.reset();
+        wentDown.reset();
+        cameUp.reset();
+        serviceTime.values().forEach(LatencyHistogram::reset);
+        queueWait.values().forEach(LatencyHistogram::reset);
         String result = report.stream()
                 .map(String::valueOf)
                 .collect(Collectors.joining("\n", "", ""));
@@ -107,77 +1024,461 @@ public synchronized void executeAll(Consumer<String> logBridge) {
 
     }
 
+    /**
+     * 完了したタスクの集計を返します。スキャン中でもいつでも読み取れます。
+     * 
+     * @return ScanStats 前回の {@link #showReport()} 以降の集計
+     */
+    public ScanStats getStats() {
+        return stats;
+    }
+
+    /**
+     * チェックせずにキャッシュから返した結果を記録します。
+     * <p>
+     * 結果は {@link ResultStore} とリスナーには通常の結果と同じく渡されますが、
+     * {@link #getStats()} には含めず、スコアボードでは別の行に表示されます。
+     * </p>
+     * @param cached キャッシュされていた結果
+     */
+    public void recordCacheHit(ScanResult cached) {
+        cacheHits.increment();
+        publish(cached);
+    }
+
+    /**
+     * 名前解決に失敗したため、送信せずに失敗とした結果を記録します。
+     * <p>
+     * 結果は通常の失敗と同じく {@link #getStats()} に数えられ、{@link ResultStore} とリスナーに渡されます。
+     * 同時実行数の枠やタイムアウトは使わず、自動調整の統計にも含めません。
+     * </p>
+     * @param failed 失敗の結果
+     */
+    public void recordUnresolved(ScanResult failed) {
+        unresolved.increment();
+        count(failed.level(), failed.statusClass());
+        publish(failed);
+    }
+
+    /**
+     * 別のプロセスで実行されたチェックの結果を記録します。
+     * <p>
+     * {@link ShardCoordinator} が、ワーカーから受け取った結果を1つのスコアボードにまとめるために使います。
+     * 結果は {@link #getStats()} と実行時間のヒストグラムに数えられ、{@link ResultStore} とリスナーに渡されます。
+     * 自動調整の統計には含めません。
+     * </p>
+     * @param remote ワーカーが報告した結果
+     */
+    public void recordRemote(ScanResult remote) {
+        count(remote.level(), remote.statusClass());
+        if (remote.statusClass() != StatusClass.CANCELLED) {
+            serviceTime.get(remote.level()).record(remote.latencyNanos());
+        }
+        publish(remote);
+    }
+
+    private void count(LogLevel level, StatusClass status) {
+        stats.record(level, status);
+        completed.incrementAndGet(level.ordinal() * STATUS_CLASSES + status.ordinal());
+    }
+
+    private void publish(ScanResult result) {
+        ResultStore store = this.resultStore;
+        if (store != null) {
+            store.add(result);
+        }
+        recordState(result);
+        for (Consumer<ScanResult> listener : resultListeners) {
+            try {
+                listener.accept(result);
+            } catch (RuntimeException e) {
+                System.err.println("Result listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 結果を状態の記録に渡し、状態が変わっていれば数えてリスナーに通知します。
+     */
+    private void recordState(ScanResult result) {
+        StateLog log = this.stateLog;
+        if (log == null) {
+            return;
+        }
+        StateLog.Transition transition = log.record(result);
+        if (transition == null) {
+            return;
+        }
+        changed.increment();
+        if (transition.isNew()) {
+            changedNew.increment();
+        } else if (transition.wentDown()) {
+            wentDown.increment();
+        } else if (transition.cameUp()) {
+            cameUp.increment();
+        }
+        for (Consumer<StateLog.Transition> listener : transitionListeners) {
+            try {
+                listener.accept(transition);
+            } catch (RuntimeException e) {
+                System.err.println("Transition listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * URLごとの最後の状態を記録するログを設定します。
+     * <p>
+     * 設定すると、完了したすべての結果（キャッシュから返した結果を含む）がログに渡され、
+     * 前回から状態が変わったURLだけが {@link #addTransitionListener} のリスナーに通知されます。
+     * スコアボードには変化の数が表示され、{@link #showReport()} のたびにログはファイルへ書き出されます。
+     * ログを閉じるのは呼び出し元の責任です。
+     * </p>
+     * @param log 記録先（{@code null} で記録を停止）
+     */
+    public void setStateLog(StateLog log) {
+        this.stateLog = log;
+    }
+
+    /**
+     * @return StateLog 現在の記録先、未設定の場合は {@code null}
+     */
+    public StateLog getStateLog() {
+        return stateLog;
+    }
+
+    /**
+     * 前回から状態が変わったURLを受け取るリスナーを登録します。{@link #setStateLog} を設定した場合だけ呼び出されます。
+     * <p>
+     * 結果のリスナーと同じく、ワーカースレッドから複数同時に呼び出されることがあります。
+     * </p>
+     * @param listener 変化を受け取るリスナー
+     */
+    public void addTransitionListener(Consumer<StateLog.Transition> listener) {
+        transitionListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * 登録したリスナーを解除します。
+     * @param listener 解除するリスナー
+     */
+    public void removeTransitionListener(Consumer<StateLog.Transition> listener) {
+        transitionListeners.remove(listener);
+    }
+
+    /**
+     * 一時的な失敗をやり直す方針を設定します。
+     * やり直しはスレッドプールや許可を通って実行されるため、同時実行数の上限に数えられます。
+     * スキャンの期限までにやり直す時間が残っていない場合は、やり直しません。
+     *
+     * @param policy やり直しの方針（{@code null} でやり直さない）
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
+    }
+
+    /**
+     * ヘッジを有効にするかどうかを設定します。
+     * <p>
+     * 有効な場合、同じレベルの実行時間の {@value #HEDGE_PERCENTILE} パーセンタイルを過ぎても応答がないタスクについて、
+     * 同じ対象への重複のリクエストを1回だけ送り、先に応答した方を結果にします。
+     * 重複のリクエストも同時実行数の上限に数えられます。ホスト単位の流量制御（{@link #setHostPoliteness}）の対象外です。
+     * {@link Task#copy()} に対応していないタスクにはヘッジを送りません。
+     * </p>
+     *
+     * @param enabled 有効にする場合は {@code true}
+     */
+    public void setHedging(boolean enabled) {
+        this.hedging = enabled;
+    }
+
+    /**
+     * @return long 前回の {@link #showReport()} 以降に行ったやり直しの数
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return long 前回の {@link #showReport()} 以降に送ったヘッジの数
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return long 前回の {@link #showReport()} 以降に、キャッシュから返した結果の数
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * タスクが1件完了するたびに呼び出されるリスナーを登録します。
+     * <p>
+     * リスナーはタスクを実行したワーカースレッドから、複数同時に呼び出されることがあります。
+     * キャンセルされたタスクや例外で終了したタスクについても、失敗の結果が渡されます。
+     * </p>
+     * @param listener 結果を受け取るリスナー
+     */
+    public void addResultListener(Consumer<ScanResult> listener) {
+        resultListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * 登録したリスナーを解除します。
+     * @param listener 解除するリスナー
+     */
+    public void removeResultListener(Consumer<ScanResult> listener) {
+        resultListeners.remove(listener);
+    }
+
+    /**
+     * 完了したタスクの構造化された結果（{@link ScanResult}）を格納するストアを設定します。
+     * {@code null} を渡すと格納を停止します。
+     * 
+     * @param store 格納先
+     */
+    public void setResultStore(ResultStore store) {
+        this.resultStore = store;
+    }
+
+    /**
+     * @return ResultStore 現在の格納先、未設定の場合は {@code null}
+     */
+    public ResultStore getResultStore() {
+        return resultStore;
+    }
+
+    /**
+     * レベルごとの実行時間（ワーカーが実行を開始してから完了するまで）を返します。
+     * スキャン中でもいつでも読み取れます。
+     * 
+     * @param level タスクのレベル
+     * @return LatencyHistogram 前回の {@link #showReport()} 以降の記録
+     */
+    public LatencyHistogram getLatency(LogLevel level) {
+        return serviceTime.get(level);
+    }
+
+    /**
+     * レベルごとのキュー待ち時間（{@link #addTask} から実行開始まで）を返します。
+     * スキャン中でもいつでも読み取れます。
+     * 
+     * @param level タスクのレベル
+     * @return LatencyHistogram 前回の {@link #showReport()} 以降の記録
+     */
+    public LatencyHistogram getQueueWait(LogLevel level) {
+        return queueWait.get(level);
+    }
+
+    private static Map<LogLevel, LatencyHistogram> newHistograms() {
+        Map<LogLevel, LatencyHistogram> map = new EnumMap<>(LogLevel.class);
+        for (LogLevel level : LogLevel.values()) {
+            map.put(level, new LatencyHistogram());
+        }
+        return map;
+    }
+
+    /**
+     * @return long 送信済みで、まだ完了していないタスクの数
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return int 実行中のタスク（ヘッジを含む）の数。{@link ExecutionMode#ASYNC} では応答を待っているリクエストの数です。
+     */
+    public int getRunning() {
+        return running.size();
+    }
+
+    /**
+     * @return int {@link #addTask} で追加され、まだ {@link #executeAll} で送信されていないタスクの数
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * 同時実行数の枠のうち、使用中のものの数を返します。
+     * {@link ExecutionMode#ASYNC} では未完了のリクエストが持つ許可の数、それ以外ではタスクを実行中のワーカーの数です。
+     * @return int 使用中の枠の数
+     */
+    public int getBusySlots() {
+        if (inFlight != null) {
+            return Math.max(0, getConcurrencyLimit() - inFlight.availablePermits());
+        }
+        return pool.getActiveCount();
+    }
+
+    /**
+     * エンジンを作成してからの完了件数を返します。{@link #getStats()} と違い、{@link #showReport()} でリセットされません。
+     * @param level  タスクのレベル
+     * @param status 結果の分類
+     * @return long 該当する件数
+     */
+    public long getCompletedTotal(LogLevel level, StatusClass status) {
+        return completed.get(level.ordinal() * STATUS_CLASSES + status.ordinal());
+    }
+
+    /**
+     * 実行中のタスクの完了を最大60秒待ってからスレッドプールを停止します。
+     * 時間内に終わらなかったタスクはキャンセルされ、進行中の通信も中断されます。
+     * <p>
+     * まだ送信されていないタスク（{@link #executeAll} が許可を待っているものを含む）はキャンセルされます。
+     * 停止と同時に新しいスレッドプールとホスト単位の待ち行列、やり直し用のタイマーが用意されるため、
+     * 停止後も同じエンジンで次のスキャンを実行できます。スレッドは次のタスクが来るまで作られません。
+     * 古いタイマーは、予約済みのやり直しを実行し終えた時点でスレッドを終了します。
+     * </p>
+     */
     public void stop() {
-        pool.shutdown();
+        stopMonitoring();
+        ThreadPoolExecutor old;
+        synchronized (this) {
+            stopCount++;
+            PrioritizedTask staged;
+            while ((staged = queue.poll()) != null) {
+                staged.result().cancel(false);
+            }
+            ScheduledThreadPoolExecutor oldTimer = this.timer;
+            this.timer = newTimer();
+            oldTimer.shutdown();
+            HostScheduler scheduler = this.hostScheduler;
+            if (scheduler != null) {
+                scheduler.shutdown();
+                this.hostScheduler = new HostScheduler(hostMaxPerHost, hostMinInterval, this::newTaskQueue, this::dispatch);
+            }
+            synchronized (limitLock) {
+                old = this.pool;
+                this.pool = newPool(currentLimit);
+            }
+        }
+        old.shutdown();
         try {
-            if (!pool.awaitTermination(60, java.util.concurrent.TimeUnit.SECONDS)) {
-                pool.shutdownNow();
+            if (!old.awaitTermination(60, java.util.concurrent.TimeUnit.SECONDS)) {
+                abort(old);
             }
         } catch (InterruptedException e) {
-            pool.shutdownNow();
+            abort(old);
             Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * @return String
-     * @throws InterruptedException
+     * 停止したスレッドプールに残っているタスクをキャンセルし、実行中の通信を中断します。
      */
- public String waitForCompletion(long timeout, TimeUnit unit) {
-        List<CompletableFuture<Boolean>> snap;
-        
-        // 1. Snapshot (The Copy)
-        synchronized (futures) {
-            snap = new ArrayList<>(futures);
+    private void abort(ThreadPoolExecutor old) {
+        for (Runnable r : old.shutdownNow()) {
+            if (r instanceof PrioritizedTask task) {
+                task.result().cancel(true);
+            }
         }
-
-        if (snap.isEmpty()) {
-            return "No tasks to wait for."; //$NON-NLS-1$
+        for (PrioritizedTask task : running) {
+            task.result().cancel(true);
         }
+    }
 
-        // 2. The Blocking Wait
-        CompletableFuture<Void> allOf = CompletableFuture.allOf(
-            snap.toArray(new CompletableFuture[0])
-        );
+    /**
+     * 現在のスキャンに期限を設定します。
+     * <p>
+     * 期限は実行を開始するタスクに伝えられ、各リクエストのタイムアウトは期限までの残り時間で打ち切られます。
+     * 期限を過ぎてから実行の順番が来たタスクは、実行されずにキャンセルされます。
+     * 期限は {@link #waitForCompletion} の終了時に解除されます。
+     * </p>
+     * @param budget 現在からの残り時間
+     */
+    public void setDeadline(Duration budget) {
+        this.deadlineNanos = System.nanoTime() + budget.toNanos();
+    }
 
-        boolean timedOut = false;
+    /**
+     * {@link #setDeadline} で設定した期限を解除します。
+     */
+    public void clearDeadline() {
+        this.deadlineNanos = Long.MAX_VALUE;
+    }
 
-        try {
-            // Wait for your chosen 5 seconds
-            allOf.get(timeout, unit);
-        } catch (TimeoutException e) {
-            timedOut = true;
-            System.err.println("Timeout hit! cancelling " + snap.size() + " tasks to free resources.");
-        } catch (Exception e) {
-            // Handle InterruptedException or ExecutionException
-            System.err.println("Wait error: " + e.getMessage());
+    /**
+     * 送信済みのすべてのタスクが完了するまで待機します。
+     * <p>
+     * 時間内に完了しなかった場合、待機中と実行中のタスクをキャンセルし、
+     * キャンセルしたタスクは失敗として集計されます。実行中のタスクはワーカースレッドへの割り込みで
+     * 通信ごと中断されるため、ワーカーはすぐに次のスキャンに使えるようになります。
+     * </p>
+     * <p>
+     * 待機中はこの時間がスキャンの期限として扱われ、これから実行を開始するタスクのタイムアウトも
+     * 残り時間で打ち切られます。{@link #setDeadline} の期限の方が早い場合は、そちらが優先されます。
+     * 戻る前に期限は解除されます。
+     * </p>
+     * 
+     * @param timeout 待機する最大時間
+     * @param unit    {@code timeout} の単位
+     * @return String
+     */
+ public String waitForCompletion(long timeout, TimeUnit unit) {
+        if (outstanding.get() == 0 && stats.total() == 0) {
+            clearDeadline();
+            return "No tasks to wait for."; //$NON-NLS-1$
         }
 
-        // 3. Count & Cleanup (The Expert Touch)
-        long success = 0;
-        long fail = 0;
-
-        for (CompletableFuture<Boolean> cf : snap) {
-            if (timedOut) {
-                // FORCE CANCEL the task if it's still running.
-                // This ensures your lightweight app doesn't accumulate garbage.
-                cf.cancel(true); 
-                fail++;
-            } else {
-                // Normal counting logic
-                if (cf.isDone() && !cf.isCompletedExceptionally() && !cf.isCancelled()) {
-                    if (cf.getNow(false)) {
-                        success++;
-                    } else {
-                        fail++;
+        // 1. The Blocking Wait (woken only when the last task finishes)
+        boolean timedOut = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long scanDeadline = this.deadlineNanos;
+        if (scanDeadline != Long.MAX_VALUE && scanDeadline - deadline < 0) {
+            deadline = scanDeadline;
+        }
+        this.deadlineNanos = deadline;
+        try {
+            synchronized (idle) {
+                long remaining;
+                while (outstanding.get() > 0) {
+                    remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timedOut = true;
+                        break;
                     }
-                } else {
-                    fail++;
+                    TimeUnit.NANOSECONDS.timedWait(idle, remaining);
                 }
             }
+        } catch (InterruptedException e) {
+            System.err.println("Wait error: " + e.getMessage());
+            Thread.currentThread().interrupt();
         }
 
+        // 2. Cleanup: cancel whatever is still queued or running
+        if (timedOut) {
+            System.err.println("Timeout hit! cancelling " + outstanding.get() + " tasks to free resources.");
+            cancelOutstanding();
+        }
+        clearDeadline();
+
+        // 3. Count
+        long success = stats.online();
+        long fail = stats.total() - success;
         return String.format("Result: %d Success, %d Failed (Timeout was: %s)", success, fail, timedOut);
     }
-}
 
+    /**
+     * 待機中と実行中のすべてのタスクをキャンセルします。
+     * キャンセルされたタスクは {@link StatusClass#CANCELLED} として集計されます。
+     */
+    private void cancelOutstanding() {
+        HostScheduler scheduler = this.hostScheduler;
+        if (scheduler != null) {
+            scheduler.cancelWaiting();
+        }
+        List<Runnable> queued = new ArrayList<>();
+        workQueue.drainTo(queued);
+        for (Runnable r : queued) {
+            if (r instanceof PrioritizedTask task) {
+                task.result().cancel(true);
+            }
+        }
+        for (PrioritizedTask task : running) {
+            task.result().cancel(true);
+        }
+    }
+}
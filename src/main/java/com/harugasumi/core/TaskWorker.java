@@ -1,42 +1,96 @@
 package com.harugasumi.core;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.EnumMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
 
 public class TaskWorker {
 
-	Map<LogLevel, ArrayList<String>> data;
+	/** ストリーミング読み込みで、まとめてエンジンへ送るエントリ数 */
+	private static final int STREAM_FLUSH_SIZE = 64;
+	/** ストリーミング読み込みで、重複の判定のために覚えておく異なるURLの数 */
+	static final int STREAM_DEDUP_WINDOW = 1 << 18;
+
+	/** {@link #loadData()} で読み込んだ対象。URLの文字列は {@link #generateTasks()} でタスクを作るときに組み立てます。 */
+	TargetTable data;
 	private TaskEngine workload;
-	private final Queue<String> logBuffer = new ConcurrentLinkedQueue<>();
+	/** {@link #getLogs()} で返す直近のログの最大件数 */
+	private static final int LOG_HISTORY = 10_000;
+	/** ログの配信間隔（ミリ秒） */
+	private static final long LOG_INTERVAL_MS = 50;
+	/** ログのリングバッファの容量 */
+	private static final int LOG_CAPACITY = 8192;
+
+	private final LogPipeline logPipeline;
+	/** 直近のログ。配信スレッドだけが書き込み、バッチ単位でロックします。 */
+	private final ArrayDeque<String> logBuffer = new ArrayDeque<>();
 	ObjectMapper mapper = new ObjectMapper();
 
 	List<String> rawLines = new ArrayList<>();
 	List<LinkEntries> newEntries = new ArrayList<>();
+	private SessionFormat sessionFormat = SessionFormat.JSON;
+	/** 最近の結果のキャッシュ。{@link #setResultCache} で設定するまでは {@code null} です。 */
+	private ResultCache resultCache;
+	private Consumer<ScanResult> cacheListener;
+	/** 投入前に、ホストをまとめて名前解決するかどうか */
+	private boolean preResolve = true;
+	/** TCPの接続を確かめてからHEADを送るかどうか */
+	private boolean tiered;
 
 	public TaskWorker(TaskEngine engine) {
+		this(engine, new LogPipeline(LOG_CAPACITY, LogPipeline.OverflowPolicy.SAMPLE, LOG_INTERVAL_MS));
+	}
+
+	/**
+	 * ログの配信方法を指定してワーカーを作成します。
+	 * @param engine      タスクを実行するエンジン
+	 * @param logPipeline タスクのログを溜めて配信するパイプライン
+	 */
+	public TaskWorker(TaskEngine engine, LogPipeline logPipeline) {
 		this.workload = engine;
+		this.logPipeline = logPipeline;
 	}
 	
 	public void setRawLines(List<String> lines) {
 	    this.rawLines = lines;
 	}
 
+	/**
+	 * {@link #registerData()} と {@link #loadData()} が使用するセッションファイルの形式を設定します。
+	 * @param format セッションファイルの形式
+	 */
+	public void setSessionFormat(SessionFormat format) {
+		this.sessionFormat = java.util.Objects.requireNonNull(format, "SessionFormat is required");
+	}
+
+	/**
+	 * @return File 現在の形式のセッションファイル
+	 */
+	public File getSessionFile() {
+		return new File(sessionFormat.getFileName());
+	}
+
 	public void registerData() {
 	    // 1. Initialize empty list for the new JSON structure
 	    List<LinkEntries> newEntries = new ArrayList<>();
 	    
-	    // 2. Process all lines in memory first
+	    // 2. Process all lines in memory first (equivalent URLs collapse, the highest level wins)
+	    TargetTable table = new TargetTable();
 	    for (String line : rawLines) {
 	        if (line.startsWith("#")) continue;
 
@@ -46,82 +100,528 @@ public class TaskWorker {
 	        String keyStr = line.substring(0, idx).trim();
 	        String value = line.substring(idx + 1).trim();
 
-	        // Add to temporary list
-	        newEntries.add(new LinkEntries(keyStr, value));
+	        try {
+	            table.add(LogLevel.valueOf(keyStr.toUpperCase()), value);
+	        } catch (IllegalArgumentException ex) {
+	            System.err.println("Warning: Invalid config level " + keyStr);
+	        }
+	    }
+	    table.forEach((level, url) -> newEntries.add(new LinkEntries(level.name(), url)));
+	    if (table.duplicates() > 0) {
+	        System.out.println("Removed " + table.duplicates() + " duplicate entries.");
 	    }
 
 	    // 3. WRITE TO DISK ONCE (The "Save" button behavior)
 	    try {
-	        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-	        mapper.writeValue(new File("session.json"), newEntries);
-	        System.out.println("Migration Complete! Saved " + newEntries.size() + " entries to session.json");
+	        if (sessionFormat == SessionFormat.BINARY) {
+	            SessionCodec.writeBinary(newEntries, getSessionFile().toPath());
+	        } else {
+	            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+	            mapper.writeValue(getSessionFile(), newEntries);
+	        }
+	        System.out.println("Migration Complete! Saved " + newEntries.size() + " entries to " + getSessionFile());
 	    } catch (IOException e) {
 	        e.printStackTrace();
 	    }
 	}
 
 	public void loadData() {
+		loadData(getSessionFile());
+	}
+
+	/**
+	 * 指定したセッションファイルを現在の形式で読み込みます。{@link #loadData()} と同じ処理です。
+	 * @param sessionFile 読み込むセッションファイル
+	 */
+	void loadData(File sessionFile) {
 		try {
-			// 1. Read JSON file -> Convert to List of ScanTarget objects
-			List<LinkEntries> targets = mapper.readValue(new File("session.json"),
-					new TypeReference<List<LinkEntries>>() {
-					});
+			// 1. Read session file -> Convert to List of ScanTarget objects
+			List<LinkEntries> targets = sessionFormat == SessionFormat.BINARY
+					? SessionCodec.readBinary(sessionFile.toPath())
+					: mapper.readValue(sessionFile,
+							new TypeReference<List<LinkEntries>>() {
+							});
 
-			// 2. Convert POJOs -> Your HashMap (for the engine)
+			// 2. Convert POJOs -> the compact target table (for the engine)
 			try {
-			data = new EnumMap<>(LogLevel.class);
+			TargetTable table = new TargetTable();
 			for (LinkEntries item : targets) {
-				LogLevel level = LogLevel.valueOf(item.getLevel().toUpperCase());
-				String url = item.getURL();
-
-				// Add to map
+				// Collapse duplicates first, so each URL becomes exactly one target
 				try {
-					data.computeIfAbsent(level, _ -> new ArrayList<>()).add(url);
+					table.add(LogLevel.valueOf(item.getLevel().toUpperCase()), item.getURL());
 				} catch (IllegalArgumentException ex) {
-					System.err.println("Warning: Invalid config level " + level);
+					System.err.println("Warning: Invalid config level " + item.getLevel());
 				}
-			
-				
 			}
+			// keep the ids; the entries (and their full URL strings) are dropped here
+			data = table;
 			} catch (NullPointerException e) {
 				System.err.print("Data is null");
 			}
 			
-			System.out.println("Successfully loaded " + targets.size() + " targets from JSON.");
+			System.out.println("Successfully loaded " + targets.size() + " targets from " + sessionFile + ".");
 
 		} catch (IOException e) {
-			System.err.println("Could not read session.json. Is the file missing?");
+			System.err.println("Could not read " + sessionFile + ". Is the file missing?");
 		}
 	}
 
 
+	/**
+	 * 最近の結果のキャッシュを設定します。
+	 * <p>
+	 * 設定すると、タスクを作る前にキャッシュを確認し、有効期限内の結果があるURLはチェックせずに
+	 * その結果をエンジンへ渡します（{@link TaskEngine#recordCacheHit}）。
+	 * 新しいチェック結果はエンジンのリスナーとしてキャッシュに格納されます。
+	 * </p>
+	 * @param cache 使用するキャッシュ（{@code null} で無効）
+	 */
+	public void setResultCache(ResultCache cache) {
+		if (cacheListener != null) {
+			workload.removeResultListener(cacheListener);
+			cacheListener = null;
+		}
+		this.resultCache = cache;
+		if (cache != null) {
+			cacheListener = cache::put;
+			workload.addResultListener(cacheListener);
+		}
+	}
+
+	/**
+	 * @return ResultCache 設定されているキャッシュ、未設定の場合は {@code null}
+	 */
+	public ResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * キャッシュに有効な結果があれば、チェックの代わりにその結果をエンジンへ渡します。
+	 * @return boolean キャッシュを使った場合は {@code true}
+	 */
+	private boolean servedFromCache(String url) {
+		ResultCache cache = this.resultCache;
+		if (cache == null) {
+			return false;
+		}
+		ScanResult cached = cache.get(url);
+		if (cached == null) {
+			return false;
+		}
+		workload.recordCacheHit(cached);
+		return true;
+	}
+
 	public void generateTasks() {
 		try {
-		data.forEach((level, urlList) -> {
-			for (String url : urlList) {
-				this.workload.addTask(new HttpCheckTask(level, url));
+		List<HttpCheckTask> tasks = new ArrayList<>();
+		data.forEach((level, url) -> {
+			if (!servedFromCache(url)) {
+				tasks.add(new HttpCheckTask(level, url));
 			}
 		});
+		for (HttpCheckTask task : resolveHosts(tasks)) {
+			this.workload.addTask(tier(task));
+		}
 		} catch (NullPointerException e) {
 			System.err.print("Data is null");
 		}
 		}
 
+	/**
+	 * 投入前にホストをまとめて名前解決するかどうかを設定します。既定では有効です。
+	 * <p>
+	 * 有効な場合、タスクの異なるホストを {@link DnsCache#getDefault()} で並列に一度ずつ名前解決してから投入します。
+	 * 解決できなかったホストのURLは送信せず、すぐに失敗として記録します（{@link TaskEngine#recordUnresolved}）。
+	 * </p>
+	 * @param enabled 有効にする場合は {@code true}
+	 */
+	public void setPreResolve(boolean enabled) {
+		this.preResolve = enabled;
+	}
+
+	/**
+	 * 段階的なチェックを使うかどうかを設定します。既定では無効です。
+	 * <p>
+	 * 有効な場合、各URLはまず {@link TcpProbeTask} でTCPの接続だけを確かめ、接続できたものだけにHEADを送ります。
+	 * 停止しているホストが多い大規模なスキャンで、タイムアウト待ちに使う時間と同時実行数の枠を減らせます。
+	 * </p>
+	 * @param enabled 有効にする場合は {@code true}
+	 */
+	public void setTieredProbe(boolean enabled) {
+		this.tiered = enabled;
+	}
+
+	private Task tier(HttpCheckTask task) {
+		return tiered ? new TcpProbeTask(task, TcpProbeTask.DEFAULT_CONNECT_TIMEOUT) : task;
+	}
+
+	/**
+	 * タスクのホストをまとめて名前解決し、解決できたタスクだけを返します。
+	 * 解決できなかったタスクは失敗として記録します。
+	 * 名前解決中に割り込まれた場合は、すべてのタスクをそのまま返します。
+	 * @param tasks 投入するタスク
+	 * @return {@code List<HttpCheckTask>} 送信するタスク（元の順序のまま）
+	 */
+	private List<HttpCheckTask> resolveHosts(List<HttpCheckTask> tasks) {
+		if (!preResolve || tasks.isEmpty()) {
+			return tasks;
+		}
+		List<String> hosts = new ArrayList<>(tasks.size());
+		for (HttpCheckTask task : tasks) {
+			hosts.add(task.getHost());
+		}
+		java.util.Set<String> unresolved;
+		try {
+			unresolved = DnsCache.getDefault().resolveAll(hosts);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return tasks;
+		}
+		if (unresolved.isEmpty()) {
+			return tasks;
+		}
+		List<HttpCheckTask> resolved = new ArrayList<>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			HttpCheckTask task = tasks.get(i);
+			String host = hosts.get(i);
+			if (host != null && unresolved.contains(host)) {
+				workload.recordUnresolved(ScanResult.failure(task.getUrl(), task.getLevel(), 0,
+						StatusClass.NETWORK_ERROR, new java.net.UnknownHostException(host)));
+				logPipeline.offer("[ERROR] " + task.getUrl() + " - unknown host " + host + System.lineSeparator());
+			} else {
+				resolved.add(task);
+			}
+		}
+		return resolved;
+	}
+
 	public void runTasks(java.util.function.Consumer<String> uiCallback) {
-		logBuffer.clear();
-		this.workload.executeAll(msg -> {
-			this.logBuffer.add(msg); // Save to memory
+		clearLogs();
+		this.workload.executeAll(logBridge(uiCallback));
+	}
+
+	/**
+	 * セッションファイルを読み込みながら、読み込んだエントリからすぐにタスクを生成してエンジンで実行します。
+	 * <p>
+	 * {@link #loadData()} と {@link #generateTasks()} と {@link #runTasks} をまとめて行いますが、
+	 * ファイル全体をメモリに展開しないため、巨大なファイルでも読み込み開始直後からチェックが始まります。
+	 * JSON形式は {@link JsonParser} のトークン単位で、バイナリ形式は {@link SessionCodec} で一度に読み込みます。
+	 * 未完了のタスク数が {@code maxBuffered} に達すると、空きができるまで読み込みを止めるため、
+	 * 使用メモリはファイルサイズに関係なく一定に保たれます。
+	 * </p>
+	 * <p>
+	 * 読み込んだURLは {@link TargetTable} で正規化され、同じURLの2回目以降は投入されません。
+	 * ただし、後から高いレベルで現れた場合は、そのレベルでもう一度投入されます。
+	 * 重複の判定に使う表は直近の {@value #STREAM_DEDUP_WINDOW} 件の異なるURLだけを覚えており、
+	 * いっぱいになると空にしてやり直します。そのため、ファイルの中で遠く離れた重複は、もう一度チェックされることがあります。
+	 * 重複を完全に取り除く必要がある場合は、{@link #registerData()} で保存し直したセッションファイルを使ってください。
+	 * </p>
+	 * @param source     読み込むセッションファイル（JSON形式またはバイナリ形式）
+	 * @param uiCallback ログメッセージを受け取るコールバック（{@code null} 可）
+	 * @param maxBuffered 未完了のまま保持するタスク数の上限（1以上）
+	 * @return int 投入したタスク数
+	 */
+	public int streamTasks(File source, Consumer<String> uiCallback, int maxBuffered) {
+		clearLogs();
+		Feeder feeder = new Feeder(logBridge(uiCallback), maxBuffered);
+		try {
+			if (SessionCodec.isBinary(source.toPath())) {
+				SessionCodec.forEachBinary(source.toPath(), feeder::offer);
+			} else {
+				streamJson(source, feeder::offer);
+			}
+			System.out.println("Successfully streamed " + feeder.submitted + " targets from " + source.getName() + ".");
+		} catch (IOException e) {
+			System.err.println("Could not read " + source + ". Is the file missing?");
+		} finally {
+			feeder.flush();
+		}
+		return feeder.submitted;
+	}
+
+	/**
+	 * テキスト形式の対象リストを1行ずつ読み込み、読んだそばからエンジンへ投入します。
+	 * <p>
+	 * 各行は {@code LEVEL=URL} の形式、またはURLだけを書きます。URLだけの行には {@code defaultLevel} が使われ、
+	 * スキームのないURLには {@code https://} が補われます。空行と {@code #} で始まる行は無視されます。
+	 * 標準入力のように終わりが分からない入力にも使えます。
+	 * 入力が途切れた場合は、溜めているタスクをすぐにエンジンへ送るため、少しずつ届く入力でもチェックが止まりません。
+	 * </p>
+	 * @param source       読み込み元（呼び出し元で閉じてください）
+	 * @param uiCallback   ログメッセージを受け取るコールバック（{@code null} 可）
+	 * @param maxBuffered  未完了のまま保持するタスク数の上限（1以上）
+	 * @param defaultLevel レベルが書かれていない行に使うレベル
+	 * @return int 投入したタスク数
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public int streamLines(BufferedReader source, Consumer<String> uiCallback, int maxBuffered, LogLevel defaultLevel)
+			throws IOException {
+		clearLogs();
+		Feeder feeder = new Feeder(logBridge(uiCallback), maxBuffered);
+		try {
+			String line;
+			while (true) {
+				if (!feeder.pending.isEmpty() && !source.ready()) {
+					feeder.flush(); // nothing more to read right now: do not hold back a partial batch
+				}
+				if ((line = source.readLine()) == null) {
+					break;
+				}
+				String[] target = parseTargetLine(line, defaultLevel);
+				if (target != null) {
+					feeder.offer(target[0], target[1]);
+				}
+			}
+		} finally {
+			feeder.flush();
+		}
+		return feeder.submitted;
+	}
+
+	/**
+	 * テキスト形式の対象リストを読み込み、実行せずに対象表にまとめます。
+	 * 行の形式は {@link #streamLines} と同じです。同じURLは1件にまとめられ、最も高いレベルが残ります。
+	 * 画面の一括インポートもこのメソッドで読み込むため、どの入口でも同じ行が同じ対象になります。
+	 * @param source       読み込み元（呼び出し元で閉じてください）
+	 * @param defaultLevel レベルが書かれていない行に使うレベル
+	 * @return TargetTable 読み込んだ対象
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public TargetTable collectLines(BufferedReader source, LogLevel defaultLevel) throws IOException {
+		TargetTable table = new TargetTable();
+		String line;
+		while ((line = source.readLine()) != null) {
+			String[] target = parseTargetLine(line, defaultLevel);
+			if (target != null) {
+				collect(table, target[0], target[1]);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * セッションファイル（JSON形式またはバイナリ形式）を読み込み、実行せずに対象表にまとめます。
+	 * @param source 読み込むセッションファイル
+	 * @return TargetTable 読み込んだ対象
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public TargetTable collectTasks(File source) throws IOException {
+		TargetTable table = new TargetTable();
+		if (SessionCodec.isBinary(source.toPath())) {
+			SessionCodec.forEachBinary(source.toPath(), (level, url) -> collect(table, level, url));
+		} else {
+			streamJson(source, (level, url) -> collect(table, level, url));
+		}
+		return table;
+	}
+
+	private static void collect(TargetTable table, String levelStr, String url) {
+		if (url == null) {
+			return;
+		}
+		try {
+			table.add(LogLevel.valueOf(String.valueOf(levelStr).toUpperCase()), url);
+		} catch (IllegalArgumentException ex) {
+			System.err.println("Warning: Invalid config level " + levelStr);
+		}
+	}
+
+	/**
+	 * テキスト形式の対象リストを読み込み、エンジンの継続監視に登録します。
+	 * 行の形式は {@link #streamLines} と同じです。先に {@link TaskEngine#startMonitoring} を呼んでください。
+	 * @param source       読み込み元（呼び出し元で閉じてください）
+	 * @param defaultLevel レベルが書かれていない行に使うレベル
+	 * @return int 新しく登録した対象の数
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	public int monitorLines(BufferedReader source, LogLevel defaultLevel) throws IOException {
+		int added = 0;
+		String line;
+		while ((line = source.readLine()) != null) {
+			String[] target = parseTargetLine(line, defaultLevel);
+			if (target == null) continue;
+			try {
+				if (workload.monitor(LogLevel.valueOf(target[0].toUpperCase()), target[1])) {
+					added++;
+				}
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Warning: Invalid config level " + target[0]);
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * 対象リストの1行を {@code {レベル, URL}} に分解します。
+	 * @return {@code String[]} 分解した結果。空行やコメント行の場合は {@code null}
+	 */
+	private static String[] parseTargetLine(String line, LogLevel defaultLevel) {
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#")) return null;
+
+		int idx = line.indexOf('=');
+		// only a bare word before '=' is a level; otherwise it belongs to the URL's query string
+		boolean hasLevel = idx > 0 && line.substring(0, idx).trim().chars().allMatch(Character::isLetter);
+		String levelStr = hasLevel ? line.substring(0, idx).trim() : defaultLevel.name();
+		String url = hasLevel ? line.substring(idx + 1).trim() : line;
+		return new String[] { levelStr, url.startsWith("http") ? url : "https://" + url };
+	}
+
+	/**
+	 * JSON形式のセッションファイルをトークン単位で読み込み、エントリを1件ずつ渡します。
+	 * @param source 読み込むファイル（{@link LinkEntries} の配列）
+	 * @param sink   レベルとURLを受け取る処理
+	 * @throws IOException 読み込みに失敗した場合
+	 */
+	private void streamJson(File source, BiConsumer<String, String> sink) throws IOException {
+		try (JsonParser parser = mapper.getFactory().createParser(source)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException(source + " must contain a JSON array.");
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				String levelStr = null;
+				String url = null;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.currentName();
+					parser.nextToken();
+					switch (field) {
+						case "level" -> levelStr = parser.getValueAsString();
+						case "url" -> url = parser.getValueAsString();
+						default -> parser.skipChildren();
+					}
+				}
+				sink.accept(levelStr, url);
+			}
+		}
+	}
+
+	/**
+	 * 読み込んだエントリをタスクに変換し、少しずつエンジンへ送るヘルパーです。
+	 * タスクは {@code STREAM_FLUSH_SIZE} 件ずつ溜め、そのホストをまとめて名前解決してから送ります。
+	 * 未完了のタスク数が上限に達すると、空きができるまで呼び出し元を待たせます。
+	 * 待機中に割り込まれた場合、それ以降のエントリは無視されます。
+	 */
+	private final class Feeder {
+		private final Consumer<String> bridge;
+		private final Semaphore window;
+		/**
+		 * 直近に読み込んだ対象。同じURLが再び現れた場合、レベルが上がるときだけ再投入します。
+		 * {@value TaskWorker#STREAM_DEDUP_WINDOW} 件に達したら作り直し、メモリを一定に保ちます。
+		 */
+		private TargetTable seen = new TargetTable();
+		/** 名前解決を待っているタスク。それぞれ {@link #window} の枠を1つ持っています。 */
+		private final List<HttpCheckTask> pending = new ArrayList<>();
+		private int submitted;
+		private boolean interrupted;
+
+		private Feeder(Consumer<String> bridge, int maxBuffered) {
+			this.bridge = bridge;
+			this.window = new Semaphore(maxBuffered);
+		}
+
+		private void offer(String levelStr, String url) {
+			if (interrupted || url == null) {
+				return;
+			}
+			LogLevel level;
+			try {
+				level = LogLevel.valueOf(String.valueOf(levelStr).toUpperCase());
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Warning: Invalid config level " + levelStr);
+				return;
+			}
+
+			TargetTable.Added entry = seen.add(level, url);
+			if (!entry.changed()) {
+				return; // duplicate at the same or a lower level
+			}
+			url = seen.url(entry.id());
+			if (seen.size() >= STREAM_DEDUP_WINDOW) {
+				seen = new TargetTable();
+			}
+
+			if (servedFromCache(url)) {
+				return;
+			}
+
+			// 上限に達したら、溜めているタスクを先に実行してから空きを待つ
+			if (!window.tryAcquire()) {
+				flush();
+				try {
+					window.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					interrupted = true;
+					return;
+				}
+			}
+			pending.add(new HttpCheckTask(level, url));
+			if (pending.size() >= STREAM_FLUSH_SIZE) {
+				flush();
+			}
+		}
+
+		private void flush() {
+			List<HttpCheckTask> resolved = resolveHosts(pending);
+			for (HttpCheckTask task : resolved) {
+				workload.addTask(tier(task)).whenComplete((_, _) -> window.release());
+			}
+			submitted += resolved.size();
+			// unresolvable targets never reach the engine, so their slots come back here
+			window.release(pending.size() - resolved.size());
+			pending.clear();
+			workload.executeAll(bridge);
+		}
+	}
+
+	/**
+	 * タスクのログを {@link LogPipeline} に書き込むロガーを作成します。
+	 * <p>
+	 * ワーカースレッドはリングバッファに書き込むだけで、ロックも配信も行いません。
+	 * 配信スレッドが一定間隔でまとめて取り出し、メモリへの保存とUIへの転送を行います。
+	 * </p>
+	 * @param uiCallback UIへの転送先（{@code null} 可）。配信スレッドから呼び出されます。
+	 * @return {@code Consumer<String>} エンジンに渡すロガー
+	 */
+	private Consumer<String> logBridge(Consumer<String> uiCallback) {
+		logPipeline.setSink(batch -> {
+			synchronized (logBuffer) {
+				logBuffer.addAll(batch); // Save to memory
+				while (logBuffer.size() > LOG_HISTORY) {
+					logBuffer.pollFirst();
+				}
+			}
 			if (uiCallback != null) {
-				uiCallback.accept(msg); // Send to UI
+				batch.forEach(uiCallback); // Send to UI
 			}
 		});
+		logPipeline.start();
+		return logPipeline::offer;
 	}
 
 	/**
+	 * パイプラインに溜まっているログを、呼び出し元のスレッドで直ちに配信します。
+	 * スキャンの完了後、レポートを表示する前に呼び出してください。
+	 */
+	public void flushLogs() {
+		logPipeline.flush();
+	}
+
+	private void clearLogs() {
+		synchronized (logBuffer) {
+			logBuffer.clear();
+		}
+	}
+
+	/**
+	 * 直近のログを返します。保持されるのは最新の {@value #LOG_HISTORY} 件までです。
 	 * @return {@code List<String>}
 	 */
 	public List<String> getLogs() {
-		return new ArrayList<>(logBuffer);
+		synchronized (logBuffer) {
+			return new ArrayList<>(logBuffer);
+		}
 	}
 
 	/**
@@ -133,6 +633,7 @@ public class TaskWorker {
 
 	public void stop() {
 		this.workload.stop();
+		this.logPipeline.stop();
 	}
 
 }
@@ -0,0 +1,247 @@
+package com.harugasumi.core;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、安いチェックから順に行う段階的なタスクです。
+ * <p>
+ * まず {@link ConnectProbe} でURLのホストとポートにTCPで接続できるかだけを確かめ、
+ * 接続できた場合に限り、包んでいる {@link HttpCheckTask} でHEADリクエストを送ります。
+ * 停止しているホストは短い接続タイムアウト（既定は {@link #DEFAULT_CONNECT_TIMEOUT}）で失敗になるため、
+ * HEADのタイムアウトいっぱいまでワーカーや同時実行数の枠を使い続けることがありません。
+ * {@link ExecutionMode#ASYNC} では、接続待ちはセレクターの1本のスレッドだけで行われます。
+ * </p>
+ * <p>
+ * 接続できなかった結果は、接続タイムアウトを含めてすべて {@link StatusClass#NETWORK_ERROR} になります。
+ * 停止しているホストへの接続タイムアウトは混雑の兆候ではないため、{@link AdaptiveController} が
+ * 同時実行数を下げたり、そのホストのタイムアウトを延ばしたりしないようにするためです。
+ * </p>
+ * <p>
+ * 生きているホストには、プローブとHEADで2回接続することになります。
+ * 同じホストとポートへのプローブは一定時間（{@link ConnectProbe#MEMO_NANOS}）共有されるため、
+ * 1つのホストに多数のURLがある場合でも、プローブの接続は1回だけです。
+ * </p>
+ */
+public class TcpProbeTask implements AsyncTask {
+
+    /** 既定の接続タイムアウト */
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(1);
+
+    private final HttpCheckTask check;
+    private final Duration connectTimeout;
+    private volatile long deadlineNanos = Long.MAX_VALUE;
+    private volatile Consumer<String> logger;
+    /** 直前のプローブが失敗した場合の結果。接続できた場合は {@code null} */
+    private volatile ScanResult probeFailure;
+
+    /**
+     * 既定の接続タイムアウトでタスクを作成します。
+     * @param level LogLevelからの優先度
+     * @param url   チェックするURL
+     */
+    public TcpProbeTask(LogLevel level, String url) {
+        this(new HttpCheckTask(level, url), DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * @param check          接続できた場合に実行するHEADのチェック
+     * @param connectTimeout 接続を待つ時間（正の値）
+     */
+    public TcpProbeTask(HttpCheckTask check, Duration connectTimeout) {
+        if (connectTimeout.isNegative() || connectTimeout.isZero()) {
+            throw new IllegalArgumentException("connectTimeout must be positive: " + connectTimeout);
+        }
+        this.check = Objects.requireNonNull(check, "check");
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * 接続を確かめ、接続できた場合はHEADのチェックを同じスレッドで実行します。
+     * @return Boolean タスクの実行結果（成功または失敗）
+     * @throws Exception 割り込まれた場合
+     */
+    @Override
+    public Boolean call() throws Exception {
+        long start = System.nanoTime();
+        probeFailure = null;
+        CompletableFuture<Void> probe = probe();
+        try {
+            probe.get();
+        } catch (ExecutionException e) {
+            return onProbeFailure(e.getCause(), start);
+        } catch (InterruptedException e) {
+            probe.cancel(false);
+            throw e;
+        }
+        return check.call();
+    }
+
+    /**
+     * {@link #call()} と同じチェックを、スレッドをブロックせずに実行します。
+     * 返されたFutureをキャンセルすると、実行中のプローブまたはHEADリクエストも中断されます。
+     * @return {@code CompletableFuture<Boolean>} タスクの実行結果（成功または失敗）
+     */
+    @Override
+    public CompletableFuture<Boolean> callAsync() {
+        long start = System.nanoTime();
+        probeFailure = null;
+        CompletableFuture<Void> probe = probe();
+        AtomicReference<CompletableFuture<Boolean>> head = new AtomicReference<>();
+        CompletableFuture<Boolean> result = probe.handle((_, e) -> e).thenCompose(e -> {
+            if (e != null) {
+                return CompletableFuture.completedFuture(onProbeFailure(e, start));
+            }
+            CompletableFuture<Boolean> started = check.callAsync();
+            head.set(started);
+            return started;
+        });
+        result.whenComplete((_, e) -> {
+            if (e instanceof CancellationException) {
+                probe.cancel(false);
+                CompletableFuture<Boolean> started = head.get();
+                if (started != null) {
+                    started.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * ホストを名前解決して接続を開始します。
+     * 名前解決は {@link DnsCache} の結果を使うため、事前に解決済みであればブロックしません。
+     */
+    private CompletableFuture<Void> probe() {
+        URI uri;
+        try {
+            uri = URI.create(check.getUrl());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String host = uri.getHost();
+        if (host == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("No host in " + check.getUrl()));
+        }
+        int port = uri.getPort() != -1 ? uri.getPort() : "http".equalsIgnoreCase(uri.getScheme()) ? 80 : 443;
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            return CompletableFuture.failedFuture(new UnknownHostException(host));
+        }
+        long timeout = connectTimeout.toNanos();
+        long deadline = this.deadlineNanos;
+        if (deadline != Long.MAX_VALUE) {
+            timeout = Math.max(1, Math.min(timeout, deadline - System.nanoTime()));
+        }
+        return ConnectProbe.shared().connect(address, timeout);
+    }
+
+    /**
+     * 接続できなかったことをログに記録し、結果を {@link ScanResult} として保存します。
+     * 接続タイムアウトも {@link StatusClass#NETWORK_ERROR} とし、原因の例外名（{@code SocketTimeoutException}）で区別します。
+     * @return Boolean 常に {@code false}
+     */
+    private Boolean onProbeFailure(Throwable e, long start) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+        probeFailure = ScanResult.failure(check.getUrl(), check.getLevel(), System.nanoTime() - start,
+                StatusClass.NETWORK_ERROR, cause);
+        Consumer<String> log = this.logger;
+        if (log != null) {
+            log.accept("[ERROR] " + check.getUrl() + " - TCP connect failed: " + cause.getMessage() + System.lineSeparator());
+        }
+        return false;
+    }
+
+    /**
+     * @param logger ログメッセージを受け取るコンシューマー（HEADのチェックにも渡されます）
+     */
+    @Override
+    public void setLogger(Consumer<String> logger) {
+        this.logger = Objects.requireNonNull(logger, "Logger is required for TcpProbeTask");
+        check.setLogger(logger);
+    }
+
+    /**
+     * HEADリクエストのタイムアウトを設定します。接続タイムアウトは変わりません。
+     * @param timeout タイムアウト（正の値）
+     */
+    @Override
+    public void setTimeout(Duration timeout) {
+        check.setTimeout(timeout);
+    }
+
+    /**
+     * スキャンの期限を設定します。期限までの残り時間が接続タイムアウトより短い場合は、残り時間で打ち切ります。
+     * @param deadlineNanos 期限（{@link System#nanoTime()} 基準）
+     */
+    @Override
+    public void setDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        check.setDeadline(deadlineNanos);
+    }
+
+    /**
+     * 同じURLと接続タイムアウトの新しいタスクを作成します。
+     * @return TcpProbeTask 新しいタスク
+     */
+    @Override
+    public TcpProbeTask copy() {
+        TcpProbeTask copy = new TcpProbeTask(check.copy(), connectTimeout);
+        copy.deadlineNanos = this.deadlineNanos;
+        return copy;
+    }
+
+    /**
+     * @return String 接続先ホスト名（小文字）
+     */
+    @Override
+    public String getHost() {
+        return check.getHost();
+    }
+
+    /**
+     * @return LogLevel このタスクのレベル
+     */
+    @Override
+    public LogLevel getLevel() {
+        return check.getLevel();
+    }
+
+    /**
+     * @return ScanResult プローブが失敗した場合はその結果、それ以外はHEADのチェックの結果
+     */
+    @Override
+    public ScanResult getLastResult() {
+        ScanResult failure = probeFailure;
+        return failure != null ? failure : check.getLastResult();
+    }
+
+    /**
+     * @return String チェック対象のURL
+     */
+    public String getUrl() {
+        return check.getUrl();
+    }
+
+    /**
+     * @return int タスクの優先度を表す整数値
+     */
+    @Override
+    public int getPriority() {
+        return check.getPriority();
+    }
+}
@@ -0,0 +1,585 @@
+package com.harugasumi.domaincheckapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.harugasumi.core.AdaptiveController;
+import com.harugasumi.core.ConnectionManager;
+import com.harugasumi.core.ExecutionMode;
+import com.harugasumi.core.MetricsServer;
+import com.harugasumi.core.ResultCache;
+import com.harugasumi.core.RetryPolicy;
+import com.harugasumi.core.SessionCodec;
+import com.harugasumi.core.ShardCoordinator;
+import com.harugasumi.core.StateLog;
+import com.harugasumi.core.TargetTable;
+import com.harugasumi.core.TaskEngine;
+import com.harugasumi.core.TaskWorker;
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * Made by @author harugasumi-works
+ * このクラスは、画面を使わずにスキャンを実行するコマンドライン用の入口です。
+ * <p>
+ * 対象リスト（ファイルまたは標準入力）を読みながら {@link TaskEngine} に投入し、
+ * チェックが1件完了するたびに、結果を1行のJSON（NDJSON）として標準出力へ書き出します。
+ * 進行状況やレポートは標準エラー出力に書かれるため、標準出力はそのままパイプで処理できます。
+ * AWT/Swingのクラスは読み込まないため、サーバーやcronでも実行できます。
+ * </p>
+ * <pre>
+ * java -jar inspector.jar --headless [options] [file | -]
+ *   --mode=PLATFORM|VIRTUAL|ASYNC   実行方式（既定: PLATFORM）
+ *   --max-in-flight=N               同時実行数の上限（既定: 10）
+ *   --per-host=N                    同一ホストへの同時実行数の上限
+ *   --host-interval-ms=N            同一ホストへのリクエスト間隔（ミリ秒）
+ *   --timeout=SECONDS               全体の制限時間（既定: 300）
+ *   --level=LEVEL                   レベルのない行に使うレベル（既定: INFO）
+ *   --buffer=N                      未完了のまま保持するタスク数の上限（既定: 10000）
+ *   --adaptive=MAX                  同時実行数（最大MAX）とホストごとのタイムアウトを自動調整する
+ *   --http=1.1|2                    優先するHTTPのバージョン（既定: 2。非対応のサーバーには1.1で接続）
+ *   --connections-per-host=N        HTTP/1.1でオリジンごとに使い回す接続数の上限（既定: 6）
+ *   --cache=FILE                    TTL内にチェック済みのURLを再チェックせず、結果をFILEに保存して次回に引き継ぐ
+ *   --tiered                        まずTCPの接続だけを確かめ、接続できたURLにだけHEADを送る
+ *   --retries=N                     タイムアウトや接続エラーを最大N回、間隔を空けてやり直す（既定: 0）
+ *   --hedge                         p95の時間を過ぎても応答がないチェックに、重複のリクエストを1回送る
+ *   --state=FILE                    URLごとの最後の状態をFILEに記録し、前回から状態が変わったURLだけを出力する
+ *   --coordinator=[HOST:]PORT       自分ではチェックせず、接続してきたワーカーに対象を分けてチェックさせる（既定のHOSTはループバック）
+ *   --workers=N                     コーディネーターが待つワーカーの数（既定: 2）
+ *   --worker=[HOST:]PORT            コーディネーターに接続し、割り当てられた対象をチェックして結果を返す
+ *   --metrics=[HOST:]PORT           実行中の状態をPrometheusのテキスト形式で http://HOST:PORT/metrics に公開する（既定のHOSTはループバック）
+ *   --monitor                       一度で終わらず、レベルごとの間隔で繰り返しチェックする
+ *   --intervals=C,W,I               監視間隔（秒）。CRITICAL,WARNING,INFOの順（既定: 30,300,1800）
+ * </pre>
+ * <p>
+ * {@code --state} の場合、標準出力には状態が変わったURL（初めてのURLを含む）だけが、
+ * 前回の状態（{@code previousStatus}、{@code previousClass}、{@code previousSince}）付きで書かれます。
+ * </p>
+ * <p>
+ * {@code --coordinator} の場合は、ワーカーがそろうまで待ってから対象をホストごとに分けて送り（{@link ShardCoordinator}）、
+ * 返ってきた結果を自分の標準出力とスコアボードにまとめます。{@code --timeout} はワーカーを待つ時間とチェック全体の時間の両方に使われます。
+ * チェックに関するオプション（{@code --mode}、{@code --per-host}、{@code --retries} など）はワーカーの側で指定します。
+ * ワーカーの {@code --timeout} は、コーディネーターへの接続を待つ時間と、最初の対象が届いてからのチェック全体の時間に使われます。
+ * 1台のマシンで試す場合は、次のように複数のJVMを起動します。
+ * </p>
+ * <pre>
+ * java -jar inspector.jar --headless --coordinator=9100 --workers=3 targets.txt &gt; results.ndjson
+ * java -jar inspector.jar --headless --worker=9100 --per-host=2 &amp;   # 3回起動する
+ * </pre>
+ * <p>
+ * {@code --monitor} の場合は終了せず、結果を出し続けます。レポートは1分ごとに標準エラー出力へ書かれます。
+ * SIGTERMやCtrl-Cで止めた場合も、シャットダウンフックで {@code --cache} を保存し、{@code --state} を閉じてから終了します。
+ * 監視モードで読めるのはテキスト形式の対象リストだけです。
+ * </p>
+ * <p>
+ * 入力には、{@code LEVEL=URL} またはURLだけを1行ずつ書いたテキスト、
+ * あるいはJSON/バイナリ形式のセッションファイルを指定できます。省略時または {@code -} の場合は標準入力から読みます。
+ * </p>
+ */
+public final class HeadlessRunner {
+
+    /** すべてのチェックが応答を得た */
+    public static final int EXIT_OK = 0;
+    /** 応答を得られなかったチェックがある */
+    public static final int EXIT_FAILURES = 1;
+    /** 引数または入力が不正 */
+    public static final int EXIT_USAGE = 2;
+    /** 制限時間内に終わらず、残りのチェックをキャンセルした */
+    public static final int EXIT_TIMEOUT = 3;
+
+    private static final int CACHE_CAPACITY = 1_000_000;
+    private static final long CONNECT_RETRY_MILLIS = 500;
+    private static final Duration MIN_TIMEOUT = Duration.ofMillis(500);
+    private static final Duration MAX_TIMEOUT = Duration.ofSeconds(30);
+
+    /** {@link #close} が済んだかどうか */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private ExecutionMode mode = ExecutionMode.PLATFORM;
+    private int maxInFlight = 10;
+    private Integer perHost;
+    private long hostIntervalMs;
+    private long timeoutSeconds = 300;
+    private LogLevel defaultLevel = LogLevel.INFO;
+    private int buffer = 10_000;
+    private String source = "-";
+    private boolean monitoring;
+    private boolean tiered;
+    private boolean hedging;
+    private int retries;
+    private Integer adaptiveMax;
+    private Path cacheFile;
+    private Path stateFile;
+    private InetSocketAddress coordinatorAddress;
+    private InetSocketAddress upstreamAddress;
+    private InetSocketAddress metricsAddress;
+    private int workers = 2;
+    /** {@code --worker} の場合のコーディネーターとの接続 */
+    private Socket upstream;
+    private HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+    private int connectionsPerHost = ConnectionManager.DEFAULT_MAX_PER_ORIGIN;
+    private Map<LogLevel, Duration> intervals = TaskEngine.defaultMonitorIntervals();
+
+    private HeadlessRunner() {
+    }
+
+    /**
+     * 引数を解析してスキャンを実行します。
+     * @param args コマンドライン引数（{@code --headless} は含まれていても無視されます）
+     * @return int 終了コード
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        HeadlessRunner runner = new HeadlessRunner();
+        try {
+            runner.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: --headless [--mode=M] [--max-in-flight=N] [--per-host=N] [--host-interval-ms=N]"
+                    + " [--timeout=SECONDS] [--level=LEVEL] [--buffer=N]"
+                    + " [--adaptive=MAX] [--http=1.1|2] [--connections-per-host=N] [--cache=FILE] [--tiered] [--retries=N] [--hedge] [--state=FILE] [--coordinator=[HOST:]PORT --workers=N | --worker=[HOST:]PORT] [--metrics=[HOST:]PORT] [--monitor] [--intervals=C,W,I] [file | -]");
+            return EXIT_USAGE;
+        }
+        return runner.scan();
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--headless")) continue;
+            if (arg.equals("--monitor")) {
+                monitoring = true;
+                continue;
+            }
+            if (arg.equals("--tiered")) {
+                tiered = true;
+                continue;
+            }
+            if (arg.equals("--hedge")) {
+                hedging = true;
+                continue;
+            }
+            if (!arg.startsWith("--") || arg.equals("-")) {
+                source = arg;
+                continue;
+            }
+            int idx = arg.indexOf('=');
+            if (idx < 0) {
+                throw new IllegalArgumentException("Option needs a value: " + arg);
+            }
+            String value = arg.substring(idx + 1);
+            switch (arg.substring(0, idx)) {
+                case "--mode" -> mode = ExecutionMode.valueOf(value.toUpperCase());
+                case "--max-in-flight" -> maxInFlight = Integer.parseInt(value);
+                case "--per-host" -> perHost = Integer.parseInt(value);
+                case "--host-interval-ms" -> hostIntervalMs = Long.parseLong(value);
+                case "--timeout" -> timeoutSeconds = Long.parseLong(value);
+                case "--level" -> defaultLevel = LogLevel.valueOf(value.toUpperCase());
+                case "--buffer" -> buffer = Integer.parseInt(value);
+                case "--adaptive" -> adaptiveMax = Integer.parseInt(value);
+                case "--http" -> httpVersion = switch (value) {
+                    case "1.1" -> HttpClient.Version.HTTP_1_1;
+                    case "2" -> HttpClient.Version.HTTP_2;
+                    default -> throw new IllegalArgumentException("--http must be 1.1 or 2: " + value);
+                };
+                case "--connections-per-host" -> connectionsPerHost = Integer.parseInt(value);
+                case "--cache" -> cacheFile = Path.of(value);
+                case "--state" -> stateFile = Path.of(value);
+                case "--coordinator" -> coordinatorAddress = parseAddress(value);
+                case "--workers" -> workers = Integer.parseInt(value);
+                case "--worker" -> upstreamAddress = parseAddress(value);
+                case "--metrics" -> metricsAddress = parseAddress(value);
+                case "--retries" -> retries = Integer.parseInt(value);
+                case "--intervals" -> intervals = parseIntervals(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (maxInFlight < 1 || buffer < 1 || timeoutSeconds < 1 || connectionsPerHost < 1) {
+            throw new IllegalArgumentException(
+                    "--max-in-flight, --buffer, --timeout and --connections-per-host must be positive");
+        }
+        if (retries < 0) {
+            throw new IllegalArgumentException("--retries must not be negative: " + retries);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("--workers must be positive: " + workers);
+        }
+        if (upstreamAddress != null && (monitoring || stateFile != null || coordinatorAddress != null)) {
+            throw new IllegalArgumentException("--worker cannot be combined with --monitor, --state or --coordinator");
+        }
+        if (coordinatorAddress != null && monitoring) {
+            throw new IllegalArgumentException("--coordinator cannot be combined with --monitor");
+        }
+    }
+
+    /**
+     * {@code [HOST:]PORT} を解析します。HOSTを省略した場合はループバックです。
+     */
+    private static InetSocketAddress parseAddress(String value) {
+        int colon = value.lastIndexOf(':');
+        int port = Integer.parseInt(value.substring(colon + 1));
+        return colon < 0 ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(value.substring(0, colon), port);
+    }
+
+    private static Map<LogLevel, Duration> parseIntervals(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("--intervals needs CRITICAL,WARNING,INFO seconds: " + value);
+        }
+        Map<LogLevel, Duration> parsed = new EnumMap<>(LogLevel.class);
+        parsed.put(LogLevel.CRITICAL, Duration.ofSeconds(Long.parseLong(parts[0].trim())));
+        parsed.put(LogLevel.WARNING, Duration.ofSeconds(Long.parseLong(parts[1].trim())));
+        parsed.put(LogLevel.INFO, Duration.ofSeconds(Long.parseLong(parts[2].trim())));
+        return parsed;
+    }
+
+    private int scan() {
+        // stdout carries only NDJSON; the worker's progress lines go to stderr
+        OutputStream stdout;
+        if (upstreamAddress != null) {
+            // a shard worker reads its targets from the coordinator and streams the same NDJSON back
+            try {
+                upstream = connectUpstream();
+                stdout = upstream.getOutputStream();
+            } catch (IOException e) {
+                System.err.println("Could not connect to the coordinator " + upstreamAddress + ": " + e.getMessage());
+                return EXIT_USAGE;
+            }
+        } else {
+            stdout = new FileOutputStream(FileDescriptor.out);
+        }
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true, StandardCharsets.UTF_8));
+
+        ConnectionManager.setDefault(new ConnectionManager(httpVersion, connectionsPerHost,
+                ConnectionManager.DEFAULT_HTTP2_STREAMS, ConnectionManager.DEFAULT_KEEP_ALIVE));
+        TaskEngine engine = new TaskEngine(mode, maxInFlight);
+        if (perHost != null) {
+            engine.setHostPoliteness(perHost, Duration.ofMillis(hostIntervalMs));
+        }
+        if (adaptiveMax != null) {
+            engine.setAdaptive(new AdaptiveController(maxInFlight, 1, Math.max(maxInFlight, adaptiveMax),
+                    MIN_TIMEOUT, MAX_TIMEOUT));
+        }
+        if (retries > 0) {
+            RetryPolicy defaults = RetryPolicy.defaults();
+            engine.setRetryPolicy(new RetryPolicy(retries + 1, defaults.baseDelay(), defaults.maxDelay()));
+        }
+        engine.setHedging(hedging);
+        TaskWorker worker = new TaskWorker(engine);
+        worker.setTieredProbe(tiered);
+        ResultCache cache = null;
+        if (cacheFile != null) {
+            cache = new ResultCache(CACHE_CAPACITY, ResultCache.defaultTtls());
+            try {
+                System.err.println("Loaded " + cache.load(cacheFile) + " cached results.");
+            } catch (IOException e) {
+                System.err.println("Could not load cache " + cacheFile + ": " + e.getMessage());
+            }
+            worker.setResultCache(cache);
+        }
+        StateLog stateLog = null;
+        if (stateFile != null) {
+            try {
+                stateLog = StateLog.open(stateFile);
+                System.err.println("Loaded the last state of " + stateLog.size() + " targets.");
+            } catch (IOException e) {
+                System.err.println("Could not open state log " + stateFile + ": " + e.getMessage());
+                worker.stop();
+                return EXIT_USAGE;
+            }
+            engine.setStateLog(stateLog);
+        }
+        MetricsServer metrics = null;
+        if (metricsAddress != null) {
+            try {
+                metrics = new MetricsServer(engine, metricsAddress);
+                System.err.println("Serving metrics on port " + metrics.getPort() + MetricsServer.PATH);
+            } catch (IOException e) {
+                System.err.println("Could not serve metrics on " + metricsAddress + ": " + e.getMessage());
+            }
+        }
+        // SIGTERM and Ctrl-C never unwind this method (the monitor loop only ends when the JVM does),
+        // so the cache and state log are saved from a hook as well; whichever runs first does the work
+        ResultCache openCache = cache;
+        StateLog openStateLog = stateLog;
+        MetricsServer openMetrics = metrics;
+        Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> close(worker, openCache, openStateLog, openMetrics), "sentinel-shutdown"));
+        try (JsonGenerator json = new JsonFactory().createGenerator(stdout, JsonEncoding.UTF8)) {
+            json.setRootValueSeparator(null); // lines are separated explicitly in write()
+            if (stateLog != null) {
+                engine.addTransitionListener(transition -> write(json, transition));
+            } else {
+                engine.addResultListener(result -> write(json, result));
+            }
+
+            if (monitoring) {
+                return monitor(engine, worker);
+            }
+
+            // the whole run shares one deadline, so late checks get shorter timeouts instead of overrunning it;
+            // a shard worker starts it only when its first target arrives (see submit)
+            if (upstream == null) {
+                engine.setDeadline(Duration.ofSeconds(timeoutSeconds));
+            }
+            if (coordinatorAddress != null) {
+                if (!coordinate(engine, worker)) {
+                    return EXIT_USAGE;
+                }
+            } else {
+                int submitted;
+                try {
+                    submitted = submit(engine, worker);
+                } catch (IOException e) {
+                    System.err.println("Could not read " + source + ": " + e.getMessage());
+                    return EXIT_USAGE;
+                }
+                System.err.println("Submitted " + submitted + " targets.");
+
+                System.err.println(engine.waitForCompletion(timeoutSeconds, TimeUnit.SECONDS));
+            }
+            long cancelled = engine.getStats().count(StatusClass.CANCELLED);
+            long failed = engine.getStats().total() - engine.getStats().online();
+            if (adaptiveMax != null) {
+                System.err.println("Adaptive concurrency limit: " + engine.getConcurrencyLimit());
+            }
+            System.err.println(worker.showReport());
+
+            if (cancelled > 0) return EXIT_TIMEOUT;
+            return failed > 0 ? EXIT_FAILURES : EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("Could not write results: " + e.getMessage());
+            return EXIT_FAILURES;
+        } finally {
+            close(worker, cache, stateLog, metrics);
+        }
+    }
+
+    /**
+     * ワーカーを止め、キャッシュを保存し、状態ログとメトリクスの公開を閉じます。
+     * 通常の終了とシャットダウンフックの両方から呼ばれ、2回目以降の呼び出しは何もしません。
+     */
+    private void close(TaskWorker worker, ResultCache cache, StateLog stateLog, MetricsServer metrics) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        worker.stop();
+        if (cache != null) {
+            try {
+                cache.save(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Could not save cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+        if (stateLog != null) {
+            try {
+                stateLog.close();
+            } catch (IOException e) {
+                System.err.println("Could not save state log " + stateFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 対象を継続監視に登録し、プロセスが止められるまでレポートを出し続けます。
+     */
+    private int monitor(TaskEngine engine, TaskWorker worker) {
+        engine.startMonitoring(intervals, null);
+        try (BufferedReader in = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(source))) {
+            System.err.println("Monitoring " + worker.monitorLines(in, defaultLevel) + " targets.");
+        } catch (IOException e) {
+            System.err.println("Could not read " + source + ": " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        try {
+            while (true) {
+                TimeUnit.MINUTES.sleep(1);
+                System.err.println(worker.showReport());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_OK;
+        }
+    }
+
+    /**
+     * コーディネーターに接続します。プロセスを起動する順序に関係なく使えるよう、
+     * コーディネーターがまだ待ち受けていない場合は {@code --timeout} の間やり直します。
+     */
+    private Socket connectUpstream() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (true) {
+            try {
+                Socket socket = new Socket(upstreamAddress.getAddress(), upstreamAddress.getPort());
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(CONNECT_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while connecting", e);
+            }
+        }
+    }
+
+    /**
+     * 対象をワーカーに分けてチェックさせ、結果を {@code engine} に集めます。
+     * @return boolean 対象を読めてワーカーがそろった場合は {@code true}
+     */
+    private boolean coordinate(TaskEngine engine, TaskWorker worker) {
+        TargetTable targets;
+        try {
+            targets = collect(worker);
+        } catch (IOException e) {
+            System.err.println("Could not read " + source + ": " + e.getMessage());
+            return false;
+        }
+        Duration timeout = Duration.ofSeconds(timeoutSeconds);
+        try (ShardCoordinator coordinator = new ShardCoordinator(engine, coordinatorAddress.getAddress(),
+                coordinatorAddress.getPort())) {
+            System.err.println("Waiting for " + workers + " workers on port " + coordinator.getPort() + "...");
+            coordinator.awaitWorkers(workers, timeout);
+            System.err.println("Distributing " + targets.size() + " targets.");
+            if (!coordinator.run(targets, timeout)) {
+                System.err.println("Some targets got no result from the workers.");
+            }
+            System.err.println(coordinator.describe());
+            return true;
+        } catch (IOException e) {
+            System.err.println("Coordinator failed: " + e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private TargetTable collect(TaskWorker worker) throws IOException {
+        if (source.equals("-")) {
+            return worker.collectLines(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    defaultLevel);
+        }
+        File file = new File(source);
+        if (!file.isFile()) {
+            throw new IOException("no such file");
+        }
+        if (source.endsWith(".json") || SessionCodec.isBinary(file.toPath())) {
+            return worker.collectTasks(file);
+        }
+        try (BufferedReader in = Files.newBufferedReader(file.toPath())) {
+            return worker.collectLines(in, defaultLevel);
+        }
+    }
+
+    private int submit(TaskEngine engine, TaskWorker worker) throws IOException {
+        if (upstream != null) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(upstream.getInputStream(), StandardCharsets.UTF_8));
+            // the coordinator sends nothing until all workers have joined, which can take most of --timeout;
+            // the budget for the checks starts with the first target, not with the connection
+            in.mark(1);
+            if (in.read() != -1) {
+                in.reset();
+            }
+            engine.setDeadline(Duration.ofSeconds(timeoutSeconds));
+            return worker.streamLines(in, null, buffer, defaultLevel);
+        }
+        if (source.equals("-")) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            return worker.streamLines(in, null, buffer, defaultLevel);
+        }
+        File file = new File(source);
+        if (!file.isFile()) {
+            throw new IOException("no such file");
+        }
+        // session files keep their own format; anything else is read as a plain list
+        if (source.endsWith(".json") || SessionCodec.isBinary(file.toPath())) {
+            return worker.streamTasks(file, null, buffer);
+        }
+        try (BufferedReader in = Files.newBufferedReader(file.toPath())) {
+            return worker.streamLines(in, null, buffer, defaultLevel);
+        }
+    }
+
+    /**
+     * 結果を1行のJSONとして書き出します。ワーカースレッドから同時に呼ばれるため、行単位で排他します。
+     */
+    private static void write(JsonGenerator json, ScanResult result) {
+        synchronized (json) {
+            try {
+                json.writeStartObject();
+                json.writeStringField("url", result.url());
+                json.writeStringField("level", result.level().name());
+                json.writeNumberField("status", result.statusCode());
+                json.writeStringField("class", result.statusClass().name());
+                json.writeNumberField("latencyMs", result.latencyNanos() / 1_000_000.0);
+                json.writeNumberField("redirects", result.redirectCount());
+                if (result.errorClass() != null) {
+                    json.writeStringField("error", result.errorClass());
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+                json.flush(); // one line per completed check, as it happens
+            } catch (IOException e) {
+                System.err.println("Could not write result for " + result.url() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 状態が変わったURLを1行のJSONとして書き出します。
+     */
+    private static void write(JsonGenerator json, StateLog.Transition transition) {
+        synchronized (json) {
+            try {
+                json.writeStartObject();
+                json.writeStringField("url", transition.url());
+                json.writeStringField("level", transition.level().name());
+                json.writeNumberField("status", transition.currentStatus());
+                json.writeStringField("class", transition.currentClass().name());
+                if (!transition.isNew()) {
+                    json.writeNumberField("previousStatus", transition.previousStatus());
+                    json.writeStringField("previousClass", transition.previousClass().name());
+                    json.writeNumberField("previousSince", transition.previousSince());
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+                json.flush();
+            } catch (IOException e) {
+                System.err.println("Could not write change for " + transition.url() + ": " + e.getMessage());
+            }
+        }
+    }
+}
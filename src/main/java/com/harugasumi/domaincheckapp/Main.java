@@ -8,10 +8,15 @@ import com.harugasumi.core.SentinelUI;
 public class Main {
     public static void main(String[] args) {
 
+        // --headless runs the scan from the command line without touching AWT/Swing
+        if (args.length > 0 && args[0].equals("--headless")) {
+            System.exit(HeadlessRunner.run(args));
+        }
+
          SwingUtilities.invokeLater(() -> {
             new SentinelUI().setVisible(true);
         });
 
     }
 
-}
\ No newline at end of file
+}
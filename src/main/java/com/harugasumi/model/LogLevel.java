@@ -29,4 +29,24 @@ CRITICAL(3);
     public int getValue (){
         return value;
     }
+/**
+ * 優先番号に対応するレベルを返します。
+ * 範囲外の値は最も近いレベル（１未満はINFO、３より大きい値はCRITICAL）になります。
+ * @param value 優先番号
+ * @return LogLevel 対応するレベル
+ */
+    public static LogLevel fromValue (int value){
+        if (value <= INFO.value) {
+            return INFO;
+        }
+        if (value >= CRITICAL.value) {
+            return CRITICAL;
+        }
+        for (LogLevel level : values()) {
+            if (level.value == value) {
+                return level;
+            }
+        }
+        return INFO;
+    }
 }
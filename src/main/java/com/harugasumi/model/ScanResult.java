@@ -0,0 +1,68 @@
+package com.harugasumi.model;
+/**
+ * この記録形は1回のチェック結果を表します。
+ * <p>
+ * ログ文字列を解析し直さなくても、ステータスコードや応答時間を直接参照できます。
+ * 大量の結果を保持する場合は、オブジェクトのまま溜めずに {@code ResultStore} に格納してください。
+ * URLは {@link UrlTable} のIDとして持つため、同じURLの結果が何件あっても文字列は1つです。
+ * </p>
+ *
+ * @param urlId         チェックしたURLの {@link UrlTable} のID
+ * @param level         URLの優先度
+ * @param statusCode    HTTPステータスコード。応答がなかった場合は {@code -1}
+ * @param latencyNanos  リクエストの開始から応答（または失敗）までの時間（ナノ秒）
+ * @param statusClass   結果の分類
+ * @param errorClass    失敗の原因となった例外のクラス名。成功した場合は {@code null}
+ * @param redirectCount 最終的な応答までにたどったリダイレクトの回数
+ */
+public record ScanResult(int urlId, LogLevel level, int statusCode, long latencyNanos,
+        StatusClass statusClass, String errorClass, int redirectCount) {
+
+/**
+ * URLを {@link UrlTable} に登録して結果を作成します。
+ * @param url           チェックしたURL
+ * @param level         URLの優先度
+ * @param statusCode    HTTPステータスコード。応答がなかった場合は {@code -1}
+ * @param latencyNanos  応答（または失敗）までの時間（ナノ秒）
+ * @param statusClass   結果の分類
+ * @param errorClass    失敗の原因となった例外のクラス名。成功した場合は {@code null}
+ * @param redirectCount リダイレクトの回数
+ */
+    public ScanResult(String url, LogLevel level, int statusCode, long latencyNanos,
+            StatusClass statusClass, String errorClass, int redirectCount) {
+        this(UrlTable.intern(url), level, statusCode, latencyNanos, statusClass, errorClass, redirectCount);
+    }
+
+/**
+ * @return String チェックしたURL
+ */
+    public String url() {
+        return UrlTable.url(urlId);
+    }
+
+/**
+ * 応答があった場合の結果を作成します。
+ * @param url           チェックしたURL
+ * @param level         URLの優先度
+ * @param statusCode    HTTPステータスコード
+ * @param latencyNanos  応答までの時間（ナノ秒）
+ * @param redirectCount リダイレクトの回数
+ * @return ScanResult 結果
+ */
+    public static ScanResult response (String url, LogLevel level, int statusCode, long latencyNanos, int redirectCount){
+        return new ScanResult(url, level, statusCode, latencyNanos, StatusClass.of(statusCode), null, redirectCount);
+    }
+
+/**
+ * 応答がなかった場合の結果を作成します。
+ * @param url          チェックしたURL
+ * @param level        URLの優先度
+ * @param latencyNanos 失敗するまでの時間（ナノ秒）
+ * @param statusClass  失敗の分類
+ * @param error        失敗の原因となった例外
+ * @return ScanResult 結果
+ */
+    public static ScanResult failure (String url, LogLevel level, long latencyNanos, StatusClass statusClass, Throwable error){
+        return new ScanResult(url, level, -1, latencyNanos, statusClass, error.getClass().getSimpleName(), 0);
+    }
+}
@@ -0,0 +1,66 @@
+package com.harugasumi.model;
+/**
+ * この列挙形はチェック結果の分類を定めます。
+ */
+
+public enum StatusClass {
+
+/**2xx */
+SUCCESS("2xx", true),
+/**3xx */
+REDIRECT("3xx", true),
+/**4xx */
+CLIENT_ERROR("4xx", true),
+/**5xx */
+SERVER_ERROR("5xx", true),
+/**タイムアウト */
+TIMEOUT("timeout", false),
+/**接続失敗などの通信エラー */
+NETWORK_ERROR("error", false),
+/**実行前または実行中にキャンセルされた */
+CANCELLED("cancelled", false);
+
+/**
+ * レポートに表示する短い名前
+ */
+    private final String label;
+/**
+ * サーバーから応答があったかどうか
+ */
+    private final boolean responded;
+/**
+ * 列挙形のコンストラクタです。
+ */
+    private StatusClass (String label, boolean responded){
+        this.label = label;
+        this.responded = responded;
+    }
+/**
+ * @return String レポートに表示する短い名前
+ */
+    public String getLabel (){
+        return label;
+    }
+/**
+ * ステータスコードの値に関係なく、サーバーから応答があった場合は {@code true} を返します。
+ * 従来のスコアボードの「Online」に相当します。
+ * @return boolean サーバーから応答があったかどうか
+ */
+    public boolean isResponded (){
+        return responded;
+    }
+/**
+ * HTTPステータスコードを分類します。
+ * @param statusCode HTTPステータスコード
+ * @return StatusClass 分類。範囲外のコードは {@link #NETWORK_ERROR} になります。
+ */
+    public static StatusClass of (int statusCode){
+        return switch (statusCode / 100) {
+            case 1, 2 -> SUCCESS;
+            case 3 -> REDIRECT;
+            case 4 -> CLIENT_ERROR;
+            case 5 -> SERVER_ERROR;
+            default -> NETWORK_ERROR;
+        };
+    }
+}
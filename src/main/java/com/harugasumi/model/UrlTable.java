@@ -0,0 +1,109 @@
+package com.harugasumi.model;
+
+import java.util.Arrays;
+
+/**
+ * このクラスは、チェック結果のURLを一度だけ保持し、整数IDで参照するためのプロセス共通の表です。
+ * <p>
+ * {@link ScanResult} はURLの文字列ではなくこの表のIDを持つため、同じURLを何度チェックしても
+ * 文字列は1つだけです。検索用のハッシュ表はIDだけを格納するオープンアドレス法の {@code int[]} で、
+ * URLごとにボックス化された値やノードを作りません。
+ * </p>
+ * <p>
+ * 登録したURLはプロセスの終了まで保持されます。IDは0からの連番で、同じURLには常に同じIDが返ります。
+ * 登録はロックを取って行い、IDからURLへの参照はロックなしで行えます。
+ * </p>
+ */
+public final class UrlTable {
+
+    private static final int EMPTY = -1;
+    private static final Object LOCK = new Object();
+
+    /** IDを格納するハッシュ表。空きは {@link #EMPTY}。{@link #LOCK} を取って扱います。 */
+    private static int[] slots = newSlots(1024);
+    /** IDごとのURL。大きくするときは複製してから差し替えるため、読み取りはロックを取りません。 */
+    private static volatile String[] urls = new String[512];
+    private static int size;
+
+    private UrlTable() {
+    }
+
+    /**
+     * URLを登録し、IDを返します。登録済みの場合は同じIDを返します。
+     * @param url URL
+     * @return int URLのID
+     */
+    public static int intern(String url) {
+        int hash = hash(url);
+        synchronized (LOCK) {
+            String[] table = urls;
+            int mask = slots.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                int id = slots[i];
+                if (id == EMPTY) {
+                    id = append(url);
+                    slots[i] = id;
+                    if (size * 2 > slots.length) {
+                        rehash();
+                    }
+                    return id;
+                }
+                if (table[id].equals(url)) {
+                    return id;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id {@link #intern} が返したID
+     * @return String そのIDのURL
+     */
+    public static String url(int id) {
+        return urls[id];
+    }
+
+    /**
+     * @return int 登録されているURLの数
+     */
+    public static int size() {
+        synchronized (LOCK) {
+            return size;
+        }
+    }
+
+    private static int append(String url) {
+        String[] table = urls;
+        if (size == table.length) {
+            table = Arrays.copyOf(table, size * 2);
+        }
+        table[size] = url;
+        // publish the (possibly new) array after the entry is in it
+        urls = table;
+        return size++;
+    }
+
+    private static void rehash() {
+        String[] table = urls;
+        slots = newSlots(slots.length * 2);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = hash(table[id]) & mask;
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+    }
+
+    private static int[] newSlots(int length) {
+        int[] s = new int[length];
+        Arrays.fill(s, EMPTY);
+        return s;
+    }
+
+    private static int hash(String url) {
+        int h = url.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
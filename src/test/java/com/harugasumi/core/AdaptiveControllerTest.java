@@ -0,0 +1,151 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link AdaptiveController} のAIMDによる同時実行数の増減と、ホストごとのタイムアウト（p90の3倍）を確かめます。
+ */
+class AdaptiveControllerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final Duration MIN_TIMEOUT = Duration.ofMillis(100);
+    private static final Duration MAX_TIMEOUT = Duration.ofSeconds(30);
+
+    private static AdaptiveController controller(int initial, int min, int max) {
+        return new AdaptiveController(initial, min, max, MIN_TIMEOUT, MAX_TIMEOUT);
+    }
+
+    private static void succeed(AdaptiveController controller, int times, long latencyNanos) {
+        for (int i = 0; i < times; i++) {
+            controller.record("a.test", StatusClass.SUCCESS, latencyNanos);
+        }
+    }
+
+    @Test
+    void growsByAboutOnePerWindowWhileLatencyIsSteady() {
+        AdaptiveController controller = controller(10, 1, 100);
+        // each completion adds 1/limit: ten of them fall just short of a whole step
+        succeed(controller, 10, 10 * MS);
+        assertEquals(10, controller.limit());
+        succeed(controller, 1, 10 * MS);
+        assertEquals(11, controller.limit());
+        succeed(controller, 11, 10 * MS);
+        assertEquals(12, controller.limit());
+    }
+
+    @Test
+    void neverGrowsPastTheMaximum() {
+        AdaptiveController controller = controller(10, 1, 12);
+        succeed(controller, 1_000, 10 * MS);
+        assertEquals(12, controller.limit());
+        assertEquals(12, controller(50, 1, 12).limit(), "the initial limit is clamped too");
+    }
+
+    @Test
+    void shrinksOnATimeoutAtMostOncePerWindow() {
+        AdaptiveController controller = controller(20, 1, 20);
+        succeed(controller, 20, 10 * MS);
+        assertEquals(20, controller.limit());
+
+        assertEquals(16, controller.record("a.test", StatusClass.TIMEOUT, 3_000 * MS));
+        // the next window starts now: the following timeouts belong to the same congestion event
+        for (int i = 0; i < 15; i++) {
+            assertEquals(16, controller.record("a.test", StatusClass.TIMEOUT, 3_000 * MS));
+        }
+        assertEquals(12, controller.record("a.test", StatusClass.TIMEOUT, 3_000 * MS));
+    }
+
+    @Test
+    void shrinksWhenTheShortTermLatencyRisesWellAboveTheLongTerm() {
+        AdaptiveController controller = controller(10, 1, 10);
+        succeed(controller, 200, 10 * MS);
+        assertEquals(10, controller.limit());
+
+        // one slow response lifts the short-term average past twice the long-term one
+        succeed(controller, 1, 200 * MS);
+        assertEquals(8, controller.limit());
+        succeed(controller, 7, 200 * MS);
+        assertEquals(8, controller.limit());
+        succeed(controller, 1, 200 * MS);
+        assertEquals(6, controller.limit());
+    }
+
+    @Test
+    void neverShrinksBelowTheMinimum() {
+        AdaptiveController controller = controller(4, 3, 10);
+        for (int i = 0; i < 1_000; i++) {
+            controller.record("a.test", StatusClass.TIMEOUT, 3_000 * MS);
+        }
+        assertEquals(3, controller.limit());
+    }
+
+    @Test
+    void ignoresFastFailuresAndCancellations() {
+        AdaptiveController controller = controller(10, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(10, controller.record("a.test", StatusClass.NETWORK_ERROR, MS));
+            assertEquals(10, controller.record("a.test", StatusClass.CANCELLED, 5_000 * MS));
+        }
+        // neither fed the host's samples, so its timeout is still the initial one
+        assertEquals(AdaptiveController.INITIAL_TIMEOUT, controller.timeoutFor("a.test"));
+    }
+
+    @Test
+    void setsEachHostTimeoutToThreeTimesItsNinetiethPercentile() {
+        AdaptiveController controller = controller(10, 1, 100);
+        // 10, 20, ..., 160 ms: the 90th percentile of 16 samples is the 15th, 150 ms
+        for (int i = 1; i <= AdaptiveController.HOST_SAMPLES; i++) {
+            controller.record("slow.test", StatusClass.SUCCESS, i * 10 * MS);
+        }
+        assertEquals(Duration.ofMillis(450), controller.timeoutFor("slow.test"));
+
+        // only the last HOST_SAMPLES count: sixteen fast responses replace the slow ones
+        for (int i = 0; i < AdaptiveController.HOST_SAMPLES; i++) {
+            controller.record("slow.test", StatusClass.SUCCESS, 20 * MS);
+        }
+        assertEquals(MIN_TIMEOUT, controller.timeoutFor("slow.test"), "60 ms is raised to the minimum");
+    }
+
+    @Test
+    void lengthensAHostTimeoutWithTheTimeWaitedOnTimeouts() {
+        AdaptiveController controller = controller(10, 1, 100);
+        for (int i = 0; i < AdaptiveController.HOST_SAMPLES; i++) {
+            controller.record("far.test", StatusClass.TIMEOUT, 2_000 * MS);
+        }
+        assertEquals(Duration.ofSeconds(6), controller.timeoutFor("far.test"));
+
+        for (int i = 0; i < AdaptiveController.HOST_SAMPLES; i++) {
+            controller.record("far.test", StatusClass.TIMEOUT, 20_000 * MS);
+        }
+        assertEquals(MAX_TIMEOUT, controller.timeoutFor("far.test"));
+    }
+
+    @Test
+    void fallsBackToTheOverallLatencyForHostsWithFewSamples() {
+        AdaptiveController controller = controller(10, 1, 100);
+        assertEquals(AdaptiveController.INITIAL_TIMEOUT, controller.timeoutFor(null));
+        assertEquals(AdaptiveController.INITIAL_TIMEOUT, controller.timeoutFor("new.test"));
+
+        // sixteen samples across many hosts refresh the fallback to twice their 99th percentile
+        for (int i = 0; i < 16; i++) {
+            controller.record("h" + i + ".test", StatusClass.SUCCESS, 400 * MS);
+        }
+        assertEquals(Duration.ofMillis(800), controller.timeoutFor("new.test"));
+        assertEquals(Duration.ofMillis(800), controller.timeoutFor("h0.test"), "one sample is too few");
+    }
+
+    @Test
+    void rejectsBadLimits() {
+        assertThrows(IllegalArgumentException.class, () -> controller(1, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> controller(5, 10, 5));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveController(1, 1, 1, Duration.ofSeconds(2), Duration.ofSeconds(1)));
+    }
+}
@@ -0,0 +1,160 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link AgingPriorityQueue} の優先度順の取り出しと、期限切れの要素を救済する割合を確かめます。
+ */
+class AgingPriorityQueueTest {
+
+    private static final int HIGH = 4;
+    private static final int LOW = 1;
+    private static final long AN_HOUR_AGO = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+
+    private record Item(String name, int priority, long enqueued) {
+    }
+
+    private AgingPriorityQueue<Item> queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new AgingPriorityQueue<>(Item::priority, Item::enqueued);
+    }
+
+    private static Item fresh(String name, int priority) {
+        return new Item(name, priority, System.nanoTime());
+    }
+
+    private List<String> drainNames(int n) {
+        List<String> names = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Item item = queue.poll();
+            names.add(item == null ? null : item.name());
+        }
+        return names;
+    }
+
+    @Test
+    void takesByPriorityThenInArrivalOrder() {
+        queue.offer(fresh("low1", LOW));
+        queue.offer(fresh("high1", HIGH));
+        queue.offer(fresh("mid1", 2));
+        queue.offer(fresh("high2", HIGH));
+        queue.offer(fresh("low2", LOW));
+
+        assertEquals(5, queue.size());
+        assertEquals("high1", queue.peek().name());
+        assertEquals(List.of("high1", "high2", "mid1", "low1", "low2"), drainNames(5));
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void agedItemsGetOneTakeInEveryAgedShare() {
+        queue.setAging(Duration.ofSeconds(5), 4);
+        for (int i = 0; i < 9; i++) {
+            queue.offer(fresh("H", HIGH));
+        }
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new Item("L", LOW, AN_HOUR_AGO + i));
+        }
+
+        assertEquals(List.of("H", "H", "H", "L", "H", "H", "H", "L", "H", "H", "H", "L"), drainNames(12));
+    }
+
+    @Test
+    void theOldestAgedItemGoesFirstAcrossLanes() {
+        queue.setAging(Duration.ofSeconds(5), 2);
+        queue.offer(fresh("high", HIGH));
+        queue.offer(fresh("high", HIGH));
+        queue.offer(new Item("mid-old", 2, AN_HOUR_AGO + 10));
+        queue.offer(new Item("low-older", LOW, AN_HOUR_AGO));
+
+        assertEquals(List.of("high", "low-older", "high", "mid-old"), drainNames(4));
+    }
+
+    @Test
+    void aLowPriorityItemIsNotStarvedByAStreamOfHighPriorityWork() throws InterruptedException {
+        long maxWaitMillis = 500;
+        int agedShare = 4;
+        queue.setAging(Duration.ofMillis(maxWaitMillis), agedShare);
+        queue.offer(fresh("low", LOW));
+        for (int i = 0; i < agedShare; i++) {
+            queue.offer(fresh("high", HIGH));
+        }
+
+        // before it ages, the low item waits behind any amount of high priority work
+        for (int i = 0; i < 100; i++) {
+            assertEquals("high", queue.poll().name());
+            queue.offer(fresh("high", HIGH));
+        }
+
+        TimeUnit.MILLISECONDS.sleep(maxWaitMillis + 50);
+        int takes = 0;
+        String name;
+        do {
+            name = queue.poll().name();
+            queue.offer(fresh("high", HIGH));
+            takes++;
+        } while (!name.equals("low"));
+        assertTrue(takes <= agedShare, "low waited " + takes + " takes after it aged");
+    }
+
+    @Test
+    void zeroMaxWaitDisablesAging() {
+        queue.setAging(Duration.ZERO, 2);
+        queue.offer(new Item("low", LOW, AN_HOUR_AGO));
+        for (int i = 0; i < 5; i++) {
+            queue.offer(fresh("high", HIGH));
+        }
+
+        assertEquals(List.of("high", "high", "high", "high", "high", "low"), drainNames(6));
+    }
+
+    @Test
+    void rejectsAnAgedShareBelowTwo() {
+        assertThrows(IllegalArgumentException.class, () -> queue.setAging(Duration.ofSeconds(1), 1));
+    }
+
+    @Test
+    void takeWaitsForAnOfferAndTimedPollGivesUp() throws Exception {
+        assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+
+        CompletableFuture<Item> taken = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(50);
+        queue.offer(fresh("late", LOW));
+
+        assertEquals("late", taken.get(5, TimeUnit.SECONDS).name());
+    }
+
+    @Test
+    void drainToTakesInTheSameOrderAsPoll() {
+        queue.setAging(Duration.ofSeconds(5), 2);
+        queue.offer(fresh("high", HIGH));
+        queue.offer(fresh("high", HIGH));
+        queue.offer(new Item("low", LOW, AN_HOUR_AGO));
+        List<Item> drained = new ArrayList<>();
+
+        assertEquals(3, queue.drainTo(drained));
+        assertEquals(List.of("high", "low", "high"), drained.stream().map(Item::name).toList());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,159 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link ConnectProbe} が接続の成否と接続タイムアウトを返し、同じアドレスへの試行を共有することを確かめます。
+ * <p>
+ * 接続タイムアウトは、受け付け待ちの列を埋めたループバックのポートで起こします（それ以降のSYNは捨てられます）。
+ * </p>
+ */
+class ConnectProbeTest {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    /**
+     * 接続しても応答のないアドレスを返します。
+     * 受け付けないサーバーの待ち行列（backlog 1）を先に埋めておくため、新しい接続は確立しません。
+     */
+    static InetSocketAddress blackhole(List<AutoCloseable> resources) throws IOException {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        resources.add(server);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        for (int i = 0; i < 2; i++) {
+            Socket filler = new Socket();
+            resources.add(filler);
+            filler.connect(address, 1_000);
+        }
+        return address;
+    }
+
+    /** 閉じたばかりのポート（接続は拒否されます） */
+    static InetSocketAddress refused() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+    }
+
+    private static Throwable failureOf(CompletableFuture<Void> result) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    /**
+     * 接続を受け付けて {@code accepted} に数えるサーバーを起動し、最初のプローブが実際に接続するまで待ちます。
+     * 直前の {@link ConnectProbe#MEMO_NANOS} の間に別のテストが同じポートへの接続に成功していると、
+     * プローブは共有した結果を返して接続しないため、その場合は別のポートでやり直します。
+     */
+    private InetSocketAddress probedServer(AtomicInteger accepted) throws Exception {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            resources.add(server);
+            accepted.set(0);
+            Thread.ofPlatform().daemon().start(() -> {
+                while (!server.isClosed()) {
+                    try (Socket _ = server.accept()) {
+                        accepted.incrementAndGet();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            ConnectProbe.shared().connect(address, TIMEOUT_NANOS).get(10, TimeUnit.SECONDS);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (accepted.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            if (accepted.get() == 1) {
+                return address;
+            }
+            server.close();
+        }
+        throw new AssertionError("every port tried was still remembered by the probe");
+    }
+
+    @Test
+    void connectsToAListeningPortAndSharesTheSuccessForAWhile() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        InetSocketAddress address = probedServer(accepted);
+
+        ConnectProbe.shared().connect(address, TIMEOUT_NANOS).get(10, TimeUnit.SECONDS);
+        ConnectProbe.shared().connect(address, TIMEOUT_NANOS).get(10, TimeUnit.SECONDS);
+
+        Thread.sleep(100);
+        assertEquals(1, accepted.get(), "later probes within MEMO_NANOS should reuse the first one");
+    }
+
+    @Test
+    void failsARefusedConnectionRightAwayAndDoesNotRememberIt() throws Exception {
+        InetSocketAddress address = refused();
+        long begin = System.nanoTime();
+        assertInstanceOf(ConnectException.class, failureOf(ConnectProbe.shared().connect(address, TIMEOUT_NANOS * 10)));
+        assertTrue(System.nanoTime() - begin < TIMEOUT_NANOS * 10);
+
+        // once something listens there, the next probe tries again instead of replaying the failure
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(address, 50);
+            ConnectProbe.shared().connect(address, TIMEOUT_NANOS).get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void timesOutAConnectionThatNeverCompletes() throws Exception {
+        InetSocketAddress address = blackhole(resources);
+        long begin = System.nanoTime();
+        assertInstanceOf(SocketTimeoutException.class, failureOf(ConnectProbe.shared().connect(address, TIMEOUT_NANOS)));
+        long took = System.nanoTime() - begin;
+        assertTrue(took >= TIMEOUT_NANOS, "gave up early");
+        assertTrue(took < TIMEOUT_NANOS + TimeUnit.SECONDS.toNanos(2), "took " + took / 1_000_000 + " ms");
+    }
+
+    @Test
+    void laterCallersJoinAnAttemptInProgress() throws Exception {
+        InetSocketAddress address = blackhole(resources);
+        long begin = System.nanoTime();
+        CompletableFuture<Void> first = ConnectProbe.shared().connect(address, TIMEOUT_NANOS);
+        CompletableFuture<Void> joined = ConnectProbe.shared().connect(address, TimeUnit.SECONDS.toNanos(30));
+
+        // the second caller shares the first attempt and its deadline
+        assertInstanceOf(SocketTimeoutException.class, failureOf(joined));
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(5));
+        assertInstanceOf(SocketTimeoutException.class, failureOf(first));
+
+        // cancelling one caller's copy leaves the shared attempt running for the others
+        CompletableFuture<Void> cancelled = ConnectProbe.shared().connect(address, TIMEOUT_NANOS);
+        CompletableFuture<Void> other = ConnectProbe.shared().connect(address, TIMEOUT_NANOS);
+        cancelled.cancel(false);
+        assertInstanceOf(SocketTimeoutException.class, failureOf(other));
+    }
+}
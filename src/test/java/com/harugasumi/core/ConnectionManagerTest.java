@@ -0,0 +1,213 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link ConnectionManager} が新しいオリジンへの最初のリクエストを単独で送り、その後はオリジンごとの上限まで流すこと、
+ * キャンセルされた待ちが許可を失わないことを、ループバックのHTTP/1.1サーバーで確かめます。
+ */
+class ConnectionManagerTest {
+
+    private static final int MAX_PER_ORIGIN = 3;
+
+    /** サーバーの応答を1件ずつ許可するセマフォ */
+    private final Semaphore answers = new Semaphore(0);
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final Set<String> received = ConcurrentHashMap.newKeySet();
+    private final List<HttpServer> servers = new ArrayList<>();
+    private ExecutorService handlers;
+    private ConnectionManager manager;
+
+    @BeforeEach
+    void setUp() {
+        handlers = Executors.newCachedThreadPool();
+        manager = new ConnectionManager(HttpClient.Version.HTTP_1_1, MAX_PER_ORIGIN,
+                ConnectionManager.DEFAULT_HTTP2_STREAMS, ConnectionManager.DEFAULT_KEEP_ALIVE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        answers.release(1_000);
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+        handlers.shutdownNow();
+    }
+
+    /** 応答を {@link #answers} の許可が出るまで止めておくサーバーを起動し、そのベースURLを返します。 */
+    private String startServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(handlers);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                received.add(exchange.getRequestURI().getPath());
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    answers.tryAcquire(30, TimeUnit.SECONDS);
+                } finally {
+                    active.decrementAndGet();
+                }
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static HttpRequest head(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    private static void await(IntSupplier value, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (value.getAsInt() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, value.getAsInt());
+    }
+
+    @Test
+    void sendsTheFirstRequestAloneAndThenUpToThePerOriginLimit() throws Exception {
+        String base = startServer();
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(manager.sendAsync(head(base + "/" + i)));
+        }
+
+        await(active::get, 1);
+        Thread.sleep(100);
+        assertEquals(1, active.get(), "requests went out before the first one told the connection type");
+
+        answers.release();
+        await(active::get, MAX_PER_ORIGIN);
+        Thread.sleep(100);
+        assertEquals(MAX_PER_ORIGIN, active.get());
+
+        answers.release(9);
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            assertEquals(200, response.get(10, TimeUnit.SECONDS).statusCode());
+        }
+        assertEquals(MAX_PER_ORIGIN, peak.get());
+        assertEquals(10, manager.requests());
+        assertEquals(0, manager.http2Responses());
+    }
+
+    @Test
+    void limitsEachOriginSeparately() throws Exception {
+        String busy = startServer();
+        String other = startServer();
+        CompletableFuture<HttpResponse<Void>> first = manager.sendAsync(head(busy + "/first"));
+        CompletableFuture<HttpResponse<Void>> waiting = manager.sendAsync(head(busy + "/waiting"));
+        await(active::get, 1);
+
+        CompletableFuture<HttpResponse<Void>> elsewhere = manager.sendAsync(head(other + "/elsewhere"));
+        await(active::get, 2);
+        assertFalse(received.contains("/waiting"));
+
+        answers.release(3);
+        assertEquals(200, elsewhere.get(10, TimeUnit.SECONDS).statusCode());
+        assertEquals(200, first.get(10, TimeUnit.SECONDS).statusCode());
+        assertEquals(200, waiting.get(10, TimeUnit.SECONDS).statusCode());
+    }
+
+    @Test
+    void passesThePermitOfACancelledWaiterOn() throws Exception {
+        String base = startServer();
+        CompletableFuture<HttpResponse<Void>> first = manager.sendAsync(head(base + "/first"));
+        CompletableFuture<HttpResponse<Void>> cancelled = manager.sendAsync(head(base + "/cancelled"));
+        CompletableFuture<HttpResponse<Void>> next = manager.sendAsync(head(base + "/next"));
+        await(active::get, 1);
+
+        assertTrue(cancelled.cancel(true));
+        answers.release(2);
+        assertEquals(200, first.get(10, TimeUnit.SECONDS).statusCode());
+        assertEquals(200, next.get(10, TimeUnit.SECONDS).statusCode());
+        assertFalse(received.contains("/cancelled"), "a cancelled request was sent");
+    }
+
+    @Test
+    void anInterruptedSenderGivesUpWithoutSendingOrLosingAPermit() throws Exception {
+        String base = startServer();
+        CompletableFuture<HttpResponse<Void>> first = manager.sendAsync(head(base + "/first"));
+        // keeps the origin in use, so it stays warm after the first request
+        CompletableFuture<HttpResponse<Void>> queued = manager.sendAsync(head(base + "/queued"));
+        await(active::get, 1);
+
+        AtomicInteger outcome = new AtomicInteger();
+        Thread sender = Thread.ofPlatform().start(() -> {
+            try {
+                manager.send(head(base + "/interrupted"));
+                outcome.set(1);
+            } catch (InterruptedException e) {
+                outcome.set(2);
+            } catch (IOException e) {
+                outcome.set(3);
+            }
+        });
+        Thread.sleep(100);
+        sender.interrupt();
+        sender.join(5_000);
+        assertEquals(2, outcome.get());
+
+        answers.release();
+        assertEquals(200, first.get(10, TimeUnit.SECONDS).statusCode());
+        await(active::get, 1);
+        // all permits are still there: two more requests run alongside the queued one
+        List<CompletableFuture<HttpResponse<Void>>> more = new ArrayList<>();
+        for (int i = 0; i < MAX_PER_ORIGIN; i++) {
+            more.add(manager.sendAsync(head(base + "/more" + i)));
+        }
+        await(active::get, MAX_PER_ORIGIN);
+
+        answers.release(MAX_PER_ORIGIN + 1);
+        assertEquals(200, queued.get(10, TimeUnit.SECONDS).statusCode());
+        for (CompletableFuture<HttpResponse<Void>> response : more) {
+            assertEquals(200, response.get(10, TimeUnit.SECONDS).statusCode());
+        }
+        assertFalse(received.contains("/interrupted"));
+    }
+
+    @Test
+    void rejectsNonPositiveLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionManager(HttpClient.Version.HTTP_1_1, 0,
+                ConnectionManager.DEFAULT_HTTP2_STREAMS, ConnectionManager.DEFAULT_KEEP_ALIVE));
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionManager(HttpClient.Version.HTTP_2,
+                ConnectionManager.DEFAULT_MAX_PER_ORIGIN, 0, ConnectionManager.DEFAULT_KEEP_ALIVE));
+    }
+}
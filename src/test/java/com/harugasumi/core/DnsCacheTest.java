@@ -0,0 +1,186 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolver.LookupPolicy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 実際のDNSの代わりにローカルの代替リゾルバーを使って、{@link DnsCache} のTTLと同時の問い合わせを確かめます。
+ */
+class DnsCacheTest {
+
+    private static final LookupPolicy ANY = LookupPolicy.of(LookupPolicy.IPV4 | LookupPolicy.IPV6);
+    private static final Duration LONG = Duration.ofMinutes(5);
+    private static final Duration SHORT = Duration.ofMillis(200);
+
+    /**
+     * 決まったホストだけを解決し、ホストごとの問い合わせ回数を数える代替リゾルバーです。
+     * {@code gate} が閉じている間は問い合わせを止めておきます。
+     */
+    private static final class StandInResolver implements InetAddressResolver {
+        private final Map<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+        private final Map<String, InetAddress> known = new ConcurrentHashMap<>();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        private StandInResolver add(String host, int lastOctet) throws UnknownHostException {
+            known.put(host, InetAddress.getByAddress(host, new byte[] { 10, 0, 0, (byte) lastOctet }));
+            return this;
+        }
+
+        private int queries(String host) {
+            AtomicInteger count = queries.get(host);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public Stream<InetAddress> lookupByName(String host, LookupPolicy policy)
+                throws UnknownHostException {
+            queries.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            InetAddress address = known.get(host);
+            if (address == null) {
+                throw new UnknownHostException(host);
+            }
+            return Stream.of(address);
+        }
+
+        @Override
+        public String lookupByAddress(byte[] addr) throws UnknownHostException {
+            throw new UnknownHostException();
+        }
+    }
+
+    @Test
+    void answersFromTheCacheUntilTheTtlExpires() throws Exception {
+        StandInResolver resolver = new StandInResolver().add("a.test", 1);
+        DnsCache cache = new DnsCache(resolver, SHORT, LONG, 4);
+
+        List<InetAddress> first = cache.lookup("a.test", ANY, null);
+        List<InetAddress> second = cache.lookup("a.test", ANY, null);
+
+        assertEquals(first, second);
+        assertEquals(1, resolver.queries("a.test"));
+
+        TimeUnit.MILLISECONDS.sleep(SHORT.toMillis() + 100);
+        assertEquals(first, cache.lookup("a.test", ANY, null));
+        assertEquals(2, resolver.queries("a.test"));
+    }
+
+    @Test
+    void resolveAllQueriesEachDistinctHostOnceAndSkipsLiterals() throws Exception {
+        StandInResolver resolver = new StandInResolver().add("a.test", 1).add("b.test", 2);
+        DnsCache cache = new DnsCache(resolver, LONG, LONG, 4);
+
+        Set<String> unresolved = cache.resolveAll(
+                List.of("a.test", "b.test", "a.test", "127.0.0.1", "::1", "b.test"));
+
+        assertTrue(unresolved.isEmpty(), unresolved::toString);
+        assertEquals(1, resolver.queries("a.test"));
+        assertEquals(1, resolver.queries("b.test"));
+        assertEquals(0, resolver.queries("127.0.0.1"));
+        assertEquals(2, cache.size());
+
+        cache.resolveAll(List.of("a.test", "b.test"));
+        assertEquals(1, resolver.queries("a.test"));
+        assertEquals(1, resolver.queries("b.test"));
+    }
+
+    @Test
+    void remembersUnresolvableHostsForTheNegativeTtl() throws Exception {
+        StandInResolver resolver = new StandInResolver().add("a.test", 1);
+        DnsCache cache = new DnsCache(resolver, LONG, SHORT, 4);
+
+        assertEquals(Set.of("missing.test"), cache.resolveAll(List.of("a.test", "missing.test")));
+        assertTrue(cache.isUnresolvable("missing.test"));
+        assertFalse(cache.isUnresolvable("a.test"));
+
+        // within the negative TTL neither a lookup nor another pre-resolution asks the resolver again
+        assertThrows(UnknownHostException.class, () -> cache.lookup("missing.test", ANY, null));
+        assertEquals(Set.of("missing.test"), cache.resolveAll(List.of("missing.test")));
+        assertEquals(1, resolver.queries("missing.test"));
+
+        TimeUnit.MILLISECONDS.sleep(SHORT.toMillis() + 100);
+        assertFalse(cache.isUnresolvable("missing.test"));
+        assertThrows(UnknownHostException.class, () -> cache.lookup("missing.test", ANY, null));
+        assertEquals(2, resolver.queries("missing.test"));
+    }
+
+    @Test
+    void concurrentLookupsOfTheSameNameShareOneQuery() throws Exception {
+        StandInResolver resolver = new StandInResolver().add("a.test", 1);
+        resolver.gate = new CountDownLatch(1);
+        DnsCache cache = new DnsCache(resolver, LONG, LONG, 4);
+        int callers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<List<InetAddress>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> cache.lookup("a.test", ANY, null)));
+            }
+            // hold the first query open so the other callers miss the cache while it is in flight
+            assertTrue(resolver.entered.await(5, TimeUnit.SECONDS));
+            TimeUnit.MILLISECONDS.sleep(200);
+            resolver.gate.countDown();
+
+            InetAddress expected = resolver.known.get("a.test");
+            for (Future<List<InetAddress>> result : results) {
+                assertEquals(List.of(expected), result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, resolver.queries("a.test"));
+            assertEquals(1, cache.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void lookupFiltersAndOrdersByPolicy() throws Exception {
+        InetAddress v4 = InetAddress.getByAddress("dual.test", new byte[] { 10, 0, 0, 1 });
+        InetAddress v6 = InetAddress.getByAddress("dual.test", new byte[16]);
+        InetAddressResolver dual = new InetAddressResolver() {
+            @Override
+            public Stream<InetAddress> lookupByName(String host, LookupPolicy policy) {
+                return Stream.of(v6, v4);
+            }
+
+            @Override
+            public String lookupByAddress(byte[] addr) throws UnknownHostException {
+                throw new UnknownHostException();
+            }
+        };
+        DnsCache cache = new DnsCache(dual, LONG, LONG, 1);
+
+        assertEquals(List.of(v4), cache.lookup("dual.test", LookupPolicy.of(LookupPolicy.IPV4), null));
+        assertEquals(List.of(v4, v6), cache.lookup("dual.test",
+                LookupPolicy.of(LookupPolicy.IPV4 | LookupPolicy.IPV6 | LookupPolicy.IPV4_FIRST), null));
+        assertEquals(List.of(v6, v4), cache.lookup("dual.test",
+                LookupPolicy.of(LookupPolicy.IPV4 | LookupPolicy.IPV6 | LookupPolicy.IPV6_FIRST), null));
+    }
+}
@@ -0,0 +1,180 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * {@link HostScheduler} がホストごとの同時実行数と開始間隔を守り、他のホストを待たせないことを確かめます。
+ */
+class HostSchedulerTest {
+
+    /** 開始されたタスクと、その時刻（{@link System#nanoTime()}） */
+    private record Start(PrioritizedTask task, long at) {
+    }
+
+    private final LinkedBlockingQueue<Start> starts = new LinkedBlockingQueue<>();
+    private HostScheduler scheduler;
+
+    private static final class HostTask implements Task {
+        private final String host;
+        private final LogLevel level;
+
+        private HostTask(String host, LogLevel level) {
+            this.host = host;
+            this.level = level;
+        }
+
+        @Override
+        public Boolean call() {
+            return true;
+        }
+
+        @Override
+        public int getPriority() {
+            return level.getValue();
+        }
+
+        @Override
+        public void setLogger(Consumer<String> logger) {
+        }
+
+        @Override
+        public String getHost() {
+            return host;
+        }
+    }
+
+    /** 開始を記録するだけで、テストが完了させるまでタスクを実行中のままにする */
+    private HostScheduler scheduler(int maxPerHost, Duration minInterval) {
+        return new HostScheduler(maxPerHost, minInterval,
+                () -> new AgingPriorityQueue<>(PrioritizedTask::priority, PrioritizedTask::enqueuedNanos),
+                task -> {
+                    starts.add(new Start(task, System.nanoTime()));
+                    return task.result();
+                });
+    }
+
+    private PrioritizedTask submit(String host, LogLevel level) {
+        PrioritizedTask task = new PrioritizedTask(new HostTask(host, level), _ -> { });
+        scheduler.submit(task);
+        return task;
+    }
+
+    private Start nextStart() throws InterruptedException {
+        Start start = starts.poll(5, TimeUnit.SECONDS);
+        assertNotNull(start, "no task was started");
+        return start;
+    }
+
+    /** 今までに開始されたタスクを取り出します。 */
+    private List<Start> drainStarts() throws InterruptedException {
+        Thread.sleep(100); // let anything that is going to start, start
+        List<Start> drained = new ArrayList<>();
+        starts.drainTo(drained);
+        return drained;
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void startsNoMoreThanTheLimitPerHost() throws Exception {
+        scheduler = scheduler(2, Duration.ZERO);
+        for (int i = 0; i < 6; i++) {
+            submit("a.test", LogLevel.INFO);
+        }
+        submit("b.test", LogLevel.INFO);
+
+        List<Start> first = drainStarts();
+        assertEquals(3, first.size());
+        assertEquals(2, first.stream().filter(s -> s.task().task().getHost().equals("a.test")).count());
+
+        // one slot comes back, one more task for that host starts
+        first.stream().filter(s -> s.task().task().getHost().equals("a.test")).findFirst()
+                .orElseThrow().task().result().complete(true);
+        List<Start> next = drainStarts();
+        assertEquals(1, next.size());
+        assertEquals("a.test", next.get(0).task().task().getHost());
+    }
+
+    @Test
+    void spacesStartsToOneHostByTheIntervalWithoutDelayingOthers() throws Exception {
+        long intervalMillis = 120;
+        scheduler = scheduler(10, Duration.ofMillis(intervalMillis));
+        long submitted = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            submit("a.test", LogLevel.INFO);
+        }
+        submit("b.test", LogLevel.INFO);
+
+        List<Long> aStarts = new ArrayList<>();
+        long bStart = -1;
+        for (int i = 0; i < 5; i++) {
+            Start start = nextStart();
+            if (start.task().task().getHost().equals("a.test")) {
+                aStarts.add(start.at());
+            } else {
+                bStart = start.at();
+            }
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(bStart - submitted) < intervalMillis,
+                "the other host waited behind the interval");
+        for (int i = 1; i < aStarts.size(); i++) {
+            long gapMillis = TimeUnit.NANOSECONDS.toMillis(aStarts.get(i) - aStarts.get(i - 1));
+            assertTrue(gapMillis >= intervalMillis - 10, "starts " + gapMillis + " ms apart");
+        }
+    }
+
+    @Test
+    void startsTheHighestPriorityWaiterOfAHostFirst() throws Exception {
+        scheduler = scheduler(1, Duration.ZERO);
+        PrioritizedTask running = submit("a.test", LogLevel.INFO);
+        assertEquals(running, nextStart().task());
+        submit("a.test", LogLevel.INFO);
+        PrioritizedTask critical = submit("a.test", LogLevel.CRITICAL);
+
+        running.result().complete(true);
+
+        assertEquals(critical, nextStart().task());
+    }
+
+    @Test
+    void skipsTasksCancelledWhileWaiting() throws Exception {
+        scheduler = scheduler(1, Duration.ZERO);
+        PrioritizedTask running = submit("a.test", LogLevel.INFO);
+        nextStart();
+        PrioritizedTask cancelled = submit("a.test", LogLevel.INFO);
+        PrioritizedTask waiting = submit("a.test", LogLevel.INFO);
+        cancelled.result().cancel(false);
+
+        running.result().complete(true);
+
+        assertEquals(waiting, nextStart().task());
+        assertNull(starts.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void runsTasksWithoutAHostImmediately() throws Exception {
+        scheduler = scheduler(1, Duration.ofHours(1));
+        for (int i = 0; i < 3; i++) {
+            submit(null, LogLevel.INFO);
+        }
+        assertEquals(3, drainStarts().size());
+    }
+}
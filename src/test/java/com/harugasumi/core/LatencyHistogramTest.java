@@ -0,0 +1,104 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link LatencyHistogram} のバケットが値を約3%以内で表し、百分位・最大値・消去が正しいことを確かめます。
+ */
+class LatencyHistogramTest {
+
+    /** 1つのバケットの幅は下限の 1/32 なので、上限と値の差は値の約3%以内 */
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 32;
+
+    @Test
+    void smallValuesGetABucketOfTheirOwn() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value)));
+        }
+    }
+
+    @Test
+    void everyValueFallsInsideItsBucketWithinTheRelativeError() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> random.nextInt(1, 64);
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+            assertTrue(upper >= value, "upper bound " + upper + " below " + value);
+            assertTrue(upper - value <= value * MAX_RELATIVE_ERROR, "bucket too wide for " + value);
+        }
+        // the largest value still maps to a valid bucket
+        assertTrue(LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)) >= Long.MAX_VALUE);
+    }
+
+    @Test
+    void bucketsAreOrderedLikeTheirValues() {
+        int previous = LatencyHistogram.bucketOf(0);
+        for (long value = 1; value < 1L << 20; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket == previous || bucket == previous + 1, "gap at " + value);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    void percentilesStayWithinTheRelativeErrorOfTheExactValues() {
+        Random random = new Random(42);
+        long[] values = new long[10_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // 1 ms .. ~2 s, spread over several powers of two
+            values[i] = 1_000_000L + (long) (Math.exp(random.nextDouble() * 7.6) * 1_000_000L);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * p / 100) - 1];
+            long estimate = histogram.percentile(p);
+            assertTrue(estimate >= exact, "p" + p + " " + estimate + " below " + exact);
+            assertTrue(estimate - exact <= exact * MAX_RELATIVE_ERROR, "p" + p + " " + estimate + " vs " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(values[values.length - 1], histogram.percentile(100));
+        assertEquals(values.length, histogram.count());
+    }
+
+    @Test
+    void neverReportsMoreThanTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+        assertEquals(1_000_001, histogram.percentile(50));
+        assertEquals(1_000_001, histogram.percentile(99));
+    }
+
+    @Test
+    void recordsNegativeValuesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(50));
+    }
+
+    @Test
+    void resetForgetsCountsAndMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000_000);
+        histogram.record(9_000_000);
+        histogram.reset();
+
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(50));
+
+        histogram.record(2_000_000);
+        assertEquals(2_000_000, histogram.max());
+        assertEquals(1, histogram.count());
+    }
+}
@@ -0,0 +1,167 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.core.LogPipeline.OverflowPolicy;
+
+/**
+ * {@link LogPipeline} のリングバッファについて、あふれた場合の扱いと配信の順序を確かめます。
+ */
+class LogPipelineTest {
+
+    private static final Pattern DROPPED = Pattern.compile("\\[LOG\\] (\\d+) messages dropped \\(log buffer full\\)");
+
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+
+    private LogPipeline pipeline(int capacity, OverflowPolicy policy) {
+        LogPipeline pipeline = new LogPipeline(capacity, policy, 1);
+        pipeline.setSink(delivered::addAll);
+        return pipeline;
+    }
+
+    private long droppedReported() {
+        long total = 0;
+        for (String line : delivered) {
+            Matcher m = DROPPED.matcher(line);
+            if (m.matches()) {
+                total += Long.parseLong(m.group(1));
+            }
+        }
+        return total;
+    }
+
+    private List<String> messages() {
+        return delivered.stream().filter(line -> !DROPPED.matcher(line).matches()).toList();
+    }
+
+    @Test
+    void dropNewestKeepsTheFirstCapacityMessagesAndReportsTheRest() {
+        LogPipeline log = pipeline(100, OverflowPolicy.DROP_NEWEST); // rounded up to 128
+        int accepted = 0;
+        for (int i = 0; i < 138; i++) {
+            if (log.offer("m" + i)) {
+                accepted++;
+            }
+        }
+        assertEquals(128, accepted);
+
+        log.flush();
+
+        assertEquals("[LOG] 10 messages dropped (log buffer full)", delivered.get(0));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 128; i++) {
+            expected.add("m" + i);
+        }
+        assertEquals(expected, messages());
+    }
+
+    @Test
+    void slotsAreReusedAfterADrain() {
+        LogPipeline log = pipeline(8, OverflowPolicy.DROP_NEWEST);
+        List<String> expected = new ArrayList<>();
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 5; i++) {
+                String message = round + "-" + i;
+                assertTrue(log.offer(message), message);
+                expected.add(message);
+            }
+            log.flush();
+        }
+
+        assertEquals(expected, delivered);
+    }
+
+    @Test
+    void samplePassesErrorsAndThinsOutTheRestAboveThreeQuarters() {
+        LogPipeline log = pipeline(128, OverflowPolicy.SAMPLE);
+        for (int i = 0; i < 97; i++) {
+            assertTrue(log.offer("fill" + i), "below three quarters everything is accepted");
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(log.offer("[ERROR] e" + i), "errors are never sampled out");
+        }
+        int accepted = 0;
+        int offered = 320;
+        for (int i = 0; i < offered; i++) {
+            if (log.offer("info" + i)) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 0 && accepted <= 128 - 107, "accepted " + accepted);
+
+        log.flush();
+
+        assertEquals(offered - accepted, droppedReported());
+        assertEquals(107 + accepted, messages().size());
+    }
+
+    @Test
+    void sampleDropsEvenErrorsOnceFull() {
+        LogPipeline log = pipeline(16, OverflowPolicy.SAMPLE);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(log.offer("[ERROR] e" + i));
+        }
+
+        assertFalse(log.offer("[ERROR] one too many"));
+        log.flush();
+        assertEquals(1, droppedReported());
+        assertEquals(16, messages().size());
+    }
+
+    @Test
+    void concurrentProducersLoseNothingSilentlyAndKeepTheirOwnOrder() throws Exception {
+        LogPipeline log = pipeline(1024, OverflowPolicy.DROP_NEWEST);
+        int producers = 8;
+        int perProducer = 20_000;
+        AtomicLong accepted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    if (log.offer(id + ":" + i)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        log.start();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        log.stop();
+
+        List<String> received = messages();
+        assertEquals(accepted.get(), received.size());
+        assertEquals((long) producers * perProducer, accepted.get() + droppedReported());
+        Map<Integer, Integer> last = new HashMap<>();
+        for (String message : received) {
+            int colon = message.indexOf(':');
+            int producer = Integer.parseInt(message.substring(0, colon));
+            int seq = Integer.parseInt(message.substring(colon + 1));
+            Integer previous = last.put(producer, seq);
+            assertTrue(previous == null || previous < seq, "out of order: " + message);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link MetricsServer} がループバックでPrometheusのテキスト形式を返し、取得ごとの状態を持たないことを確かめます。
+ */
+class MetricsServerTest {
+
+    private TaskEngine engine;
+    private MetricsServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        engine = new TaskEngine();
+        server = new MetricsServer(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+        engine.stop();
+    }
+
+    private HttpResponse<String> get(String method) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://127.0.0.1:" + server.getPort() + MetricsServer.PATH))
+                .method(method, HttpRequest.BodyPublishers.noBody()).build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void servesCountersAndGaugesInTheTextFormat() throws Exception {
+        HttpResponse<String> response = get("GET");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+        String body = response.body();
+        assertTrue(body.contains("# TYPE sentinel_checks_completed_total counter\n"), body);
+        assertTrue(body.contains("sentinel_checks_completed_total{level=\"CRITICAL\",class=\"SUCCESS\"} 0\n"), body);
+        assertTrue(body.contains("sentinel_pool_utilization 0.000\n"), body);
+        assertFalse(body.contains("per_second"), "rates are left to rate() on the counters");
+    }
+
+    @Test
+    void repeatedScrapesAgreeWhileNothingChanges() {
+        // several scrapers must not disturb each other's view
+        assertEquals(server.scrape(), server.scrape());
+    }
+
+    @Test
+    void rejectsMethodsOtherThanGetAndHead() throws Exception {
+        assertEquals(200, get("HEAD").statusCode());
+        HttpResponse<String> post = get("POST");
+        assertEquals(405, post.statusCode());
+        assertEquals("GET, HEAD", post.headers().firstValue("Allow").orElse(""));
+    }
+}
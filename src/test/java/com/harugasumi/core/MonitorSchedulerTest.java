@@ -0,0 +1,214 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * {@link MonitorScheduler} のホイールの大きさ、初回と毎回の間隔のジッター、実行中の対象を飛ばすこと、
+ * 登録と解除を、tickを手で進めて確かめます。
+ */
+class MonitorSchedulerTest {
+
+    private static final Duration TICK = Duration.ofMillis(1);
+
+    /** 起動されたチェックを、URLごとに起動したtickの番号で記録します */
+    private final Map<String, List<Integer>> launches = new HashMap<>();
+    private final Map<String, LogLevel> lastLevel = new HashMap<>();
+    private final AtomicInteger flushes = new AtomicInteger();
+    private int currentTick;
+    /** {@code null} の場合、起動したチェックはすぐに完了します */
+    private CompletableFuture<Boolean> pending;
+
+    private static Map<LogLevel, Duration> intervals(long critical, long warning, long info) {
+        Map<LogLevel, Duration> map = new EnumMap<>(LogLevel.class);
+        map.put(LogLevel.CRITICAL, TICK.multipliedBy(critical));
+        map.put(LogLevel.WARNING, TICK.multipliedBy(warning));
+        map.put(LogLevel.INFO, TICK.multipliedBy(info));
+        return map;
+    }
+
+    private MonitorScheduler scheduler(Map<LogLevel, Duration> intervals, double jitter) {
+        return new MonitorScheduler(intervals, TICK, jitter, (level, url) -> {
+            launches.computeIfAbsent(url, _ -> new ArrayList<>()).add(currentTick);
+            lastLevel.put(url, level);
+            return pending != null ? pending : CompletableFuture.completedFuture(true);
+        }, flushes::incrementAndGet);
+    }
+
+    private void advance(MonitorScheduler scheduler, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            currentTick++;
+            scheduler.tick();
+        }
+    }
+
+    private int launchCount(String url) {
+        return launches.getOrDefault(url, List.of()).size();
+    }
+
+    @Test
+    void sizesTheWheelToCoverTheLongestIntervalWithJitter() {
+        // 1800 s at 100 ms ticks with 10% jitter needs 18000 + 1800 + 1 slots, rounded up to a power of two
+        MonitorScheduler defaults = new MonitorScheduler(TaskEngine.defaultMonitorIntervals(),
+                MonitorScheduler.DEFAULT_TICK, MonitorScheduler.DEFAULT_JITTER, (_, _) -> null, () -> { });
+        assertEquals(32768, defaults.wheelSize());
+
+        assertEquals(2, scheduler(intervals(1, 1, 1), 0).wheelSize());
+        assertEquals(128, scheduler(intervals(10, 20, 100), 0.1).wheelSize());
+        // a day of 1 ms ticks is capped; such targets go round the wheel more than once
+        assertEquals(1 << 20, scheduler(intervals(1, 1, TimeUnit.DAYS.toMillis(1)), 0).wheelSize());
+    }
+
+    @Test
+    void spreadsTheFirstChecksOverTheIntervalAndThenRepeatsOnIt() {
+        MonitorScheduler scheduler = scheduler(intervals(10, 10, 10), 0);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(scheduler.add(LogLevel.CRITICAL, "https://t" + i + ".test/"));
+        }
+
+        advance(scheduler, 10);
+        Set<Integer> firstTicks = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            List<Integer> ticks = launches.get("https://t" + i + ".test/");
+            assertEquals(1, ticks.size(), "each target is checked once in its first interval");
+            firstTicks.add(ticks.get(0));
+        }
+        // 200 targets over 10 ticks land on (almost certainly) more than a few distinct ticks
+        assertTrue(firstTicks.size() > 5, "first checks bunched on " + firstTicks);
+
+        advance(scheduler, 30);
+        for (List<Integer> ticks : launches.values()) {
+            assertEquals(4, ticks.size());
+            for (int i = 1; i < ticks.size(); i++) {
+                assertEquals(10, ticks.get(i) - ticks.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    void keepsEachIntervalWithinTheJitter() {
+        MonitorScheduler scheduler = scheduler(intervals(100, 100, 100), 0.1);
+        scheduler.add(LogLevel.INFO, "https://a.test/");
+
+        advance(scheduler, 10_000);
+        List<Integer> ticks = launches.get("https://a.test/");
+        assertTrue(ticks.get(0) >= 1 && ticks.get(0) <= 100, "first check at " + ticks.get(0));
+        Set<Integer> gaps = new HashSet<>();
+        for (int i = 1; i < ticks.size(); i++) {
+            int gap = ticks.get(i) - ticks.get(i - 1);
+            assertTrue(gap >= 90 && gap <= 110, "interval of " + gap + " ticks");
+            gaps.add(gap);
+        }
+        assertTrue(gaps.size() > 1, "intervals are not jittered: " + gaps);
+    }
+
+    @Test
+    void skipsTargetsWhoseLastCheckIsStillRunning() {
+        MonitorScheduler scheduler = scheduler(intervals(5, 5, 5), 0);
+        pending = new CompletableFuture<>();
+        scheduler.add(LogLevel.CRITICAL, "https://slow.test/");
+
+        advance(scheduler, 50);
+        assertEquals(1, launchCount("https://slow.test/"));
+        assertEquals(1, flushes.get(), "rounds that launch nothing do not flush");
+
+        pending.complete(true);
+        pending = null;
+        advance(scheduler, 5);
+        assertEquals(2, launchCount("https://slow.test/"));
+    }
+
+    @Test
+    void addUpdatesTheLevelOfAKnownTargetAndRemoveStopsItsChecks() {
+        MonitorScheduler scheduler = scheduler(intervals(5, 5, 5), 0);
+        assertTrue(scheduler.add(LogLevel.INFO, "https://a.test/"));
+        assertTrue(scheduler.add(LogLevel.INFO, "https://b.test/"));
+        assertFalse(scheduler.add(LogLevel.CRITICAL, "https://a.test/"));
+        assertEquals(2, scheduler.size());
+
+        advance(scheduler, 5);
+        assertEquals(LogLevel.CRITICAL, lastLevel.get("https://a.test/"));
+        assertEquals(1, launchCount("https://a.test/"), "re-adding keeps the existing schedule");
+
+        assertTrue(scheduler.remove("https://a.test/"));
+        assertFalse(scheduler.remove("https://a.test/"));
+        assertFalse(scheduler.remove("https://unknown.test/"));
+        assertEquals(1, scheduler.size());
+
+        advance(scheduler, 50);
+        assertEquals(1, launchCount("https://a.test/"));
+        assertEquals(11, launchCount("https://b.test/"));
+    }
+
+    @Test
+    void checksOnItsOwnOnceStartedAndPausesWhenStopped() throws InterruptedException {
+        CountingLauncher launcher = new CountingLauncher();
+        MonitorScheduler scheduler = new MonitorScheduler(intervals(5, 5, 5), TICK, 0, launcher::launch, () -> { });
+        scheduler.add(LogLevel.CRITICAL, "https://a.test/");
+        scheduler.start();
+        try {
+            assertTrue(launcher.awaitLaunches(3, 5, TimeUnit.SECONDS));
+        } finally {
+            scheduler.stop();
+        }
+        int stoppedAt = launcher.count.get();
+        TimeUnit.MILLISECONDS.sleep(50);
+        // at most one launch that was already under way when stop() was called
+        assertTrue(launcher.count.get() <= stoppedAt + 1);
+    }
+
+    @Test
+    void rejectsBadSettings() {
+        assertThrows(IllegalArgumentException.class, () -> scheduler(intervals(1, 1, 1), 1.0));
+        assertThrows(IllegalArgumentException.class, () -> scheduler(intervals(1, 1, 1), -0.1));
+        assertThrows(IllegalArgumentException.class, () -> scheduler(intervals(1, 0, 1), 0));
+        Map<LogLevel, Duration> missing = intervals(1, 1, 1);
+        missing.remove(LogLevel.WARNING);
+        assertThrows(IllegalArgumentException.class, () -> scheduler(missing, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new MonitorScheduler(intervals(1, 1, 1), Duration.ZERO, 0, (_, _) -> null, () -> { }));
+    }
+
+    /** tickのスレッドから呼ばれる起動関数。起動回数を数え、待てるようにします */
+    private static final class CountingLauncher {
+        private final AtomicInteger count = new AtomicInteger();
+
+        private CompletableFuture<Boolean> launch(LogLevel level, String url) {
+            synchronized (this) {
+                count.incrementAndGet();
+                notifyAll();
+            }
+            return CompletableFuture.completedFuture(true);
+        }
+
+        private synchronized boolean awaitLaunches(int n, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (count.get() < n) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link ResultCache} のTTLによる失効、TinyLFUによる格納の判定、ファイルへの保存と復元を確かめます。
+ */
+class ResultCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private static Map<LogLevel, Duration> ttls(Duration critical, Duration warning, Duration info) {
+        Map<LogLevel, Duration> ttls = new EnumMap<>(LogLevel.class);
+        ttls.put(LogLevel.CRITICAL, critical);
+        ttls.put(LogLevel.WARNING, warning);
+        ttls.put(LogLevel.INFO, info);
+        return ttls;
+    }
+
+    private static ScanResult ok(String url, LogLevel level) {
+        return ScanResult.response(url, level, 200, 12_000_000L, 0);
+    }
+
+    @Test
+    void returnsAResultWithinItsTtlForAnyFormOfTheUrl() {
+        ResultCache cache = new ResultCache(100, ResultCache.defaultTtls());
+        ScanResult result = ok("https://Example.test:443/a", LogLevel.INFO);
+        cache.put(result);
+
+        assertEquals(result, cache.get("https://example.test/a"));
+        assertEquals(result, cache.get("example.test/a"));
+        assertNull(cache.get("https://example.test/b"));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void forgetsResultsOnceTheirLevelsTtlHasPassed() throws InterruptedException {
+        ResultCache cache = new ResultCache(100,
+                ttls(Duration.ofMillis(50), Duration.ofMinutes(5), Duration.ofMinutes(15)));
+        cache.put(ok("https://critical.test/", LogLevel.CRITICAL));
+        cache.put(ok("https://info.test/", LogLevel.INFO));
+        assertNotNull(cache.get("https://critical.test/"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("https://critical.test/"));
+        assertNotNull(cache.get("https://info.test/"));
+        assertEquals(1, cache.size(), "the expired entry is dropped when it is looked up");
+    }
+
+    @Test
+    void storesOnlyRespondedResultsOfLevelsWithATtl() {
+        ResultCache cache = new ResultCache(100, ttls(Duration.ZERO, Duration.ofMinutes(5), Duration.ofMinutes(15)));
+        cache.put(ok("https://critical.test/", LogLevel.CRITICAL));
+        cache.put(ScanResult.failure("https://down.test/", LogLevel.INFO, 1_000_000L, StatusClass.NETWORK_ERROR,
+                new ConnectException("refused")));
+        cache.put(ScanResult.response("https://error.test/", LogLevel.INFO, 503, 1_000_000L, 0));
+
+        assertNull(cache.get("https://critical.test/"));
+        assertNull(cache.get("https://down.test/"));
+        // a 5xx is still an answer from the server
+        assertNotNull(cache.get("https://error.test/"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void keepsFrequentEntriesWhenAOneOffUrlArrivesAtCapacity() {
+        ResultCache cache = new ResultCache(2, ResultCache.defaultTtls());
+        for (int i = 0; i < 3; i++) {
+            cache.get("https://a.test/");
+            cache.get("https://b.test/");
+        }
+        cache.put(ok("https://a.test/", LogLevel.INFO));
+        cache.put(ok("https://b.test/", LogLevel.INFO));
+
+        // seen once (the miss before the check): rarer than the eldest entry, so it is not admitted
+        assertNull(cache.get("https://once.test/"));
+        cache.put(ok("https://once.test/", LogLevel.INFO));
+        assertNull(cache.get("https://once.test/"));
+        assertNotNull(cache.get("https://a.test/"));
+        assertNotNull(cache.get("https://b.test/"));
+
+        // a URL that keeps coming back wins over the least recently used entry, here a
+        for (int i = 0; i < 10; i++) {
+            cache.get("https://hot.test/");
+        }
+        cache.put(ok("https://hot.test/", LogLevel.INFO));
+        assertNotNull(cache.get("https://hot.test/"));
+        assertNull(cache.get("https://a.test/"));
+        assertNotNull(cache.get("https://b.test/"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void alwaysAdmitsANewUrlInPlaceOfAnExpiredEntry() throws InterruptedException {
+        ResultCache cache = new ResultCache(1,
+                ttls(Duration.ofMillis(50), Duration.ofMinutes(5), Duration.ofMinutes(15)));
+        for (int i = 0; i < 10; i++) {
+            cache.get("https://popular.test/");
+        }
+        cache.put(ok("https://popular.test/", LogLevel.CRITICAL));
+
+        Thread.sleep(100);
+        cache.put(ok("https://new.test/", LogLevel.INFO));
+        assertNotNull(cache.get("https://new.test/"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void savesAndRestoresUnexpiredEntries() throws IOException, InterruptedException {
+        Path file = dir.resolve("cache.json");
+        ResultCache cache = new ResultCache(100,
+                ttls(Duration.ofMillis(50), Duration.ofMinutes(5), Duration.ofMinutes(15)));
+        cache.put(ok("https://short.test/", LogLevel.CRITICAL));
+        cache.put(ScanResult.response("https://kept.test/x", LogLevel.WARNING, 301, 34_000_000L, 2));
+        Thread.sleep(100);
+        cache.save(file);
+
+        ResultCache restored = new ResultCache(100, ResultCache.defaultTtls());
+        assertEquals(1, restored.load(file));
+        assertNull(restored.get("https://short.test/"));
+        ScanResult kept = restored.get("https://kept.test/x");
+        assertNotNull(kept);
+        assertEquals(LogLevel.WARNING, kept.level());
+        assertEquals(301, kept.statusCode());
+        assertEquals(StatusClass.REDIRECT, kept.statusClass());
+        assertEquals(34_000_000L, kept.latencyNanos());
+        assertEquals(2, kept.redirectCount());
+
+        assertEquals(0, new ResultCache(100, ResultCache.defaultTtls()).load(dir.resolve("missing.json")));
+    }
+}
@@ -0,0 +1,114 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link ResultStore#slowest(int)} が、すべての行を並べ替えた場合の先頭と同じ行を返すこと、
+ * 行がURLを {@link ScanResult#urlId()} だけで持つことを確かめます。
+ */
+class ResultStoreTest {
+
+    private static ResultStore storeWithLatencies(long... latencies) {
+        ResultStore store = new ResultStore();
+        for (int i = 0; i < latencies.length; i++) {
+            store.add(ScanResult.response("https://h" + i + ".test/", LogLevel.INFO, 200, latencies[i], 0));
+        }
+        return store;
+    }
+
+    /** 応答時間の長い順、同じ場合は行の番号の小さい順に並べた先頭 {@code k} 件 */
+    private static int[] expectedSlowest(ResultStore store, int k) {
+        return IntStream.range(0, store.size()).boxed()
+                .sorted(Comparator.comparingLong((Integer row) -> -store.latencyNanos(row))
+                        .thenComparingInt(row -> row))
+                .limit(k).mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    void keepsTheUrlIdOfEachResultAndResolvesItBack() {
+        ScanResult first = ScanResult.response("https://a.test/", LogLevel.INFO, 200, 10, 0);
+        ScanResult again = ScanResult.response("https://a.test/", LogLevel.CRITICAL, 503, 20, 0);
+        ScanResult other = ScanResult.response("https://b.test/", LogLevel.INFO, 200, 30, 0);
+        assertEquals(first.urlId(), again.urlId());
+        assertNotEquals(first.urlId(), other.urlId());
+
+        ResultStore store = new ResultStore();
+        store.add(first);
+        store.add(again);
+        store.add(other);
+
+        assertEquals(first.urlId(), store.urlId(1));
+        assertEquals("https://a.test/", store.url(1));
+        assertEquals("https://b.test/", store.url(2));
+        assertEquals(again, store.get(1));
+
+        // ids stay valid for results that outlive a cleared store
+        store.clear();
+        assertEquals("https://b.test/", other.url());
+    }
+
+    @Test
+    void lumpsErrorClassesPastTheTableUnderOther() {
+        ResultStore store = new ResultStore();
+        for (int i = 0; i < ResultStore.MAX_ERROR_CLASSES + 3; i++) {
+            store.add(new ScanResult("https://a.test/", LogLevel.INFO, -1, 1, StatusClass.NETWORK_ERROR, "Error" + i, 0));
+        }
+        store.add(ScanResult.response("https://a.test/", LogLevel.INFO, 200, 1, 0));
+
+        int last = ResultStore.MAX_ERROR_CLASSES - 1;
+        assertEquals("Error" + last, store.errorClass(last));
+        for (int row = ResultStore.MAX_ERROR_CLASSES; row < ResultStore.MAX_ERROR_CLASSES + 3; row++) {
+            assertEquals(ResultStore.OTHER_ERROR_CLASS, store.errorClass(row));
+        }
+        assertNull(store.errorClass(store.size() - 1));
+    }
+
+    @Test
+    void returnsTheSlowestRowsInDescendingOrder() {
+        ResultStore store = storeWithLatencies(30, 10, 50, 20, 40, 60, 5);
+
+        assertArrayEquals(new int[] { 5, 2, 4 }, store.slowest(3));
+    }
+
+    @Test
+    void breaksTiesByInsertionOrder() {
+        ResultStore store = storeWithLatencies(7, 9, 7, 9, 7, 9);
+
+        assertArrayEquals(new int[] { 1, 3, 5, 0 }, store.slowest(4));
+    }
+
+    @Test
+    void handlesFewerRowsThanRequestedAndAnEmptyStore() {
+        assertEquals(0, new ResultStore().slowest(5).length);
+        assertEquals(0, storeWithLatencies(1, 2).slowest(0).length);
+        assertArrayEquals(new int[] { 1, 0 }, storeWithLatencies(1, 2).slowest(5));
+    }
+
+    @Test
+    void matchesAFullSortOnRandomLatencies() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            long[] latencies = new long[1 + random.nextInt(2_000)];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = random.nextInt(500); // plenty of ties
+            }
+            ResultStore store = storeWithLatencies(latencies);
+            int k = 1 + random.nextInt(10);
+
+            assertArrayEquals(expectedSlowest(store, k), store.slowest(k), "round " + round);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link RetryPolicy} のやり直しの判定と、間隔が後半の範囲に収まること（equal jitter）を確かめます。
+ */
+class RetryPolicyTest {
+
+    private static final int SAMPLES = 2_000;
+    private static final long MS = 1_000_000L;
+
+    /** 1回分の間隔を多数回引き、すべてが {@code [ceiling/2, ceiling]} に収まり、その範囲の両端近くまで広がることを確かめます。 */
+    private static void assertEqualJitter(RetryPolicy policy, int retry, long ceiling) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            long delay = policy.backoffNanos(retry);
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling,
+                    "retry " + retry + ": " + delay + " outside [" + ceiling / 2 + ", " + ceiling + "]");
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        long spread = ceiling - ceiling / 2;
+        assertTrue(min < ceiling / 2 + spread / 10, "retry " + retry + " never went near the lower bound: " + min);
+        assertTrue(max > ceiling - spread / 10, "retry " + retry + " never went near the upper bound: " + max);
+    }
+
+    @Test
+    void delaysDoubleFromTheBaseWithinTheUpperHalf() {
+        RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(200), Duration.ofSeconds(2));
+
+        assertEqualJitter(policy, 1, 200 * MS);
+        assertEqualJitter(policy, 2, 400 * MS);
+        assertEqualJitter(policy, 3, 800 * MS);
+        assertEqualJitter(policy, 4, 1_600 * MS);
+    }
+
+    @Test
+    void delaysStopGrowingAtTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(100, Duration.ofMillis(200), Duration.ofSeconds(2));
+
+        assertEqualJitter(policy, 5, 2_000 * MS);
+        assertEqualJitter(policy, 40, 2_000 * MS);
+        assertEqualJitter(policy, 64, 2_000 * MS);
+        assertEqualJitter(policy, Integer.MAX_VALUE, 2_000 * MS);
+    }
+
+    @Test
+    void aLargeBaseDoesNotWrapAroundWhenShifted() {
+        // 2^34 + 1 ns shifted by 30 would wrap to 2^30 ns; the delay must stay at the maximum instead
+        RetryPolicy policy = new RetryPolicy(40, Duration.ofNanos((1L << 34) + 1), Duration.ofDays(365));
+
+        assertEqualJitter(policy, 31, Duration.ofDays(365).toNanos());
+    }
+
+    @Test
+    void aZeroBaseRetriesImmediately() {
+        RetryPolicy policy = new RetryPolicy(3, Duration.ZERO, Duration.ofSeconds(1));
+
+        assertEquals(0L, policy.backoffNanos(1));
+        assertEquals(0L, policy.backoffNanos(100));
+    }
+
+    @Test
+    void retriesOnlyFailuresWithoutAResponse() {
+        RetryPolicy policy = RetryPolicy.defaults();
+        String url = "https://a.test/";
+
+        assertTrue(policy.isRetryable(ScanResult.failure(url, LogLevel.INFO, 1, StatusClass.TIMEOUT,
+                new HttpTimeoutException("timed out"))));
+        assertTrue(policy.isRetryable(ScanResult.failure(url, LogLevel.INFO, 1, StatusClass.NETWORK_ERROR,
+                new ConnectException("refused"))));
+        assertFalse(policy.isRetryable(ScanResult.failure(url, LogLevel.INFO, 1, StatusClass.NETWORK_ERROR,
+                new UnknownHostException("a.test"))));
+        assertFalse(policy.isRetryable(ScanResult.response(url, LogLevel.INFO, 503, 1, 0)));
+        assertFalse(policy.isRetryable(ScanResult.response(url, LogLevel.INFO, 200, 1, 0)));
+        assertFalse(policy.isRetryable(null));
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(0, Duration.ZERO, Duration.ZERO));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetryPolicy(3, Duration.ofMillis(-1), Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetryPolicy(3, Duration.ofSeconds(2), Duration.ofSeconds(1)));
+    }
+}
@@ -0,0 +1,108 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link ScanStats} がレベルと分類ごとに数え、多数のスレッドから記録しても件数を失わないことを確かめます。
+ */
+class ScanStatsTest {
+
+    @Test
+    void countsEachCellAndSumsByLevelAndByClass() {
+        ScanStats stats = new ScanStats();
+        stats.record(LogLevel.CRITICAL, StatusClass.SUCCESS);
+        stats.record(LogLevel.CRITICAL, StatusClass.SUCCESS);
+        stats.record(LogLevel.CRITICAL, StatusClass.TIMEOUT);
+        stats.record(LogLevel.INFO, StatusClass.SUCCESS);
+        stats.record(LogLevel.INFO, StatusClass.SERVER_ERROR);
+        stats.record(LogLevel.WARNING, StatusClass.NETWORK_ERROR);
+
+        assertEquals(2, stats.count(LogLevel.CRITICAL, StatusClass.SUCCESS));
+        assertEquals(0, stats.count(LogLevel.WARNING, StatusClass.SUCCESS));
+        assertEquals(3, stats.count(LogLevel.CRITICAL));
+        assertEquals(2, stats.count(LogLevel.INFO));
+        assertEquals(3, stats.count(StatusClass.SUCCESS));
+        assertEquals(6, stats.total());
+    }
+
+    @Test
+    void countsOnlyRespondedClassesAsOnline() {
+        ScanStats stats = new ScanStats();
+        for (StatusClass status : StatusClass.values()) {
+            stats.record(LogLevel.INFO, status);
+        }
+        // 2xx, 3xx, 4xx and 5xx got an answer; timeout, error and cancelled did not
+        assertEquals(4, stats.online());
+        assertEquals(StatusClass.values().length, stats.total());
+    }
+
+    @Test
+    void resetClearsEveryCell() {
+        ScanStats stats = new ScanStats();
+        for (LogLevel level : LogLevel.values()) {
+            for (StatusClass status : StatusClass.values()) {
+                stats.record(level, status);
+            }
+        }
+        stats.reset();
+
+        assertEquals(0, stats.total());
+        assertEquals(0, stats.online());
+        for (LogLevel level : LogLevel.values()) {
+            assertEquals(0, stats.count(level));
+        }
+    }
+
+    @Test
+    void describesALevelOnOneLineInClassOrder() {
+        ScanStats stats = new ScanStats();
+        for (int i = 0; i < 10; i++) {
+            stats.record(LogLevel.CRITICAL, StatusClass.SUCCESS);
+        }
+        stats.record(LogLevel.CRITICAL, StatusClass.REDIRECT);
+        stats.record(LogLevel.CRITICAL, StatusClass.TIMEOUT);
+        stats.record(LogLevel.INFO, StatusClass.SUCCESS);
+
+        assertEquals("CRITICAL: 12 (2xx 10, 3xx 1, 4xx 0, 5xx 0, timeout 1, error 0, cancelled 0)",
+                stats.describe(LogLevel.CRITICAL));
+    }
+
+    @Test
+    void keepsExactTotalsUnderConcurrentRecording() throws InterruptedException {
+        ScanStats stats = new ScanStats();
+        int threads = 16;
+        int perThread = 10_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            LogLevel level = LogLevel.values()[t % LogLevel.values().length];
+            workers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    stats.record(level, StatusClass.values()[i % StatusClass.values().length]);
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals((long) threads * perThread, stats.total());
+        long byLevel = 0;
+        for (LogLevel level : LogLevel.values()) {
+            byLevel += stats.count(level);
+        }
+        long byClass = 0;
+        for (StatusClass status : StatusClass.values()) {
+            byClass += stats.count(status);
+        }
+        assertEquals(stats.total(), byLevel);
+        assertEquals(stats.total(), byClass);
+    }
+}
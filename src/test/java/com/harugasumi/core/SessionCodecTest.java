@@ -0,0 +1,157 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * {@link SessionCodec} のバイナリ形式について、可変長整数の境界を含む往復と、途中で切れたファイルの扱い、
+ * 読み込んだ直後に同じファイルを書き直せることを確かめます。
+ */
+class SessionCodecTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<String> flatten(List<LinkEntries> entries) {
+        List<String> flat = new ArrayList<>(entries.size());
+        for (LinkEntries entry : entries) {
+            flat.add(entry.getLevel() + "|" + entry.getURL());
+        }
+        return flat;
+    }
+
+    private List<LinkEntries> roundTrip(List<LinkEntries> entries) throws IOException {
+        Path file = dir.resolve("session.bin");
+        SessionCodec.writeBinary(entries, file);
+        assertTrue(SessionCodec.isBinary(file));
+        return SessionCodec.readBinary(file);
+    }
+
+    @Test
+    void roundTripsStringLengthsAcrossVarintByteBoundaries() throws IOException {
+        List<LinkEntries> entries = new ArrayList<>();
+        // 1, 2 and 3 byte varint lengths, on both sides of each boundary
+        for (int length : new int[] { 0, 1, 127, 128, 16_383, 16_384, 200_000 }) {
+            entries.add(new LinkEntries("INFO", "x".repeat(length)));
+        }
+        // multi-byte UTF-8: the stored length is in bytes, not chars
+        entries.add(new LinkEntries("警告", "https://例え.テスト/パス/" + "あ".repeat(50)));
+
+        assertEquals(flatten(entries), flatten(roundTrip(entries)));
+    }
+
+    @Test
+    void roundTripsCountsAndReferencesAboveOneVarintByte() throws IOException {
+        List<LinkEntries> entries = new ArrayList<>();
+        String[] levels = { "CRITICAL", "WARNING", "INFO", "custom" };
+        for (int i = 0; i < 20_000; i++) {
+            // every third entry repeats an earlier url, so the url table is smaller than the entry list
+            int id = i % 3 == 2 ? i - 1 : i;
+            entries.add(new LinkEntries(levels[i % levels.length], "https://host" + (id % 700) + ".test/" + id));
+        }
+
+        assertEquals(flatten(entries), flatten(roundTrip(entries)));
+    }
+
+    @Test
+    void roundTripsNullLevelsAndUrls() throws IOException {
+        List<LinkEntries> entries = List.of(new LinkEntries(null, "https://a.test/"),
+                new LinkEntries("INFO", null), new LinkEntries(null, null), new LinkEntries("INFO", "https://a.test/"));
+
+        assertEquals(flatten(entries), flatten(roundTrip(entries)));
+    }
+
+    @Test
+    void convertsToJsonAndBackWithoutLoss() throws IOException {
+        List<LinkEntries> entries = List.of(new LinkEntries("CRITICAL", "https://a.test/"),
+                new LinkEntries("notALevel", "https://b.test/ü"), new LinkEntries("INFO", "https://a.test/"));
+        Path first = dir.resolve("first.bin");
+        Path json = dir.resolve("session.json");
+        Path second = dir.resolve("second.bin");
+        SessionCodec.writeBinary(entries, first);
+
+        SessionCodec.binaryToJson(first, json);
+        SessionCodec.jsonToBinary(json, second);
+
+        assertFalse(SessionCodec.isBinary(json));
+        assertEquals(flatten(entries), flatten(SessionCodec.readBinary(second)));
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+
+    @Test
+    void rewritesAndDeletesTheFileRightAfterReadingIt() throws IOException {
+        // loadData followed by registerData in the same process; a mapped read would keep the file
+        // locked on Windows until the buffer was garbage collected
+        Path file = dir.resolve("session.bin");
+        List<LinkEntries> first = List.of(new LinkEntries("INFO", "https://a.test/"));
+        List<LinkEntries> second = List.of(new LinkEntries("CRITICAL", "https://b.test/"),
+                new LinkEntries("INFO", "https://a.test/"));
+        SessionCodec.writeBinary(first, file);
+        assertEquals(flatten(first), flatten(SessionCodec.readBinary(file)));
+
+        SessionCodec.writeBinary(second, file);
+        assertEquals(flatten(second), flatten(SessionCodec.readBinary(file)));
+
+        Files.delete(file);
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void rejectsEveryTruncationWithAnIOException() throws IOException {
+        List<LinkEntries> entries = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            entries.add(new LinkEntries(i % 2 == 0 ? "INFO" : "CRITICAL", "https://h" + i + ".test/" + "p".repeat(i)));
+        }
+        Path full = dir.resolve("full.bin");
+        SessionCodec.writeBinary(entries, full);
+        byte[] bytes = Files.readAllBytes(full);
+        Path cut = dir.resolve("cut.bin");
+
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(cut, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> SessionCodec.readBinary(cut), "truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsACorruptLengthWithoutAllocatingIt() throws IOException {
+        Path file = dir.resolve("corrupt.bin");
+        SessionCodec.writeBinary(List.of(new LinkEntries("INFO", "https://a.test/")), file);
+        byte[] bytes = Files.readAllBytes(file);
+        // magic(4) + version(1) + level count(1) + level length(1) + "INFO"(4): next is the url count varint
+        byte[] corrupt = new byte[bytes.length + 4];
+        System.arraycopy(bytes, 0, corrupt, 0, 11);
+        // five varint bytes decoding to a negative count, then the rest of the file
+        corrupt[11] = (byte) 0xFF;
+        corrupt[12] = (byte) 0xFF;
+        corrupt[13] = (byte) 0xFF;
+        corrupt[14] = (byte) 0xFF;
+        corrupt[15] = (byte) 0x0F;
+        System.arraycopy(bytes, 12, corrupt, 16, bytes.length - 12);
+        Files.write(file, corrupt);
+
+        assertThrows(IOException.class, () -> SessionCodec.readBinary(file));
+    }
+
+    @Test
+    void rejectsAFileWithoutTheMagicNumber() throws IOException {
+        Path file = dir.resolve("not-binary.bin");
+        Files.writeString(file, "[{\"level\":\"INFO\",\"url\":\"https://a.test/\"}]");
+
+        assertFalse(SessionCodec.isBinary(file));
+        assertThrows(IOException.class, () -> SessionCodec.readBinary(file));
+    }
+}
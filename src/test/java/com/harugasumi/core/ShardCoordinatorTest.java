@@ -0,0 +1,174 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * ループバック上の模擬ワーカーを使って、{@link ShardCoordinator} の割り当てと割り当て直しを確かめます。
+ */
+class ShardCoordinatorTest {
+
+    private static final int HOSTS = 12;
+    private static final int URLS_PER_HOST = 5;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * 行単位のプロトコルを話す模擬ワーカーです。
+     * {@code answerLimit} 件に答えた後、次の対象を受け取った時点で接続を切ります（{@code -1} の場合は切りません）。
+     */
+    private static final class FakeWorker {
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private final int answerLimit;
+
+        private FakeWorker(int answerLimit) {
+            this.answerLimit = answerLimit;
+        }
+
+        private void connect(int port) {
+            Thread.ofPlatform().daemon().start(() -> {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (answerLimit >= 0 && received.size() >= answerLimit) {
+                            return; // die with work still assigned
+                        }
+                        int eq = line.indexOf('=');
+                        String url = line.substring(eq + 1);
+                        received.add(url);
+                        out.write("{\"url\":\"" + url + "\",\"level\":\"" + line.substring(0, eq)
+                                + "\",\"status\":200,\"class\":\"SUCCESS\",\"latencyMs\":1.0,\"redirects\":0}\n");
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    // the coordinator closed the connection
+                }
+            });
+        }
+    }
+
+    private TaskEngine engine;
+    private ShardCoordinator coordinator;
+    private TargetTable targets;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        engine = new TaskEngine();
+        coordinator = new ShardCoordinator(engine, null, 0);
+        targets = new TargetTable();
+        for (int h = 0; h < HOSTS; h++) {
+            for (int u = 0; u < URLS_PER_HOST; u++) {
+                targets.add(LogLevel.values()[h % LogLevel.values().length], "https://host" + h + ".test/page" + u);
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        coordinator.close();
+        engine.stop();
+    }
+
+    private void start(FakeWorker... workers) throws IOException {
+        for (FakeWorker worker : workers) {
+            worker.connect(coordinator.getPort());
+        }
+        coordinator.awaitWorkers(workers.length, TIMEOUT);
+    }
+
+    private static Map<String, Integer> hostOwners(FakeWorker... workers) {
+        Map<String, Integer> owners = new HashMap<>();
+        for (int w = 0; w < workers.length; w++) {
+            for (String url : workers[w].received) {
+                Integer previous = owners.put(URI.create(url).getHost(), w);
+                assertTrue(previous == null || previous == w, "host split across workers: " + url);
+            }
+        }
+        return owners;
+    }
+
+    @Test
+    void sendsEachHostToOneWorkerAndCollectsEveryResult() throws Exception {
+        FakeWorker a = new FakeWorker(-1);
+        FakeWorker b = new FakeWorker(-1);
+        start(a, b);
+
+        assertTrue(coordinator.run(targets, TIMEOUT));
+
+        assertEquals(targets.size(), a.received.size() + b.received.size());
+        assertEquals(HOSTS, hostOwners(a, b).size());
+        assertFalse(a.received.isEmpty() || b.received.isEmpty(), "one worker got nothing");
+        assertEquals(targets.size(), engine.getStats().total());
+        assertEquals(targets.size(), engine.getStats().online());
+    }
+
+    @Test
+    void reassignsOnlyUnfinishedTargetsWhenAWorkerDies() throws Exception {
+        FakeWorker dying = new FakeWorker(2);
+        FakeWorker survivor = new FakeWorker(-1);
+        start(dying, survivor);
+
+        assertTrue(coordinator.run(targets, TIMEOUT));
+
+        // every target was answered exactly once, including the ones the dead worker never finished
+        Set<String> answered = new HashSet<>(dying.received);
+        for (String url : survivor.received) {
+            assertTrue(answered.add(url), "answered twice: " + url);
+        }
+        assertEquals(targets.size(), answered.size());
+        assertEquals(targets.size(), engine.getStats().total());
+        assertEquals(targets.size(), engine.getStats().online());
+        assertEquals(0, engine.getStats().count(StatusClass.CANCELLED));
+
+        String description = coordinator.describe();
+        assertTrue(description.contains("lost 1"), description);
+        Matcher moved = Pattern.compile("reassigned (\\d+) targets").matcher(description);
+        assertTrue(moved.find(), description);
+        // only the dead worker's unanswered targets move; the survivor keeps its own hosts
+        long reassigned = Long.parseLong(moved.group(1));
+        assertTrue(reassigned > 0 && reassigned <= targets.size() - dying.received.size() - URLS_PER_HOST,
+                description);
+    }
+
+    @Test
+    void cancelsTargetsWhenEveryWorkerDies() throws Exception {
+        FakeWorker only = new FakeWorker(3);
+        start(only);
+
+        assertFalse(coordinator.run(targets, TIMEOUT));
+
+        assertEquals(3, only.received.size());
+        assertEquals(targets.size(), engine.getStats().total());
+        assertEquals(3, engine.getStats().online());
+        assertEquals(targets.size() - 3, engine.getStats().count(StatusClass.CANCELLED));
+    }
+}
@@ -0,0 +1,183 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.harugasumi.core.StateLog.Transition;
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link StateLog} の状態の比較、途中で切れた最後の行からの復元、コンパクションを確かめます。
+ */
+class StateLogTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() {
+        file = dir.resolve("state.jsonl");
+    }
+
+    private static ScanResult up(String url, int status) {
+        return ScanResult.response(url, LogLevel.INFO, status, 1_000, 0);
+    }
+
+    private static ScanResult down(String url, StatusClass statusClass) {
+        return ScanResult.failure(url, LogLevel.INFO, 1_000, statusClass, new HttpTimeoutException("timed out"));
+    }
+
+    /** ファイルの空でない行を返し、すべてがJSONとして読めることを確かめます。 */
+    private List<JsonNode> lines() throws IOException {
+        List<JsonNode> nodes = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                nodes.add(MAPPER.readTree(line));
+            }
+        }
+        return nodes;
+    }
+
+    @Test
+    void reportsOnlyChangesOfState() throws IOException {
+        try (StateLog log = StateLog.open(file)) {
+            Transition first = log.record(up("https://a.test/", 200));
+            assertNotNull(first);
+            assertTrue(first.isNew());
+
+            assertNull(log.record(up("https://a.test/", 200)));
+            assertNull(log.record(ScanResult.failure("https://a.test/", LogLevel.INFO, 1, StatusClass.CANCELLED,
+                    new InterruptedException())));
+
+            Transition changed = log.record(up("https://a.test/", 503));
+            assertEquals(200, changed.previousStatus());
+            assertEquals(503, changed.currentStatus());
+            assertFalse(changed.wentDown() || changed.cameUp());
+
+            Transition wentDown = log.record(down("https://a.test/", StatusClass.TIMEOUT));
+            assertTrue(wentDown.wentDown());
+            assertEquals(-1, wentDown.currentStatus());
+
+            // still no response, just a different failure: not a change of state
+            assertNull(log.record(down("https://a.test/", StatusClass.NETWORK_ERROR)));
+
+            assertTrue(log.record(up("https://a.test/", 200)).cameUp());
+            assertEquals(1, log.size());
+            assertEquals(4, log.records());
+        }
+        assertEquals(4, lines().size());
+    }
+
+    @Test
+    void restoresTheLastStateOfEachUrlWhenReopened() throws IOException {
+        try (StateLog log = StateLog.open(file)) {
+            log.record(up("https://a.test/", 200));
+            log.record(up("https://b.test/", 200));
+            log.record(up("https://a.test/", 404));
+        }
+
+        try (StateLog log = StateLog.open(file)) {
+            assertEquals(2, log.size());
+            assertNull(log.record(up("https://a.test/", 404)));
+            assertNull(log.record(up("https://b.test/", 200)));
+            Transition wentDown = log.record(down("https://b.test/", StatusClass.TIMEOUT));
+            assertEquals(StatusClass.SUCCESS, wentDown.previousClass());
+            assertTrue(wentDown.previousSince() > 0);
+        }
+    }
+
+    @Test
+    void replaysPastATornLastLineAndRewritesTheFile() throws IOException {
+        try (StateLog log = StateLog.open(file)) {
+            log.record(up("https://a.test/", 200));
+            log.record(up("https://b.test/", 200));
+            log.record(up("https://c.test/", 200));
+        }
+        // a crash in the middle of the next append
+        String torn = "{\"url\":\"https://d.test/\",\"level\":\"INFO\",\"statusCl";
+        Files.writeString(file, torn, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (StateLog log = StateLog.open(file)) {
+            assertEquals(3, log.size());
+            assertEquals(3, log.records());
+            assertNull(log.record(up("https://c.test/", 200)));
+            assertNotNull(log.record(up("https://d.test/", 200)));
+        }
+
+        // the torn bytes are gone and the new line did not get glued onto them
+        List<JsonNode> lines = lines();
+        assertEquals(4, lines.size());
+        assertEquals("https://d.test/", lines.get(3).get("url").asText());
+        try (StateLog log = StateLog.open(file)) {
+            assertEquals(4, log.size());
+            assertEquals(4, log.records());
+        }
+    }
+
+    @Test
+    void compactsWhileRecordingSoTheFileTracksTheNumberOfUrls() throws IOException {
+        int urls = 10;
+        int flips = 300;
+        try (StateLog log = StateLog.open(file)) {
+            for (int f = 0; f < flips; f++) {
+                for (int u = 0; u < urls; u++) {
+                    log.record(up("https://h" + u + ".test/", f % 2 == 0 ? 200 : 500));
+                }
+                assertTrue(log.records() <= 1024, "records " + log.records());
+            }
+            log.flush();
+            assertEquals(log.records(), lines().size());
+        }
+
+        try (StateLog log = StateLog.open(file)) {
+            assertEquals(urls, log.size());
+            int last = (flips - 1) % 2 == 0 ? 200 : 500;
+            for (int u = 0; u < urls; u++) {
+                assertNull(log.record(up("https://h" + u + ".test/", last)));
+            }
+        }
+    }
+
+    @Test
+    void compactsALongHistoryWhenOpened() throws IOException {
+        StringBuilder history = new StringBuilder();
+        for (int i = 0; i < 3_000; i++) {
+            history.append("{\"url\":\"https://a.test/\",\"level\":\"INFO\",\"statusClass\":\"SUCCESS\",\"status\":")
+                    .append(i % 2 == 0 ? 200 : 201).append(",\"since\":").append(i + 1).append("}\n");
+        }
+        Files.writeString(file, history, StandardCharsets.UTF_8);
+
+        try (StateLog log = StateLog.open(file)) {
+            assertEquals(1, log.size());
+            assertEquals(1, log.records());
+            assertNull(log.record(up("https://a.test/", 201)));
+        }
+        List<JsonNode> lines = lines();
+        assertEquals(1, lines.size());
+        assertEquals(3_000, lines.get(0).get("since").asLong());
+    }
+}
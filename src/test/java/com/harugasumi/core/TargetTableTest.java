@@ -0,0 +1,99 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * {@link TargetTable#normalize(String)} の規則と、重複した対象が最も高いレベルで1件にまとまることを確かめます。
+ */
+class TargetTableTest {
+
+    @Test
+    void normalizesCaseDefaultPortsSlashesAndFragments() {
+        assertEquals("https://example.test/", TargetTable.normalize("HTTPS://Example.TEST"));
+        assertEquals("https://example.test/", TargetTable.normalize("  example.test  "));
+        assertEquals("https://example.test/", TargetTable.normalize("https://example.test.:443/"));
+        assertEquals("http://example.test/", TargetTable.normalize("http://example.test:80"));
+        assertEquals("http://example.test:8080/", TargetTable.normalize("http://example.test:8080/"));
+        assertEquals("https://example.test/a/c", TargetTable.normalize("https://example.test/a/./b/../c/"));
+        assertEquals("https://example.test/a", TargetTable.normalize("https://example.test/a#section"));
+        assertEquals("https://example.test/a", TargetTable.normalize("https://example.test/a?"));
+        assertEquals("https://example.test/a?q=1", TargetTable.normalize("https://example.test/a?q=1#top"));
+        // paths and queries keep their case
+        assertEquals("https://example.test/Path?Q=A", TargetTable.normalize("https://EXAMPLE.test/Path?Q=A"));
+    }
+
+    @Test
+    void leavesUnparsableUrlsTrimmedButOtherwiseAsTheyAre() {
+        assertEquals("http://exa mple.test/", TargetTable.normalize(" http://exa mple.test/ "));
+    }
+
+    @Test
+    void mergesDuplicatesAndKeepsTheHighestLevel() {
+        TargetTable table = new TargetTable();
+        TargetTable.Added first = table.add(LogLevel.INFO, "https://example.test/a");
+        assertTrue(first.added());
+        assertTrue(first.changed());
+
+        TargetTable.Added upgraded = table.add(LogLevel.CRITICAL, "EXAMPLE.test/a/");
+        assertEquals(first.id(), upgraded.id());
+        assertFalse(upgraded.added());
+        assertTrue(upgraded.upgraded());
+
+        TargetTable.Added lower = table.add(LogLevel.WARNING, "https://example.test:443/a#x");
+        assertEquals(first.id(), lower.id());
+        assertFalse(lower.changed(), "a lower level never replaces a higher one");
+
+        assertEquals(1, table.size());
+        assertEquals(2, table.duplicates());
+        assertEquals(LogLevel.CRITICAL, table.level(first.id()));
+        assertEquals("https://example.test/a", table.url(first.id()));
+    }
+
+    @Test
+    void sharesEachOriginAndFindsTargetsByAnyFormOfTheirUrl() {
+        TargetTable table = new TargetTable();
+        table.add(LogLevel.INFO, "https://a.test/");
+        table.add(LogLevel.INFO, "https://a.test/x");
+        table.add(LogLevel.INFO, "http://a.test/");
+        table.add(LogLevel.INFO, "https://b.test");
+
+        assertEquals(4, table.size());
+        assertEquals(3, table.origins());
+        assertEquals(1, table.find("A.TEST/x/"));
+        assertEquals(-1, table.find("https://a.test/y"));
+        assertEquals(-1, table.find("https://c.test/"));
+    }
+
+    @Test
+    void keepsIdsAndLevelsAcrossGrowth() {
+        TargetTable table = new TargetTable();
+        int n = 10_000;
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, table.add(LogLevel.INFO, "https://h" + (i % 100) + ".test/p" + i).id());
+        }
+        for (int i = 0; i < n; i += 2) {
+            table.add(LogLevel.WARNING, "https://H" + (i % 100) + ".test/p" + i + "/");
+        }
+
+        assertEquals(n, table.size());
+        assertEquals(n / 2, table.duplicates());
+        assertEquals(100, table.origins());
+        List<String> seen = new ArrayList<>();
+        table.forEach((level, url) -> {
+            int id = seen.size();
+            assertEquals(id % 2 == 0 ? LogLevel.WARNING : LogLevel.INFO, level);
+            assertEquals("https://h" + (id % 100) + ".test/p" + id, url);
+            seen.add(url);
+        });
+        assertEquals(n, seen.size());
+    }
+}
@@ -0,0 +1,163 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * {@link ExecutionMode#ASYNC} のエンジンが未完了のリクエスト数を上限で抑え、許可を待つ間もエンジンのロックを持たないことを確かめます。
+ */
+class TaskEngineAsyncTest {
+
+    /** 開始されたリクエストの応答。テストが完了させるまで未完了のままです。 */
+    private final LinkedBlockingQueue<CompletableFuture<Boolean>> started = new LinkedBlockingQueue<>();
+    private TaskEngine engine;
+
+    private final class PendingTask implements AsyncTask {
+        @Override
+        public CompletableFuture<Boolean> callAsync() {
+            CompletableFuture<Boolean> response = new CompletableFuture<>();
+            started.add(response);
+            return response;
+        }
+
+        @Override
+        public Boolean call() {
+            throw new AssertionError("an AsyncTask must not be run on a worker thread");
+        }
+
+        @Override
+        public int getPriority() {
+            return LogLevel.INFO.getValue();
+        }
+
+        @Override
+        public void setLogger(Consumer<String> logger) {
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(response -> response.complete(true));
+        engine.stop();
+    }
+
+    private List<CompletableFuture<Boolean>> addTasks(int count) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(engine.addTask(new PendingTask()));
+        }
+        return results;
+    }
+
+    private Thread executeInBackground() {
+        Thread submitter = new Thread(() -> engine.executeAll(_ -> { }), "test-submitter");
+        submitter.start();
+        return submitter;
+    }
+
+    private CompletableFuture<Boolean> nextStarted() throws InterruptedException {
+        CompletableFuture<Boolean> response = started.poll(5, TimeUnit.SECONDS);
+        assertTrue(response != null, "no request was started");
+        return response;
+    }
+
+    @Test
+    void keepsTheInFlightRequestsAtTheLimit() throws Exception {
+        engine = new TaskEngine(ExecutionMode.ASYNC, 2);
+        List<CompletableFuture<Boolean>> results = addTasks(5);
+        Thread submitter = executeInBackground();
+
+        CompletableFuture<Boolean> first = nextStarted();
+        CompletableFuture<Boolean> second = nextStarted();
+        Thread.sleep(200);
+        assertEquals(0, started.size(), "a third request started while two were in flight");
+        assertEquals(2, engine.getBusySlots());
+
+        first.complete(true);
+        CompletableFuture<Boolean> third = nextStarted();
+        Thread.sleep(100);
+        assertEquals(0, started.size());
+
+        third.complete(true);
+        nextStarted().complete(true);
+        nextStarted().complete(true);
+        second.complete(true);
+        submitter.join(5_000);
+        assertFalse(submitter.isAlive());
+        for (CompletableFuture<Boolean> result : results) {
+            assertEquals(Boolean.TRUE, result.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void settingsAndStopAreNotHeldUpByASubmitterWaitingForAPermit() throws Exception {
+        engine = new TaskEngine(ExecutionMode.ASYNC, 1);
+        List<CompletableFuture<Boolean>> results = addTasks(3);
+        Thread submitter = executeInBackground();
+        CompletableFuture<Boolean> first = nextStarted();
+        Thread.sleep(100); // the submitter is now waiting for the only permit
+
+        CompletableFuture<Void> settings = CompletableFuture.runAsync(() -> {
+            engine.setAging(Duration.ofSeconds(5), 4);
+            engine.stop();
+        });
+        settings.get(5, TimeUnit.SECONDS);
+
+        submitter.join(5_000);
+        assertFalse(submitter.isAlive(), "executeAll kept waiting after stop()");
+        assertTrue(results.get(1).isCancelled());
+        assertTrue(results.get(2).isCancelled());
+        assertEquals(0, engine.getQueued());
+        assertFalse(first.isDone(), "the request already in flight is left to finish");
+
+        // the engine takes the next scan once the old request hands its permit back
+        first.complete(true);
+        assertEquals(Boolean.TRUE, results.get(0).get(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> next = engine.addTask(new PendingTask());
+        engine.executeAll(_ -> { });
+        nextStarted().complete(true);
+        assertEquals(Boolean.TRUE, next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void tasksWithoutAnAsyncPathRunOnVirtualWorkers() throws Exception {
+        engine = new TaskEngine(ExecutionMode.ASYNC, 2);
+        CompletableFuture<Boolean> ranOnVirtual = new CompletableFuture<>();
+        CompletableFuture<Boolean> result = engine.addTask(new Task() {
+            @Override
+            public Boolean call() {
+                ranOnVirtual.complete(Thread.currentThread().isVirtual());
+                return true;
+            }
+
+            @Override
+            public int getPriority() {
+                return LogLevel.INFO.getValue();
+            }
+
+            @Override
+            public void setLogger(Consumer<String> logger) {
+            }
+        });
+
+        engine.executeAll(_ -> { });
+
+        assertEquals(Boolean.TRUE, result.get(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, ranOnVirtual.get(5, TimeUnit.SECONDS));
+        assertTrue(started.isEmpty());
+    }
+}
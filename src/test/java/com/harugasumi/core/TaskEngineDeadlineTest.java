@@ -0,0 +1,201 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 期限を過ぎたスキャンのタスクがキャンセルされてスレッドを手放すこと、
+ * {@link TaskEngine#stop()} の後も同じエンジンで次のスキャンを実行できることを確かめます。
+ */
+class TaskEngineDeadlineTest {
+
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger interrupted = new AtomicInteger();
+    private final AtomicLong lastDeadline = new AtomicLong();
+    /** テストが開くまで、実行中のタスクを止めておく門 */
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private TaskEngine engine;
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    /** 門が開くまで待つ、ブロッキングI/Oの代わりのタスクです。割り込まれたことを数えます。 */
+    private final class BlockingTask implements Task {
+        @Override
+        public Boolean call() {
+            started.incrementAndGet();
+            try {
+                return gate.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return LogLevel.INFO.getValue();
+        }
+
+        @Override
+        public void setLogger(Consumer<String> logger) {
+        }
+
+        @Override
+        public void setDeadline(long deadlineNanos) {
+            lastDeadline.set(deadlineNanos);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        if (engine != null) {
+            engine.stop();
+        }
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdownNow();
+        }
+    }
+
+    private List<CompletableFuture<Boolean>> submit(int tasks) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            results.add(engine.addTask(new BlockingTask()));
+        }
+        engine.executeAll(_ -> { });
+        return results;
+    }
+
+    private void awaitStarted(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (started.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, started.get());
+    }
+
+    @Test
+    void cancelsQueuedAndRunningTasksWhenTheWaitRunsOut() throws Exception {
+        engine = new TaskEngine(ExecutionMode.PLATFORM, 2);
+        List<CompletableFuture<Boolean>> results = submit(6);
+        awaitStarted(2);
+
+        long begin = System.nanoTime();
+        engine.waitForCompletion(300, TimeUnit.MILLISECONDS);
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(5));
+
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.isCancelled());
+        }
+        assertEquals(6, engine.getStats().count(StatusClass.CANCELLED));
+        // the two running tasks were interrupted out of their blocking wait, freeing both threads
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (interrupted.get() < 2 && System.nanoTime() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, interrupted.get());
+        assertEquals(2, started.get(), "queued tasks were started after the timeout");
+        assertEquals(0, engine.getOutstanding());
+    }
+
+    @Test
+    void passesTheDeadlineToEachTaskAndCancelsTasksWhoseTurnComesTooLate() throws Exception {
+        engine = new TaskEngine(ExecutionMode.PLATFORM, 1);
+        long expected = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        engine.setDeadline(Duration.ofMillis(200));
+        List<CompletableFuture<Boolean>> results = submit(3);
+        awaitStarted(1);
+        long slack = TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(Math.abs(lastDeadline.get() - expected) < slack, "deadline was not handed to the task");
+
+        Thread.sleep(300);
+        gate.countDown();
+        assertEquals(Boolean.TRUE, results.get(0).get(5, TimeUnit.SECONDS));
+        for (CompletableFuture<Boolean> queued : results.subList(1, 3)) {
+            try {
+                queued.get(5, TimeUnit.SECONDS);
+            } catch (CancellationException e) {
+                // expected: the deadline passed before the task got a thread
+            }
+            assertTrue(queued.isCancelled());
+        }
+        assertEquals(1, started.get());
+        engine.clearDeadline();
+    }
+
+    @Test
+    void cutsTheRequestTimeoutShortAtTheDeadline() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                gate.await(30, TimeUnit.SECONDS);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        engine = new TaskEngine(ExecutionMode.PLATFORM, 2);
+        engine.setDeadline(Duration.ofMillis(300));
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+        long begin = System.nanoTime();
+        CompletableFuture<Boolean> result = engine.addTask(new HttpCheckTask(LogLevel.INFO, url));
+        engine.executeAll(_ -> { });
+        assertFalse(result.get(5, TimeUnit.SECONDS));
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        // the task's own timeout is 3 s; the deadline ends it well before that
+        assertTrue(tookMillis < 2_000, "took " + tookMillis + " ms");
+        assertEquals(1, engine.getStats().count(StatusClass.TIMEOUT));
+        engine.clearDeadline();
+    }
+
+    @Test
+    void runsTheNextScanOnTheSameEngineAfterStop() throws Exception {
+        engine = new TaskEngine(ExecutionMode.PLATFORM, 2);
+        gate.countDown();
+        for (CompletableFuture<Boolean> result : submit(4)) {
+            assertEquals(Boolean.TRUE, result.get(5, TimeUnit.SECONDS));
+        }
+
+        CompletableFuture<Boolean> neverSent = engine.addTask(new BlockingTask());
+        engine.stop();
+        assertTrue(neverSent.isCancelled(), "tasks staged but not sent are cancelled by stop()");
+
+        started.set(0);
+        List<CompletableFuture<Boolean>> next = submit(4);
+        for (CompletableFuture<Boolean> result : next) {
+            assertEquals(Boolean.TRUE, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(4, started.get());
+        assertEquals(0, engine.getRunning());
+    }
+}
@@ -0,0 +1,139 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+
+/**
+ * {@link TaskEngine} のやり直しが、ホスト単位の制限（{@link TaskEngine#setHostPoliteness}）を守ることを確かめます。
+ */
+class TaskEngineRetryTest {
+
+    private static final String HOST = "a.test";
+
+    /** 全試行の開始時刻（{@link System#nanoTime()}） */
+    private final ConcurrentLinkedQueue<Long> starts = new ConcurrentLinkedQueue<>();
+    private TaskEngine engine;
+
+    /**
+     * 最初の {@code failures} 回は接続エラー、その後は200を返すタスクです。
+     */
+    private final class FlakyTask implements Task {
+        private final int failures;
+        private final AtomicInteger attempts = new AtomicInteger();
+        private volatile ScanResult last;
+
+        private FlakyTask(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Boolean call() {
+            starts.add(System.nanoTime());
+            String url = "https://" + HOST + "/" + System.identityHashCode(this);
+            if (attempts.incrementAndGet() <= failures) {
+                last = ScanResult.failure(url, LogLevel.INFO, 1, StatusClass.NETWORK_ERROR, new ConnectException());
+                return false;
+            }
+            last = ScanResult.response(url, LogLevel.INFO, 200, 1, 0);
+            return true;
+        }
+
+        @Override
+        public int getPriority() {
+            return LogLevel.INFO.getValue();
+        }
+
+        @Override
+        public void setLogger(Consumer<String> logger) {
+        }
+
+        @Override
+        public String getHost() {
+            return HOST;
+        }
+
+        @Override
+        public ScanResult getLastResult() {
+            return last;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        engine = new TaskEngine();
+        engine.setRetryPolicy(new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(10)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    @Test
+    void retriesQueueBehindTheHostLimitAndInterval() throws Exception {
+        long intervalMillis = 150;
+        engine.setHostPoliteness(1, Duration.ofMillis(intervalMillis));
+        List<FlakyTask> tasks = List.of(new FlakyTask(1), new FlakyTask(1), new FlakyTask(1));
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (FlakyTask task : tasks) {
+            results.add(engine.addTask(task));
+        }
+
+        engine.executeAll(_ -> { });
+
+        // with one slot per host, a retry that kept its slot while waiting would never start
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        for (FlakyTask task : tasks) {
+            assertEquals(2, task.attempts.get());
+        }
+        List<Long> sorted = starts.stream().sorted().toList();
+        assertEquals(6, sorted.size());
+        for (int i = 1; i < sorted.size(); i++) {
+            long gapMillis = TimeUnit.NANOSECONDS.toMillis(sorted.get(i) - sorted.get(i - 1));
+            assertTrue(gapMillis >= intervalMillis - 10, "attempts " + gapMillis + " ms apart");
+        }
+    }
+
+    @Test
+    void retriesStillRunWithoutAHostLimit() throws Exception {
+        FlakyTask task = new FlakyTask(2);
+        CompletableFuture<Boolean> result = engine.addTask(task);
+
+        engine.executeAll(_ -> { });
+
+        assertTrue(result.get(10, TimeUnit.SECONDS));
+        assertEquals(3, task.attempts.get());
+    }
+
+    @Test
+    void retriesAfterAStopStillRunOnTheNewPool() throws Exception {
+        engine.stop();
+        FlakyTask task = new FlakyTask(1);
+        CompletableFuture<Boolean> result = engine.addTask(task);
+
+        engine.executeAll(_ -> { });
+
+        assertTrue(result.get(10, TimeUnit.SECONDS));
+        assertEquals(2, task.attempts.get());
+    }
+}
@@ -0,0 +1,135 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * {@link ExecutionMode#VIRTUAL} のエンジンがタスクを仮想スレッドで実行し、同時実行数を上限で抑えることを確かめます。
+ */
+class TaskEngineVirtualTest {
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicBoolean ranOnPlatformThread = new AtomicBoolean();
+    private final AtomicBoolean ranOnVirtualThread = new AtomicBoolean();
+    /** テストが開くまで、実行中のタスクを止めておく門 */
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private TaskEngine engine;
+
+    /** 門が開くまで待つ、ブロッキングI/Oの代わりのタスクです。 */
+    private final class BlockingTask implements Task {
+        @Override
+        public Boolean call() throws InterruptedException {
+            (Thread.currentThread().isVirtual() ? ranOnVirtualThread : ranOnPlatformThread).set(true);
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                return gate.await(10, TimeUnit.SECONDS);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return LogLevel.INFO.getValue();
+        }
+
+        @Override
+        public void setLogger(Consumer<String> logger) {
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        engine.stop();
+    }
+
+    private List<CompletableFuture<Boolean>> run(int tasks) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            results.add(engine.addTask(new BlockingTask()));
+        }
+        engine.executeAll(_ -> { });
+        return results;
+    }
+
+    /** 実行中のタスクが {@code expected} 件になるまで待ちます。 */
+    private void awaitActive(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (active.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, active.get());
+    }
+
+    @Test
+    void runsTasksOnVirtualThreadsUpToTheLimit() throws Exception {
+        engine = new TaskEngine(ExecutionMode.VIRTUAL, 4);
+        List<CompletableFuture<Boolean>> results = run(40);
+
+        awaitActive(4);
+        Thread.sleep(100);
+        assertEquals(4, active.get(), "more tasks started than the in-flight limit");
+        assertEquals(4, engine.getBusySlots());
+        assertEquals(4, engine.getRunning());
+
+        gate.countDown();
+        for (CompletableFuture<Boolean> result : results) {
+            assertEquals(Boolean.TRUE, result.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(ranOnVirtualThread.get());
+        assertFalse(ranOnPlatformThread.get(), "a task ran on a platform thread");
+        assertEquals(4, peak.get());
+    }
+
+    @Test
+    void thousandsOfBlockedChecksDoNotNeedAnOsThreadEach() throws Exception {
+        int tasks = 5_000;
+        engine = new TaskEngine(ExecutionMode.VIRTUAL, tasks);
+        int threadsBefore = Thread.activeCount();
+        List<CompletableFuture<Boolean>> results = run(tasks);
+
+        awaitActive(tasks);
+        // activeCount only sees platform threads; the carriers are bounded by the CPU count
+        assertTrue(Thread.activeCount() - threadsBefore < 200,
+                "platform threads grew by " + (Thread.activeCount() - threadsBefore));
+
+        gate.countDown();
+        for (CompletableFuture<Boolean> result : results) {
+            assertEquals(Boolean.TRUE, result.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void thePlatformModeKeepsItsFixedPool() throws Exception {
+        engine = new TaskEngine(ExecutionMode.PLATFORM, 3);
+        List<CompletableFuture<Boolean>> results = run(10);
+
+        awaitActive(3);
+        Thread.sleep(100);
+        assertEquals(3, active.get());
+
+        gate.countDown();
+        for (CompletableFuture<Boolean> result : results) {
+            assertEquals(Boolean.TRUE, result.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(ranOnPlatformThread.get());
+        assertFalse(ranOnVirtualThread.get());
+    }
+}
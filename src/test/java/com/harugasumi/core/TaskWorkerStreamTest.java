@@ -0,0 +1,176 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.harugasumi.model.LogLevel;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link TaskWorker} のストリーミング読み込みが、未完了のチェックを {@code maxBuffered} 件までに抑え、
+ * 重複を投入しないことをループバックのHTTPサーバーで確かめます。
+ */
+class TaskWorkerStreamTest {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private TaskEngine engine;
+    private TaskWorker worker;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicBoolean firstServed = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<String> paths = new ConcurrentLinkedQueue<>();
+    /** テストが開くまで、サーバーが応答を返さずに待つ門 */
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(handlers);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                paths.add(exchange.getRequestURI().getPath());
+                if (firstServed.compareAndSet(false, true)) {
+                    // ConnectionManager sends one request alone to learn the connection type; let it through
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    active.decrementAndGet();
+                }
+                exchange.sendResponseHeaders(200, -1);
+            }
+        });
+        server.start();
+        engine = new TaskEngine(ExecutionMode.VIRTUAL, 100);
+        worker = new TaskWorker(engine);
+    }
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        worker.stop();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void awaitActive(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (active.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, active.get());
+    }
+
+    @Test
+    void keepsNoMoreThanMaxBufferedChecksOutstanding() throws Exception {
+        int targets = 30;
+        int maxBuffered = 5;
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < targets; i++) {
+            lines.append("INFO=").append(url("/t/" + i)).append('\n');
+        }
+        CompletableFuture<Integer> streamed = CompletableFuture.supplyAsync(() -> {
+            try (BufferedReader in = new BufferedReader(new StringReader(lines.toString()))) {
+                return worker.streamLines(in, null, maxBuffered, LogLevel.INFO);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        awaitActive(maxBuffered);
+        Thread.sleep(200);
+        // the reader is parked on the window, not piling tasks into the engine
+        assertEquals(maxBuffered, active.get());
+        assertTrue(engine.getQueued() + engine.getRunning() <= maxBuffered,
+                "queued " + engine.getQueued() + ", running " + engine.getRunning());
+        assertFalse(streamed.isDone(), "the whole list was read while the window was full");
+
+        gate.countDown();
+        assertEquals(targets, streamed.get(10, TimeUnit.SECONDS));
+        engine.waitForCompletion(10, TimeUnit.SECONDS);
+        assertEquals(targets, paths.size());
+        assertEquals(targets, engine.getStats().online());
+        assertEquals(maxBuffered, peak.get());
+    }
+
+    @Test
+    void skipsDuplicatesButResubmitsATargetSeenAgainAtAHigherLevel() throws Exception {
+        gate.countDown();
+        String text = String.join("\n",
+                "INFO=" + url("/a"),
+                "INFO=" + url("/a/"),
+                "# a comment",
+                "WARNING=" + url("/b"),
+                url("/b"), // plain URL at the default level
+                "CRITICAL=" + url("/a"));
+
+        int submitted;
+        try (BufferedReader in = new BufferedReader(new StringReader(text))) {
+            submitted = worker.streamLines(in, null, 10, LogLevel.INFO);
+        }
+        engine.waitForCompletion(10, TimeUnit.SECONDS);
+
+        assertEquals(3, submitted);
+        List<String> seen = new ArrayList<>(paths);
+        seen.sort(null);
+        assertEquals(List.of("/a", "/a", "/b"), seen);
+    }
+
+    @Test
+    void streamsJsonAndBinarySessionFiles() throws Exception {
+        gate.countDown();
+        List<LinkEntries> entries = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            entries.add(new LinkEntries(i % 2 == 0 ? "INFO" : "critical", url("/s/" + i)));
+        }
+        entries.add(new LinkEntries("URGENT", url("/bad-level")));
+        Path binary = dir.resolve("session.bin");
+        SessionCodec.writeBinary(entries, binary);
+        File json = dir.resolve("session.json").toFile();
+        new com.fasterxml.jackson.databind.ObjectMapper().writeValue(json, entries);
+
+        assertEquals(12, worker.streamTasks(binary.toFile(), null, 4));
+        engine.waitForCompletion(10, TimeUnit.SECONDS);
+        assertEquals(12, worker.streamTasks(json, null, 4));
+        engine.waitForCompletion(10, TimeUnit.SECONDS);
+
+        assertEquals(24, paths.size());
+    }
+}
@@ -0,0 +1,89 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+
+/**
+ * {@link TaskWorker#collectLines} による対象リストの行の解釈を確かめます。画面の一括インポートも同じ解釈です。
+ */
+class TaskWorkerTest {
+
+    private TaskEngine engine;
+    private TaskWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        engine = new TaskEngine();
+        worker = new TaskWorker(engine);
+    }
+
+    @AfterEach
+    void tearDown() {
+        worker.stop();
+    }
+
+    private List<String> collect(String text, LogLevel defaultLevel) throws IOException {
+        List<String> out = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new StringReader(text))) {
+            worker.collectLines(in, defaultLevel).forEach((level, url) -> out.add(level + " " + url));
+        }
+        return out;
+    }
+
+    @Test
+    void readsLevelsPlainUrlsAndSkipsCommentsAndBlanks() throws IOException {
+        String text = """
+                # targets
+                CRITICAL=https://a.test/
+                  warning = b.test/status
+
+                c.test
+                """;
+
+        assertEquals(List.of("CRITICAL https://a.test/", "WARNING https://b.test/status", "INFO https://c.test/"),
+                collect(text, LogLevel.INFO));
+    }
+
+    @Test
+    void treatsAnEqualsSignInsideTheUrlAsPartOfTheUrl() throws IOException {
+        String text = """
+                https://a.test/search?q=1
+                d.test/path?x=y
+                """;
+
+        assertEquals(List.of("WARNING https://a.test/search?q=1", "WARNING https://d.test/path?x=y"),
+                collect(text, LogLevel.WARNING));
+    }
+
+    @Test
+    void keepsTheHighestLevelForADuplicateUrl() throws IOException {
+        String text = """
+                INFO=https://a.test
+                CRITICAL=a.test/
+                WARNING=https://A.test/
+                """;
+
+        assertEquals(List.of("CRITICAL https://a.test/"), collect(text, LogLevel.INFO));
+    }
+
+    @Test
+    void skipsLinesWithAnUnknownLevel() throws IOException {
+        String text = """
+                URGENT=https://a.test/
+                INFO=https://b.test/
+                """;
+
+        assertEquals(List.of("INFO https://b.test/"), collect(text, LogLevel.INFO));
+    }
+}
@@ -0,0 +1,129 @@
+package com.harugasumi.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.ScanResult;
+import com.harugasumi.model.StatusClass;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link TcpProbeTask} が接続できたURLにだけHEADを送り、接続できなかった場合は接続タイムアウトも含めて
+ * {@link StatusClass#NETWORK_ERROR} にすることを確かめます。
+ */
+class TcpProbeTaskTest {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofMillis(300);
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private final AtomicInteger heads = new AtomicInteger();
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (server != null) {
+            server.stop(0);
+        }
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+    }
+
+    private String startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                heads.incrementAndGet();
+                exchange.sendResponseHeaders(204, -1);
+            }
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private static String url(InetSocketAddress address) {
+        return "http://127.0.0.1:" + address.getPort() + "/";
+    }
+
+    private static TcpProbeTask task(String url) {
+        TcpProbeTask task = new TcpProbeTask(new HttpCheckTask(LogLevel.CRITICAL, url), CONNECT_TIMEOUT);
+        task.setLogger(_ -> { });
+        return task;
+    }
+
+    @Test
+    void sendsTheHeadRequestOnceTheHostAcceptsAConnection() throws Exception {
+        String url = startServer();
+        TcpProbeTask task = task(url);
+
+        assertTrue(task.call());
+        assertEquals(1, heads.get());
+        assertEquals(StatusClass.SUCCESS, task.getLastResult().statusClass());
+        assertEquals(204, task.getLastResult().statusCode());
+
+        assertTrue(task(url).callAsync().get(10, TimeUnit.SECONDS));
+        assertEquals(2, heads.get());
+    }
+
+    @Test
+    void reportsARefusedConnectionAsANetworkError() throws Exception {
+        TcpProbeTask task = task(url(ConnectProbeTest.refused()));
+
+        assertFalse(task.call());
+        ScanResult result = task.getLastResult();
+        assertEquals(StatusClass.NETWORK_ERROR, result.statusClass());
+        assertEquals("ConnectException", result.errorClass());
+        assertEquals(LogLevel.CRITICAL, result.level());
+    }
+
+    @Test
+    void reportsAConnectTimeoutAsANetworkErrorWithoutWaitingForTheHeadTimeout() throws Exception {
+        String url = url(ConnectProbeTest.blackhole(resources));
+        TcpProbeTask blocking = task(url);
+        long begin = System.nanoTime();
+        assertFalse(blocking.call());
+        assertConnectTimedOut(blocking, begin);
+
+        TcpProbeTask async = task(url);
+        begin = System.nanoTime();
+        assertFalse(async.callAsync().get(10, TimeUnit.SECONDS));
+        assertConnectTimedOut(async, begin);
+    }
+
+    private static void assertConnectTimedOut(TcpProbeTask task, long begin) {
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        ScanResult result = task.getLastResult();
+        // not TIMEOUT: a dead host is no sign of congestion for the AdaptiveController
+        assertEquals(StatusClass.NETWORK_ERROR, result.statusClass());
+        assertEquals("SocketTimeoutException", result.errorClass());
+        // the HEAD timeout is 3 s; the probe gives up after its own 300 ms
+        assertTrue(tookMillis < 2_000, "took " + tookMillis + " ms");
+    }
+
+    @Test
+    void cutsTheConnectTimeoutShortAtTheScanDeadline() throws Exception {
+        String url = url(ConnectProbeTest.blackhole(resources));
+        TcpProbeTask task = new TcpProbeTask(new HttpCheckTask(LogLevel.INFO, url), Duration.ofSeconds(30));
+        task.setLogger(_ -> { });
+        task.setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+
+        long begin = System.nanoTime();
+        assertFalse(task.call());
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(5));
+        assertEquals("SocketTimeoutException", task.getLastResult().errorClass());
+    }
+}
@@ -0,0 +1,184 @@
+package com.harugasumi.domaincheckapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link HeadlessRunner} を別のJVMで起動し、標準出力のNDJSONの形と終了コードを確かめます。
+ * <p>
+ * 結果は {@link java.io.FileDescriptor#out} に直接書かれるため、このプロセスの中では受け取れません。
+ * </p>
+ */
+class HeadlessRunnerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    /** {@code /slow} への応答を止めておくラッチ。後始末で開けます */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.sendResponseHeaders(200, -1);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try (exchange) {
+                release.await(30, TimeUnit.SECONDS);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /** 実行結果。{@code lines} は標準出力の各行をJSONとして読んだもの */
+    private record Run(int exitCode, List<JsonNode> lines) {
+    }
+
+    private Run run(List<String> targets, String... options) throws Exception {
+        return run(Files.write(dir.resolve("targets.txt"), targets, StandardCharsets.UTF_8), options);
+    }
+
+    private Run run(Path list, String... options) throws Exception {
+        Path out = dir.resolve("out.ndjson");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // keep --enable-preview when the tests themselves run with it
+        if (ManagementFactory.getRuntimeMXBean().getInputArguments().contains("--enable-preview")) {
+            command.add("--enable-preview");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add("--headless");
+        command.addAll(List.of(options));
+        command.add(list.toString());
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(out.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS), "runner did not finish");
+
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(out, StandardCharsets.UTF_8)) {
+            lines.add(MAPPER.readTree(line));
+        }
+        return new Run(process.exitValue(), lines);
+    }
+
+    private static int refusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    void writesOneJsonLinePerCheckAndExitsWithZeroWhenAllResponded() throws Exception {
+        Run run = run(List.of("CRITICAL=" + url("/a"), url("/b"), "WARNING=" + url("/c")),
+                "--http=1.1", "--timeout=30");
+
+        assertEquals(HeadlessRunner.EXIT_OK, run.exitCode());
+        assertEquals(3, run.lines().size());
+        Map<String, JsonNode> byUrl = new HashMap<>();
+        for (JsonNode line : run.lines()) {
+            byUrl.put(line.get("url").asText(), line);
+        }
+        JsonNode critical = byUrl.get(url("/a"));
+        assertEquals("CRITICAL", critical.get("level").asText());
+        assertEquals(200, critical.get("status").asInt());
+        assertEquals("SUCCESS", critical.get("class").asText());
+        assertTrue(critical.get("latencyMs").isNumber());
+        assertEquals(0, critical.get("redirects").asInt());
+        assertFalse(critical.has("error"));
+        // lines without a level take --level, which defaults to INFO
+        assertEquals("INFO", byUrl.get(url("/b")).get("level").asText());
+        assertEquals("WARNING", byUrl.get(url("/c")).get("level").asText());
+    }
+
+    @Test
+    void exitsWithOneAndNamesTheErrorWhenACheckGetsNoResponse() throws Exception {
+        String refused = "http://127.0.0.1:" + refusedPort() + "/";
+        Run run = run(List.of(url("/ok"), refused), "--http=1.1", "--timeout=30");
+
+        assertEquals(HeadlessRunner.EXIT_FAILURES, run.exitCode());
+        assertEquals(2, run.lines().size());
+        JsonNode failed = run.lines().stream()
+                .filter(line -> line.get("url").asText().equals(refused))
+                .findFirst().orElseThrow();
+        assertEquals("NETWORK_ERROR", failed.get("class").asText());
+        assertTrue(failed.has("error"));
+    }
+
+    @Test
+    void exitsWithThreeWhenTheTimeoutCancelsChecks() throws Exception {
+        Run run = run(List.of(url("/slow/1"), url("/slow/2"), url("/slow/3")),
+                "--http=1.1", "--timeout=1", "--max-in-flight=1");
+
+        assertEquals(HeadlessRunner.EXIT_TIMEOUT, run.exitCode());
+        assertTrue(run.lines().stream().anyMatch(line -> line.get("class").asText().equals("CANCELLED")));
+    }
+
+    @Test
+    void exitsWithTwoOnBadArguments() {
+        assertEquals(HeadlessRunner.EXIT_USAGE, HeadlessRunner.run(new String[] { "--headless", "--no-such=1" }));
+        assertEquals(HeadlessRunner.EXIT_USAGE, HeadlessRunner.run(new String[] { "--max-in-flight=0" }));
+        assertEquals(HeadlessRunner.EXIT_USAGE, HeadlessRunner.run(new String[] { "--timeout" }));
+    }
+
+    @Test
+    void exitsWithTwoWhenTheListIsMissing() throws Exception {
+        Run run = run(dir.resolve("missing.txt"), "--timeout=30");
+
+        assertEquals(HeadlessRunner.EXIT_USAGE, run.exitCode());
+        assertTrue(run.lines().isEmpty());
+    }
+}
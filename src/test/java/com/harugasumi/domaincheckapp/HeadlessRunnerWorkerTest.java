@@ -0,0 +1,76 @@
+package com.harugasumi.domaincheckapp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.harugasumi.core.ShardCoordinator;
+import com.harugasumi.core.TargetTable;
+import com.harugasumi.core.TaskEngine;
+import com.harugasumi.model.LogLevel;
+import com.harugasumi.model.StatusClass;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 本物のワーカー（{@code --worker}）をこのプロセスの中で起動し、ループバックのコーディネーターとHTTPサーバーで通しで確かめます。
+ */
+class HeadlessRunnerWorkerTest {
+
+    private static final int TARGETS = 20;
+    private static final int WORKER_TIMEOUT_SECONDS = 2;
+
+    private HttpServer server;
+    private TaskEngine engine;
+    private ShardCoordinator coordinator;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                exchange.sendResponseHeaders(200, -1);
+            }
+        });
+        server.start();
+        engine = new TaskEngine();
+        coordinator = new ShardCoordinator(engine, null, 0);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        coordinator.close();
+        engine.stop();
+        server.stop(0);
+    }
+
+    @Test
+    void workerThatJoinsEarlyStillChecksItsTargets() throws Exception {
+        CompletableFuture<Integer> exit = CompletableFuture.supplyAsync(() -> HeadlessRunner.run(new String[] {
+                "--headless", "--worker=" + coordinator.getPort(), "--timeout=" + WORKER_TIMEOUT_SECONDS,
+                "--http=1.1" }));
+
+        // the other workers are slow to join: the targets arrive after the worker's whole --timeout has passed
+        TimeUnit.SECONDS.sleep(WORKER_TIMEOUT_SECONDS + 1);
+        coordinator.awaitWorkers(1, Duration.ofSeconds(5));
+        TargetTable targets = new TargetTable();
+        for (int i = 0; i < TARGETS; i++) {
+            targets.add(LogLevel.INFO, "http://127.0.0.1:" + server.getAddress().getPort() + "/t/" + i);
+        }
+
+        assertTrue(coordinator.run(targets, Duration.ofSeconds(30)));
+
+        assertEquals(TARGETS, engine.getStats().online());
+        assertEquals(0, engine.getStats().count(StatusClass.CANCELLED));
+        assertEquals(HeadlessRunner.EXIT_OK, exit.get(30, TimeUnit.SECONDS));
+    }
+}